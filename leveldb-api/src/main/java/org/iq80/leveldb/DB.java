@@ -18,6 +18,7 @@
 package org.iq80.leveldb;
 
 import java.io.Closeable;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -32,6 +33,36 @@ public interface DB
     byte[] get(byte[] key, ReadOptions options)
             throws DBException;
 
+    /**
+     * Looks up all the keys against a single view of the database, reading
+     * each table block needed by several of the keys only once.
+     *
+     * Implementations without batched lookups throw
+     * {@link UnsupportedOperationException}.
+     *
+     * @return the values in the order of the keys, with null for keys that
+     * are not found
+     */
+    default List<byte[]> multiGet(List<byte[]> keys, ReadOptions options)
+            throws DBException
+    {
+        throw new UnsupportedOperationException("multiGet is not supported");
+    }
+
+    /**
+     * Scans the range [start, limit) of a single view of the database with
+     * up to {@code parallelism} threads.  The range is split into partitions
+     * of about the same size at table file boundaries, and each partition is
+     * scanned in key order.  Returns once every partition has been scanned.
+     * Implementations without parallel scans throw
+     * {@link UnsupportedOperationException}.
+     */
+    default void parallelScan(Range range, ReadOptions options, int parallelism, ScanConsumer consumer)
+            throws DBException
+    {
+        throw new UnsupportedOperationException("parallelScan is not supported");
+    }
+
     @Override
     DBIterator iterator();
 
@@ -46,6 +77,29 @@ public interface DB
     void write(WriteBatch updates)
             throws DBException;
 
+    /**
+     * Records an operand to be combined with the current value of the key by
+     * the configured {@link MergeOperator}, without reading the value.
+     * Implementations without merge support throw
+     * {@link UnsupportedOperationException}.
+     */
+    default void merge(byte[] key, byte[] value)
+            throws DBException
+    {
+        throw new UnsupportedOperationException("merge is not supported");
+    }
+
+    /**
+     * Deletes every key in the range [begin, end), without reading the keys.
+     * Implementations without range deletion support throw
+     * {@link UnsupportedOperationException}.
+     */
+    default void deleteRange(byte[] begin, byte[] end)
+            throws DBException
+    {
+        throw new UnsupportedOperationException("deleteRange is not supported");
+    }
+
     WriteBatch createWriteBatch();
 
     /**
@@ -69,6 +123,26 @@ public interface DB
     Snapshot write(WriteBatch updates, WriteOptions options)
             throws DBException;
 
+    /**
+     * @return null if options.isSnapshot()==false otherwise returns a snapshot
+     * of the DB after this operation.
+     */
+    default Snapshot merge(byte[] key, byte[] value, WriteOptions options)
+            throws DBException
+    {
+        throw new UnsupportedOperationException("merge is not supported");
+    }
+
+    /**
+     * @return null if options.isSnapshot()==false otherwise returns a snapshot
+     * of the DB after this operation.
+     */
+    default Snapshot deleteRange(byte[] begin, byte[] end, WriteOptions options)
+            throws DBException
+    {
+        throw new UnsupportedOperationException("deleteRange is not supported");
+    }
+
     Snapshot getSnapshot();
 
     long[] getApproximateSizes(Range... ranges);
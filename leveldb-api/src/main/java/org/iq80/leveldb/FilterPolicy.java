@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+import java.util.List;
+
+/**
+ * Builds a small summary of the keys of a range of table data that can tell
+ * that a key is absent without reading the data, such as a bloom filter.
+ * Filters are stored in the tables, so the name must change whenever the
+ * encoding of the filters changes.
+ */
+public interface FilterPolicy
+{
+    String name();
+
+    /**
+     * Returns a filter summarizing the keys, which are ordered by the
+     * comparator and may contain duplicates.
+     */
+    byte[] createFilter(List<byte[]> keys);
+
+    /**
+     * Returns false if the key was certainly not among the keys the filter
+     * was created from.  May return true for keys that were not.
+     */
+    boolean keyMayMatch(byte[] key, byte[] filter);
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+import java.util.List;
+
+/**
+ * Combines the merge operands written with {@link DB#merge(byte[], byte[])}
+ * into a value.  Operands are combined lazily, when the key is read or when
+ * its entries are compacted.
+ */
+public interface MergeOperator
+{
+    String name();
+
+    /**
+     * Applies the operands, oldest first, to the existing value.
+     *
+     * @param existingValue the value the operands apply to, or null if the
+     * key does not exist or was deleted
+     */
+    byte[] fullMerge(byte[] key, byte[] existingValue, List<byte[]> operands);
+
+    /**
+     * Combines two adjacent operands into a single operand, so compactions can
+     * shrink long runs of operands before the base value is known.
+     *
+     * @return the combined operand, or null if the operands cannot be combined
+     */
+    byte[] partialMerge(byte[] key, byte[] olderOperand, byte[] newerOperand);
+}
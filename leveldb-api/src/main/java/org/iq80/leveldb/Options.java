@@ -31,8 +31,19 @@ public class Options
     private boolean verifyChecksums = true;
     private boolean paranoidChecks;
     private DBComparator comparator;
+    private MergeOperator mergeOperator;
+    private FilterPolicy filterPolicy;
+    private PrefixExtractor prefixExtractor;
+    private boolean learnedIndex;
     private Logger logger;
     private long cacheSize;
+    private long rowCacheSize;
+    private long logSyncInterval;
+    private long logSyncBytes;
+    private int blobValueThreshold;
+    private double blobGarbageRatio = 0.5;
+    private boolean preloadTables;
+    private int maxBackgroundCompactions = 1;
 
     static void checkArgNotNull(Object value, String name)
     {
@@ -141,6 +152,131 @@ public class Options
         return this;
     }
 
+    public long rowCacheSize()
+    {
+        return rowCacheSize;
+    }
+
+    /**
+     * Size in bytes of a cache of the values found by point lookups in the
+     * tables, so that hot keys are served without searching a block.  Zero
+     * disables the row cache.
+     */
+    public Options rowCacheSize(long rowCacheSize)
+    {
+        this.rowCacheSize = rowCacheSize;
+        return this;
+    }
+
+    /**
+     * Maximum time in milliseconds a log write may stay unsynced when the
+     * background log syncer is enabled; zero disables the time trigger.
+     */
+    public long logSyncInterval()
+    {
+        return logSyncInterval;
+    }
+
+    public Options logSyncInterval(long logSyncInterval)
+    {
+        if (logSyncInterval < 0) {
+            throw new IllegalArgumentException("logSyncInterval is negative");
+        }
+        this.logSyncInterval = logSyncInterval;
+        return this;
+    }
+
+    /**
+     * Number of unsynced log bytes after which the background log syncer
+     * syncs the log; zero disables the size trigger.
+     */
+    public long logSyncBytes()
+    {
+        return logSyncBytes;
+    }
+
+    public Options logSyncBytes(long logSyncBytes)
+    {
+        if (logSyncBytes < 0) {
+            throw new IllegalArgumentException("logSyncBytes is negative");
+        }
+        this.logSyncBytes = logSyncBytes;
+        return this;
+    }
+
+    /**
+     * Values of at least this many bytes are written once to append-only
+     * blob files when the memtable is flushed, and the tables only hold a
+     * pointer to them, so compactions do not rewrite large values.  Zero
+     * keeps all values in the tables.
+     */
+    public int blobValueThreshold()
+    {
+        return blobValueThreshold;
+    }
+
+    public Options blobValueThreshold(int blobValueThreshold)
+    {
+        if (blobValueThreshold < 0) {
+            throw new IllegalArgumentException("blobValueThreshold is negative");
+        }
+        this.blobValueThreshold = blobValueThreshold;
+        return this;
+    }
+
+    /**
+     * Share of a blob file that has to be garbage before compactions move
+     * its live values to a new blob file, so the old one can be deleted.
+     */
+    public double blobGarbageRatio()
+    {
+        return blobGarbageRatio;
+    }
+
+    public Options blobGarbageRatio(double blobGarbageRatio)
+    {
+        if (blobGarbageRatio <= 0 || blobGarbageRatio > 1) {
+            throw new IllegalArgumentException("blobGarbageRatio must be greater than 0 and at most 1");
+        }
+        this.blobGarbageRatio = blobGarbageRatio;
+        return this;
+    }
+
+    public boolean preloadTables()
+    {
+        return preloadTables;
+    }
+
+    /**
+     * Opens the live tables, as many as the table cache holds, in parallel
+     * when the database is opened, so their index and filter blocks are
+     * loaded before the first reads instead of on them.
+     */
+    public Options preloadTables(boolean preloadTables)
+    {
+        this.preloadTables = preloadTables;
+        return this;
+    }
+
+    public int maxBackgroundCompactions()
+    {
+        return maxBackgroundCompactions;
+    }
+
+    /**
+     * Number of compactions that may run at the same time.  Concurrent
+     * compactions work on different files and key ranges; level-0
+     * compactions still run one at a time.
+     */
+    public Options maxBackgroundCompactions(int maxBackgroundCompactions)
+    {
+        if (maxBackgroundCompactions < 1) {
+            throw new IllegalArgumentException("maxBackgroundCompactions must be at least 1");
+        }
+        this.maxBackgroundCompactions = maxBackgroundCompactions;
+        return this;
+    }
+
     public DBComparator comparator()
     {
         return comparator;
@@ -152,6 +288,66 @@ public class Options
         return this;
     }
 
+    public MergeOperator mergeOperator()
+    {
+        return mergeOperator;
+    }
+
+    public Options mergeOperator(MergeOperator mergeOperator)
+    {
+        this.mergeOperator = mergeOperator;
+        return this;
+    }
+
+    public FilterPolicy filterPolicy()
+    {
+        return filterPolicy;
+    }
+
+    /**
+     * Filter used to skip tables that cannot contain a key on lookups, for
+     * example {@code new BloomFilterPolicy(10)}.  Null disables filters.
+     */
+    public Options filterPolicy(FilterPolicy filterPolicy)
+    {
+        this.filterPolicy = filterPolicy;
+        return this;
+    }
+
+    public PrefixExtractor prefixExtractor()
+    {
+        return prefixExtractor;
+    }
+
+    /**
+     * Extractor of key prefixes for prefix-bounded iteration.  With a
+     * filter policy, the prefixes are added to the table filters.
+     */
+    public Options prefixExtractor(PrefixExtractor prefixExtractor)
+    {
+        this.prefixExtractor = prefixExtractor;
+        return this;
+    }
+
+    public boolean learnedIndex()
+    {
+        return learnedIndex;
+    }
+
+    /**
+     * Stores a learned index in every new table: a small piecewise linear
+     * model from the leading eight bytes of a key, read as a big endian
+     * number, to the data block that holds it, so point lookups search a
+     * few index entries instead of the whole index.  Pays off for fixed
+     * width numeric keys, such as big endian encoded longs.  Ignored with a
+     * custom comparator.
+     */
+    public Options learnedIndex(boolean learnedIndex)
+    {
+        this.learnedIndex = learnedIndex;
+        return this;
+    }
+
     public Logger logger()
     {
         return logger;
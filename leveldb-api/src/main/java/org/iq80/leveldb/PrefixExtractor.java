@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * Extracts the prefix of a key, such as the tenant of a
+ * {@code tenant:entity:ts} key.  When set, table filters also record the
+ * prefixes of their keys, so that iterators reading with
+ * {@link ReadOptions#prefixSameAsStart(boolean)} can skip tables holding
+ * no key with the prefix they seek to.  Filters are stored in the tables,
+ * so the name must change whenever the extracted prefixes change.
+ */
+public interface PrefixExtractor
+{
+    String name();
+
+    /**
+     * Returns the prefix of a key in the domain of this extractor.  Keys
+     * with the same prefix must be ordered next to each other by the
+     * comparator, and the prefix must be a leading part of the key.
+     */
+    byte[] transform(byte[] key);
+
+    /**
+     * Returns true if the key has a prefix, for example because it is long
+     * enough.
+     */
+    boolean inDomain(byte[] key);
+}
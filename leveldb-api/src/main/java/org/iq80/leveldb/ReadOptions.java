@@ -21,6 +21,9 @@ public class ReadOptions
 {
     private boolean verifyChecksums;
     private boolean fillCache = true;
+    private boolean prefixSameAsStart;
+    private byte[] iterateLowerBound;
+    private byte[] iterateUpperBound;
     private Snapshot snapshot;
 
     public Snapshot snapshot()
@@ -45,6 +48,55 @@ public class ReadOptions
         return this;
     }
 
+    public boolean prefixSameAsStart()
+    {
+        return prefixSameAsStart;
+    }
+
+    /**
+     * Ends iteration at the first key whose prefix differs from the prefix
+     * of the key seeked to, so tables without that prefix can be skipped.
+     * Requires a {@link Options#prefixExtractor(PrefixExtractor) prefix
+     * extractor}; has no effect on iteration from the first key.
+     */
+    public ReadOptions prefixSameAsStart(boolean prefixSameAsStart)
+    {
+        this.prefixSameAsStart = prefixSameAsStart;
+        return this;
+    }
+
+    public byte[] iterateLowerBound()
+    {
+        return iterateLowerBound;
+    }
+
+    /**
+     * Limits iteration to keys greater than or equal to the bound.  Seeks
+     * before the bound land on it, and tables whose keys all come before
+     * it are not opened.  Null, the default, leaves the start unbounded.
+     */
+    public ReadOptions iterateLowerBound(byte[] iterateLowerBound)
+    {
+        this.iterateLowerBound = iterateLowerBound;
+        return this;
+    }
+
+    public byte[] iterateUpperBound()
+    {
+        return iterateUpperBound;
+    }
+
+    /**
+     * Limits iteration to keys less than the bound.  Iteration ends at the
+     * bound without reading the blocks and tables after it.  Null, the
+     * default, leaves the end unbounded.
+     */
+    public ReadOptions iterateUpperBound(byte[] iterateUpperBound)
+    {
+        this.iterateUpperBound = iterateUpperBound;
+        return this;
+    }
+
     public boolean verifyChecksums()
     {
         return verifyChecksums;
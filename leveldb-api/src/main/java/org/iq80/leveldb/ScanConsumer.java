@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * Receives the entries of a {@link DB#parallelScan(Range, ReadOptions, int, ScanConsumer)}.
+ * Partitions are scanned concurrently, so the consumer must be thread safe,
+ * but the entries of one partition are delivered by a single thread in key
+ * order.
+ */
+public interface ScanConsumer
+{
+    /**
+     * @param partition index of the partition the entry belongs to; every key
+     * of a partition sorts before the keys of the partitions after it
+     */
+    void accept(int partition, byte[] key, byte[] value);
+}
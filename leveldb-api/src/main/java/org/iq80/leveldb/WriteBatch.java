@@ -28,4 +28,22 @@ public interface WriteBatch
     WriteBatch put(byte[] key, byte[] value);
 
     WriteBatch delete(byte[] key);
+
+    /**
+     * Implementations without merge support throw
+     * {@link UnsupportedOperationException}.
+     */
+    default WriteBatch merge(byte[] key, byte[] value)
+    {
+        throw new UnsupportedOperationException("merge is not supported");
+    }
+
+    /**
+     * Deletes every key in the range [begin, end).  Implementations without
+     * range deletion support throw {@link UnsupportedOperationException}.
+     */
+    default WriteBatch deleteRange(byte[] begin, byte[] end)
+    {
+        throw new UnsupportedOperationException("deleteRange is not supported");
+    }
 }
@@ -21,6 +21,7 @@ public class WriteOptions
 {
     private boolean sync;
     private boolean snapshot;
+    private boolean waitForLogSync;
 
     public boolean sync()
     {
@@ -43,4 +44,20 @@ public class WriteOptions
         this.snapshot = snapshot;
         return this;
     }
+
+    /**
+     * If true, the write returns once the background log syncer has synced
+     * it to disk.  Concurrent waiters share a single sync.  Without a
+     * background syncer this behaves like {@link #sync(boolean)}.
+     */
+    public boolean waitForLogSync()
+    {
+        return waitForLogSync;
+    }
+
+    public WriteOptions waitForLogSync(boolean waitForLogSync)
+    {
+        this.waitForLogSync = waitForLogSync;
+        return this;
+    }
 }
@@ -31,6 +31,7 @@ import org.iq80.leveldb.WriteOptions;
 import org.iq80.leveldb.impl.DbImpl;
 import org.iq80.leveldb.util.Closeables;
 import org.iq80.leveldb.util.FileUtils;
+import org.iq80.leveldb.util.Crc32C;
 import org.iq80.leveldb.util.PureJavaCrc32C;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.SliceOutput;
@@ -46,6 +47,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -181,6 +183,9 @@ public class DbBenchmark
             else if (benchmark.equals("crc32c")) {
                 crc32c(4096, "(4k per op)");
             }
+            else if (benchmark.equals("crc32c-pure")) {
+                pureJavaCrc32c(4096, "(4k per op)");
+            }
             else if (benchmark.equals("acquireload")) {
                 acquireLoad();
             }
@@ -505,6 +510,31 @@ public class DbBenchmark
 
         }
 
+        long bytes = 0;
+        int crc = 0;
+        while (bytes < 1000 * 1048576) {
+            Checksum checksum = Crc32C.newChecksum();
+            checksum.update(data, 0, blockSize);
+            crc = Crc32C.getMaskedValue(checksum);
+            finishedSingleOp();
+            bytes += blockSize;
+        }
+        System.out.printf("... crc=0x%x\r", crc);
+
+        this.bytes = bytes;
+        // Print so result is not dead
+        this.message = message;
+    }
+
+    private void pureJavaCrc32c(int blockSize, String message)
+    {
+        // Checksum about 500MB of data total
+        byte[] data = new byte[blockSize];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 'x';
+
+        }
+
         long bytes = 0;
         int crc = 0;
         while (bytes < 1000 * 1048576) {
@@ -672,6 +702,7 @@ public class DbBenchmark
         //      readrandom    -- read N times in random order
         //      readhot       -- read N times in random order from 1% section of DB
         //      crc32c        -- repeated crc32c of 4K of data
+        //      crc32c-pure   -- crc32c with the table-driven PureJavaCrc32C, for comparison
         //      acquireload   -- load N*1000 times
         //   Meta operations:
         //      compact     -- Compact the entire DB
@@ -695,6 +726,7 @@ public class DbBenchmark
                 // "readreverse",
                 "fill100K",
                 // "crc32c",
+                // "crc32c-pure",
                 "snappycomp",
                 "unsnap-array",
                 "unsnap-direct"
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * One key of a multi get, carried through the memtables and levels along
+ * with its lookup state until a result is found.
+ */
+public class BatchedLookup
+{
+    private final int index;
+    private final LookupKey key;
+    private final LookupState state;
+    private LookupResult result;
+
+    /**
+     * @param index position of the key in the request
+     */
+    public BatchedLookup(int index, LookupKey key, LookupState state)
+    {
+        this.index = index;
+        this.key = requireNonNull(key, "key is null");
+        this.state = requireNonNull(state, "state is null");
+    }
+
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public LookupKey getKey()
+    {
+        return key;
+    }
+
+    public LookupState getState()
+    {
+        return state;
+    }
+
+    public LookupResult getResult()
+    {
+        return result;
+    }
+
+    public void setResult(LookupResult result)
+    {
+        this.result = result;
+    }
+
+    /**
+     * Returns true once a result has been found, after which older
+     * memtables and files are not searched.
+     */
+    public boolean isDone()
+    {
+        return result != null;
+    }
+}
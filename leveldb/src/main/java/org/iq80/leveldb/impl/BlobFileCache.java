@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import org.iq80.leveldb.util.Closeables;
+import org.iq80.leveldb.util.Crc32C;
+import org.iq80.leveldb.util.Slice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.Checksum;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+
+/**
+ * Open blob files, from which the values of {@link BlobIndex} entries are
+ * read with a single positional read each.
+ */
+public class BlobFileCache
+{
+    private final LoadingCache<Long, FileChannel> cache;
+    private final boolean verifyChecksums;
+
+    public BlobFileCache(final File databaseDir, int cacheSize, boolean verifyChecksums)
+    {
+        requireNonNull(databaseDir, "databaseDir is null");
+        checkArgument(cacheSize > 0, "cacheSize must be positive");
+        this.verifyChecksums = verifyChecksums;
+
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .removalListener(new RemovalListener<Long, FileChannel>()
+                {
+                    @Override
+                    public void onRemoval(RemovalNotification<Long, FileChannel> notification)
+                    {
+                        Closeables.closeQuietly(notification.getValue());
+                    }
+                })
+                .build(new CacheLoader<Long, FileChannel>()
+                {
+                    @Override
+                    public FileChannel load(Long fileNumber)
+                            throws IOException
+                    {
+                        return new FileInputStream(new File(databaseDir, Filename.blobFileName(fileNumber))).getChannel();
+                    }
+                });
+    }
+
+    /**
+     * Reads the value the blob index points to.
+     */
+    public Slice get(BlobIndex blobIndex)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(blobIndex.getSize() + SIZE_OF_INT);
+        while (true) {
+            FileChannel channel = getChannel(blobIndex.getFileNumber());
+            try {
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, blobIndex.getOffset() + buffer.position()) < 0) {
+                        throw new IOException("Could not read all the data");
+                    }
+                }
+                break;
+            }
+            catch (ClosedChannelException e) {
+                // the file was evicted by another reader; open it again
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Could not read " + blobIndex, e);
+            }
+        }
+
+        Slice record = new Slice(buffer.array());
+        if (verifyChecksums) {
+            Checksum checksum = Crc32C.newChecksum();
+            checksum.update(buffer.array(), 0, blobIndex.getSize());
+            checkState(Crc32C.getMaskedValue(checksum) == record.getInt(blobIndex.getSize()), "Blob corrupted: checksum mismatch at %s", blobIndex);
+        }
+        return record.slice(0, blobIndex.getSize());
+    }
+
+    private FileChannel getChannel(long number)
+    {
+        try {
+            return cache.get(number);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e;
+            if (e.getCause() != null) {
+                cause = e.getCause();
+            }
+            throw new RuntimeException("Could not open blob file " + number, cause);
+        }
+    }
+
+    public void evict(long number)
+    {
+        cache.invalidate(number);
+    }
+
+    public void close()
+    {
+        cache.invalidateAll();
+    }
+}
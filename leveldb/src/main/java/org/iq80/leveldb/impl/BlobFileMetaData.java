@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A blob file of a version.  Sizes count the value bytes of the file only:
+ * once every value is garbage the file is no longer part of the version.
+ */
+public class BlobFileMetaData
+{
+    private final long number;
+
+    /**
+     * Bytes of all values in the file
+     */
+    private final long totalBytes;
+
+    /**
+     * Bytes of the values no table points to anymore
+     */
+    private final long garbageBytes;
+
+    public BlobFileMetaData(long number, long totalBytes, long garbageBytes)
+    {
+        checkArgument(totalBytes >= 0, "totalBytes is negative");
+        checkArgument(garbageBytes >= 0 && garbageBytes <= totalBytes, "garbageBytes must be between 0 and %s: %s", totalBytes, garbageBytes);
+        this.number = number;
+        this.totalBytes = totalBytes;
+        this.garbageBytes = garbageBytes;
+    }
+
+    public long getNumber()
+    {
+        return number;
+    }
+
+    public long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    public long getGarbageBytes()
+    {
+        return garbageBytes;
+    }
+
+    public double getGarbageRatio()
+    {
+        return totalBytes == 0 ? 1 : 1.0 * garbageBytes / totalBytes;
+    }
+
+    public boolean isObsolete()
+    {
+        return garbageBytes == totalBytes;
+    }
+
+    public BlobFileMetaData addGarbage(long bytes)
+    {
+        return new BlobFileMetaData(number, totalBytes, Math.min(totalBytes, garbageBytes + bytes));
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("BlobFileMetaData");
+        sb.append("{number=").append(number);
+        sb.append(", totalBytes=").append(totalBytes);
+        sb.append(", garbageBytes=").append(garbageBytes);
+        sb.append('}');
+        return sb.toString();
+    }
+}
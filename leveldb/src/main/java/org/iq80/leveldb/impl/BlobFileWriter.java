@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.util.Crc32C;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.SliceOutput;
+import org.iq80.leveldb.util.Slices;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+
+/**
+ * Appends values to a new blob file.  Each record is
+ * <pre>
+ *    key length: fixed32
+ *    value length: fixed32
+ *    key: uint8[key length]
+ *    value: uint8[value length]
+ *    masked crc32c of the value: fixed32
+ * </pre>
+ * The key makes the file readable on its own; readers only ever read the
+ * value and its checksum at the offset of the {@link BlobIndex}.  The file
+ * is created with the first value.
+ */
+public class BlobFileWriter
+        implements Closeable
+{
+    public static final int RECORD_HEADER_SIZE = SIZE_OF_INT + SIZE_OF_INT;
+
+    private final File file;
+    private final long fileNumber;
+    private FileChannel fileChannel;
+    private long position;
+    private long totalBytes;
+    private boolean closed;
+
+    public BlobFileWriter(File file, long fileNumber)
+    {
+        requireNonNull(file, "file is null");
+        this.file = file;
+        this.fileNumber = fileNumber;
+    }
+
+    public long getFileNumber()
+    {
+        return fileNumber;
+    }
+
+    /**
+     * Returns the bytes of the values added so far.
+     */
+    public long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    public long getFileSize()
+    {
+        return position;
+    }
+
+    public BlobIndex add(Slice key, Slice value)
+            throws IOException
+    {
+        checkState(!closed, "Blob file is closed");
+        if (fileChannel == null) {
+            fileChannel = new FileOutputStream(file).getChannel();
+        }
+
+        Slice header = Slices.allocate(RECORD_HEADER_SIZE);
+        SliceOutput headerOutput = header.output();
+        headerOutput.writeInt(key.length());
+        headerOutput.writeInt(value.length());
+
+        Checksum checksum = Crc32C.newChecksum();
+        checksum.update(value.getRawArray(), value.getRawOffset(), value.length());
+        Slice trailer = Slices.allocate(SIZE_OF_INT);
+        trailer.setInt(0, Crc32C.getMaskedValue(checksum));
+
+        ByteBuffer[] record = {header.toByteBuffer(), key.toByteBuffer(), value.toByteBuffer(), trailer.toByteBuffer()};
+        long recordSize = RECORD_HEADER_SIZE + key.length() + value.length() + SIZE_OF_INT;
+        long written = 0;
+        while (written < recordSize) {
+            written += fileChannel.write(record);
+        }
+
+        BlobIndex blobIndex = new BlobIndex(fileNumber, position + RECORD_HEADER_SIZE + key.length(), value.length());
+        position += recordSize;
+        totalBytes += value.length();
+        return blobIndex;
+    }
+
+    /**
+     * Forces the file to disk and closes it.
+     */
+    public void finish()
+            throws IOException
+    {
+        checkState(!closed, "Blob file is closed");
+        try {
+            if (fileChannel != null) {
+                fileChannel.force(true);
+            }
+        }
+        finally {
+            close();
+        }
+    }
+
+    /**
+     * Closes and deletes the file.
+     */
+    public void abandon()
+    {
+        try {
+            close();
+        }
+        catch (IOException ignored) {
+        }
+        file.delete();
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        if (!closed) {
+            closed = true;
+            if (fileChannel != null) {
+                fileChannel.close();
+            }
+        }
+    }
+}
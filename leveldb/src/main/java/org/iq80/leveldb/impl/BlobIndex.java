@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.util.DynamicSliceOutput;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.SliceInput;
+import org.iq80.leveldb.util.VariableLengthQuantity;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The table entry of a value stored in a blob file: the number of the blob
+ * file and the offset and size of the value in it.  Stored as the value of
+ * a {@link ValueType#BLOB_INDEX} entry.
+ */
+public class BlobIndex
+{
+    private final long fileNumber;
+    private final long offset;
+    private final int size;
+
+    public BlobIndex(long fileNumber, long offset, int size)
+    {
+        checkArgument(fileNumber >= 0, "fileNumber is negative");
+        checkArgument(offset >= 0, "offset is negative");
+        checkArgument(size >= 0, "size is negative");
+        this.fileNumber = fileNumber;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    public static BlobIndex decode(Slice slice)
+    {
+        SliceInput input = slice.input();
+        long fileNumber = VariableLengthQuantity.readVariableLengthLong(input);
+        long offset = VariableLengthQuantity.readVariableLengthLong(input);
+        int size = VariableLengthQuantity.readVariableLengthInt(input);
+        return new BlobIndex(fileNumber, offset, size);
+    }
+
+    public long getFileNumber()
+    {
+        return fileNumber;
+    }
+
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    public Slice encode()
+    {
+        DynamicSliceOutput output = new DynamicSliceOutput(20);
+        VariableLengthQuantity.writeVariableLengthLong(fileNumber, output);
+        VariableLengthQuantity.writeVariableLengthLong(offset, output);
+        VariableLengthQuantity.writeVariableLengthInt(size, output);
+        return output.slice();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        BlobIndex blobIndex = (BlobIndex) o;
+        return fileNumber == blobIndex.fileNumber && offset == blobIndex.offset && size == blobIndex.size;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = (int) (fileNumber ^ (fileNumber >>> 32));
+        result = 31 * result + (int) (offset ^ (offset >>> 32));
+        result = 31 * result + size;
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("BlobIndex");
+        sb.append("{fileNumber=").append(fileNumber);
+        sb.append(", offset=").append(offset);
+        sb.append(", size=").append(size);
+        sb.append('}');
+        return sb.toString();
+    }
+}
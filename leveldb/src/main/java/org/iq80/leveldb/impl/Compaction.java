@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableList;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.Slice;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -34,12 +35,17 @@ public class Compaction
     private final Version inputVersion;
     private final int level;
 
-    // Each compaction reads inputs from "level" and "level+1"
+    // Each compaction reads inputs from "level" and "level+1".  A compaction
+    // without "level" inputs rewrites files of "level+1" in place.
     private final List<FileMetaData> levelInputs;
     private final List<FileMetaData> levelUpInputs;
     private final List<FileMetaData> grandparents;
     private final List<FileMetaData>[] inputs;
 
+    // Files at "level+1" deleted entirely by a range tombstone, which are
+    // removed without being read
+    private final List<FileMetaData> coveredInputs = new ArrayList<>();
+
     private final long maxOutputFileSize;
     private final VersionEdit edit = new VersionEdit();
 
@@ -106,6 +112,30 @@ public class Compaction
         }
     }
 
+    // Mark a file at "level+1" as deleted entirely by a range tombstone
+    public void addCoveredInput(FileMetaData file)
+    {
+        checkArgument(levelUpInputs.contains(file), "file %s is not a level+1 input", file.getNumber());
+        coveredInputs.add(file);
+    }
+
+    public List<FileMetaData> getCoveredInputs()
+    {
+        return coveredInputs;
+    }
+
+    // Return the input files at "level()+which" that have to be read
+    public List<FileMetaData> getInputsToRead(int which)
+    {
+        checkArgument(which == 0 || which == 1, "which must be either 0 or 1");
+        if (which == 0 || coveredInputs.isEmpty()) {
+            return inputs[which];
+        }
+        List<FileMetaData> files = new ArrayList<>(levelUpInputs);
+        files.removeAll(coveredInputs);
+        return files;
+    }
+
     // Maximum size of files to build during this compaction.
     public long getMaxOutputFileSize()
     {
@@ -170,6 +200,19 @@ public class Compaction
         return true;
     }
 
+    // Returns true if no level greater than "level+1" holds data for the
+    // user keys in [begin, end).  Unlike isBaseLevelForKey this may be
+    // called for ranges in any order.
+    public boolean isBaseLevelForRange(Slice begin, Slice end)
+    {
+        for (int level = this.level + 2; level < NUM_LEVELS; level++) {
+            if (inputVersion.overlapInLevel(level, begin, end)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // Returns true iff we should stop building the current output
     // before processing "internal_key".
     public boolean shouldStopBefore(InternalKey internalKey)
@@ -18,14 +18,19 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBComparator;
 import org.iq80.leveldb.DBException;
+import org.iq80.leveldb.FilterPolicy;
+import org.iq80.leveldb.MergeOperator;
 import org.iq80.leveldb.Options;
 import org.iq80.leveldb.Range;
 import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.ScanConsumer;
 import org.iq80.leveldb.Snapshot;
 import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.WriteOptions;
@@ -36,15 +41,16 @@ import org.iq80.leveldb.impl.WriteBatchImpl.Handler;
 import org.iq80.leveldb.impl.hotcold.HCMemTable;
 import org.iq80.leveldb.impl.hotcold.HCSys;
 import org.iq80.leveldb.impl.hotcold.Record;
+import org.iq80.leveldb.table.BlockCache;
 import org.iq80.leveldb.table.BytewiseComparator;
 import org.iq80.leveldb.table.CustomUserComparator;
+import org.iq80.leveldb.table.LearnedIndex;
 import org.iq80.leveldb.table.TableBuilder;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.DbIterator;
+import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.MergingIterator;
 import org.iq80.leveldb.util.Slice;
-import org.iq80.leveldb.util.SliceInput;
-import org.iq80.leveldb.util.SliceOutput;
 import org.iq80.leveldb.util.Slices;
 import org.iq80.leveldb.util.Snappy;
 
@@ -56,42 +62,62 @@ import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
 import static org.iq80.leveldb.impl.DbConstants.L0_STOP_WRITES_TRIGGER;
 import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+import static org.iq80.leveldb.impl.ValueType.BLOB_INDEX;
 import static org.iq80.leveldb.impl.ValueType.DELETION;
+import static org.iq80.leveldb.impl.ValueType.MERGE;
+import static org.iq80.leveldb.impl.ValueType.RANGE_DELETION;
 import static org.iq80.leveldb.impl.ValueType.VALUE;
-import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
-import static org.iq80.leveldb.util.Slices.readLengthPrefixedBytes;
-import static org.iq80.leveldb.util.Slices.writeLengthPrefixedBytes;
 
 // todo make thread safe and concurrent
 @SuppressWarnings("AccessingNonPublicFieldOfAnotherObject")
 public class DbImpl
         implements DB
 {
+    // number of memtables recovered from the log that may be waiting to be written to level 0 at once
+    private static final int MAX_RECOVERY_FLUSHES = 2;
+
     private final Options options;
     private final File databaseDir;
     private final TableCache tableCache;
+    private final BlobFileCache blobFileCache;
+    // null if the block cache is disabled
+    private final BlockCache blockCache;
+    private final FilterPolicy filterPolicy;
+    private final InternalPrefixExtractor prefixExtractor;
     private final DbLock dbLock;
     private final VersionSet versions;
 
@@ -102,6 +128,8 @@ public class DbImpl
     private final List<Long> pendingOutputs = new ArrayList<>(); // todo
 
     private LogWriter log;
+    // syncs the log in the background; null unless a log sync interval or size is configured
+    private LogSyncer logSyncer;
 
     // 原始memtable
     private MemTable memTable;
@@ -110,12 +138,26 @@ public class DbImpl
     // 冷热系统
     private HCSys hcSys;
 
+    // the memtables and current version as seen by reads, replaced under the mutex whenever they change
+    private final AtomicReference<ReadView> readView = new AtomicReference<>();
+    // set while a compaction check requested by a read is pending
+    private final AtomicBoolean compactionRequested = new AtomicBoolean();
+
     // 原始memtable的比较器
     private final InternalKeyComparator internalKeyComparator;
 
     private volatile Throwable backgroundException;
     private final ExecutorService compactionExecutor;
-    private Future<?> backgroundCompaction;
+    // searches the tables of a multi get in parallel
+    private final ExecutorService multiGetExecutor;
+    // background compactions scheduled or running, at most maxBackgroundCompactions
+    private int backgroundCompactions;
+    // set while a background compaction of the immutable memtable is scheduled
+    private boolean memTableCompactionScheduled;
+    // set while a thread writes the immutable memtable to a table
+    private boolean compactingMemTable;
+    // while positive no background compactions are started
+    private int suspensionCounter;
 
     private ManualCompaction manualCompaction;
 
@@ -164,11 +206,41 @@ public class DbImpl
                     }
                 })
                 .build();
-        compactionExecutor = Executors.newSingleThreadExecutor(compactionThreadFactory);
+        compactionExecutor = Executors.newFixedThreadPool(options.maxBackgroundCompactions(), compactionThreadFactory);
+        multiGetExecutor = Executors.newFixedThreadPool(
+                Math.min(4, Runtime.getRuntime().availableProcessors()),
+                new ThreadFactoryBuilder().setNameFormat("leveldb-multiget-%s").setDaemon(true).build());
 
         // Reserve ten files or so for other uses and give the rest to TableCache.
         int tableCacheSize = options.maxOpenFiles() - 10;
-        tableCache = new TableCache(databaseDir, tableCacheSize, new InternalUserComparator(internalKeyComparator), options.verifyChecksums());
+        // Data blocks of all tables share one cache; a cache size of zero disables it.
+        if (options.cacheSize() > 0) {
+            blockCache = new BlockCache(options.cacheSize());
+        }
+        else {
+            blockCache = null;
+        }
+        if (options.prefixExtractor() != null) {
+            prefixExtractor = new InternalPrefixExtractor(options.prefixExtractor());
+        }
+        else {
+            prefixExtractor = null;
+        }
+        // tables hold internal keys, so the user policy is applied to their user key part
+        if (options.filterPolicy() != null) {
+            filterPolicy = new InternalFilterPolicy(options.filterPolicy(), prefixExtractor);
+        }
+        else {
+            filterPolicy = null;
+        }
+        // Values found by point lookups in the tables; a row cache size of zero disables it.
+        RowCache rowCache = null;
+        if (options.rowCacheSize() > 0) {
+            rowCache = new RowCache(options.rowCacheSize());
+        }
+        tableCache = new TableCache(databaseDir, tableCacheSize, new InternalUserComparator(internalKeyComparator), options.verifyChecksums(), blockCache, filterPolicy, rowCache);
+        // blob files are few and large; values are read from them even when separation is off
+        blobFileCache = new BlobFileCache(databaseDir, Math.max(tableCacheSize / 4, 1), options.verifyChecksums());
 
         // create the version set
 
@@ -191,7 +263,7 @@ public class DbImpl
                 checkArgument(!options.errorIfExists(), "Database '%s' exists and the error if exists option is enabled", databaseDir);
             }
 
-            versions = new VersionSet(databaseDir, tableCache, internalKeyComparator);
+            versions = new VersionSet(databaseDir, tableCache, internalKeyComparator, options.blobGarbageRatio());
 
             // load  (and recover) current version
             versions.recover();
@@ -221,10 +293,20 @@ public class DbImpl
             // Recover in the order in which the logs were generated
             VersionEdit edit = new VersionEdit();
             Collections.sort(logs);
-            for (Long fileNumber : logs) {
-                long maxSequence = recoverLogFile(fileNumber, edit);
-                if (versions.getLastSequence() < maxSequence) {
-                    versions.setLastSequence(maxSequence);
+            if (!logs.isEmpty()) {
+                ExecutorService recoveryExecutor = Executors.newFixedThreadPool(
+                        Runtime.getRuntime().availableProcessors(),
+                        new ThreadFactoryBuilder().setNameFormat("leveldb-recovery-%s").setDaemon(true).build());
+                try {
+                    for (Long fileNumber : logs) {
+                        long maxSequence = recoverLogFile(fileNumber, edit, recoveryExecutor);
+                        if (versions.getLastSequence() < maxSequence) {
+                            versions.setLastSequence(maxSequence);
+                        }
+                    }
+                }
+                finally {
+                    recoveryExecutor.shutdownNow();
                 }
             }
 
@@ -235,6 +317,11 @@ public class DbImpl
 
             // apply recovered edits
             versions.logAndApply(edit);
+            publishReadView();
+
+            if (options.logSyncInterval() > 0 || options.logSyncBytes() > 0) {
+                logSyncer = new LogSyncer(log, versions.getLastSequence(), options.logSyncInterval(), options.logSyncBytes());
+            }
 
             // cleanup unused files
             deleteObsoleteFiles();
@@ -245,6 +332,67 @@ public class DbImpl
         finally {
             mutex.unlock();
         }
+
+        if (options.preloadTables()) {
+            preloadTables(tableCacheSize);
+        }
+    }
+
+    /**
+     * Opens the tables of the current version in parallel, lower levels
+     * first and no more than the table cache holds, so the first reads of
+     * the tables find them in the cache.
+     */
+    private void preloadTables(int tableCacheSize)
+    {
+        List<FileMetaData> files = new ArrayList<>();
+        mutex.lock();
+        try {
+            for (FileMetaData file : versions.getCurrent().getFiles().values()) {
+                if (files.size() >= tableCacheSize) {
+                    break;
+                }
+                files.add(file);
+            }
+        }
+        finally {
+            mutex.unlock();
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+
+        ExecutorService preloadExecutor = Executors.newFixedThreadPool(
+                Math.min(files.size(), Runtime.getRuntime().availableProcessors()),
+                new ThreadFactoryBuilder().setNameFormat("leveldb-preload-%s").setDaemon(true).build());
+        try {
+            List<Future<?>> preloads = new ArrayList<>();
+            for (final FileMetaData file : files) {
+                preloads.add(preloadExecutor.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        tableCache.preload(file.getNumber());
+                    }
+                }));
+            }
+            for (Future<?> preload : preloads) {
+                try {
+                    preload.get();
+                }
+                catch (ExecutionException ignored) {
+                    // the table may have been compacted away meanwhile; reads of a
+                    // table that cannot be opened report the error
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            preloadExecutor.shutdownNow();
+        }
     }
 
     @Override
@@ -256,7 +404,7 @@ public class DbImpl
 
         mutex.lock();
         try {
-            while (backgroundCompaction != null) {
+            while (backgroundCompactions > 0) {
                 backgroundCondition.awaitUninterruptibly();
             }
         }
@@ -271,17 +419,27 @@ public class DbImpl
         catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        multiGetExecutor.shutdown();
+        // readers still holding the view keep its version retained until they release it
+        ReadView view = readView.getAndSet(null);
+        if (view != null) {
+            view.release();
+        }
         try {
             versions.destroy();
         }
         catch (IOException ignored) {
         }
+        if (logSyncer != null) {
+            logSyncer.close();
+        }
         try {
             log.close();
         }
         catch (IOException ignored) {
         }
         tableCache.close();
+        blobFileCache.close();
         dbLock.release();
     }
 
@@ -289,6 +447,19 @@ public class DbImpl
     public String getProperty(String name)
     {
         checkBackgroundException();
+        if ("leveldb.block-cache-stats".equals(name) && blockCache != null) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%5s %8s %8s %8s %8s %8s%n", "shard", "capacity", "usage", "hits", "misses", "evicted"));
+            List<BlockCache.ShardStats> shardStats = blockCache.getShardStats();
+            for (int shard = 0; shard < shardStats.size(); shard++) {
+                BlockCache.ShardStats stats = shardStats.get(shard);
+                sb.append(String.format("%5d %8d %8d %8d %8d %8d%n", shard, stats.getCapacity(), stats.getUsage(), stats.getHits(), stats.getMisses(), stats.getEvictions()));
+            }
+            return sb.toString();
+        }
+        if ("leveldb.open-table-handles".equals(name)) {
+            return String.valueOf(tableCache.getOpenTableCount());
+        }
         return null;
     }
 
@@ -301,6 +472,7 @@ public class DbImpl
         for (FileMetaData fileMetaData : versions.getLiveFiles()) {
             live.add(fileMetaData.getNumber());
         }
+        Set<Long> liveBlobFiles = versions.getLiveBlobFiles();
 
         for (File file : Filename.listFiles(databaseDir)) {
             FileInfo fileInfo = Filename.parseFileName(file);
@@ -322,6 +494,10 @@ public class DbImpl
                 case TABLE:
                     keep = live.contains(number);
                     break;
+                case BLOB:
+                    // blob files being written share the number of a pending output
+                    keep = live.contains(number) || liveBlobFiles.contains(number);
+                    break;
                 case TEMP:
                     // Any temp files that are currently being written to must
                     // be recorded in pending_outputs_, which is inserted into "live"
@@ -338,6 +514,9 @@ public class DbImpl
                 if (fileInfo.getFileType() == FileType.TABLE) {
                     tableCache.evict(number);
                 }
+                else if (fileInfo.getFileType() == FileType.BLOB) {
+                    blobFileCache.evict(number);
+                }
                 // todo info logging system needed
 //                Log(options_.info_log, "Delete type=%d #%lld\n",
 //                int(type),
@@ -396,36 +575,67 @@ public class DbImpl
     {
         checkState(mutex.isHeldByCurrentThread());
 
-        if (backgroundCompaction != null) {
-            // Already scheduled
-        }
-        else if (shuttingDown.get()) {
+        if (shuttingDown.get()) {
             // DB is being shutdown; no more background compactions
+            return;
         }
-        else if (immutableMemTable == null &&
-                manualCompaction == null &&
-                !versions.needsCompaction()) {
-            // No work to be done
+        if (suspensionCounter > 0) {
+            // compactions are suspended
+            return;
         }
-        else {
-            backgroundCompaction = compactionExecutor.submit(new Callable<Void>()
+
+        // the immutable memtable goes first, writes may be waiting for it
+        if (immutableMemTable != null && !memTableCompactionScheduled && !compactingMemTable &&
+                backgroundCompactions < options.maxBackgroundCompactions()) {
+            memTableCompactionScheduled = true;
+            scheduleBackgroundCompaction(null, false);
+        }
+
+        if (manualCompaction != null) {
+            // a manual compaction runs alone once the running compactions are done
+            if (!manualCompaction.scheduled && versions.getRunningCompactionCount() == 0 &&
+                    backgroundCompactions < options.maxBackgroundCompactions()) {
+                manualCompaction.scheduled = true;
+                scheduleBackgroundCompaction(null, true);
+            }
+            return;
+        }
+
+        // start as many compactions of different files and key ranges as allowed
+        while (backgroundCompactions < options.maxBackgroundCompactions()) {
+            Compaction compaction = versions.pickCompaction();
+            if (compaction == null) {
+                // No work to be done
+                break;
+            }
+            scheduleBackgroundCompaction(compaction, false);
+        }
+    }
+
+    /**
+     * @param compaction the compaction to run, or null to only compact the
+     * immutable memtable or to run the manual compaction
+     */
+    private void scheduleBackgroundCompaction(final Compaction compaction, final boolean manual)
+    {
+        backgroundCompactions++;
+        compactionExecutor.submit(new Callable<Void>()
+        {
+            @Override
+            public Void call()
+                    throws Exception
             {
-                @Override
-                public Void call()
-                        throws Exception
-                {
-                    try {
-                        backgroundCall();
-                    }
-                    catch (DatabaseShutdownException ignored) {
-                    }
-                    catch (Throwable e) {
-                        backgroundException = e;
-                    }
-                    return null;
+                try {
+                    backgroundCall(compaction, manual);
                 }
-            });
-        }
+                catch (DatabaseShutdownException ignored) {
+                }
+                catch (Throwable e) {
+                    backgroundException = e;
+                }
+                return null;
+            }
+        });
     }
 
     public void checkBackgroundException()
@@ -436,22 +646,27 @@ public class DbImpl
         }
     }
 
-    private void backgroundCall()
+    private void backgroundCall(Compaction compaction, boolean manual)
             throws IOException
     {
         mutex.lock();
         try {
-            if (backgroundCompaction == null) {
-                return;
-            }
-
             try {
                 if (!shuttingDown.get()) {
-                    backgroundCompaction();
+                    backgroundCompaction(compaction, manual);
+                }
+                else if (compaction != null) {
+                    versions.compactionFinished(compaction);
+                }
+                else if (manual) {
+                    manualCompaction = null;
                 }
             }
             finally {
-                backgroundCompaction = null;
+                backgroundCompactions--;
+                if (compaction == null && !manual) {
+                    memTableCompactionScheduled = false;
+                }
             }
         }
         finally {
@@ -471,48 +686,60 @@ public class DbImpl
         }
     }
 
-    private void backgroundCompaction()
+    private void backgroundCompaction(Compaction compaction, boolean manual)
             throws IOException
     {
         checkState(mutex.isHeldByCurrentThread());
 
         compactMemTableInternal();
 
-        Compaction compaction;
-        if (manualCompaction != null) {
+        if (manual) {
             compaction = versions.compactRange(manualCompaction.level,
                     new InternalKey(manualCompaction.begin, MAX_SEQUENCE_NUMBER, VALUE),
                     new InternalKey(manualCompaction.end, 0, DELETION));
         }
-        else {
-            compaction = versions.pickCompaction();
-        }
 
-        if (compaction == null) {
-            // no compaction
-        }
-        else if (manualCompaction == null && compaction.isTrivialMove()) {
-            // Move file to next level
-            checkState(compaction.getLevelInputs().size() == 1);
-            FileMetaData fileMetaData = compaction.getLevelInputs().get(0);
-            compaction.getEdit().deleteFile(compaction.getLevel(), fileMetaData.getNumber());
-            compaction.getEdit().addFile(compaction.getLevel() + 1, fileMetaData);
-            versions.logAndApply(compaction.getEdit());
-            // log
+        try {
+            if (compaction == null) {
+                // no compaction
+            }
+            else if (!manual && compaction.isTrivialMove() && !hasBlobGarbage(compaction.getLevelInputs().get(0))) {
+                // Move file to next level
+                checkState(compaction.getLevelInputs().size() == 1);
+                FileMetaData fileMetaData = compaction.getLevelInputs().get(0);
+                compaction.getEdit().deleteFile(compaction.getLevel(), fileMetaData.getNumber());
+                compaction.getEdit().addFile(compaction.getLevel() + 1, fileMetaData);
+                versions.logAndApply(compaction.getEdit());
+                publishReadView();
+                // log
+            }
+            else {
+                CompactionState compactionState = new CompactionState(compaction);
+                doCompactionWork(compactionState);
+                cleanupCompaction(compactionState);
+            }
         }
-        else {
-            CompactionState compactionState = new CompactionState(compaction);
-            doCompactionWork(compactionState);
-            cleanupCompaction(compactionState);
+        finally {
+            if (compaction != null) {
+                versions.compactionFinished(compaction);
+            }
+            // manual compaction complete
+            if (manual) {
+                manualCompaction = null;
+            }
         }
+    }
 
-        // manual compaction complete
-        if (manualCompaction != null) {
-            manualCompaction = null;
-        }
+    /**
+     * Returns true if the file points to a blob file that is mostly garbage,
+     * so moving it would leave the values to move for another compaction.
+     */
+    private boolean hasBlobGarbage(FileMetaData file)
+    {
+        return versions.getCurrent().getFilesWithBlobGarbage().containsValue(file);
     }
 
-    private void cleanupCompaction(CompactionState compactionState)
+        private void cleanupCompaction(CompactionState compactionState)
     {
         checkState(mutex.isHeldByCurrentThread());
 
@@ -526,9 +753,12 @@ public class DbImpl
         for (FileMetaData output : compactionState.outputs) {
             pendingOutputs.remove(output.getNumber());
         }
+        if (compactionState.blobFile != null) {
+            pendingOutputs.remove(compactionState.blobFile.getFileNumber());
+        }
     }
 
-    private long recoverLogFile(long fileNumber, VersionEdit edit)
+    private long recoverLogFile(long fileNumber, VersionEdit edit, ExecutorService recoveryExecutor)
             throws IOException
     {
         checkState(mutex.isHeldByCurrentThread());
@@ -540,50 +770,87 @@ public class DbImpl
 
             // Log(options_.info_log, "Recovering log #%llu", (unsigned long long) log_number);
 
-            // Read all the records and add to a memtable
+            // This thread reads and checksums the records in log order and decides
+            // which memtable each batch goes to, so level-0 file numbers still
+            // follow sequence order.  Decoding and inserting the batches runs on
+            // the recovery executor, and full memtables are written to level 0 in
+            // the background while the rest of the log is replayed.
             long maxSequence = 0;
-            MemTable memTable = null;
-            for (Slice record = logReader.readRecord(); record != null; record = logReader.readRecord()) {
-                SliceInput sliceInput = record.input();
-                // read header
-                if (sliceInput.available() < 12) {
-                    logMonitor.corruption(sliceInput.available(), "log record too small");
-                    continue;
-                }
-                long sequenceBegin = sliceInput.readLong();
-                int updateSize = sliceInput.readInt();
+            RecoveredMemTable memTable = null;
+            List<RecoveredMemTable> flushing = new ArrayList<>();
+            try {
+                for (Slice record = logReader.readRecord(); record != null; record = logReader.readRecord()) {
+                    // read header
+                    if (record.length() < WriteBatchImpl.HEADER_SIZE) {
+                        logMonitor.corruption(record.length(), "log record too small");
+                        continue;
+                    }
 
-                // read entries
-                WriteBatchImpl writeBatch = readWriteBatch(sliceInput, updateSize);
+                    // the log record is an encoded write batch
+                    final WriteBatchImpl writeBatch = new WriteBatchImpl(record);
+                    final long sequenceBegin = writeBatch.getSequence();
+                    int updateSize = writeBatch.size();
 
-                // apply entries to memTable
-                if (memTable == null) {
-                    memTable = new MemTable(internalKeyComparator);
+                    // apply entries to memTable
+                    if (memTable == null) {
+                        memTable = new RecoveredMemTable(new MemTable(internalKeyComparator));
+                    }
+                    memTable.insert(writeBatch, sequenceBegin, recoveryExecutor);
+
+                    // update the maxSequence
+                    long lastSequence = sequenceBegin + updateSize - 1;
+                    if (lastSequence > maxSequence) {
+                        maxSequence = lastSequence;
+                    }
+
+                    // flush mem table if necessary
+                    if (memTable.approximateMemoryUsage() > options.writeBufferSize()) {
+                        // bound the number of memtables held in memory
+                        if (flushing.size() >= MAX_RECOVERY_FLUSHES) {
+                            finishRecoveredMemTable(flushing.remove(0), edit);
+                        }
+                        memTable.flush(versions.getNextFileNumber(), recoveryExecutor);
+                        flushing.add(memTable);
+                        memTable = null;
+                    }
                 }
-                writeBatch.forEach(new InsertIntoHandler(memTable, sequenceBegin, null));
 
-                // update the maxSequence
-                long lastSequence = sequenceBegin + updateSize - 1;
-                if (lastSequence > maxSequence) {
-                    maxSequence = lastSequence;
+                // flush mem table
+                if (memTable != null) {
+                    memTable.flush(versions.getNextFileNumber(), recoveryExecutor);
+                    flushing.add(memTable);
                 }
 
-                // flush mem table if necessary
-                if (memTable.approximateMemoryUsage() > options.writeBufferSize()) {
-                    writeLevel0Table(memTable, edit, null);
-                    memTable = null;
+                while (!flushing.isEmpty()) {
+                    finishRecoveredMemTable(flushing.remove(0), edit);
                 }
             }
-
-            // flush mem table
-            if (memTable != null && !memTable.isEmpty()) {
-                writeLevel0Table(memTable, edit, null);
+            finally {
+                for (RecoveredMemTable recovered : flushing) {
+                    recovered.cancel();
+                }
             }
 
             return maxSequence;
         }
     }
 
+    private void finishRecoveredMemTable(RecoveredMemTable memTable, VersionEdit edit)
+            throws IOException
+    {
+        checkState(mutex.isHeldByCurrentThread());
+
+        FileMetaData meta = memTable.awaitTable();
+        pendingOutputs.remove(memTable.fileNumber);
+
+        // Note that if file size is zero, the file has been deleted and
+        // should not be added to the manifest.
+        if (meta != null && meta.getFileSize() > 0) {
+            edit.addFile(0, meta);
+            addBlobFile(edit, memTable.blobFile);
+        }
+    }
+
     @Override
     public byte[] get(byte[] key)
             throws DBException
@@ -596,57 +863,230 @@ public class DbImpl
             throws DBException
     {
         checkBackgroundException();
-        LookupKey lookupKey;
-        mutex.lock();
+        LookupState state = new LookupState(internalKeyComparator.getUserComparator(), this.options.mergeOperator() != null, options.fillCache());
+        LookupKey lookupKey = new LookupKey(Slices.wrappedBuffer(key), getSnapshotSequence(options));
+        ReadView view = acquireReadView();
         try {
-            SnapshotImpl snapshot = getSnapshot(options);
-            lookupKey = new LookupKey(Slices.wrappedBuffer(key), snapshot.getLastSequence());
-
             // First look in the memtable, then in the immutable memtable (if any).
-            LookupResult lookupResult = memTable.get(lookupKey);
+            LookupResult lookupResult = view.getMemTable().get(lookupKey, state);
             if (lookupResult != null) {
-                Slice value = lookupResult.getValue();
-                if (value == null) {
-                    return null;
-                }
-                return value.getBytes();
+                return toValue(key, lookupResult, state.getMergeOperands());
             }
-            if (immutableMemTable != null) {
-                lookupResult = immutableMemTable.get(lookupKey);
+            if (view.getImmutableMemTable() != null) {
+                lookupResult = view.getImmutableMemTable().get(lookupKey, state);
                 if (lookupResult != null) {
-                    Slice value = lookupResult.getValue();
-                    if (value == null) {
-                        return null;
-                    }
-                    return value.getBytes();
+                    return toValue(key, lookupResult, state.getMergeOperands());
                 }
             }
+
+            // Not in memTables; try live files in level order
+            lookupResult = view.getVersion().get(lookupKey, state);
+            if (state.isCompactionNeeded()) {
+                requestCompaction();
+            }
+            return toValue(key, lookupResult, state.getMergeOperands());
         }
         finally {
-            mutex.unlock();
+            view.release();
         }
+    }
 
-        // Not in memTables; try live files in level order
-        LookupResult lookupResult = versions.get(lookupKey);
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys, ReadOptions options)
+            throws DBException
+    {
+        requireNonNull(keys, "keys is null");
+        checkBackgroundException();
+        long snapshotSequence = getSnapshotSequence(options);
+        List<BatchedLookup> lookups = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            LookupState state = new LookupState(internalKeyComparator.getUserComparator(), this.options.mergeOperator() != null, options.fillCache());
+            lookups.add(new BatchedLookup(i, new LookupKey(Slices.wrappedBuffer(keys.get(i)), snapshotSequence), state));
+        }
 
-        // schedule compaction if necessary
-        mutex.lock();
+        // search in key order, so each table is read front to back
+        final UserComparator userComparator = internalKeyComparator.getUserComparator();
+        Collections.sort(lookups, new Comparator<BatchedLookup>()
+        {
+            @Override
+            public int compare(BatchedLookup first, BatchedLookup second)
+            {
+                return userComparator.compare(first.getKey().getUserKey(), second.getKey().getUserKey());
+            }
+        });
+
+        ReadView view = acquireReadView();
         try {
-            if (versions.needsCompaction()) {
-                maybeScheduleCompaction();
+            // First look in the memtable, then in the immutable memtable (if any).
+            for (BatchedLookup lookup : lookups) {
+                lookup.setResult(view.getMemTable().get(lookup.getKey(), lookup.getState()));
+                if (!lookup.isDone() && view.getImmutableMemTable() != null) {
+                    lookup.setResult(view.getImmutableMemTable().get(lookup.getKey(), lookup.getState()));
+                }
             }
+
+            // Not in memTables; try live files in level order
+            view.getVersion().get(lookups, multiGetExecutor);
+
+            byte[][] values = new byte[keys.size()][];
+            for (BatchedLookup lookup : lookups) {
+                values[lookup.getIndex()] = toValue(keys.get(lookup.getIndex()), lookup.getResult(), lookup.getState().getMergeOperands());
+            }
+            return Arrays.asList(values);
         }
         finally {
-            mutex.unlock();
+            view.release();
+        }
+    }
+
+    @Override
+    public void parallelScan(Range range, ReadOptions options, int parallelism, final ScanConsumer consumer)
+            throws DBException
+    {
+        requireNonNull(range, "range is null");
+        requireNonNull(consumer, "consumer is null");
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        checkBackgroundException();
+        final long snapshotSequence = getSnapshotSequence(options);
+        final boolean fillCache = options.fillCache();
+        final ReadView view = acquireReadView();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            Slice start = Slices.wrappedBuffer(range.start());
+            Slice limit = Slices.wrappedBuffer(range.limit());
+            List<Slice> bounds = new ArrayList<>();
+            bounds.add(start);
+            bounds.addAll(view.getVersion().getSplitKeys(start, limit, parallelism));
+            bounds.add(limit);
+
+            // every partition reads the same view at the same sequence
+            final RangeTombstoneIndex rangeTombstones = RangeTombstoneIndex.build(view.getRangeTombstones(), snapshotSequence, internalKeyComparator.getUserComparator());
+            final List<RecursiveAction> scans = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.size(); i++) {
+                final int partition = i;
+                final Slice partitionStart = bounds.get(i);
+                final Slice partitionLimit = bounds.get(i + 1);
+                scans.add(new RecursiveAction()
+                {
+                    @Override
+                    protected void compute()
+                    {
+                        scanPartition(view, snapshotSequence, rangeTombstones, fillCache, partitionStart, partitionLimit, partition, consumer);
+                    }
+                });
+            }
+            pool.invoke(new RecursiveAction()
+            {
+                @Override
+                protected void compute()
+                {
+                    invokeAll(scans);
+                }
+            });
         }
+        finally {
+            pool.shutdown();
+            view.release();
+        }
+    }
 
-        if (lookupResult != null) {
-            Slice value = lookupResult.getValue();
-            if (value != null) {
-                return value.getBytes();
+    private void scanPartition(ReadView view, long snapshotSequence, RangeTombstoneIndex rangeTombstones, boolean fillCache, Slice start, Slice limit, int partition, ScanConsumer consumer)
+    {
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        SnapshotImpl snapshot = new SnapshotImpl(view.getVersion(), snapshotSequence);
+        IteratorBounds bounds = new IteratorBounds(start, limit, userComparator);
+        SnapshotSeekingIterator iterator = new SnapshotSeekingIterator(internalIterator(view, fillCache, null, bounds), snapshot, userComparator, options.mergeOperator(), rangeTombstones, null, bounds, blobFileCache);
+        snapshot.close();
+        try {
+            iterator.seekToFirst();
+            while (iterator.hasNext()) {
+                Entry<Slice, Slice> entry = iterator.next();
+                consumer.accept(partition, entry.getKey().getBytes(), entry.getValue().getBytes());
             }
         }
-        return null;
+        finally {
+            iterator.close();
+        }
+    }
+
+    /**
+     * Pins the current read view.  The caller must release it.
+     */
+    private ReadView acquireReadView()
+    {
+        while (true) {
+            ReadView view = readView.get();
+            if (view == null) {
+                throw new DatabaseShutdownException("Database has been closed");
+            }
+            // fails only if the view was replaced and released in between
+            if (view.tryRetain()) {
+                return view;
+            }
+        }
+    }
+
+    private void publishReadView()
+    {
+        checkState(mutex.isHeldByCurrentThread());
+        ReadView previous = readView.getAndSet(new ReadView(memTable, immutableMemTable, versions.getCurrent()));
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * Has the background thread check for compaction work, so that reads
+     * never wait for the mutex.  Requests made while one is pending are
+     * dropped.
+     */
+    private void requestCompaction()
+    {
+        if (shuttingDown.get() || !compactionRequested.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            compactionExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    compactionRequested.set(false);
+                    mutex.lock();
+                    try {
+                        maybeScheduleCompaction();
+                    }
+                    finally {
+                        mutex.unlock();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // the database is closing
+            compactionRequested.set(false);
+        }
+    }
+
+    /**
+     * Converts the result of a lookup into the value returned to the user,
+     * applying any merge operands found above the result.
+     */
+    private byte[] toValue(byte[] key, LookupResult lookupResult, List<Slice> mergeOperands)
+    {
+        Slice value = lookupResult != null ? lookupResult.getValue() : null;
+        if (value != null && lookupResult.isBlobIndex()) {
+            value = blobFileCache.get(BlobIndex.decode(value));
+        }
+        if (mergeOperands == null || mergeOperands.isEmpty()) {
+            return value != null ? value.getBytes() : null;
+        }
+
+        List<byte[]> operands = new ArrayList<>(mergeOperands.size());
+        for (Slice operand : Lists.reverse(mergeOperands)) {
+            operands.add(operand.getBytes());
+        }
+        return options.mergeOperator().fullMerge(key, value != null ? value.getBytes() : null, operands);
     }
 
     @Override
@@ -677,6 +1117,34 @@ public class DbImpl
         return writeInternal(new WriteBatchImpl().delete(key), options);
     }
 
+    @Override
+    public void merge(byte[] key, byte[] value)
+            throws DBException
+    {
+        merge(key, value, new WriteOptions());
+    }
+
+    @Override
+    public Snapshot merge(byte[] key, byte[] value, WriteOptions options)
+            throws DBException
+    {
+        return writeInternal(new WriteBatchImpl().merge(key, value), options);
+    }
+
+    @Override
+    public void deleteRange(byte[] begin, byte[] end)
+            throws DBException
+    {
+        deleteRange(begin, end, new WriteOptions());
+    }
+
+    @Override
+    public Snapshot deleteRange(byte[] begin, byte[] end, WriteOptions options)
+            throws DBException
+    {
+        return writeInternal(new WriteBatchImpl().deleteRange(begin, end), options);
+    }
+
     @Override
     public void write(WriteBatch updates)
             throws DBException
@@ -695,9 +1163,12 @@ public class DbImpl
             throws DBException
     {
         checkBackgroundException();
+        checkArgument(!updates.hasMerge() || this.options.mergeOperator() != null, "Merge requires a merge operator in the database options");
+        Snapshot snapshot;
+        long sequenceEnd;
+        boolean awaitLogSync = false;
         mutex.lock();
         try {
-            long sequenceEnd;
             if (updates.size() != 0) {
                 makeRoomForWrite(false);
 
@@ -705,13 +1176,16 @@ public class DbImpl
                 long sequenceBegin = versions.getLastSequence() + 1;
                 sequenceEnd = sequenceBegin + updates.size() - 1;
 
-                // Reserve this sequence in the version set
-                versions.setLastSequence(sequenceEnd);
-
-                // Log write
-                Slice record = writeWriteBatch(updates, sequenceBegin);
+                // Log write; the batch is already in log record format
+                updates.setSequence(sequenceBegin);
                 try {
-                    log.addRecord(record, options.sync());
+                    Slice record = updates.getRecord();
+                    // without a background syncer, waiting for the sync means forcing the log here
+                    log.addRecord(record, options.sync() || (options.waitForLogSync() && logSyncer == null));
+                    if (logSyncer != null) {
+                        logSyncer.written(sequenceEnd, record.length());
+                        awaitLogSync = options.waitForLogSync() && !options.sync();
+                    }
                 }
                 catch (IOException e) {
                     throw Throwables.propagate(e);
@@ -719,21 +1193,35 @@ public class DbImpl
 
                 // Update memtable
                 updates.forEach(new InsertIntoHandler(memTable, sequenceBegin, this.hcSys));
+
+                // Publish the sequence only now, as reads use it without the mutex
+                versions.setLastSequence(sequenceEnd);
             }
             else {
                 sequenceEnd = versions.getLastSequence();
             }
 
             if (options.snapshot()) {
-                return new SnapshotImpl(versions.getCurrent(), sequenceEnd);
+                snapshot = new SnapshotImpl(versions.getCurrent(), sequenceEnd);
             }
             else {
-                return null;
+                snapshot = null;
             }
         }
         finally {
             mutex.unlock();
         }
+
+        // wait outside the mutex so that concurrent writers share the sync
+        if (awaitLogSync) {
+            try {
+                logSyncer.awaitSynced(sequenceEnd);
+            }
+            catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return snapshot;
     }
 
     @Override
@@ -753,18 +1241,33 @@ public class DbImpl
     public SeekingIteratorAdapter iterator(ReadOptions options)
     {
         checkBackgroundException();
-        mutex.lock();
+        long snapshotSequence = getSnapshotSequence(options);
+        ReadView view = acquireReadView();
         try {
-            DbIterator rawIterator = internalIterator();
-
-            // filter any entries not visible in our snapshot
-            SnapshotImpl snapshot = getSnapshot(options);
-            SnapshotSeekingIterator snapshotIterator = new SnapshotSeekingIterator(rawIterator, snapshot, internalKeyComparator.getUserComparator());
+            InternalPrefixExtractor iteratePrefix = options.prefixSameAsStart() ? prefixExtractor : null;
+            IteratorBounds bounds = getIteratorBounds(options);
+            DbIterator rawIterator = internalIterator(view, options.fillCache(), iteratePrefix, bounds);
+
+            // filter any entries not visible in our snapshot; the iterator keeps the version it reads retained
+            SnapshotImpl snapshot = new SnapshotImpl(view.getVersion(), snapshotSequence);
+            RangeTombstoneIndex rangeTombstones = RangeTombstoneIndex.build(view.getRangeTombstones(), snapshotSequence, internalKeyComparator.getUserComparator());
+            SnapshotSeekingIterator snapshotIterator = new SnapshotSeekingIterator(rawIterator, snapshot, internalKeyComparator.getUserComparator(), this.options.mergeOperator(), rangeTombstones, iteratePrefix, bounds, blobFileCache);
+            snapshot.close();
             return new SeekingIteratorAdapter(snapshotIterator);
         }
         finally {
-            mutex.unlock();
+            view.release();
+        }
+    }
+
+    private IteratorBounds getIteratorBounds(ReadOptions options)
+    {
+        if (options.iterateLowerBound() == null && options.iterateUpperBound() == null) {
+            return null;
         }
+        Slice lower = options.iterateLowerBound() != null ? Slices.wrappedBuffer(options.iterateLowerBound()) : null;
+        Slice upper = options.iterateUpperBound() != null ? Slices.wrappedBuffer(options.iterateUpperBound()) : null;
+        return new IteratorBounds(lower, upper, internalKeyComparator.getUserComparator());
     }
 
     SeekingIterable<InternalKey, Slice> internalIterable()
@@ -781,45 +1284,69 @@ public class DbImpl
 
     DbIterator internalIterator()
     {
-        mutex.lock();
+        return internalIterator(true);
+    }
+
+    DbIterator internalIterator(boolean fillCache)
+    {
+        return internalIterator(fillCache, null);
+    }
+
+    /**
+     * @param prefixExtractor if not null, the table iterators end at the
+     * first key without the prefix of the key seeked to
+     */
+    DbIterator internalIterator(boolean fillCache, InternalPrefixExtractor prefixExtractor)
+    {
+        ReadView view = acquireReadView();
         try {
-            // merge together the memTable, immutableMemTable, and tables in version set
-            MemTableIterator iterator = null;
-            if (immutableMemTable != null) {
-                iterator = immutableMemTable.iterator();
-            }
-            Version current = versions.getCurrent();
-            return new DbIterator(memTable.iterator(), iterator, current.getLevel0Files(), current.getLevelIterators(), internalKeyComparator);
+            return internalIterator(view, fillCache, prefixExtractor, null);
         }
         finally {
-            mutex.unlock();
+            view.release();
+        }
+    }
+
+    /**
+     * @param bounds if not null, the tables without keys in the bounds are
+     * left out
+     */
+    private DbIterator internalIterator(ReadView view, boolean fillCache, InternalPrefixExtractor prefixExtractor, IteratorBounds bounds)
+    {
+        // merge together the memTable, immutableMemTable, and tables in version set
+        MemTableIterator iterator = null;
+        if (view.getImmutableMemTable() != null) {
+            iterator = view.getImmutableMemTable().iterator();
         }
+        Version current = view.getVersion();
+        return new DbIterator(view.getMemTable().iterator(), iterator, current.getLevel0Files(fillCache, prefixExtractor, bounds), current.getLevelIterators(fillCache, prefixExtractor, bounds), internalKeyComparator);
     }
 
     @Override
     public Snapshot getSnapshot()
     {
         checkBackgroundException();
-        mutex.lock();
+        // read the sequence before pinning the view, so the view holds every write up to it
+        long lastSequence = versions.getLastSequence();
+        ReadView view = acquireReadView();
         try {
-            return new SnapshotImpl(versions.getCurrent(), versions.getLastSequence());
+            return new SnapshotImpl(view.getVersion(), lastSequence);
         }
         finally {
-            mutex.unlock();
+            view.release();
         }
     }
 
-    private SnapshotImpl getSnapshot(ReadOptions options)
+    /**
+     * Returns the sequence number reads with the options see.  Must be
+     * called before the read view is acquired.
+     */
+    private long getSnapshotSequence(ReadOptions options)
     {
-        SnapshotImpl snapshot;
         if (options.snapshot() != null) {
-            snapshot = (SnapshotImpl) options.snapshot();
-        }
-        else {
-            snapshot = new SnapshotImpl(versions.getCurrent(), versions.getLastSequence());
-            snapshot.close(); // To avoid holding the snapshot active..
+            return ((SnapshotImpl) options.snapshot()).getLastSequence();
         }
-        return snapshot;
+        return versions.getLastSequence();
     }
 
     private void makeRoomForWrite(boolean force)
@@ -875,27 +1402,33 @@ public class DbImpl
                 // Attempt to switch to a new memtable and trigger compaction of old
                 checkState(versions.getPrevLogNumber() == 0);
 
-                // close the existing log
+                // open a new log
+                long logNumber = versions.getNextFileNumber();
+                LogWriter newLog;
                 try {
-                    log.close();
+                    newLog = Logs.createLogWriter(new File(databaseDir, Filename.logFileName(logNumber)), logNumber);
                 }
                 catch (IOException e) {
-                    throw new RuntimeException("Unable to close log file " + log.getFile(), e);
+                    throw new RuntimeException("Unable to open new log file " +
+                            new File(databaseDir, Filename.logFileName(logNumber)).getAbsoluteFile(), e);
                 }
 
-                // open a new log
-                long logNumber = versions.getNextFileNumber();
+                // close the existing log, once the syncer is done with it
                 try {
-                    this.log = Logs.createLogWriter(new File(databaseDir, Filename.logFileName(logNumber)), logNumber);
+                    if (logSyncer != null) {
+                        logSyncer.setLog(newLog);
+                    }
+                    log.close();
                 }
                 catch (IOException e) {
-                    throw new RuntimeException("Unable to open new log file " +
-                            new File(databaseDir, Filename.logFileName(logNumber)).getAbsoluteFile(), e);
+                    throw new RuntimeException("Unable to close log file " + log.getFile(), e);
                 }
+                this.log = newLog;
 
                 // create a new mem table
                 immutableMemTable = memTable;
                 memTable = new MemTable(internalKeyComparator);
+                publishReadView();
 
                 // Do not force another compaction there is space available
                 force = false;
@@ -910,6 +1443,10 @@ public class DbImpl
     {
         mutex.lock();
         try {
+            // a background compaction may be writing the memtable already
+            while (compactingMemTable) {
+                backgroundCondition.awaitUninterruptibly();
+            }
             compactMemTableInternal();
         }
         finally {
@@ -921,15 +1458,15 @@ public class DbImpl
             throws IOException
     {
         checkState(mutex.isHeldByCurrentThread());
-        if (immutableMemTable == null) {
+        if (immutableMemTable == null || compactingMemTable) {
             return;
         }
 
+        compactingMemTable = true;
         try {
             // Save the contents of the memtable as a new Table
             VersionEdit edit = new VersionEdit();
-            Version base = versions.getCurrent();
-            writeLevel0Table(immutableMemTable, edit, base);
+            writeLevel0Table(immutableMemTable, edit);
 
             if (shuttingDown.get()) {
                 throw new DatabaseShutdownException("Database shutdown during memtable compaction");
@@ -941,15 +1478,17 @@ public class DbImpl
             versions.logAndApply(edit);
 
             immutableMemTable = null;
+            publishReadView();
 
             deleteObsoleteFiles();
         }
         finally {
+            compactingMemTable = false;
             backgroundCondition.signalAll();
         }
     }
 
-    private void writeLevel0Table(MemTable mem, VersionEdit edit, Version base)
+    private void writeLevel0Table(MemTable mem, VersionEdit edit)
             throws IOException
     {
         checkState(mutex.isHeldByCurrentThread());
@@ -962,10 +1501,11 @@ public class DbImpl
         // write the memtable to a new sstable
         long fileNumber = versions.getNextFileNumber();
         pendingOutputs.add(fileNumber);
+        BlobFileWriter blobFile = newBlobFileWriter(fileNumber);
         mutex.unlock();
         FileMetaData meta;
         try {
-            meta = buildTable(mem, fileNumber);
+            meta = buildTable(mem, fileNumber, blobFile);
         }
         finally {
             mutex.lock();
@@ -978,23 +1518,69 @@ public class DbImpl
         if (meta != null && meta.getFileSize() > 0) {
             Slice minUserKey = meta.getSmallest().getUserKey();
             Slice maxUserKey = meta.getLargest().getUserKey();
-            if (base != null) {
-                level = base.pickLevelForMemTableOutput(minUserKey, maxUserKey);
+            // compactions may have installed files while the table was built, so pick
+            // the level from the current version; running ones may add files in the range
+            if (!versions.isCompactingRange(minUserKey, maxUserKey)) {
+                level = versions.getCurrent().pickLevelForMemTableOutput(minUserKey, maxUserKey);
             }
             edit.addFile(level, meta);
+            addBlobFile(edit, blobFile);
+        }
+    }
+
+    /**
+     * Returns the trainer of the learned index of a new table, or null if
+     * tables get none.
+     */
+    private LearnedIndex.Builder newLearnedIndexBuilder()
+    {
+        // the model relies on bytewise key order; tables hold internal keys, so it leaves out the tag
+        if (!options.learnedIndex() || options.comparator() != null) {
+            return null;
+        }
+        return new LearnedIndex.Builder(SIZE_OF_LONG);
+    }
+
+    /**
+     * Returns the writer of the blob file for the large values of a new
+     * table, or null if values are kept in the tables.  The blob file shares
+     * the number of the table.
+     */
+    private BlobFileWriter newBlobFileWriter(long fileNumber)
+    {
+        if (options.blobValueThreshold() == 0) {
+            return null;
+        }
+        return new BlobFileWriter(new File(databaseDir, Filename.blobFileName(fileNumber)), fileNumber);
+    }
+
+    private static void addBlobFile(VersionEdit edit, BlobFileWriter blobFile)
+    {
+        if (blobFile != null && blobFile.getTotalBytes() > 0) {
+            edit.addBlobFile(new BlobFileMetaData(blobFile.getFileNumber(), blobFile.getTotalBytes(), 0));
         }
     }
 
-    private FileMetaData buildTable(SeekingIterable<InternalKey, Slice> data, long fileNumber)
+    private boolean isBlobValue(InternalKey key, Slice value)
+    {
+        return key.getValueType() == VALUE && options.blobValueThreshold() > 0 && value.length() >= options.blobValueThreshold();
+    }
+
+    /**
+     * @param blobFile if not null, large values are written to it and the
+     * table points to them
+     */
+    private FileMetaData buildTable(MemTable data, long fileNumber, BlobFileWriter blobFile)
             throws IOException
     {
         File file = new File(databaseDir, Filename.tableFileName(fileNumber));
         try {
             InternalKey smallest = null;
             InternalKey largest = null;
+            int rangeTombstoneCount;
             FileChannel channel = new FileOutputStream(file).getChannel();
             try {
-                TableBuilder tableBuilder = new TableBuilder(options, channel, new InternalUserComparator(internalKeyComparator));
+                TableBuilder tableBuilder = new TableBuilder(options, channel, new InternalUserComparator(internalKeyComparator), filterPolicy, newLearnedIndexBuilder());
 
                 for (Entry<InternalKey, Slice> entry : data) {
                     // update keys
@@ -1004,10 +1590,35 @@ public class DbImpl
                     }
                     largest = key;
 
-                    tableBuilder.add(key.encode(), entry.getValue());
+                    Slice value = entry.getValue();
+                    if (blobFile != null && isBlobValue(key, value)) {
+                        value = blobFile.add(key.getUserKey(), value).encode();
+                        key = new InternalKey(key.getUserKey(), key.getSequenceNumber(), BLOB_INDEX);
+                    }
+                    tableBuilder.add(key.encode(), value);
+                }
+
+                // the key range of the table covers its range tombstones
+                for (RangeTombstone tombstone : data.getRangeTombstones()) {
+                    if (tombstone.isEmpty(internalKeyComparator.getUserComparator())) {
+                        continue;
+                    }
+                    InternalKey begin = tombstone.getBeginKey();
+                    if (smallest == null || internalKeyComparator.compare(begin, smallest) < 0) {
+                        smallest = begin;
+                    }
+                    InternalKey end = tombstone.getEndKey();
+                    if (largest == null || internalKeyComparator.compare(end, largest) > 0) {
+                        largest = end;
+                    }
+                    tableBuilder.addRangeTombstone(begin.encode(), tombstone.getEnd());
                 }
 
+                rangeTombstoneCount = tableBuilder.getRangeTombstoneCount();
                 tableBuilder.finish();
+                if (blobFile != null) {
+                    blobFile.finish();
+                }
             }
             finally {
                 try {
@@ -1021,18 +1632,20 @@ public class DbImpl
             if (smallest == null) {
                 return null;
             }
-            FileMetaData fileMetaData = new FileMetaData(fileNumber, file.length(), smallest, largest);
+            Set<Long> blobFiles = blobFile != null && blobFile.getTotalBytes() > 0 ? ImmutableSet.of(fileNumber) : ImmutableSet.<Long>of();
+            FileMetaData fileMetaData = new FileMetaData(fileNumber, file.length(), smallest, largest, rangeTombstoneCount, blobFiles);
 
             // verify table can be opened
-            tableCache.newIterator(fileMetaData);
-
-            pendingOutputs.remove(fileNumber);
+            tableCache.newIterator(fileMetaData).close();
 
             return fileMetaData;
 
         }
         catch (IOException e) {
             file.delete();
+            if (blobFile != null) {
+                blobFile.abandon();
+            }
             throw e;
         }
     }
@@ -1041,99 +1654,114 @@ public class DbImpl
             throws IOException
     {
         checkState(mutex.isHeldByCurrentThread());
-        checkArgument(versions.numberOfBytesInLevel(compactionState.getCompaction().getLevel()) > 0);
+        checkArgument(!compactionState.getCompaction().getLevelInputs().isEmpty() || !compactionState.getCompaction().getLevelUpInputs().isEmpty());
         checkArgument(compactionState.builder == null);
         checkArgument(compactionState.outfile == null);
 
         // todo track snapshots
         compactionState.smallestSnapshot = versions.getLastSequence();
+        compactionState.blobFiles = versions.getCurrent().getBlobFiles();
 
         // Release mutex while we're actually doing the compaction work
         mutex.unlock();
         try {
+            prepareRangeTombstones(compactionState);
             MergingIterator iterator = versions.makeInputIterator(compactionState.compaction);
 
-            Slice currentUserKey = null;
-            boolean hasCurrentUserKey = false;
-
-            long lastSequenceForKey = MAX_SEQUENCE_NUMBER;
-            while (iterator.hasNext() && !shuttingDown.get()) {
-                // always give priority to compacting the current mem table
-                mutex.lock();
-                try {
-                    compactMemTableInternal();
-                }
-                finally {
-                    mutex.unlock();
-                }
-
-                InternalKey key = iterator.peek().getKey();
-                if (compactionState.compaction.shouldStopBefore(key) && compactionState.builder != null) {
-                    finishCompactionOutputFile(compactionState);
-                }
+            try {
+                Slice currentUserKey = null;
+                boolean hasCurrentUserKey = false;
 
-                // Handle key/value, add to state, etc.
-                boolean drop = false;
-                // todo if key doesn't parse (it is corrupted),
-                if (false /*!ParseInternalKey(key, &ikey)*/) {
-                    // do not hide error keys
-                    currentUserKey = null;
-                    hasCurrentUserKey = false;
-                    lastSequenceForKey = MAX_SEQUENCE_NUMBER;
-                }
-                else {
-                    if (!hasCurrentUserKey || internalKeyComparator.getUserComparator().compare(key.getUserKey(), currentUserKey) != 0) {
-                        // First occurrence of this user key
-                        currentUserKey = key.getUserKey();
-                        hasCurrentUserKey = true;
-                        lastSequenceForKey = MAX_SEQUENCE_NUMBER;
+                long lastSequenceForKey = MAX_SEQUENCE_NUMBER;
+                while (iterator.hasNext() && !shuttingDown.get()) {
+                    // always give priority to compacting the current mem table
+                    mutex.lock();
+                    try {
+                        compactMemTableInternal();
+                    }
+                    finally {
+                        mutex.unlock();
                     }
 
-                    if (lastSequenceForKey <= compactionState.smallestSnapshot) {
-                        // Hidden by an newer entry for same user key
-                        drop = true; // (A)
+                    InternalKey key = iterator.peek().getKey();
+                    if (compactionState.compaction.shouldStopBefore(key) && compactionState.builder != null && !isCurrentOutputKey(compactionState, key)) {
+                        finishCompactionOutputFile(compactionState, key.getUserKey());
                     }
-                    else if (key.getValueType() == DELETION &&
-                            key.getSequenceNumber() <= compactionState.smallestSnapshot &&
-                            compactionState.compaction.isBaseLevelForKey(key.getUserKey())) {
-                        // For this user key:
-                        // (1) there is no data in higher levels
-                        // (2) data in lower levels will have larger sequence numbers
-                        // (3) data in layers that are being compacted here and have
-                        //     smaller sequence numbers will be dropped in the next
-                        //     few iterations of this loop (by rule (A) above).
-                        // Therefore this deletion marker is obsolete and can be dropped.
-                        drop = true;
+
+                    // Handle key/value, add to state, etc.
+                    boolean drop = false;
+                    // todo if key doesn't parse (it is corrupted),
+                    if (false /*!ParseInternalKey(key, &ikey)*/) {
+                        // do not hide error keys
+                        currentUserKey = null;
+                        hasCurrentUserKey = false;
+                        lastSequenceForKey = MAX_SEQUENCE_NUMBER;
                     }
+                    else {
+                        if (!hasCurrentUserKey || internalKeyComparator.getUserComparator().compare(key.getUserKey(), currentUserKey) != 0) {
+                            // First occurrence of this user key
+                            currentUserKey = key.getUserKey();
+                            hasCurrentUserKey = true;
+                            lastSequenceForKey = MAX_SEQUENCE_NUMBER;
+                        }
 
-                    lastSequenceForKey = key.getSequenceNumber();
-                }
+                        if (lastSequenceForKey <= compactionState.smallestSnapshot) {
+                            // Hidden by an newer entry for same user key
+                            drop = true; // (A)
+                        }
+                        else if (key.getSequenceNumber() < compactionState.rangeTombstones.getCoveringSequence(key.getUserKey())) {
+                            // Deleted by a range tombstone that no snapshot predates
+                            drop = true;
+                        }
+                        else if (key.getValueType() == DELETION &&
+                                key.getSequenceNumber() <= compactionState.smallestSnapshot &&
+                                compactionState.compaction.isBaseLevelForKey(key.getUserKey())) {
+                            // For this user key:
+                            // (1) there is no data in higher levels
+                            // (2) data in lower levels will have larger sequence numbers
+                            // (3) data in layers that are being compacted here and have
+                            //     smaller sequence numbers will be dropped in the next
+                            //     few iterations of this loop (by rule (A) above).
+                            // Therefore this deletion marker is obsolete and can be dropped.
+                            drop = true;
+                        }
 
-                if (!drop) {
-                    // Open output file if necessary
-                    if (compactionState.builder == null) {
-                        openCompactionOutputFile(compactionState);
+                        lastSequenceForKey = key.getSequenceNumber();
                     }
-                    if (compactionState.builder.getEntryCount() == 0) {
-                        compactionState.currentSmallest = key;
+
+                    if (!drop && key.getValueType() == MERGE && key.getSequenceNumber() <= compactionState.smallestSnapshot) {
+                        // Combine the merge operands of this key; this consumes the
+                        // entries of the key it reads from the iterator
+                        mergeCompactionOperands(compactionState, iterator);
+                        continue;
                     }
-                    compactionState.currentLargest = key;
-                    compactionState.builder.add(key.encode(), iterator.peek().getValue());
 
-                    // Close output file if it is big enough
-                    if (compactionState.builder.getFileSize() >=
-                            compactionState.compaction.getMaxOutputFileSize()) {
-                        finishCompactionOutputFile(compactionState);
+                    if (!drop) {
+                        addCompactionOutput(compactionState, key, iterator.peek().getValue());
+                    }
+                    else if (key.getValueType() == BLOB_INDEX) {
+                        addBlobGarbage(compactionState, BlobIndex.decode(iterator.peek().getValue()));
                     }
+                    iterator.next();
                 }
-                iterator.next();
+            }
+            finally {
+                // unmaps the input tables, which are deleted once the compaction is installed
+                iterator.close();
             }
 
             if (shuttingDown.get()) {
                 throw new DatabaseShutdownException("DB shutdown during compaction");
             }
+            if (compactionState.builder == null && !compactionState.pendingRangeTombstones.isEmpty()) {
+                // range tombstones past the last entry
+                openCompactionOutputFile(compactionState);
+            }
             if (compactionState.builder != null) {
-                finishCompactionOutputFile(compactionState);
+                finishCompactionOutputFile(compactionState, null);
+            }
+            if (compactionState.blobFile != null) {
+                compactionState.blobFile.finish();
             }
         }
         finally {
@@ -1145,6 +1773,289 @@ public class DbImpl
         installCompactionResults(compactionState);
     }
 
+    /**
+     * Collects the range tombstones of the compaction inputs, removes the
+     * level+1 inputs they delete entirely, and picks the tombstones that
+     * still have to be written to the output.
+     */
+    private void prepareRangeTombstones(CompactionState compactionState)
+    {
+        Compaction compaction = compactionState.compaction;
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+
+        List<RangeTombstone> levelTombstones = new ArrayList<>();
+        for (FileMetaData file : compaction.getLevelInputs()) {
+            levelTombstones.addAll(tableCache.getRangeTombstones(file));
+        }
+
+        // data at level+1 is older than the tombstones at level, so a file
+        // inside a tombstone no snapshot predates can go without being read
+        List<RangeTombstone> tombstones = new ArrayList<>(levelTombstones);
+        for (FileMetaData file : compaction.getLevelUpInputs()) {
+            boolean covered = false;
+            for (RangeTombstone tombstone : levelTombstones) {
+                if (tombstone.getSequenceNumber() <= compactionState.smallestSnapshot &&
+                        tombstone.covers(file.getSmallest().getUserKey(), file.getLargest().getUserKey(), userComparator)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (covered) {
+                compaction.addCoveredInput(file);
+                addBlobGarbage(compactionState, file);
+            }
+            else {
+                tombstones.addAll(tableCache.getRangeTombstones(file));
+            }
+        }
+        compactionState.rangeTombstones = RangeTombstoneIndex.build(tombstones, compactionState.smallestSnapshot, userComparator);
+
+        // a tombstone is obsolete once no snapshot predates it and no deeper level holds data it covers
+        for (RangeTombstone tombstone : tombstones) {
+            if (tombstone.isEmpty(userComparator) ||
+                    (tombstone.getSequenceNumber() <= compactionState.smallestSnapshot &&
+                            compaction.isBaseLevelForRange(tombstone.getBegin(), tombstone.getEnd()))) {
+                continue;
+            }
+            compactionState.pendingRangeTombstones.add(tombstone);
+        }
+        sortByBeginKey(compactionState.pendingRangeTombstones);
+    }
+
+    private void sortByBeginKey(List<RangeTombstone> tombstones)
+    {
+        Collections.sort(tombstones, new Comparator<RangeTombstone>()
+        {
+            @Override
+            public int compare(RangeTombstone left, RangeTombstone right)
+            {
+                return internalKeyComparator.compare(left.getBeginKey(), right.getBeginKey());
+            }
+        });
+    }
+
+    private boolean isCurrentOutputKey(CompactionState compactionState, InternalKey key)
+    {
+        return compactionState.currentLargest != null &&
+                internalKeyComparator.getUserComparator().compare(key.getUserKey(), compactionState.currentLargest.getUserKey()) == 0;
+    }
+
+    /**
+     * Records the value a dropped blob index points to as garbage.
+     */
+    private void addBlobGarbage(CompactionState compactionState, BlobIndex blobIndex)
+    {
+        Long garbage = compactionState.blobGarbage.get(blobIndex.getFileNumber());
+        compactionState.blobGarbage.put(blobIndex.getFileNumber(), (garbage == null ? 0 : garbage) + blobIndex.getSize());
+    }
+
+    /**
+     * Records the values the blob indexes of a table dropped without being
+     * read point to as garbage.
+     */
+    private void addBlobGarbage(CompactionState compactionState, FileMetaData file)
+    {
+        if (compactionState.blobFiles.isEmpty()) {
+            return;
+        }
+        InternalTableIterator iterator = tableCache.newIterator(file, false);
+        try {
+            while (iterator.hasNext()) {
+                Entry<InternalKey, Slice> entry = iterator.next();
+                if (entry.getKey().getValueType() == BLOB_INDEX) {
+                    addBlobGarbage(compactionState, BlobIndex.decode(entry.getValue()));
+                }
+            }
+        }
+        finally {
+            iterator.close();
+        }
+    }
+
+    private void addCompactionOutput(CompactionState compactionState, InternalKey key, Slice value)
+            throws IOException
+    {
+        // move values out of blob files that are mostly garbage, so the files can be deleted
+        if (key.getValueType() == BLOB_INDEX) {
+            BlobIndex blobIndex = BlobIndex.decode(value);
+            BlobFileMetaData blobFile = compactionState.blobFiles.get(blobIndex.getFileNumber());
+            if (blobFile != null && blobFile.getGarbageRatio() >= options.blobGarbageRatio()) {
+                value = blobFileCache.get(blobIndex);
+                addBlobGarbage(compactionState, blobIndex);
+                key = new InternalKey(key.getUserKey(), key.getSequenceNumber(), VALUE);
+            }
+        }
+        if (isBlobValue(key, value)) {
+            value = writeCompactionBlob(compactionState, key.getUserKey(), value);
+            key = new InternalKey(key.getUserKey(), key.getSequenceNumber(), BLOB_INDEX);
+        }
+
+        // Close the output file if it is big enough.  All entries of a user
+        // key go to the same file, so a range tombstone cut at the file
+        // boundary never splits them.
+        if (compactionState.builder != null &&
+                compactionState.builder.getFileSize() >= compactionState.compaction.getMaxOutputFileSize() &&
+                !isCurrentOutputKey(compactionState, key)) {
+            finishCompactionOutputFile(compactionState, key.getUserKey());
+        }
+
+        // Open output file if necessary
+        if (compactionState.builder == null) {
+            openCompactionOutputFile(compactionState);
+        }
+        if (compactionState.builder.getEntryCount() == 0) {
+            compactionState.currentSmallest = key;
+        }
+        compactionState.currentLargest = key;
+        if (key.getValueType() == BLOB_INDEX) {
+            compactionState.currentBlobFiles.add(BlobIndex.decode(value).getFileNumber());
+        }
+        compactionState.builder.add(key.encode(), value);
+    }
+
+    /**
+     * Adds the pending range tombstones beginning before the limit to the
+     * current output, cut at the limit.  The rest of a cut tombstone stays
+     * pending for the next output.
+     *
+     * @param limit the first user key of the next output, or null for the last output
+     */
+    private void addCompactionRangeTombstones(CompactionState compactionState, Slice limit)
+    {
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        List<RangeTombstone> remaining = new ArrayList<>();
+        for (RangeTombstone tombstone : compactionState.pendingRangeTombstones) {
+            if (limit != null && userComparator.compare(tombstone.getBegin(), limit) >= 0) {
+                remaining.add(tombstone);
+                continue;
+            }
+            if (limit != null && userComparator.compare(limit, tombstone.getEnd()) < 0) {
+                remaining.add(new RangeTombstone(limit, tombstone.getEnd(), tombstone.getSequenceNumber()));
+                tombstone = new RangeTombstone(tombstone.getBegin(), limit, tombstone.getSequenceNumber());
+            }
+
+            InternalKey begin = tombstone.getBeginKey();
+            if (compactionState.currentSmallest == null || internalKeyComparator.compare(begin, compactionState.currentSmallest) < 0) {
+                compactionState.currentSmallest = begin;
+            }
+            InternalKey end = tombstone.getEndKey();
+            if (compactionState.currentLargest == null || internalKeyComparator.compare(end, compactionState.currentLargest) > 0) {
+                compactionState.currentLargest = end;
+            }
+            compactionState.builder.addRangeTombstone(begin.encode(), tombstone.getEnd());
+        }
+        sortByBeginKey(remaining);
+        compactionState.pendingRangeTombstones = remaining;
+    }
+
+    /**
+     * Combines a run of merge operands that no snapshot can see separately.
+     * If the value they apply to is part of this compaction, or no deeper
+     * level holds the key, they are folded into a single value.  Otherwise
+     * adjacent operands are combined with partial merges where the merge
+     * operator allows it.
+     */
+    private void mergeCompactionOperands(CompactionState compactionState, MergingIterator iterator)
+            throws IOException
+    {
+        MergeOperator mergeOperator = options.mergeOperator();
+        InternalKey newestKey = iterator.peek().getKey();
+        Slice userKey = newestKey.getUserKey();
+        checkState(mergeOperator != null, "Found merge operand for %s but no merge operator is configured", userKey.toString(UTF_8));
+
+        // operands, newest first
+        List<InternalKey> operandKeys = new ArrayList<>();
+        List<byte[]> operands = new ArrayList<>();
+        byte[] existingValue = null;
+        boolean foundBase = false;
+        long coveringSequence = compactionState.rangeTombstones.getCoveringSequence(userKey);
+        while (iterator.hasNext()) {
+            Entry<InternalKey, Slice> entry = iterator.peek();
+            InternalKey key = entry.getKey();
+            if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), userKey) != 0) {
+                break;
+            }
+            if (key.getSequenceNumber() < coveringSequence) {
+                // deleted by a range tombstone; the operands apply to no value
+                foundBase = true;
+                break;
+            }
+            if (key.getValueType() == MERGE) {
+                operandKeys.add(key);
+                operands.add(entry.getValue().getBytes());
+                iterator.next();
+                continue;
+            }
+
+            // older entries of the key are hidden by the merged value and are
+            // dropped by the main loop
+            foundBase = true;
+            if (key.getValueType() == VALUE) {
+                existingValue = entry.getValue().getBytes();
+            }
+            else if (key.getValueType() == BLOB_INDEX) {
+                existingValue = blobFileCache.get(BlobIndex.decode(entry.getValue())).getBytes();
+            }
+            break;
+        }
+        if (foundBase) {
+            Entry<InternalKey, Slice> base = iterator.next();
+            if (base.getKey().getValueType() == BLOB_INDEX) {
+                addBlobGarbage(compactionState, BlobIndex.decode(base.getValue()));
+            }
+        }
+
+        byte[] key = userKey.getBytes();
+        if (foundBase || compactionState.compaction.isBaseLevelForKey(userKey)) {
+            byte[] value = mergeOperator.fullMerge(key, existingValue, Lists.reverse(operands));
+            addCompactionOutput(compactionState, new InternalKey(userKey, newestKey.getSequenceNumber(), VALUE), Slices.wrappedBuffer(value));
+            return;
+        }
+
+        // combine from the oldest operand up; a combined operand keeps the
+        // sequence number of its newest part
+        List<InternalKey> combinedKeys = new ArrayList<>();
+        List<byte[]> combined = new ArrayList<>();
+        for (int i = operands.size() - 1; i >= 0; i--) {
+            byte[] operand = operands.get(i);
+            int last = combined.size() - 1;
+            if (last >= 0) {
+                byte[] partial = mergeOperator.partialMerge(key, combined.get(last), operand);
+                if (partial != null) {
+                    combinedKeys.set(last, operandKeys.get(i));
+                    combined.set(last, partial);
+                    continue;
+                }
+            }
+            combinedKeys.add(operandKeys.get(i));
+            combined.add(operand);
+        }
+        for (int i = combined.size() - 1; i >= 0; i--) {
+            addCompactionOutput(compactionState, combinedKeys.get(i), Slices.wrappedBuffer(combined.get(i)));
+        }
+    }
+
+    /**
+     * Writes a value to the blob file of the compaction and returns the
+     * encoded blob index of it.
+     */
+    private Slice writeCompactionBlob(CompactionState compactionState, Slice userKey, Slice value)
+            throws IOException
+    {
+        if (compactionState.blobFile == null) {
+            mutex.lock();
+            try {
+                long fileNumber = versions.getNextFileNumber();
+                pendingOutputs.add(fileNumber);
+                compactionState.blobFile = new BlobFileWriter(new File(databaseDir, Filename.blobFileName(fileNumber)), fileNumber);
+            }
+            finally {
+                mutex.unlock();
+            }
+        }
+        return compactionState.blobFile.add(userKey, value).encode();
+    }
+
     private void openCompactionOutputFile(CompactionState compactionState)
             throws FileNotFoundException
     {
@@ -1162,14 +2073,17 @@ public class DbImpl
 
             File file = new File(databaseDir, Filename.tableFileName(fileNumber));
             compactionState.outfile = new FileOutputStream(file).getChannel();
-            compactionState.builder = new TableBuilder(options, compactionState.outfile, new InternalUserComparator(internalKeyComparator));
+            compactionState.builder = new TableBuilder(options, compactionState.outfile, new InternalUserComparator(internalKeyComparator), filterPolicy, newLearnedIndexBuilder());
         }
         finally {
             mutex.unlock();
         }
     }
 
-    private void finishCompactionOutputFile(CompactionState compactionState)
+    /**
+     * @param nextUserKey the first user key of the next output, or null for the last output
+     */
+    private void finishCompactionOutputFile(CompactionState compactionState, Slice nextUserKey)
             throws IOException
     {
         requireNonNull(compactionState, "compactionState is null");
@@ -1179,7 +2093,10 @@ public class DbImpl
         long outputNumber = compactionState.currentFileNumber;
         checkArgument(outputNumber != 0);
 
+        addCompactionRangeTombstones(compactionState, nextUserKey);
+
         long currentEntries = compactionState.builder.getEntryCount();
+        int rangeTombstoneCount = compactionState.builder.getRangeTombstoneCount();
         compactionState.builder.finish();
 
         long currentBytes = compactionState.builder.getFileSize();
@@ -1189,7 +2106,10 @@ public class DbImpl
         FileMetaData currentFileMetaData = new FileMetaData(compactionState.currentFileNumber,
                 compactionState.currentFileSize,
                 compactionState.currentSmallest,
-                compactionState.currentLargest);
+                compactionState.currentLargest,
+                rangeTombstoneCount,
+                compactionState.currentBlobFiles);
+        compactionState.currentBlobFiles.clear();
         compactionState.outputs.add(currentFileMetaData);
 
         compactionState.builder = null;
@@ -1200,7 +2120,7 @@ public class DbImpl
 
         if (currentEntries > 0) {
             // Verify that the table is usable
-            tableCache.newIterator(outputNumber);
+            tableCache.newIterator(outputNumber).close();
         }
     }
 
@@ -1216,9 +2136,15 @@ public class DbImpl
             compact.compaction.getEdit().addFile(level + 1, output);
             pendingOutputs.remove(output.getNumber());
         }
+        if (compact.blobFile != null) {
+            addBlobFile(compact.compaction.getEdit(), compact.blobFile);
+            pendingOutputs.remove(compact.blobFile.getFileNumber());
+        }
+        compact.compaction.getEdit().addBlobGarbage(compact.blobGarbage);
 
         try {
             versions.logAndApply(compact.compaction.getEdit());
+            publishReadView();
             deleteObsoleteFiles();
         }
         catch (IOException e) {
@@ -1230,6 +2156,9 @@ public class DbImpl
                 file.delete();
             }
             compact.outputs.clear();
+            if (compact.blobFile != null) {
+                compact.blobFile.abandon();
+            }
         }
     }
 
@@ -1275,6 +2204,11 @@ public class DbImpl
 
         private long smallestSnapshot;
 
+        // range tombstones of the inputs that no snapshot predates
+        private RangeTombstoneIndex rangeTombstones;
+        // range tombstones not yet written to an output, ordered by begin key
+        private List<RangeTombstone> pendingRangeTombstones = new ArrayList<>();
+
         // State kept for output being generated
         private FileChannel outfile;
         private TableBuilder builder;
@@ -1284,9 +2218,18 @@ public class DbImpl
         private long currentFileSize;
         private InternalKey currentSmallest;
         private InternalKey currentLargest;
+        // blob files the current output points to
+        private final Set<Long> currentBlobFiles = new TreeSet<>();
 
         private long totalBytes;
 
+        // blob files of the version being compacted
+        private Map<Long, BlobFileMetaData> blobFiles;
+        // value bytes of blob files the outputs no longer point to, by file number
+        private final Map<Long, Long> blobGarbage = new HashMap<>();
+        // large values written by the compaction, created with the first one
+        private BlobFileWriter blobFile;
+
         private CompactionState(Compaction compaction)
         {
             this.compaction = compaction;
@@ -1303,6 +2246,7 @@ public class DbImpl
         private final int level;
         private final Slice begin;
         private final Slice end;
+        private boolean scheduled;
 
         private ManualCompaction(int level, Slice begin, Slice end)
         {
@@ -1312,59 +2256,103 @@ public class DbImpl
         }
     }
 
-    private WriteBatchImpl readWriteBatch(SliceInput record, int updateSize)
-            throws IOException
+    /**
+     * A memtable being rebuilt from the log.  Batches are inserted
+     * concurrently (entries have distinct sequence numbers, so insertion
+     * order does not matter), and the table is written out once all the
+     * inserts have completed.
+     */
+    private class RecoveredMemTable
     {
-        WriteBatchImpl writeBatch = new WriteBatchImpl();
-        int entries = 0;
-        while (record.isReadable()) {
-            entries++;
-            ValueType valueType = ValueType.getValueTypeByPersistentId(record.readByte());
-            if (valueType == VALUE) {
-                Slice key = readLengthPrefixedBytes(record);
-                Slice value = readLengthPrefixedBytes(record);
-                writeBatch.put(key, value);
-            }
-            else if (valueType == DELETION) {
-                Slice key = readLengthPrefixedBytes(record);
-                writeBatch.delete(key);
-            }
-            else {
-                throw new IllegalStateException("Unexpected value type " + valueType);
-            }
+        private final MemTable memTable;
+        private final List<Future<?>> inserts = new ArrayList<>();
+        private long approximateMemoryUsage;
+
+        private long fileNumber;
+        private BlobFileWriter blobFile;
+        private Future<FileMetaData> table;
+
+        private RecoveredMemTable(MemTable memTable)
+        {
+            this.memTable = memTable;
         }
 
-        if (entries != updateSize) {
-            throw new IOException(String.format("Expected %d entries in log record but found %s entries", updateSize, entries));
+        private long approximateMemoryUsage()
+        {
+            // the memtable itself lags behind the pending inserts, so size by the encoded batches
+            return approximateMemoryUsage;
         }
 
-        return writeBatch;
-    }
+        private void insert(final WriteBatchImpl writeBatch, final long sequenceBegin, ExecutorService executor)
+        {
+            approximateMemoryUsage += writeBatch.getApproximateSize();
+            inserts.add(executor.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    writeBatch.forEach(new InsertIntoHandler(memTable, sequenceBegin, null));
+                }
+            }));
+        }
 
-    private Slice writeWriteBatch(WriteBatchImpl updates, long sequenceBegin)
-    {
-        Slice record = Slices.allocate(SIZE_OF_LONG + SIZE_OF_INT + updates.getApproximateSize());
-        final SliceOutput sliceOutput = record.output();
-        sliceOutput.writeLong(sequenceBegin);
-        sliceOutput.writeInt(updates.size());
-        updates.forEach(new Handler()
+        private void flush(long fileNumber, ExecutorService executor)
         {
-            @Override
-            public void put(Slice key, Slice value)
+            checkState(mutex.isHeldByCurrentThread());
+            this.fileNumber = fileNumber;
+            this.blobFile = newBlobFileWriter(fileNumber);
+            pendingOutputs.add(fileNumber);
+
+            final List<Future<?>> inserts = this.inserts;
+            final long number = fileNumber;
+            final BlobFileWriter blobFile = this.blobFile;
+            table = executor.submit(new Callable<FileMetaData>()
             {
-                sliceOutput.writeByte(VALUE.getPersistentId());
-                writeLengthPrefixedBytes(sliceOutput, key);
-                writeLengthPrefixedBytes(sliceOutput, value);
+                @Override
+                public FileMetaData call()
+                        throws Exception
+                {
+                    for (Future<?> insert : inserts) {
+                        insert.get();
+                    }
+                    if (memTable.isEmpty()) {
+                        return null;
+                    }
+                    return buildTable(memTable, number, blobFile);
+                }
+            });
+        }
+
+        private FileMetaData awaitTable()
+                throws IOException
+        {
+            try {
+                return table.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while recovering log", e);
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof ExecutionException) {
+                    // failure inserting one of the batches
+                    cause = cause.getCause();
+                }
+                Throwables.propagateIfPossible(cause, IOException.class);
+                throw new IOException(cause);
             }
+        }
 
-            @Override
-            public void delete(Slice key)
-            {
-                sliceOutput.writeByte(DELETION.getPersistentId());
-                writeLengthPrefixedBytes(sliceOutput, key);
+        private void cancel()
+        {
+            for (Future<?> insert : inserts) {
+                insert.cancel(true);
             }
-        });
-        return record.slice(0, sliceOutput.size());
+            if (table != null) {
+                table.cancel(true);
+            }
+        }
     }
 
     private static class InsertIntoHandler
@@ -1417,6 +2405,21 @@ public class DbImpl
                 this.memTable.add(item.sequence, item.valueType, item.userKey, item.value);
             }
         }
+
+        @Override
+        public void merge(Slice key, Slice value)
+        {
+            // merge operands are not folded into the hot/cold tables, which keep a
+            // single record per key, so they always go straight to the memtable
+            this.memTable.add(sequence++, MERGE, key, value);
+        }
+
+        @Override
+        public void deleteRange(Slice begin, Slice end)
+        {
+            // like merge operands, range tombstones bypass the hot/cold tables
+            this.memTable.add(sequence++, RANGE_DELETION, begin, end);
+        }
     }
 
     public static class DatabaseShutdownException
@@ -1441,44 +2444,40 @@ public class DbImpl
         }
     }
 
-    private final Object suspensionMutex = new Object();
-    private int suspensionCounter;
-
     @Override
     public void suspendCompactions()
             throws InterruptedException
     {
-        compactionExecutor.execute(new Runnable()
-        {
-            @Override
-            public void run()
-            {
-                try {
-                    synchronized (suspensionMutex) {
-                        suspensionCounter++;
-                        suspensionMutex.notifyAll();
-                        while (suspensionCounter > 0 && !compactionExecutor.isShutdown()) {
-                            suspensionMutex.wait(500);
-                        }
-                    }
-                }
-                catch (InterruptedException e) {
+        mutex.lock();
+        try {
+            suspensionCounter++;
+            try {
+                // no compactions are started from now on, wait for the running ones
+                while (backgroundCompactions > 0) {
+                    backgroundCondition.await();
                 }
             }
-        });
-        synchronized (suspensionMutex) {
-            while (suspensionCounter < 1) {
-                suspensionMutex.wait();
+            catch (InterruptedException e) {
+                suspensionCounter--;
+                maybeScheduleCompaction();
+                throw e;
             }
         }
+        finally {
+            mutex.unlock();
+        }
     }
 
     @Override
     public void resumeCompactions()
     {
-        synchronized (suspensionMutex) {
+        mutex.lock();
+        try {
             suspensionCounter--;
-            suspensionMutex.notifyAll();
+            maybeScheduleCompaction();
+        }
+        finally {
+            mutex.unlock();
         }
     }
 
@@ -107,6 +107,15 @@ public class FileChannelLogWriter
         return fileNumber;
     }
 
+    // Not synchronized so that appends can continue while the channel is forced
+    @Override
+    public void sync()
+            throws IOException
+    {
+        checkState(!closed.get(), "Log has been closed");
+        fileChannel.force(false);
+    }
+
     // Writes a stream of chunks such that no chunk is split across a block boundary
     @Override
     public synchronized void addRecord(Slice record, boolean force)
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Comparator;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Records for every file of a level above zero where its smallest and
+ * largest user keys fall in the next level, so a point lookup that has
+ * compared its key with a file only needs to search the part of the next
+ * level that can hold the key (fractional cascading).
+ * <p>
+ * Ranges are half open file index ranges of the next level.  A lookup
+ * passes the index of the first file of the level whose largest key is at
+ * or after the key, or the file count if there is none, along with how
+ * its key compares to that file's smallest and largest user keys.
+ */
+public final class FileIndexer
+{
+    private final Comparator<Slice> userComparator;
+    // the file counts of levels 1 to n
+    private final int[] fileCounts;
+    // per level 1 to n - 1 and file: the first file of the next level whose
+    // largest key is at or after the file's smallest or largest key
+    private final int[][] smallestStarts;
+    private final int[][] largestStarts;
+    // and one past the last file of the next level whose smallest key is at
+    // or before the file's smallest or largest key
+    private final int[][] smallestEnds;
+    private final int[][] largestEnds;
+
+    /**
+     * @param levels the sorted, disjoint files of levels 1 to n
+     */
+    public FileIndexer(Comparator<Slice> userComparator, List<List<FileMetaData>> levels)
+    {
+        this.userComparator = requireNonNull(userComparator, "userComparator is null");
+        requireNonNull(levels, "levels is null");
+
+        fileCounts = new int[levels.size()];
+        smallestStarts = new int[levels.size()][];
+        largestStarts = new int[levels.size()][];
+        smallestEnds = new int[levels.size()][];
+        largestEnds = new int[levels.size()][];
+        for (int level = 0; level < levels.size(); level++) {
+            List<FileMetaData> files = levels.get(level);
+            fileCounts[level] = files.size();
+            if (level + 1 == levels.size()) {
+                break;
+            }
+            List<FileMetaData> nextFiles = levels.get(level + 1);
+            smallestStarts[level] = new int[files.size()];
+            largestStarts[level] = new int[files.size()];
+            smallestEnds[level] = new int[files.size()];
+            largestEnds[level] = new int[files.size()];
+            for (int i = 0; i < files.size(); i++) {
+                Slice smallest = files.get(i).getSmallest().getUserKey();
+                Slice largest = files.get(i).getLargest().getUserKey();
+                smallestStarts[level][i] = firstEndingAtOrAfter(nextFiles, smallest);
+                largestStarts[level][i] = firstEndingAtOrAfter(nextFiles, largest);
+                smallestEnds[level][i] = firstStartingAfter(nextFiles, smallest);
+                largestEnds[level][i] = firstStartingAfter(nextFiles, largest);
+            }
+        }
+    }
+
+    /**
+     * Returns the first file of the level that can hold the key.
+     */
+    public int getNextLevelStart(int levelNumber, int index, int compareToSmallest, int compareToLargest)
+    {
+        int level = levelNumber - 1;
+        if (fileCounts[level] == 0) {
+            return 0;
+        }
+        if (index == fileCounts[level]) {
+            return largestStarts[level][index - 1];
+        }
+        if (compareToSmallest < 0) {
+            // the key is between this file and the one before it
+            return index > 0 ? largestStarts[level][index - 1] : 0;
+        }
+        if (compareToLargest < 0) {
+            return smallestStarts[level][index];
+        }
+        return largestStarts[level][index];
+    }
+
+    /**
+     * Returns one past the last file of the next level that can hold the key.
+     */
+    public int getNextLevelEnd(int levelNumber, int index, int compareToSmallest, int compareToLargest)
+    {
+        int level = levelNumber - 1;
+        if (fileCounts[level] == 0 || index == fileCounts[level]) {
+            return fileCounts[level + 1];
+        }
+        if (compareToSmallest <= 0) {
+            return smallestEnds[level][index];
+        }
+        return largestEnds[level][index];
+    }
+
+    private int firstEndingAtOrAfter(List<FileMetaData> files, Slice userKey)
+    {
+        int low = 0;
+        int high = files.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (userComparator.compare(files.get(middle).getLargest().getUserKey(), userKey) < 0) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int firstStartingAfter(List<FileMetaData> files, Slice userKey)
+    {
+        int low = 0;
+        int high = files.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (userComparator.compare(files.get(middle).getSmallest().getUserKey(), userKey) <= 0) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
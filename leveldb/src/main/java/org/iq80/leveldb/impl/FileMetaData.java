@@ -17,6 +17,9 @@
  */
 package org.iq80.leveldb.impl;
 
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class FileMetaData
@@ -38,6 +41,16 @@ public class FileMetaData
      */
     private final InternalKey largest;
 
+    /**
+     * Number of range tombstones in the table
+     */
+    private final int rangeTombstoneCount;
+
+    /**
+     * Numbers of the blob files the blob indexes of the table point to
+     */
+    private final Set<Long> blobFiles;
+
     /**
      * Seeks allowed until compaction
      */
@@ -45,11 +58,18 @@ public class FileMetaData
     private final AtomicInteger allowedSeeks = new AtomicInteger(1 << 30);
 
     public FileMetaData(long number, long fileSize, InternalKey smallest, InternalKey largest)
+    {
+        this(number, fileSize, smallest, largest, 0, ImmutableSortedSet.<Long>of());
+    }
+
+    public FileMetaData(long number, long fileSize, InternalKey smallest, InternalKey largest, int rangeTombstoneCount, Set<Long> blobFiles)
     {
         this.number = number;
         this.fileSize = fileSize;
         this.smallest = smallest;
         this.largest = largest;
+        this.rangeTombstoneCount = rangeTombstoneCount;
+        this.blobFiles = ImmutableSortedSet.copyOf(blobFiles);
     }
 
     public long getFileSize()
@@ -72,6 +92,24 @@ public class FileMetaData
         return largest;
     }
 
+    public int getRangeTombstoneCount()
+    {
+        return rangeTombstoneCount;
+    }
+
+    /**
+     * Returns false if reads can skip loading the range tombstones of the table.
+     */
+    public boolean hasRangeTombstones()
+    {
+        return rangeTombstoneCount > 0;
+    }
+
+    public Set<Long> getBlobFiles()
+    {
+        return blobFiles;
+    }
+
     public int getAllowedSeeks()
     {
         return allowedSeeks.get();
@@ -96,6 +134,8 @@ public class FileMetaData
         sb.append(", fileSize=").append(fileSize);
         sb.append(", smallest=").append(smallest);
         sb.append(", largest=").append(largest);
+        sb.append(", rangeTombstoneCount=").append(rangeTombstoneCount);
+        sb.append(", blobFiles=").append(blobFiles);
         sb.append(", allowedSeeks=").append(allowedSeeks);
         sb.append('}');
         return sb.toString();
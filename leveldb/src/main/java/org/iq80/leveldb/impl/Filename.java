@@ -42,6 +42,7 @@ public final class Filename
         DESCRIPTOR,
         CURRENT,
         TEMP,
+        BLOB,
         INFO_LOG  // Either the current one, or an old one
     }
 
@@ -61,6 +62,14 @@ public final class Filename
         return makeFileName(number, "sst");
     }
 
+    /**
+     * Return the name of the blob file with the specified number.
+     */
+    public static String blobFileName(long number)
+    {
+        return makeFileName(number, "blob");
+    }
+
     /**
      * Return the name of the descriptor file with the specified incarnation number.
      */
@@ -123,7 +132,7 @@ public final class Filename
         //    dbname/LOG
         //    dbname/LOG.old
         //    dbname/MANIFEST-[0-9]+
-        //    dbname/[0-9]+.(log|sst|dbtmp)
+        //    dbname/[0-9]+.(log|sst|blob|dbtmp)
         String fileName = file.getName();
         if ("CURRENT".equals(fileName)) {
             return new FileInfo(FileType.CURRENT);
@@ -149,6 +158,10 @@ public final class Filename
             long fileNumber = Long.parseLong(removeSuffix(fileName, ".sst"));
             return new FileInfo(FileType.TABLE, fileNumber);
         }
+        else if (fileName.endsWith(".blob")) {
+            long fileNumber = Long.parseLong(removeSuffix(fileName, ".blob"));
+            return new FileInfo(FileType.BLOB, fileNumber);
+        }
         else if (fileName.endsWith(".dbtmp")) {
             long fileNumber = Long.parseLong(removeSuffix(fileName, ".dbtmp"));
             return new FileInfo(FileType.TEMP, fileNumber);
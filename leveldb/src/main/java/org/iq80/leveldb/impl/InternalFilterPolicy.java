@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.FilterPolicy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * Applies a user filter policy to the user key part of internal keys, so
+ * that a filter matches every version of a key.  With a prefix extractor,
+ * the prefixes of the keys are added to the filters as well.
+ */
+public class InternalFilterPolicy
+        implements FilterPolicy
+{
+    private final FilterPolicy userPolicy;
+    private final InternalPrefixExtractor prefixExtractor;
+
+    public InternalFilterPolicy(FilterPolicy userPolicy)
+    {
+        this(userPolicy, null);
+    }
+
+    /**
+     * @param prefixExtractor extractor of the prefixes to add to the filters, or null
+     */
+    public InternalFilterPolicy(FilterPolicy userPolicy, InternalPrefixExtractor prefixExtractor)
+    {
+        this.userPolicy = requireNonNull(userPolicy, "userPolicy is null");
+        this.prefixExtractor = prefixExtractor;
+    }
+
+    @Override
+    public String name()
+    {
+        // filters with prefixes are only usable with the same extractor, so they are stored under their own name
+        if (prefixExtractor != null) {
+            return userPolicy.name() + ".prefix." + prefixExtractor.name();
+        }
+        return userPolicy.name();
+    }
+
+    @Override
+    public byte[] createFilter(List<byte[]> keys)
+    {
+        List<byte[]> userKeys = new ArrayList<>(keys.size());
+        byte[] lastPrefix = null;
+        for (byte[] key : keys) {
+            byte[] userKey = userKey(key);
+            userKeys.add(userKey);
+            if (prefixExtractor != null) {
+                // keys are ordered, so keys sharing a prefix are next to each other
+                byte[] prefix = prefixExtractor.prefix(userKey);
+                if (prefix != null && !Arrays.equals(prefix, lastPrefix)) {
+                    userKeys.add(prefix);
+                    lastPrefix = prefix;
+                }
+            }
+        }
+        return userPolicy.createFilter(userKeys);
+    }
+
+    @Override
+    public boolean keyMayMatch(byte[] key, byte[] filter)
+    {
+        return userPolicy.keyMayMatch(userKey(key), filter);
+    }
+
+    private static byte[] userKey(byte[] internalKey)
+    {
+        return Arrays.copyOf(internalKey, internalKey.length - SIZE_OF_LONG);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.PrefixExtractor;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+
+/**
+ * Applies a user prefix extractor to user keys held in slices.
+ */
+public class InternalPrefixExtractor
+{
+    private final PrefixExtractor userExtractor;
+
+    public InternalPrefixExtractor(PrefixExtractor userExtractor)
+    {
+        this.userExtractor = requireNonNull(userExtractor, "userExtractor is null");
+    }
+
+    public String name()
+    {
+        return userExtractor.name();
+    }
+
+    /**
+     * Returns the prefix of the user key, or null if the key has no prefix.
+     */
+    public byte[] prefix(byte[] userKey)
+    {
+        if (!userExtractor.inDomain(userKey)) {
+            return null;
+        }
+        return userExtractor.transform(userKey);
+    }
+
+    /**
+     * Returns the prefix of the user key, or null if the key has no prefix.
+     */
+    public Slice prefix(Slice userKey)
+    {
+        byte[] prefix = prefix(userKey.getBytes());
+        if (prefix == null) {
+            return null;
+        }
+        return Slices.wrappedBuffer(prefix);
+    }
+
+    /**
+     * Returns true if the user key starts with the prefix.
+     */
+    public static boolean hasPrefix(Slice userKey, Slice prefix)
+    {
+        return userKey.length() >= prefix.length() && userKey.slice(0, prefix.length()).equals(prefix);
+    }
+
+    /**
+     * Returns the first internal key with the prefix, which is what tables
+     * are seeked to and their filters probed with.
+     */
+    public static Slice firstKeyWithPrefix(Slice prefix)
+    {
+        return new InternalKey(prefix, MAX_SEQUENCE_NUMBER, ValueType.VALUE).encode();
+    }
+}
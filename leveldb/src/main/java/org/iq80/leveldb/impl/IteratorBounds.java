@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Comparator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+
+/**
+ * The range of user keys [lower, upper) an iterator is limited to.  Either
+ * bound may be null for an unbounded end.  Tables outside the range are not
+ * opened, and a table stops reading blocks once it has passed the upper
+ * bound.
+ */
+public final class IteratorBounds
+{
+    private final Slice lower;
+    private final Slice upper;
+    private final Comparator<Slice> userComparator;
+    // the first internal key with the upper bound as its user key, or null
+    private final Slice upperInternalKey;
+
+    public IteratorBounds(Slice lower, Slice upper, Comparator<Slice> userComparator)
+    {
+        requireNonNull(userComparator, "userComparator is null");
+        checkArgument(lower == null || upper == null || userComparator.compare(lower, upper) <= 0, "lower bound is after upper bound");
+        this.lower = lower;
+        this.upper = upper;
+        this.userComparator = userComparator;
+        this.upperInternalKey = upper != null ? new InternalKey(upper, MAX_SEQUENCE_NUMBER, ValueType.VALUE).encode() : null;
+    }
+
+    public Slice getLower()
+    {
+        return lower;
+    }
+
+    public Slice getUpper()
+    {
+        return upper;
+    }
+
+    /**
+     * Returns the upper bound as an encoded internal key that sorts before
+     * every entry of the upper bound, or null if there is no upper bound.
+     */
+    public Slice getUpperInternalKey()
+    {
+        return upperInternalKey;
+    }
+
+    public boolean isBeforeLower(Slice userKey)
+    {
+        return lower != null && userComparator.compare(userKey, lower) < 0;
+    }
+
+    public boolean isAtOrAfterUpper(Slice userKey)
+    {
+        return upper != null && userComparator.compare(userKey, upper) >= 0;
+    }
+
+    /**
+     * Returns the key clamped into the bounds.
+     */
+    public Slice clamp(Slice userKey)
+    {
+        if (isBeforeLower(userKey)) {
+            return lower;
+        }
+        if (upper != null && userComparator.compare(userKey, upper) > 0) {
+            return upper;
+        }
+        return userKey;
+    }
+
+    public boolean overlaps(FileMetaData file)
+    {
+        return !isBeforeLower(file.getLargest().getUserKey()) && !isAtOrAfterUpper(file.getSmallest().getUserKey());
+    }
+
+    /**
+     * Returns the files with keys in the bounds, in their original order.
+     */
+    public List<FileMetaData> filter(List<FileMetaData> files)
+    {
+        ImmutableList.Builder<FileMetaData> builder = ImmutableList.builder();
+        for (FileMetaData file : files) {
+            if (overlaps(file)) {
+                builder.add(file);
+            }
+        }
+        return builder.build();
+    }
+}
@@ -17,21 +17,15 @@
  */
 package org.iq80.leveldb.impl;
 
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
 import org.iq80.leveldb.table.UserComparator;
-import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.LevelIterator;
 import org.iq80.leveldb.util.Slice;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Map.Entry;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.base.Preconditions.checkState;
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
 import static org.iq80.leveldb.impl.ValueType.VALUE;
@@ -72,20 +66,93 @@ public class Level
     @Override
     public LevelIterator iterator()
     {
-        return createLevelConcatIterator(tableCache, files, internalKeyComparator);
+        return iterator(true);
+    }
+
+    public LevelIterator iterator(boolean fillCache)
+    {
+        return createLevelConcatIterator(tableCache, files, internalKeyComparator, fillCache);
+    }
+
+    public LevelIterator iterator(boolean fillCache, InternalPrefixExtractor prefixExtractor)
+    {
+        return iterator(fillCache, prefixExtractor, null);
+    }
+
+    /**
+     * @param bounds if not null, files outside the bounds are not opened
+     */
+    public LevelIterator iterator(boolean fillCache, InternalPrefixExtractor prefixExtractor, IteratorBounds bounds)
+    {
+        return new LevelIterator(tableCache, files, internalKeyComparator, fillCache, prefixExtractor, bounds);
     }
 
     public static LevelIterator createLevelConcatIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator internalKeyComparator)
     {
-        return new LevelIterator(tableCache, files, internalKeyComparator);
+        return createLevelConcatIterator(tableCache, files, internalKeyComparator, true);
+    }
+
+    public static LevelIterator createLevelConcatIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator internalKeyComparator, boolean fillCache)
+    {
+        return new LevelIterator(tableCache, files, internalKeyComparator, fillCache);
+    }
+
+    public LookupResult get(LookupKey key, ReadStats readStats, LookupState state)
+    {
+        return get(key, ceilingFile(key.getInternalKey(), 0, files.size()), readStats, state);
     }
 
-    public LookupResult get(LookupKey key, ReadStats readStats)
+    /**
+     * Searches the files for the key starting with the file at the index,
+     * which must be the first file whose largest key is at or after the key.
+     */
+    public LookupResult get(LookupKey key, int index, ReadStats readStats, LookupState state)
     {
         if (files.isEmpty()) {
             return null;
         }
 
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        FileMetaData lastFileRead = null;
+        int lastFileReadLevel = -1;
+        readStats.clear();
+        for (int next = index; next < files.size(); next++) {
+            FileMetaData fileMetaData = files.get(next);
+            // the key must be in the first file; older entries for the key, such as the
+            // rest of a run of merge operands, may continue in the files that follow
+            int compare = userComparator.compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey());
+            if (next == index ? compare < 0 : compare != 0) {
+                break;
+            }
+
+            if (lastFileRead != null && readStats.getSeekFile() == null) {
+                // We have had more than one seek for this read.  Charge the first file.
+                readStats.setSeekFile(lastFileRead);
+                readStats.setSeekFileLevel(lastFileReadLevel);
+            }
+
+            lastFileRead = fileMetaData;
+            lastFileReadLevel = levelNumber;
+
+            // the files left are older than any range tombstone found so far
+            if (state.isCovered()) {
+                return LookupResult.deleted(key);
+            }
+            LookupResult lookupResult = tableCache.get(fileMetaData, key, state, null);
+            if (lookupResult != null) {
+                return lookupResult;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the files that may hold entries for the key, in the order
+     * they must be searched.
+     */
+    public List<FileMetaData> getFilesForKey(LookupKey key)
+    {
         List<FileMetaData> fileMetaDataList = new ArrayList<>(files.size());
         if (levelNumber == 0) {
             for (FileMetaData fileMetaData : files) {
@@ -97,70 +164,54 @@ public class Level
         }
         else {
             // Binary search to find earliest index whose largest key >= ikey.
-            int index = ceilingEntryIndex(Lists.transform(files, FileMetaData::getLargest), key.getInternalKey(), internalKeyComparator);
+            int index = ceilingFile(key.getInternalKey(), 0, files.size());
 
             // did we find any files that could contain the key?
             if (index >= files.size()) {
-                return null;
+                return ImmutableList.of();
             }
 
             // check if the smallest user key in the file is less than the target user key
             FileMetaData fileMetaData = files.get(index);
             if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) < 0) {
-                return null;
+                return ImmutableList.of();
             }
 
             // search this file
             fileMetaDataList.add(fileMetaData);
-        }
 
-        FileMetaData lastFileRead = null;
-        int lastFileReadLevel = -1;
-        readStats.clear();
-        for (FileMetaData fileMetaData : fileMetaDataList) {
-            if (lastFileRead != null && readStats.getSeekFile() == null) {
-                // We have had more than one seek for this read.  Charge the first file.
-                readStats.setSeekFile(lastFileRead);
-                readStats.setSeekFileLevel(lastFileReadLevel);
-            }
-
-            lastFileRead = fileMetaData;
-            lastFileReadLevel = levelNumber;
-
-            // open the iterator
-            InternalTableIterator iterator = tableCache.newIterator(fileMetaData);
-
-            // seek to the key
-            iterator.seek(key.getInternalKey());
-
-            if (iterator.hasNext()) {
-                // parse the key in the block
-                Entry<InternalKey, Slice> entry = iterator.next();
-                InternalKey internalKey = entry.getKey();
-                checkState(internalKey != null, "Corrupt key for %s", key.getUserKey().toString(UTF_8));
-
-                // if this is a value key (not a delete) and the keys match, return the value
-                if (key.getUserKey().equals(internalKey.getUserKey())) {
-                    if (internalKey.getValueType() == ValueType.DELETION) {
-                        return LookupResult.deleted(key);
-                    }
-                    else if (internalKey.getValueType() == VALUE) {
-                        return LookupResult.ok(key, entry.getValue());
-                    }
+            // older entries for the key, such as the rest of a run of merge
+            // operands, may continue in the files that follow
+            for (int next = index + 1; next < files.size(); next++) {
+                FileMetaData nextFile = files.get(next);
+                if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), nextFile.getSmallest().getUserKey()) != 0) {
+                    break;
                 }
+                fileMetaDataList.add(nextFile);
             }
         }
 
-        return null;
+        return fileMetaDataList;
     }
 
-    private static <T> int ceilingEntryIndex(List<T> list, T key, Comparator<T> comparator)
+    /**
+     * Returns the index of the first file in [start, end) whose largest key
+     * is at or after the key, or end if there is none.
+     */
+    public int ceilingFile(InternalKey key, int start, int end)
     {
-        int insertionPoint = Collections.binarySearch(list, key, comparator);
-        if (insertionPoint < 0) {
-            insertionPoint = -(insertionPoint + 1);
+        int low = start;
+        int high = end;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (internalKeyComparator.compare(files.get(middle).getLargest(), key) < 0) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
         }
-        return insertionPoint;
+        return low;
     }
 
     public boolean someFileOverlapsRange(Slice smallestUserKey, Slice largestUserKey)
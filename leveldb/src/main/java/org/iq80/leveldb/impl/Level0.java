@@ -18,18 +18,15 @@
 package org.iq80.leveldb.impl;
 
 import org.iq80.leveldb.table.UserComparator;
-import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.Level0Iterator;
 import org.iq80.leveldb.util.Slice;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Map.Entry;
 
-import static com.google.common.base.Preconditions.checkState;
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
 import static org.iq80.leveldb.impl.ValueType.VALUE;
@@ -41,6 +38,8 @@ public class Level0
     private final TableCache tableCache;
     private final InternalKeyComparator internalKeyComparator;
     private final List<FileMetaData> files;
+    // the files newest first, computed on the first lookup
+    private volatile FileMetaData[] newestFirst;
 
     public static final Comparator<FileMetaData> NEWEST_FIRST = new Comparator<FileMetaData>()
     {
@@ -75,48 +74,35 @@ public class Level0
     @Override
     public Level0Iterator iterator()
     {
-        return new Level0Iterator(tableCache, files, internalKeyComparator);
+        return iterator(true);
     }
 
-    public LookupResult get(LookupKey key, ReadStats readStats)
+    public Level0Iterator iterator(boolean fillCache)
+    {
+        return new Level0Iterator(tableCache, files, internalKeyComparator, fillCache);
+    }
+
+    public LookupResult get(LookupKey key, ReadStats readStats, LookupState state)
     {
         if (files.isEmpty()) {
             return null;
         }
 
-        List<FileMetaData> fileMetaDataList = new ArrayList<>(files.size());
-        for (FileMetaData fileMetaData : files) {
-            if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) >= 0 &&
-                    internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getLargest().getUserKey()) <= 0) {
-                fileMetaDataList.add(fileMetaData);
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        readStats.clear();
+        for (FileMetaData fileMetaData : getFilesNewestFirst()) {
+            if (userComparator.compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) < 0 ||
+                    userComparator.compare(key.getUserKey(), fileMetaData.getLargest().getUserKey()) > 0) {
+                continue;
             }
-        }
-
-        Collections.sort(fileMetaDataList, NEWEST_FIRST);
 
-        readStats.clear();
-        for (FileMetaData fileMetaData : fileMetaDataList) {
-            // open the iterator
-            InternalTableIterator iterator = tableCache.newIterator(fileMetaData);
-
-            // seek to the key
-            iterator.seek(key.getInternalKey());
-
-            if (iterator.hasNext()) {
-                // parse the key in the block
-                Entry<InternalKey, Slice> entry = iterator.next();
-                InternalKey internalKey = entry.getKey();
-                checkState(internalKey != null, "Corrupt key for %s", key.getUserKey().toString(UTF_8));
-
-                // if this is a value key (not a delete) and the keys match, return the value
-                if (key.getUserKey().equals(internalKey.getUserKey())) {
-                    if (internalKey.getValueType() == ValueType.DELETION) {
-                        return LookupResult.deleted(key);
-                    }
-                    else if (internalKey.getValueType() == VALUE) {
-                        return LookupResult.ok(key, entry.getValue());
-                    }
-                }
+            // the files left are older than any range tombstone found so far
+            if (state.isCovered()) {
+                return LookupResult.deleted(key);
+            }
+            LookupResult lookupResult = tableCache.get(fileMetaData, key, state, null);
+            if (lookupResult != null) {
+                return lookupResult;
             }
 
             if (readStats.getSeekFile() == null) {
@@ -129,6 +115,34 @@ public class Level0
         return null;
     }
 
+    private FileMetaData[] getFilesNewestFirst()
+    {
+        FileMetaData[] sorted = newestFirst;
+        if (sorted == null) {
+            sorted = files.toArray(new FileMetaData[files.size()]);
+            Arrays.sort(sorted, NEWEST_FIRST);
+            newestFirst = sorted;
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns the files whose range contains the key, newest first.
+     */
+    public List<FileMetaData> getFilesForKey(LookupKey key)
+    {
+        List<FileMetaData> fileMetaDataList = new ArrayList<>();
+        for (FileMetaData fileMetaData : files) {
+            if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) >= 0 &&
+                    internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getLargest().getUserKey()) <= 0) {
+                fileMetaDataList.add(fileMetaData);
+            }
+        }
+
+        Collections.sort(fileMetaDataList, NEWEST_FIRST);
+        return fileMetaDataList;
+    }
+
     public boolean someFileOverlapsRange(Slice smallestUserKey, Slice largestUserKey)
     {
         InternalKey smallestInternalKey = new InternalKey(smallestUserKey, MAX_SEQUENCE_NUMBER, VALUE);
@@ -171,6 +185,7 @@ public class Level0
     {
         // todo remove mutation
         files.add(fileMetaData);
+        newestFirst = null;
     }
 
     @Override
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Syncs the current log from a background thread once a write has been
+ * unsynced for {@code intervalMillis} or {@code bytesPerSync} bytes have
+ * been appended since the last sync, and tracks the last sequence number
+ * known to be on disk.  Writers that need durability wait for that
+ * sequence instead of forcing the log under the database mutex, so
+ * concurrent waiters share a single sync.
+ */
+public class LogSyncer
+        implements Closeable
+{
+    private final long intervalNanos;
+    private final long bytesPerSync;
+    private final Thread thread;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition syncRequested = lock.newCondition();
+    private final Condition syncCompleted = lock.newCondition();
+
+    private LogWriter log;
+    private long writtenSequence;
+    private long syncStartedSequence;
+    private long syncedSequence;
+    private long unsyncedBytes;
+    private long unsyncedSinceNanos;
+    private int waiters;
+    private boolean syncing;
+    private boolean closed;
+    private IOException syncError;
+
+    public LogSyncer(LogWriter log, long lastSequence, long intervalMillis, long bytesPerSync)
+    {
+        requireNonNull(log, "log is null");
+        checkArgument(lastSequence >= 0, "lastSequence is negative");
+        checkArgument(intervalMillis >= 0, "intervalMillis is negative");
+        checkArgument(bytesPerSync >= 0, "bytesPerSync is negative");
+
+        this.log = log;
+        this.writtenSequence = lastSequence;
+        this.syncStartedSequence = lastSequence;
+        this.syncedSequence = lastSequence;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.bytesPerSync = bytesPerSync;
+
+        this.thread = new ThreadFactoryBuilder()
+                .setNameFormat("leveldb-log-sync-%s")
+                .setDaemon(true)
+                .build()
+                .newThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        syncLoop();
+                    }
+                });
+        thread.start();
+    }
+
+    /**
+     * Records that a write ending at {@code sequence} was appended to the
+     * current log.
+     */
+    public void written(long sequence, int bytes)
+    {
+        lock.lock();
+        try {
+            checkState(!closed, "Log syncer has been closed");
+            checkArgument(sequence >= writtenSequence, "sequence %s is before last written sequence %s", sequence, writtenSequence);
+            if (writtenSequence == syncStartedSequence) {
+                unsyncedSinceNanos = System.nanoTime();
+                syncRequested.signalAll();
+            }
+            writtenSequence = sequence;
+            unsyncedBytes += bytes;
+            if (bytesPerSync > 0 && unsyncedBytes >= bytesPerSync) {
+                syncRequested.signalAll();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Syncs everything written to the current log and switches to a new
+     * one.  Must be called before the current log is closed.
+     */
+    public void setLog(LogWriter newLog)
+            throws IOException
+    {
+        requireNonNull(newLog, "newLog is null");
+        lock.lock();
+        try {
+            while (syncing) {
+                syncCompleted.awaitUninterruptibly();
+            }
+            if (writtenSequence > syncedSequence && syncError == null) {
+                try {
+                    log.sync();
+                }
+                catch (IOException e) {
+                    syncError = e;
+                    syncCompleted.signalAll();
+                    throw e;
+                }
+                syncedSequence = writtenSequence;
+                syncCompleted.signalAll();
+            }
+            syncStartedSequence = writtenSequence;
+            unsyncedBytes = 0;
+            log = newLog;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSyncedSequence()
+    {
+        lock.lock();
+        try {
+            return syncedSequence;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all writes up to {@code sequence} are on disk, requesting
+     * an immediate sync if they are not.
+     */
+    public void awaitSynced(long sequence)
+            throws IOException
+    {
+        lock.lock();
+        try {
+            if (syncedSequence >= sequence) {
+                return;
+            }
+            waiters++;
+            syncRequested.signalAll();
+            try {
+                while (syncedSequence < sequence) {
+                    if (syncError != null) {
+                        throw new IOException("Unable to sync log file " + log.getFile(), syncError);
+                    }
+                    checkState(!closed, "Log syncer has been closed");
+                    syncCompleted.awaitUninterruptibly();
+                }
+            }
+            finally {
+                waiters--;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            syncRequested.signalAll();
+            syncCompleted.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        try {
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // not every log forces itself on close
+        lock.lock();
+        try {
+            if (writtenSequence > syncedSequence && syncError == null) {
+                log.sync();
+                syncedSequence = writtenSequence;
+            }
+        }
+        catch (IOException ignored) {
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void syncLoop()
+    {
+        while (true) {
+            LogWriter target;
+            long sequence;
+            lock.lock();
+            try {
+                while (!closed && !isSyncDue()) {
+                    if (writtenSequence > syncStartedSequence && intervalNanos > 0) {
+                        syncRequested.awaitNanos(intervalNanos - (System.nanoTime() - unsyncedSinceNanos));
+                    }
+                    else {
+                        syncRequested.await();
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                target = log;
+                sequence = writtenSequence;
+                syncStartedSequence = sequence;
+                unsyncedBytes = 0;
+                syncing = true;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                target.sync();
+            }
+            catch (IOException e) {
+                error = e;
+            }
+
+            lock.lock();
+            try {
+                syncing = false;
+                if (error != null) {
+                    syncError = error;
+                }
+                else if (sequence > syncedSequence) {
+                    syncedSequence = sequence;
+                }
+                syncCompleted.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean isSyncDue()
+    {
+        if (writtenSequence <= syncStartedSequence || syncError != null) {
+            return false;
+        }
+        if (waiters > 0) {
+            return true;
+        }
+        if (bytesPerSync > 0 && unsyncedBytes >= bytesPerSync) {
+            return true;
+        }
+        return intervalNanos > 0 && System.nanoTime() - unsyncedSinceNanos >= intervalNanos;
+    }
+}
@@ -39,4 +39,8 @@ public interface LogWriter
     // Writes a stream of chunks such that no chunk is split across a block boundary
     void addRecord(Slice record, boolean force)
             throws IOException;
+
+    // Forces the records written so far to disk
+    void sync()
+            throws IOException;
 }
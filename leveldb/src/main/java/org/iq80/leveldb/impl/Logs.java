@@ -17,11 +17,12 @@
  */
 package org.iq80.leveldb.impl;
 
-import org.iq80.leveldb.util.PureJavaCrc32C;
+import org.iq80.leveldb.util.Crc32C;
 import org.iq80.leveldb.util.Slice;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.zip.Checksum;
 
 public final class Logs
 {
@@ -48,9 +49,9 @@ public final class Logs
     public static int getChunkChecksum(int chunkTypeId, byte[] buffer, int offset, int length)
     {
         // Compute the crc of the record type and the payload.
-        PureJavaCrc32C crc32C = new PureJavaCrc32C();
+        Checksum crc32C = Crc32C.newChecksum();
         crc32C.update(chunkTypeId);
         crc32C.update(buffer, offset, length);
-        return crc32C.getMaskedValue();
+        return Crc32C.getMaskedValue(crc32C);
     }
 }
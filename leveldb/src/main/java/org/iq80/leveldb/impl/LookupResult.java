@@ -19,25 +19,80 @@ package org.iq80.leveldb.impl;
 
 import org.iq80.leveldb.util.Slice;
 
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 
 public class LookupResult
 {
     public static LookupResult ok(LookupKey key, Slice value)
     {
-        return new LookupResult(key, value, false);
+        return new LookupResult(key, value, false, false);
+    }
+
+    /**
+     * The value is an encoded {@link BlobIndex} to be resolved by the caller.
+     */
+    public static LookupResult blobIndex(LookupKey key, Slice blobIndex)
+    {
+        return new LookupResult(key, blobIndex, false, true);
     }
 
     public static LookupResult deleted(LookupKey key)
     {
-        return new LookupResult(key, null, true);
+        return new LookupResult(key, null, true, false);
+    }
+
+    /**
+     * Reads the entries for the user key of the lookup key from an iterator
+     * positioned at the lookup key.  Merge operands found along the way are
+     * added to the merge operands of the state, newest first.  Entries older
+     * than a range tombstone recorded in the state are deleted.
+     *
+     * @return the value or deletion the operands apply to, or null if there
+     * are no more entries for the user key in the iterator
+     */
+    static LookupResult read(LookupKey key, Iterator<? extends Entry<InternalKey, Slice>> iterator, LookupState state)
+    {
+        while (iterator.hasNext()) {
+            Entry<InternalKey, Slice> entry = iterator.next();
+            InternalKey internalKey = entry.getKey();
+            checkState(internalKey != null, "Corrupt key for %s", key.getUserKey().toString(UTF_8));
+
+            if (!key.getUserKey().equals(internalKey.getUserKey())) {
+                return null;
+            }
+            if (state.isCovered(internalKey.getSequenceNumber())) {
+                return deleted(key);
+            }
+
+            switch (internalKey.getValueType()) {
+                case DELETION:
+                    return deleted(key);
+                case VALUE:
+                    return ok(key, entry.getValue());
+                case BLOB_INDEX:
+                    return blobIndex(key, entry.getValue());
+                case MERGE:
+                    List<Slice> mergeOperands = state.getMergeOperands();
+                    checkState(mergeOperands != null, "Found merge operand for %s but no merge operator is configured", key.getUserKey().toString(UTF_8));
+                    mergeOperands.add(entry.getValue());
+                    break;
+            }
+        }
+        return null;
     }
 
     private final LookupKey key;
     private final Slice value;
     private final boolean deleted;
+    private final boolean blobIndex;
 
-    private LookupResult(LookupKey key, Slice value, boolean deleted)
+    private LookupResult(LookupKey key, Slice value, boolean deleted, boolean blobIndex)
     {
         requireNonNull(key, "key is null");
         this.key = key;
@@ -48,6 +103,7 @@ public class LookupResult
             this.value = null;
         }
         this.deleted = deleted;
+        this.blobIndex = blobIndex;
     }
 
     public LookupKey getKey()
@@ -67,4 +123,9 @@ public class LookupResult
     {
         return deleted;
     }
+
+    public boolean isBlobIndex()
+    {
+        return blobIndex;
+    }
 }
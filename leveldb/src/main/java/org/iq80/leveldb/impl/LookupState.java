@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.util.Slice;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * State carried from the memtables down the levels during a single lookup.
+ */
+public class LookupState
+{
+    private final Comparator<Slice> userComparator;
+    private final List<Slice> mergeOperands;
+    private final boolean fillCache;
+    private long coveringSequence;
+    private boolean compactionNeeded;
+
+    /**
+     * @param collectMergeOperands true if a merge operator is configured
+     */
+    public LookupState(Comparator<Slice> userComparator, boolean collectMergeOperands)
+    {
+        this(userComparator, collectMergeOperands, true);
+    }
+
+    /**
+     * @param collectMergeOperands true if a merge operator is configured
+     * @param fillCache false if blocks read by the lookup should not be added to the block cache
+     */
+    public LookupState(Comparator<Slice> userComparator, boolean collectMergeOperands, boolean fillCache)
+    {
+        this.userComparator = requireNonNull(userComparator, "userComparator is null");
+        this.mergeOperands = collectMergeOperands ? new ArrayList<Slice>() : null;
+        this.fillCache = fillCache;
+    }
+
+    public boolean isFillCache()
+    {
+        return fillCache;
+    }
+
+    /**
+     * Returns the merge operands found for the key, newest first, or null if
+     * no merge operator is configured.
+     */
+    public List<Slice> getMergeOperands()
+    {
+        return mergeOperands;
+    }
+
+    /**
+     * Records the tombstones of a memtable or table that delete the key as of
+     * the lookup snapshot.
+     */
+    public void addRangeTombstones(LookupKey key, Iterable<RangeTombstone> tombstones)
+    {
+        long snapshot = key.getInternalKey().getSequenceNumber();
+        for (RangeTombstone tombstone : tombstones) {
+            long sequence = tombstone.getSequenceNumber();
+            if (sequence > coveringSequence && sequence <= snapshot && tombstone.covers(key.getUserKey(), userComparator)) {
+                coveringSequence = sequence;
+            }
+        }
+    }
+
+    /**
+     * Records the newest tombstone of the index that deletes the key as of
+     * the lookup snapshot.
+     */
+    public void addRangeTombstones(LookupKey key, RangeTombstoneIndex tombstones)
+    {
+        long sequence = tombstones.getCoveringSequence(key.getUserKey(), key.getInternalKey().getSequenceNumber());
+        if (sequence > coveringSequence) {
+            coveringSequence = sequence;
+        }
+    }
+
+    /**
+     * Returns true if a range tombstone found so far deletes the key.  Data
+     * in the memtables and tables searched after it is always older than the
+     * tombstone.
+     */
+    public boolean isCovered()
+    {
+        return coveringSequence > 0;
+    }
+
+    /**
+     * Returns true if an entry with the sequence number is deleted by a range
+     * tombstone found so far.
+     */
+    public boolean isCovered(long sequenceNumber)
+    {
+        return sequenceNumber < coveringSequence;
+    }
+
+    /**
+     * Records that the lookup used up the allowed seeks of a table, which
+     * should now be compacted.
+     */
+    public void setCompactionNeeded()
+    {
+        compactionNeeded = true;
+    }
+
+    public boolean isCompactionNeeded()
+    {
+        return compactionNeeded;
+    }
+}
@@ -119,6 +119,16 @@ public class MMapLogWriter
         return fileNumber;
     }
 
+    // Not synchronized so that appends can continue while the file is forced.  Forcing
+    // the channel also writes the pages of the windows that were already unmapped.
+    @Override
+    public void sync()
+            throws IOException
+    {
+        checkState(!closed.get(), "Log has been closed");
+        fileChannel.force(false);
+    }
+
     // Writes a stream of chunks such that no chunk is split across a block boundary
     @Override
     public synchronized void addRecord(Slice record, boolean force)
@@ -190,7 +200,8 @@ public class MMapLogWriter
         } while (sliceInput.isReadable());
 
         if (force) {
-            mappedByteBuffer.force();
+            // the record may have started in a window that is already unmapped
+            fileChannel.force(false);
         }
     }
 
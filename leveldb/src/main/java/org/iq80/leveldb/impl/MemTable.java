@@ -17,32 +17,47 @@
  */
 package org.iq80.leveldb.impl;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
 import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.Slice;
 
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+import static org.iq80.leveldb.impl.ValueType.RANGE_DELETION;
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
 
 public class MemTable
         implements SeekingIterable<InternalKey, Slice>
 {
     private final ConcurrentSkipListMap<InternalKey, Slice> table;
+    // range tombstones are kept apart from the point entries, ordered by begin key
+    private final ConcurrentSkipListMap<InternalKey, RangeTombstone> rangeTombstones;
+    private final AtomicInteger rangeTombstoneCount = new AtomicInteger();
+    // fragments of the range tombstones for lookups, rebuilt after tombstones are added
+    private volatile TombstoneIndex rangeTombstoneIndex;
+    private final Comparator<Slice> userComparator;
     private final AtomicLong approximateMemoryUsage = new AtomicLong();
 
     public MemTable(InternalKeyComparator internalKeyComparator)
     {
         table = new ConcurrentSkipListMap<>(internalKeyComparator);
+        rangeTombstones = new ConcurrentSkipListMap<>(internalKeyComparator);
+        userComparator = internalKeyComparator.getUserComparator();
     }
 
     public boolean isEmpty()
     {
-        return table.isEmpty();
+        return table.isEmpty() && rangeTombstones.isEmpty();
     }
 
     public long approximateMemoryUsage()
@@ -57,31 +72,52 @@ public class MemTable
         requireNonNull(valueType, "valueType is null");
 
         InternalKey internalKey = new InternalKey(key, sequenceNumber, valueType);
-        table.put(internalKey, value);
+        if (valueType == RANGE_DELETION) {
+            // the value is the exclusive end of the range
+            rangeTombstones.put(internalKey, new RangeTombstone(key, value, sequenceNumber));
+            rangeTombstoneCount.incrementAndGet();
+        }
+        else {
+            table.put(internalKey, value);
+        }
 
         approximateMemoryUsage.addAndGet(key.length() + SIZE_OF_LONG + value.length());
     }
 
-    public LookupResult get(LookupKey key)
+    public LookupResult get(LookupKey key, LookupState state)
     {
         requireNonNull(key, "key is null");
 
-        InternalKey internalKey = key.getInternalKey();
-        Entry<InternalKey, Slice> entry = table.ceilingEntry(internalKey);
-        if (entry == null) {
-            return null;
+        if (state.isCovered()) {
+            return LookupResult.deleted(key);
+        }
+        if (rangeTombstoneCount.get() > 0) {
+            state.addRangeTombstones(key, getRangeTombstoneIndex());
         }
 
-        InternalKey entryKey = entry.getKey();
-        if (entryKey.getUserKey().equals(key.getUserKey())) {
-            if (entryKey.getValueType() == ValueType.DELETION) {
-                return LookupResult.deleted(key);
-            }
-            else {
-                return LookupResult.ok(key, entry.getValue());
-            }
+        InternalKey internalKey = key.getInternalKey();
+        return LookupResult.read(key, table.tailMap(internalKey).entrySet().iterator(), state);
+    }
+
+    private RangeTombstoneIndex getRangeTombstoneIndex()
+    {
+        TombstoneIndex index = rangeTombstoneIndex;
+        int count = rangeTombstoneCount.get();
+        if (index == null || index.count != count) {
+            // a lookup sees every tombstone counted before its sequence was published,
+            // and the index is built from at least the tombstones counted here
+            index = new TombstoneIndex(count, RangeTombstoneIndex.build(rangeTombstones.values(), MAX_SEQUENCE_NUMBER, userComparator));
+            rangeTombstoneIndex = index;
         }
-        return null;
+        return index.index;
+    }
+
+    /**
+     * Returns the range tombstones in the memtable ordered by begin key.
+     */
+    public List<RangeTombstone> getRangeTombstones()
+    {
+        return ImmutableList.copyOf(rangeTombstones.values());
     }
 
     @Override
@@ -90,45 +126,94 @@ public class MemTable
         return new MemTableIterator();
     }
 
+    private static class TombstoneIndex
+    {
+        private final int count;
+        private final RangeTombstoneIndex index;
+
+        private TombstoneIndex(int count, RangeTombstoneIndex index)
+        {
+            this.count = count;
+            this.index = index;
+        }
+    }
+
     public class MemTableIterator
             implements InternalIterator
     {
+        // the position is just before the boundary, or just after it if
+        // afterBoundary is set; a null boundary is the beginning of the
+        // table, or its end if afterBoundary is set
+        private InternalKey boundary;
+        private boolean afterBoundary;
+        // iterates away from the position in the direction of the last move
         private PeekingIterator<Entry<InternalKey, Slice>> iterator;
+        private boolean reverse;
 
         public MemTableIterator()
         {
-            iterator = Iterators.peekingIterator(table.entrySet().iterator());
+            seekToFirst();
         }
 
         @Override
         public boolean hasNext()
         {
-            return iterator.hasNext();
+            return forward().hasNext();
         }
 
         @Override
         public void seekToFirst()
         {
-            iterator = Iterators.peekingIterator(table.entrySet().iterator());
+            setPosition(null, false);
+        }
+
+        @Override
+        public void seekToLast()
+        {
+            setPosition(null, true);
         }
 
         @Override
         public void seek(InternalKey targetKey)
         {
-            iterator = Iterators.peekingIterator(table.tailMap(targetKey).entrySet().iterator());
+            setPosition(targetKey, false);
         }
 
         @Override
         public InternalEntry peek()
         {
-            Entry<InternalKey, Slice> entry = iterator.peek();
+            Entry<InternalKey, Slice> entry = forward().peek();
             return new InternalEntry(entry.getKey(), entry.getValue());
         }
 
         @Override
         public InternalEntry next()
         {
-            Entry<InternalKey, Slice> entry = iterator.next();
+            Entry<InternalKey, Slice> entry = forward().next();
+            boundary = entry.getKey();
+            afterBoundary = true;
+            return new InternalEntry(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public boolean hasPrev()
+        {
+            return backward().hasNext();
+        }
+
+        @Override
+        public InternalEntry peekPrev()
+        {
+            Entry<InternalKey, Slice> entry = backward().peek();
+            return new InternalEntry(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public InternalEntry prev()
+        {
+            Entry<InternalKey, Slice> entry = backward().next();
+            boundary = entry.getKey();
+            afterBoundary = false;
             return new InternalEntry(entry.getKey(), entry.getValue());
         }
 
@@ -137,5 +222,56 @@ public class MemTable
         {
             throw new UnsupportedOperationException();
         }
+
+        private void setPosition(InternalKey boundary, boolean afterBoundary)
+        {
+            this.boundary = boundary;
+            this.afterBoundary = afterBoundary;
+            iterator = null;
+        }
+
+        private PeekingIterator<Entry<InternalKey, Slice>> forward()
+        {
+            if (iterator == null || reverse) {
+                Iterator<Entry<InternalKey, Slice>> entries;
+                if (boundary != null) {
+                    entries = table.tailMap(boundary, !afterBoundary).entrySet().iterator();
+                }
+                else if (!afterBoundary) {
+                    entries = table.entrySet().iterator();
+                }
+                else {
+                    entries = ImmutableList.<Entry<InternalKey, Slice>>of().iterator();
+                }
+                iterator = Iterators.peekingIterator(entries);
+                reverse = false;
+            }
+            return iterator;
+        }
+
+        @Override
+        public void close()
+        {
+            // the entries are on the heap, there is nothing to release
+        }
+
+        private PeekingIterator<Entry<InternalKey, Slice>> backward()
+        {
+            if (iterator == null || !reverse) {
+                Iterator<Entry<InternalKey, Slice>> entries;
+                if (boundary != null) {
+                    entries = table.headMap(boundary, afterBoundary).descendingMap().entrySet().iterator();
+                }
+                else if (afterBoundary) {
+                    entries = table.descendingMap().entrySet().iterator();
+                }
+                else {
+                    entries = ImmutableList.<Entry<InternalKey, Slice>>of().iterator();
+                }
+                iterator = Iterators.peekingIterator(entries);
+                reverse = true;
+            }
+            return iterator;
+        }
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Comparator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+import static org.iq80.leveldb.impl.ValueType.RANGE_DELETION;
+
+/**
+ * Deletes the entries of all user keys in [begin, end) that are older than
+ * the tombstone.
+ */
+public class RangeTombstone
+{
+    private final Slice begin;
+    private final Slice end;
+    private final long sequenceNumber;
+
+    public RangeTombstone(Slice begin, Slice end, long sequenceNumber)
+    {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+        this.begin = begin;
+        this.end = end;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public Slice getBegin()
+    {
+        return begin;
+    }
+
+    public Slice getEnd()
+    {
+        return end;
+    }
+
+    public long getSequenceNumber()
+    {
+        return sequenceNumber;
+    }
+
+    /**
+     * The key the tombstone is stored under in memtables and tables.
+     */
+    public InternalKey getBeginKey()
+    {
+        return new InternalKey(begin, sequenceNumber, RANGE_DELETION);
+    }
+
+    /**
+     * The largest internal key of a table holding this tombstone.  The end
+     * is exclusive, so this sorts before every entry of the end key.
+     */
+    public InternalKey getEndKey()
+    {
+        return new InternalKey(end, MAX_SEQUENCE_NUMBER, RANGE_DELETION);
+    }
+
+    public boolean isEmpty(Comparator<Slice> userComparator)
+    {
+        return userComparator.compare(begin, end) >= 0;
+    }
+
+    public boolean covers(Slice userKey, Comparator<Slice> userComparator)
+    {
+        return userComparator.compare(begin, userKey) <= 0 && userComparator.compare(userKey, end) < 0;
+    }
+
+    /**
+     * Returns true if the tombstone covers every user key in [smallest, largest].
+     */
+    public boolean covers(Slice smallest, Slice largest, Comparator<Slice> userComparator)
+    {
+        return userComparator.compare(begin, smallest) <= 0 && userComparator.compare(largest, end) < 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("RangeTombstone");
+        sb.append("{begin=").append(begin.toString(UTF_8));
+        sb.append(", end=").append(end.toString(UTF_8));
+        sb.append(", sequenceNumber=").append(sequenceNumber);
+        sb.append('}');
+        return sb.toString();
+    }
+}
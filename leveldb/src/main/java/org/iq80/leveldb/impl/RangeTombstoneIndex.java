@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.primitives.Longs;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The range tombstones visible at a sequence number, split into disjoint
+ * fragments so the newest tombstone covering a key is found with a binary
+ * search.  Used by iterators and compactions, which check every key they
+ * visit, and by memtable lookups, which also pass their snapshot.
+ */
+public final class RangeTombstoneIndex
+{
+    private static final long[] NO_SEQUENCES = new long[0];
+
+    private final Comparator<Slice> userComparator;
+
+    // fragment i covers [boundaries[i], boundaries[i + 1]) with the ascending sequences[i]
+    private final Slice[] boundaries;
+    private final long[][] sequences;
+
+    public static RangeTombstoneIndex build(Iterable<RangeTombstone> tombstones, long sequenceNumber, Comparator<Slice> userComparator)
+    {
+        requireNonNull(tombstones, "tombstones is null");
+        requireNonNull(userComparator, "userComparator is null");
+
+        TreeSet<Slice> points = new TreeSet<>(userComparator);
+        for (RangeTombstone tombstone : tombstones) {
+            if (isVisible(tombstone, sequenceNumber, userComparator)) {
+                points.add(tombstone.getBegin());
+                points.add(tombstone.getEnd());
+            }
+        }
+
+        Slice[] boundaries = points.toArray(new Slice[points.size()]);
+        List<List<Long>> fragments = new ArrayList<>(boundaries.length);
+        for (int i = 0; i < boundaries.length; i++) {
+            fragments.add(new ArrayList<Long>());
+        }
+        for (RangeTombstone tombstone : tombstones) {
+            if (isVisible(tombstone, sequenceNumber, userComparator)) {
+                int index = Arrays.binarySearch(boundaries, tombstone.getBegin(), userComparator);
+                for (; userComparator.compare(boundaries[index], tombstone.getEnd()) < 0; index++) {
+                    fragments.get(index).add(tombstone.getSequenceNumber());
+                }
+            }
+        }
+
+        long[][] sequences = new long[boundaries.length][];
+        for (int i = 0; i < boundaries.length; i++) {
+            sequences[i] = Longs.toArray(fragments.get(i));
+            Arrays.sort(sequences[i]);
+        }
+        return new RangeTombstoneIndex(boundaries, sequences, userComparator);
+    }
+
+    private static boolean isVisible(RangeTombstone tombstone, long sequenceNumber, Comparator<Slice> userComparator)
+    {
+        return tombstone.getSequenceNumber() <= sequenceNumber && !tombstone.isEmpty(userComparator);
+    }
+
+    private RangeTombstoneIndex(Slice[] boundaries, long[][] sequences, Comparator<Slice> userComparator)
+    {
+        this.boundaries = boundaries;
+        this.sequences = sequences;
+        this.userComparator = userComparator;
+    }
+
+    public boolean isEmpty()
+    {
+        return boundaries.length == 0;
+    }
+
+    /**
+     * Returns the sequence number of the newest tombstone covering the key,
+     * or 0 if no tombstone covers it.
+     */
+    public long getCoveringSequence(Slice userKey)
+    {
+        long[] covering = getFragment(userKey);
+        return covering.length == 0 ? 0 : covering[covering.length - 1];
+    }
+
+    /**
+     * Returns the sequence number of the newest tombstone covering the key
+     * that is not newer than the snapshot, or 0 if no such tombstone covers it.
+     */
+    public long getCoveringSequence(Slice userKey, long snapshot)
+    {
+        long[] covering = getFragment(userKey);
+        int index = Arrays.binarySearch(covering, snapshot);
+        if (index < 0) {
+            // the sequence before the insertion point
+            index = -(index + 1) - 1;
+        }
+        return index < 0 ? 0 : covering[index];
+    }
+
+    private long[] getFragment(Slice userKey)
+    {
+        int index = Arrays.binarySearch(boundaries, userKey, userComparator);
+        if (index < 0) {
+            // the fragment starting at the boundary before the insertion point
+            index = -(index + 1) - 1;
+        }
+        if (index < 0 || index >= sequences.length) {
+            return NO_SEQUENCES;
+        }
+        return sequences[index];
+    }
+}
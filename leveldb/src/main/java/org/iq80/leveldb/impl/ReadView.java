@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The memtables and version seen by reads, published by the database as one
+ * immutable unit whenever a memtable is switched or a version installed.
+ * Readers pin the view with an atomic increment instead of taking the
+ * database mutex, and the version stays retained until the last reader
+ * releases the view.
+ */
+public final class ReadView
+{
+    // one reference is held by the database for as long as the view is current
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final MemTable memTable;
+    private final MemTable immutableMemTable;
+    private final Version version;
+
+    ReadView(MemTable memTable, MemTable immutableMemTable, Version version)
+    {
+        this.memTable = requireNonNull(memTable, "memTable is null");
+        this.immutableMemTable = immutableMemTable;
+        this.version = requireNonNull(version, "version is null");
+        version.retain();
+    }
+
+    /**
+     * Pins the view, returning false if every holder has already released
+     * it, in which case a newer view has been published.
+     */
+    boolean tryRetain()
+    {
+        while (true) {
+            int current = references.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release()
+    {
+        if (references.decrementAndGet() == 0) {
+            version.release();
+        }
+    }
+
+    public MemTable getMemTable()
+    {
+        return memTable;
+    }
+
+    /**
+     * Returns the memtable being compacted, or null.
+     */
+    public MemTable getImmutableMemTable()
+    {
+        return immutableMemTable;
+    }
+
+    public Version getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Returns the range tombstones of the memtables and of every table.
+     */
+    public List<RangeTombstone> getRangeTombstones()
+    {
+        ImmutableList.Builder<RangeTombstone> tombstones = ImmutableList.builder();
+        tombstones.addAll(memTable.getRangeTombstones());
+        if (immutableMemTable != null) {
+            tombstones.addAll(immutableMemTable.getRangeTombstones());
+        }
+        tombstones.addAll(version.getRangeTombstones());
+        return tombstones.build();
+    }
+}
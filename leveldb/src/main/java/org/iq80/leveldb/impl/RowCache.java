@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.iq80.leveldb.util.Slice;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The newest entry of hot user keys in each table, keyed by table file
+ * number and user key, so a repeated point lookup skips the block search.
+ * Tables are never modified and file numbers are never reused, so entries
+ * never go stale: those of tables removed by compaction are simply no
+ * longer looked up and age out.
+ */
+public class RowCache
+{
+    // approximate bytes held by an entry besides the key and value
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final Cache<RowKey, Row> cache;
+
+    public RowCache(long capacity)
+    {
+        checkArgument(capacity > 0, "capacity must be positive");
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(capacity)
+                .weigher(new Weigher<RowKey, Row>()
+                {
+                    @Override
+                    public int weigh(RowKey key, Row row)
+                    {
+                        return ENTRY_OVERHEAD + key.userKey.length() + (row.value != null ? row.value.length() : 0);
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Returns the newest entry for the user key in the table, or null if it
+     * is not cached.
+     */
+    public Row get(long fileNumber, Slice userKey)
+    {
+        return cache.getIfPresent(new RowKey(fileNumber, userKey));
+    }
+
+    /**
+     * Caches the newest entry for the user key in the table, which must be a
+     * value or a deletion.  The key and value are copied.
+     */
+    public Row put(long fileNumber, Slice userKey, long sequenceNumber, Slice value)
+    {
+        Row row = new Row(sequenceNumber, value != null ? value.copySlice() : null);
+        cache.put(new RowKey(fileNumber, userKey.copySlice()), row);
+        return row;
+    }
+
+    public static final class Row
+    {
+        private final long sequenceNumber;
+        private final Slice value;
+
+        private Row(long sequenceNumber, Slice value)
+        {
+            this.sequenceNumber = sequenceNumber;
+            this.value = value;
+        }
+
+        public long getSequenceNumber()
+        {
+            return sequenceNumber;
+        }
+
+        /**
+         * Returns the value, or null if the entry is a deletion.
+         */
+        public Slice getValue()
+        {
+            return value;
+        }
+
+        public boolean isDeleted()
+        {
+            return value == null;
+        }
+    }
+
+    private static final class RowKey
+    {
+        private final long fileNumber;
+        private final Slice userKey;
+
+        private RowKey(long fileNumber, Slice userKey)
+        {
+            this.fileNumber = fileNumber;
+            this.userKey = requireNonNull(userKey, "userKey is null");
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            RowKey rowKey = (RowKey) o;
+            return fileNumber == rowKey.fileNumber && userKey.equals(rowKey.userKey);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = (int) (fileNumber ^ (fileNumber >>> 32));
+            result = 31 * result + userKey.hashCode();
+            return result;
+        }
+    }
+}
@@ -33,4 +33,28 @@ public interface SeekingIterator<K, V>
      * Repositions the iterator so the key of the next BlockElement returned greater than or equal to the specified targetKey.
      */
     void seek(K targetKey);
+
+    /**
+     * Repositions the iterator after the last element, so that the
+     * iteration can continue backward from the end.
+     */
+    void seekToLast();
+
+    /**
+     * Returns true if there is an element before the position of the iterator.
+     */
+    boolean hasPrev();
+
+    /**
+     * Returns the element before the position of the iterator and moves the
+     * position back before it, so that a following {@link #next()} returns
+     * the same element again.
+     */
+    Entry<K, V> prev();
+
+    /**
+     * Returns the element before the position of the iterator, without
+     * moving the position.
+     */
+    Entry<K, V> peekPrev();
 }
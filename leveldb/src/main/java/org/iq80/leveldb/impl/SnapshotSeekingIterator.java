@@ -17,44 +17,133 @@
  */
 package org.iq80.leveldb.impl;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.PeekingIterator;
+import org.iq80.leveldb.MergeOperator;
 import org.iq80.leveldb.util.AbstractSeekingIterator;
 import org.iq80.leveldb.util.DbIterator;
 import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map.Entry;
 
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+
 public final class SnapshotSeekingIterator
         extends AbstractSeekingIterator<Slice, Slice>
 {
     private final DbIterator iterator;
     private final SnapshotImpl snapshot;
     private final Comparator<Slice> userComparator;
+    private final MergeOperator mergeOperator;
+    private final RangeTombstoneIndex rangeTombstones;
+    private final InternalPrefixExtractor prefixExtractor;
+    private final IteratorBounds bounds;
+    private final BlobFileCache blobFiles;
+    // prefix of the last seek in prefix mode, or null
+    private Slice prefix;
 
     public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator)
+    {
+        this(iterator, snapshot, userComparator, null, RangeTombstoneIndex.build(ImmutableList.<RangeTombstone>of(), 0, userComparator));
+    }
+
+    /**
+     * @param rangeTombstones the range tombstones visible in the snapshot
+     */
+    public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator, MergeOperator mergeOperator, RangeTombstoneIndex rangeTombstones)
+    {
+        this(iterator, snapshot, userComparator, mergeOperator, rangeTombstones, null);
+    }
+
+    /**
+     * @param rangeTombstones the range tombstones visible in the snapshot
+     * @param prefixExtractor if not null, iteration ends at the first key
+     * without the prefix of the key seeked to
+     */
+    public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator, MergeOperator mergeOperator, RangeTombstoneIndex rangeTombstones, InternalPrefixExtractor prefixExtractor)
+    {
+        this(iterator, snapshot, userComparator, mergeOperator, rangeTombstones, prefixExtractor, null);
+    }
+
+    /**
+     * @param rangeTombstones the range tombstones visible in the snapshot
+     * @param prefixExtractor if not null, iteration ends at the first key
+     * without the prefix of the key seeked to
+     * @param bounds if not null, iteration is limited to the keys in the bounds
+     */
+    public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator, MergeOperator mergeOperator, RangeTombstoneIndex rangeTombstones, InternalPrefixExtractor prefixExtractor, IteratorBounds bounds)
+    {
+        this(iterator, snapshot, userComparator, mergeOperator, rangeTombstones, prefixExtractor, bounds, null);
+    }
+
+    /**
+     * @param rangeTombstones the range tombstones visible in the snapshot
+     * @param prefixExtractor if not null, iteration ends at the first key
+     * without the prefix of the key seeked to
+     * @param bounds if not null, iteration is limited to the keys in the bounds
+     * @param blobFiles reads the values of blob index entries
+     */
+    public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator, MergeOperator mergeOperator, RangeTombstoneIndex rangeTombstones, InternalPrefixExtractor prefixExtractor, IteratorBounds bounds, BlobFileCache blobFiles)
     {
         this.iterator = iterator;
         this.snapshot = snapshot;
         this.userComparator = userComparator;
+        this.mergeOperator = mergeOperator;
+        this.rangeTombstones = rangeTombstones;
+        this.prefixExtractor = prefixExtractor;
+        this.bounds = bounds;
+        this.blobFiles = blobFiles;
         this.snapshot.getVersion().retain();
     }
 
     public void close()
     {
+        iterator.close();
         this.snapshot.getVersion().release();
     }
 
     @Override
     protected void seekToFirstInternal()
     {
-        iterator.seekToFirst();
+        prefix = null;
+        if (bounds != null && bounds.getLower() != null) {
+            iterator.seek(new InternalKey(bounds.getLower(), snapshot.getLastSequence(), ValueType.VALUE));
+        }
+        else {
+            iterator.seekToFirst();
+        }
         findNextUserEntry(null);
     }
 
+    @Override
+    protected void seekToLastInternal()
+    {
+        prefix = null;
+        if (bounds != null && bounds.getUpper() != null) {
+            // before every entry of the upper bound
+            iterator.seek(new InternalKey(bounds.getUpper(), MAX_SEQUENCE_NUMBER, ValueType.VALUE));
+        }
+        else {
+            iterator.seekToLast();
+        }
+    }
+
     @Override
     protected void seekInternal(Slice targetKey)
     {
+        if (bounds != null) {
+            targetKey = bounds.clamp(targetKey);
+        }
+        prefix = prefixExtractor != null ? prefixExtractor.prefix(targetKey) : null;
         iterator.seek(new InternalKey(targetKey, snapshot.getLastSequence(), ValueType.VALUE));
         findNextUserEntry(null);
     }
@@ -62,16 +151,126 @@ public final class SnapshotSeekingIterator
     @Override
     protected Entry<Slice, Slice> getNextElement()
     {
-        if (!iterator.hasNext()) {
+        // after a backward step the iterator is before the entries of the key, newer ones first
+        findNextUserEntry(null);
+        if (!iterator.hasNext() || isPastPrefix(iterator.peek().getKey()) || isPastUpperBound(iterator.peek().getKey())) {
             return null;
         }
 
         Entry<InternalKey, Slice> next = iterator.next();
+        Slice userKey = next.getKey().getUserKey();
+        Slice value = next.getValue();
+        if (next.getKey().getValueType() == ValueType.MERGE) {
+            value = mergeValue(userKey, value, rangeTombstones.getCoveringSequence(userKey), iterator);
+        }
+        else if (next.getKey().getValueType() == ValueType.BLOB_INDEX) {
+            value = readBlob(value);
+        }
 
         // find the next user entry after the key we are about to return
-        findNextUserEntry(next.getKey().getUserKey());
+        findNextUserEntry(userKey);
 
-        return Maps.immutableEntry(next.getKey().getUserKey(), next.getValue());
+        return Maps.immutableEntry(userKey, value);
+    }
+
+    @Override
+    protected Entry<Slice, Slice> getPrevElement()
+    {
+        // prefix iteration only runs forward
+        if (prefix != null) {
+            return null;
+        }
+
+        while (iterator.hasPrev() && !isBeforeLowerBound(iterator.peekPrev().getKey())) {
+            // the entries of the key before the position come oldest first
+            Slice userKey = iterator.peekPrev().getKey().getUserKey();
+            List<Entry<InternalKey, Slice>> entries = new ArrayList<>();
+            while (iterator.hasPrev() && userComparator.compare(iterator.peekPrev().getKey().getUserKey(), userKey) == 0) {
+                entries.add(iterator.prev());
+            }
+
+            Slice value = getVisibleValue(userKey, Iterators.peekingIterator(Lists.reverse(entries).iterator()));
+            if (value != null) {
+                return Maps.immutableEntry(userKey, value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of the key in the snapshot, or null if the key is
+     * deleted in the snapshot.
+     *
+     * @param entries the entries of the key, newest first
+     */
+    private Slice getVisibleValue(Slice userKey, PeekingIterator<Entry<InternalKey, Slice>> entries)
+    {
+        long coveringSequence = rangeTombstones.getCoveringSequence(userKey);
+        while (entries.hasNext()) {
+            Entry<InternalKey, Slice> entry = entries.next();
+            InternalKey internalKey = entry.getKey();
+            if (internalKey.getSequenceNumber() > snapshot.getLastSequence()) {
+                continue;
+            }
+            if (internalKey.getSequenceNumber() < coveringSequence) {
+                return null;
+            }
+            switch (internalKey.getValueType()) {
+                case VALUE:
+                    return entry.getValue();
+                case BLOB_INDEX:
+                    return readBlob(entry.getValue());
+                case MERGE:
+                    return mergeValue(userKey, entry.getValue(), coveringSequence, entries);
+                case DELETION:
+                    return null;
+                default:
+                    // range tombstones are applied through the index
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Combines the newest merge operand of a key with the older entries of
+     * the key, which are consumed from the entries.  Entries older than the
+     * covering sequence were deleted by a range tombstone.
+     */
+    private Slice mergeValue(Slice userKey, Slice newestOperand, long coveringSequence, PeekingIterator<Entry<InternalKey, Slice>> entries)
+    {
+        checkState(mergeOperator != null, "Found merge operand for %s but no merge operator is configured", userKey.toString(UTF_8));
+
+        List<byte[]> operands = new ArrayList<>();
+        operands.add(newestOperand.getBytes());
+        byte[] existingValue = null;
+        while (entries.hasNext()) {
+            InternalKey internalKey = entries.peek().getKey();
+            if (!userKey.equals(internalKey.getUserKey()) || internalKey.getSequenceNumber() < coveringSequence) {
+                break;
+            }
+            Slice value = entries.next().getValue();
+            if (internalKey.getValueType() == ValueType.VALUE) {
+                existingValue = value.getBytes();
+                break;
+            }
+            if (internalKey.getValueType() == ValueType.BLOB_INDEX) {
+                existingValue = readBlob(value).getBytes();
+                break;
+            }
+            if (internalKey.getValueType() == ValueType.DELETION) {
+                break;
+            }
+            operands.add(value.getBytes());
+        }
+
+        // operands were collected newest first
+        return Slices.wrappedBuffer(mergeOperator.fullMerge(userKey.getBytes(), existingValue, Lists.reverse(operands)));
+    }
+
+    private Slice readBlob(Slice blobIndex)
+    {
+        checkState(blobFiles != null, "Found blob index but no blob files are available");
+        return blobFiles.get(BlobIndex.decode(blobIndex));
     }
 
     private void findNextUserEntry(Slice deletedKey)
@@ -85,6 +284,11 @@ public final class SnapshotSeekingIterator
             // Peek the next entry and parse the key
             InternalKey internalKey = iterator.peek().getKey();
 
+            // stop at the end of the prefix or bounds rather than skipping the entries after it
+            if (isPastPrefix(internalKey) || isPastUpperBound(internalKey)) {
+                return;
+            }
+
             // skip entries created after our snapshot
             if (internalKey.getSequenceNumber() > snapshot.getLastSequence()) {
                 iterator.next();
@@ -95,16 +299,35 @@ public final class SnapshotSeekingIterator
             if (internalKey.getValueType() == ValueType.DELETION) {
                 deletedKey = internalKey.getUserKey();
             }
-            else if (internalKey.getValueType() == ValueType.VALUE) {
+            else if (internalKey.getValueType() == ValueType.VALUE || internalKey.getValueType() == ValueType.MERGE || internalKey.getValueType() == ValueType.BLOB_INDEX) {
                 // is this value masked by a prior deletion record?
                 if (deletedKey == null || userComparator.compare(internalKey.getUserKey(), deletedKey) > 0) {
-                    return;
+                    // or deleted by a range tombstone?
+                    if (internalKey.getSequenceNumber() >= rangeTombstones.getCoveringSequence(internalKey.getUserKey())) {
+                        return;
+                    }
+                    deletedKey = internalKey.getUserKey();
                 }
             }
             iterator.next();
         } while (iterator.hasNext());
     }
 
+    private boolean isPastPrefix(InternalKey key)
+    {
+        return prefix != null && !InternalPrefixExtractor.hasPrefix(key.getUserKey(), prefix);
+    }
+
+    private boolean isPastUpperBound(InternalKey key)
+    {
+        return bounds != null && bounds.isAtOrAfterUpper(key.getUserKey());
+    }
+
+    private boolean isBeforeLowerBound(InternalKey key)
+    {
+        return bounds != null && bounds.isBeforeLower(key.getUserKey());
+    }
+
     @Override
     public String toString()
     {
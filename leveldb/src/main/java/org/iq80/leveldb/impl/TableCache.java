@@ -22,31 +22,61 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableList;
+import org.iq80.leveldb.FilterPolicy;
+import org.iq80.leveldb.table.Block;
+import org.iq80.leveldb.table.BlockCache;
 import org.iq80.leveldb.table.FileChannelTable;
 import org.iq80.leveldb.table.MMapTable;
 import org.iq80.leveldb.table.Table;
+import org.iq80.leveldb.table.TableBuilder;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.Closeables;
-import org.iq80.leveldb.util.Finalizer;
 import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.Slice;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map.Entry;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+import static org.iq80.leveldb.impl.ValueType.VALUE;
 
+/**
+ * Open tables by file number.  A table holds a reference for the cache and
+ * one for each open iterator or lookup over it, and its file is closed, or
+ * unmapped, as soon as the last reference is released.  Evicting a table
+ * only drops the cache's reference, so iterators can finish with tables that
+ * have been evicted or deleted.
+ */
 public class TableCache
 {
     private final LoadingCache<Long, TableAndFile> cache;
-    private final Finalizer<Table> finalizer = new Finalizer<>(1);
+    private final RowCache rowCache;
+    // tables whose file is open, including evicted tables still in use
+    private final AtomicInteger openTables = new AtomicInteger();
+
+    public TableCache(File databaseDir, int tableCacheSize, UserComparator userComparator, boolean verifyChecksums)
+    {
+        this(databaseDir, tableCacheSize, userComparator, verifyChecksums, null, null, null);
+    }
 
-    public TableCache(final File databaseDir, int tableCacheSize, final UserComparator userComparator, final boolean verifyChecksums)
+    /**
+     * @param blockCache cache for data blocks shared by all tables, or null
+     * @param filterPolicy policy the table filters were written with, or null to not use filters
+     * @param rowCache cache for the entries found by point lookups, or null
+     */
+    public TableCache(final File databaseDir, int tableCacheSize, final UserComparator userComparator, final boolean verifyChecksums, final BlockCache blockCache, final FilterPolicy filterPolicy, RowCache rowCache)
     {
         requireNonNull(databaseDir, "databaseName is null");
+        this.rowCache = rowCache;
 
         cache = CacheBuilder.newBuilder()
                 .maximumSize(tableCacheSize)
@@ -55,8 +85,7 @@ public class TableCache
                     @Override
                     public void onRemoval(RemovalNotification<Long, TableAndFile> notification)
                     {
-                        Table table = notification.getValue().getTable();
-                        finalizer.addCleanup(table, table.closer());
+                        releaseTable(notification.getValue().getTable());
                     }
                 })
                 .build(new CacheLoader<Long, TableAndFile>()
@@ -65,31 +94,236 @@ public class TableCache
                     public TableAndFile load(Long fileNumber)
                             throws IOException
                     {
-                        return new TableAndFile(databaseDir, fileNumber, userComparator, verifyChecksums);
+                        TableAndFile tableAndFile = new TableAndFile(databaseDir, fileNumber, userComparator, verifyChecksums, blockCache, filterPolicy);
+                        openTables.incrementAndGet();
+                        return tableAndFile;
                     }
                 });
     }
 
     public InternalTableIterator newIterator(FileMetaData file)
     {
-        return newIterator(file.getNumber());
+        return newIterator(file, true);
+    }
+
+    public InternalTableIterator newIterator(FileMetaData file, boolean fillCache)
+    {
+        return newIterator(file.getNumber(), fillCache);
+    }
+
+    /**
+     * @param prefixExtractor if not null, the iterator ends at the first key
+     * without the prefix of the key seeked to
+     */
+    public InternalTableIterator newIterator(FileMetaData file, boolean fillCache, InternalPrefixExtractor prefixExtractor)
+    {
+        return newIterator(file, fillCache, prefixExtractor, null);
+    }
+
+    /**
+     * @param prefixExtractor if not null, the iterator ends at the first key
+     * without the prefix of the key seeked to
+     * @param bounds if not null, the iterator stops reading blocks past the
+     * upper bound
+     */
+    public InternalTableIterator newIterator(FileMetaData file, boolean fillCache, InternalPrefixExtractor prefixExtractor, IteratorBounds bounds)
+    {
+        Slice upperBound = bounds != null ? bounds.getUpperInternalKey() : null;
+        return newIterator(file.getNumber(), fillCache, upperBound, prefixExtractor);
     }
 
     public InternalTableIterator newIterator(long number)
     {
-        return new InternalTableIterator(getTable(number).iterator());
+        return newIterator(number, true);
+    }
+
+    public InternalTableIterator newIterator(long number, boolean fillCache)
+    {
+        return newIterator(number, fillCache, null, null);
+    }
+
+    private InternalTableIterator newIterator(long number, boolean fillCache, Slice upperBound, InternalPrefixExtractor prefixExtractor)
+    {
+        final Table table = acquireTable(number);
+        try {
+            return new InternalTableIterator(table.iterator(fillCache, upperBound), prefixExtractor, new Closeable()
+            {
+                @Override
+                public void close()
+                {
+                    releaseTable(table);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            releaseTable(table);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns false if the filter of the table shows it does not contain
+     * the internal key.
+     */
+    public boolean keyMayMatch(FileMetaData file, Slice internalKey)
+    {
+        Table table = acquireTable(file.getNumber());
+        try {
+            return table.keyMayMatch(internalKey);
+        }
+        finally {
+            releaseTable(table);
+        }
+    }
+
+    public List<RangeTombstone> getRangeTombstones(FileMetaData file)
+    {
+        // only open the tables known to hold tombstones
+        if (!file.hasRangeTombstones()) {
+            return ImmutableList.of();
+        }
+        return getTableAndFile(file.getNumber()).getRangeTombstones();
+    }
+
+    /**
+     * Searches the table for the key, first recording the range tombstones
+     * of the table in the lookup state.  Returns null if older tables must
+     * be searched as well.
+     * <p>
+     * A non-null iterator must be over the same table and is left open, so
+     * that lookups of ascending keys can share it and read each block once.
+     */
+    public LookupResult get(FileMetaData file, LookupKey key, LookupState state, InternalTableIterator iterator)
+    {
+        state.addRangeTombstones(key, getRangeTombstones(file));
+
+        if (rowCache != null) {
+            RowCache.Row row = rowCache.get(file.getNumber(), key.getUserKey());
+            if (row != null && row.getSequenceNumber() <= key.getInternalKey().getSequenceNumber()) {
+                return toLookupResult(key, row, state);
+            }
+        }
+
+        // skip the table without reading a data block if its filter rules the key out
+        if (!keyMayMatch(file, key.getInternalKey().encode())) {
+            return null;
+        }
+
+        boolean closeIterator = iterator == null;
+        if (closeIterator) {
+            iterator = newIterator(file, state.isFillCache());
+        }
+        try {
+            if (rowCache != null && state.isFillCache()) {
+                RowCache.Row row = loadRow(file, key, iterator);
+                if (row != null && row.getSequenceNumber() <= key.getInternalKey().getSequenceNumber()) {
+                    return toLookupResult(key, row, state);
+                }
+            }
+
+            // seek to the key
+            iterator.seek(key.getInternalKey());
+
+            // read the entries for the key, collecting any merge operands
+            return LookupResult.read(key, iterator, state);
+        }
+        finally {
+            if (closeIterator) {
+                iterator.close();
+            }
+        }
+    }
+
+    /**
+     * Caches the newest entry for the user key in the table, if it is a
+     * value or a deletion.  Merge operands are not cached as they depend on
+     * the entries before them.
+     */
+    private RowCache.Row loadRow(FileMetaData file, LookupKey key, InternalTableIterator iterator)
+    {
+        iterator.seek(new InternalKey(key.getUserKey(), MAX_SEQUENCE_NUMBER, VALUE));
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        Entry<InternalKey, Slice> entry = iterator.next();
+        InternalKey internalKey = entry.getKey();
+        if (!key.getUserKey().equals(internalKey.getUserKey())) {
+            return null;
+        }
+        switch (internalKey.getValueType()) {
+            case VALUE:
+                return rowCache.put(file.getNumber(), key.getUserKey(), internalKey.getSequenceNumber(), entry.getValue());
+            case DELETION:
+                return rowCache.put(file.getNumber(), key.getUserKey(), internalKey.getSequenceNumber(), null);
+            default:
+                return null;
+        }
+    }
+
+    private static LookupResult toLookupResult(LookupKey key, RowCache.Row row, LookupState state)
+    {
+        if (row.isDeleted() || state.isCovered(row.getSequenceNumber())) {
+            return LookupResult.deleted(key);
+        }
+        return LookupResult.ok(key, row.getValue());
     }
 
     public long getApproximateOffsetOf(FileMetaData file, Slice key)
     {
-        return getTable(file.getNumber()).getApproximateOffsetOf(key);
+        Table table = acquireTable(file.getNumber());
+        try {
+            return table.getApproximateOffsetOf(key);
+        }
+        finally {
+            releaseTable(table);
+        }
+    }
+
+    /**
+     * Opens the table, reading its index and filter, and adds it to the
+     * cache if it is not cached already.
+     */
+    public void preload(long number)
+    {
+        getTableAndFile(number);
     }
 
-    private Table getTable(long number)
+    /**
+     * Returns the number of tables whose file is open, counting evicted
+     * tables that are still referenced by iterators.
+     */
+    public int getOpenTableCount()
     {
-        Table table;
+        return openTables.get();
+    }
+
+    /**
+     * Returns the table with a reference added for the caller, which must
+     * be released with {@link #releaseTable(Table)}.
+     */
+    private Table acquireTable(long number)
+    {
+        while (true) {
+            Table table = getTableAndFile(number).getTable();
+            // the table can be closed if it was evicted since the lookup, load it again
+            if (table.retain()) {
+                return table;
+            }
+        }
+    }
+
+    private void releaseTable(Table table)
+    {
+        if (table.release()) {
+            openTables.decrementAndGet();
+        }
+    }
+
+    private TableAndFile getTableAndFile(long number)
+    {
+        TableAndFile tableAndFile;
         try {
-            table = cache.get(number).getTable();
+            tableAndFile = cache.get(number);
         }
         catch (ExecutionException e) {
             Throwable cause = e;
@@ -98,13 +332,13 @@ public class TableCache
             }
             throw new RuntimeException("Could not open table " + number, cause);
         }
-        return table;
+        return tableAndFile;
     }
 
     public void close()
     {
+        // tables still referenced by open iterators are closed with the last iterator
         cache.invalidateAll();
-        finalizer.destroy();
     }
 
     public void evict(long number)
@@ -115,8 +349,9 @@ public class TableCache
     private static final class TableAndFile
     {
         private final Table table;
+        private final List<RangeTombstone> rangeTombstones;
 
-        private TableAndFile(File databaseDir, long fileNumber, UserComparator userComparator, boolean verifyChecksums)
+        private TableAndFile(File databaseDir, long fileNumber, UserComparator userComparator, boolean verifyChecksums, BlockCache blockCache, FilterPolicy filterPolicy)
                 throws IOException
         {
             String tableFileName = Filename.tableFileName(fileNumber);
@@ -126,13 +361,14 @@ public class TableCache
                 fis = new FileInputStream(tableFile);
                 FileChannel fileChannel = fis.getChannel();
                 if (Iq80DBFactory.USE_MMAP) {
-                    table = new MMapTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums);
+                    table = new MMapTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums, blockCache, fileNumber, filterPolicy);
                     // We can close the channel and input stream as the mapping does not need them
                     Closeables.closeQuietly(fis);
                 }
                 else {
-                    table = new FileChannelTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums);
+                    table = new FileChannelTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums, blockCache, fileNumber, filterPolicy);
                 }
+                rangeTombstones = readRangeTombstones(table);
             }
             catch (IOException ioe) {
               Closeables.closeQuietly(fis);
@@ -140,9 +376,30 @@ public class TableCache
             }
         }
 
+        private static List<RangeTombstone> readRangeTombstones(Table table)
+                throws IOException
+        {
+            Block block = table.getMetaBlock(TableBuilder.RANGE_DELETION_BLOCK);
+            if (block == null) {
+                return ImmutableList.of();
+            }
+
+            ImmutableList.Builder<RangeTombstone> tombstones = ImmutableList.builder();
+            for (Entry<Slice, Slice> entry : block) {
+                InternalKey key = new InternalKey(entry.getKey());
+                tombstones.add(new RangeTombstone(key.getUserKey(), entry.getValue(), key.getSequenceNumber()));
+            }
+            return tombstones.build();
+        }
+
         public Table getTable()
         {
             return table;
         }
+
+        public List<RangeTombstone> getRangeTombstones()
+        {
+            return rangeTombstones;
+        }
     }
 }
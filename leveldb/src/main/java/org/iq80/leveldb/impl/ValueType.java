@@ -20,7 +20,11 @@ package org.iq80.leveldb.impl;
 public enum ValueType
 {
     DELETION(0x00),
-    VALUE(0x01);
+    VALUE(0x01),
+    MERGE(0x02),
+    RANGE_DELETION(0x03),
+    // the value is a pointer to a value in a blob file
+    BLOB_INDEX(0x04);
 
     public static ValueType getValueTypeByPersistentId(int persistentId)
     {
@@ -29,6 +33,12 @@ public enum ValueType
                 return DELETION;
             case 1:
                 return VALUE;
+            case 2:
+                return MERGE;
+            case 3:
+                return RANGE_DELETION;
+            case 4:
+                return BLOB_INDEX;
             default:
                 throw new IllegalArgumentException("Unknown persistentId " + persistentId);
         }
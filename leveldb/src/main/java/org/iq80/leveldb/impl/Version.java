@@ -17,10 +17,13 @@
  */
 package org.iq80.leveldb.impl;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multimap;
+import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.LevelIterator;
@@ -28,8 +31,18 @@ import org.iq80.leveldb.util.MergingIterator;
 import org.iq80.leveldb.util.Slice;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -50,11 +63,20 @@ public class Version
     private final Level0 level0;
     private final List<Level> levels;
 
+    // range tombstones of all files, loaded on first use
+    private volatile List<RangeTombstone> rangeTombstones;
+    // built on the first lookup
+    private volatile FileIndexer fileIndexer;
+    private Map<Long, BlobFileMetaData> blobFiles = ImmutableMap.of();
+    // tables pointing to blob files that are mostly garbage, by level
+    private Multimap<Integer, FileMetaData> filesWithBlobGarbage = ImmutableMultimap.of();
+
     // move these mutable fields somewhere else
     private int compactionLevel;
     private double compactionScore;
-    private FileMetaData fileToCompact;
-    private int fileToCompactLevel;
+    // set by concurrent reads; the level is written before the file
+    private volatile FileMetaData fileToCompact;
+    private volatile int fileToCompactLevel;
 
     public Version(VersionSet versionSet)
     {
@@ -141,42 +163,302 @@ public class Version
     }
 
     List<InternalTableIterator> getLevel0Files()
+    {
+        return getLevel0Files(true);
+    }
+
+    List<InternalTableIterator> getLevel0Files(boolean fillCache)
+    {
+        return getLevel0Files(fillCache, null);
+    }
+
+    List<InternalTableIterator> getLevel0Files(boolean fillCache, InternalPrefixExtractor prefixExtractor)
+    {
+        return getLevel0Files(fillCache, prefixExtractor, null);
+    }
+
+    /**
+     * @param bounds if not null, only files with keys in the bounds are iterated
+     */
+    List<InternalTableIterator> getLevel0Files(boolean fillCache, InternalPrefixExtractor prefixExtractor, IteratorBounds bounds)
     {
         Builder<InternalTableIterator> builder = ImmutableList.builder();
         for (FileMetaData file : level0.getFiles()) {
-            builder.add(getTableCache().newIterator(file));
+            if (bounds == null || bounds.overlaps(file)) {
+                builder.add(getTableCache().newIterator(file, fillCache, prefixExtractor, bounds));
+            }
         }
         return builder.build();
     }
 
     List<LevelIterator> getLevelIterators()
+    {
+        return getLevelIterators(true);
+    }
+
+    List<LevelIterator> getLevelIterators(boolean fillCache)
+    {
+        return getLevelIterators(fillCache, null);
+    }
+
+    List<LevelIterator> getLevelIterators(boolean fillCache, InternalPrefixExtractor prefixExtractor)
+    {
+        return getLevelIterators(fillCache, prefixExtractor, null);
+    }
+
+    /**
+     * @param bounds if not null, levels without files in the bounds are left
+     * out and the files outside the bounds are not opened
+     */
+    List<LevelIterator> getLevelIterators(boolean fillCache, InternalPrefixExtractor prefixExtractor, IteratorBounds bounds)
     {
         Builder<LevelIterator> builder = ImmutableList.builder();
         for (Level level : levels) {
-            if (!level.getFiles().isEmpty()) {
-                builder.add(level.iterator());
+            if (hasFilesInBounds(level.getFiles(), bounds)) {
+                builder.add(level.iterator(fillCache, prefixExtractor, bounds));
             }
         }
         return builder.build();
     }
 
-    public LookupResult get(LookupKey key)
+    private static boolean hasFilesInBounds(List<FileMetaData> files, IteratorBounds bounds)
+    {
+        if (bounds == null) {
+            return !files.isEmpty();
+        }
+        for (FileMetaData file : files) {
+            if (bounds.overlaps(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the range tombstones of every table in this version.  Only the
+     * tables that hold tombstones are opened.
+     */
+    public List<RangeTombstone> getRangeTombstones()
+    {
+        List<RangeTombstone> tombstones = rangeTombstones;
+        if (tombstones == null) {
+            Builder<RangeTombstone> builder = ImmutableList.builder();
+            for (FileMetaData file : getFiles().values()) {
+                builder.addAll(getTableCache().getRangeTombstones(file));
+            }
+            tombstones = builder.build();
+            rangeTombstones = tombstones;
+        }
+        return tombstones;
+    }
+
+    public LookupResult get(LookupKey key, LookupState state)
     {
         // We can search level-by-level since entries never hop across
         // levels.  Therefore we are guaranteed that if we find data
         // in an smaller level, later levels are irrelevant.
         ReadStats readStats = new ReadStats();
-        LookupResult lookupResult = level0.get(key, readStats);
+        LookupResult lookupResult = level0.get(key, readStats, state);
         if (lookupResult == null) {
+            lookupResult = getFromLevels(key, readStats, state);
+        }
+        if (updateStats(readStats.getSeekFileLevel(), readStats.getSeekFile())) {
+            state.setCompactionNeeded();
+        }
+        return lookupResult;
+    }
+
+    /**
+     * Searches the levels above zero, narrowing the search of each level to
+     * the files under the file the key fell on in the level above.
+     */
+    private LookupResult getFromLevels(LookupKey key, ReadStats readStats, LookupState state)
+    {
+        FileIndexer indexer = getFileIndexer();
+        UserComparator userComparator = getInternalKeyComparator().getUserComparator();
+        int start = 0;
+        int end = levels.get(0).getFiles().size();
+        for (Level level : levels) {
+            int index = level.ceilingFile(key.getInternalKey(), start, end);
+            LookupResult lookupResult = level.get(key, index, readStats, state);
+            if (lookupResult != null) {
+                return lookupResult;
+            }
+            if (level.getLevelNumber() == levels.size()) {
+                break;
+            }
+
+            int compareToSmallest = 0;
+            int compareToLargest = 0;
+            List<FileMetaData> files = level.getFiles();
+            if (index < files.size()) {
+                compareToSmallest = userComparator.compare(key.getUserKey(), files.get(index).getSmallest().getUserKey());
+                compareToLargest = userComparator.compare(key.getUserKey(), files.get(index).getLargest().getUserKey());
+            }
+            start = indexer.getNextLevelStart(level.getLevelNumber(), index, compareToSmallest, compareToLargest);
+            end = indexer.getNextLevelEnd(level.getLevelNumber(), index, compareToSmallest, compareToLargest);
+        }
+        return null;
+    }
+
+    private FileIndexer getFileIndexer()
+    {
+        FileIndexer indexer = fileIndexer;
+        if (indexer == null) {
+            List<List<FileMetaData>> levelFiles = new ArrayList<>(levels.size());
             for (Level level : levels) {
-                lookupResult = level.get(key, readStats);
-                if (lookupResult != null) {
-                    break;
+                levelFiles.add(level.getFiles());
+            }
+            indexer = new FileIndexer(getInternalKeyComparator().getUserComparator(), levelFiles);
+            fileIndexer = indexer;
+        }
+        return indexer;
+    }
+
+    /**
+     * Searches the files for every lookup that is not done yet.  The lookups
+     * must be sorted by user key.  Each file is searched with one table
+     * iterator for all of its keys, so a block holding several of them is
+     * read once.  The files of a level above zero are disjoint, so their key
+     * groups are independent and are searched on the executor, if any, with
+     * the caller taking the last group.
+     * <p>
+     * Unlike single key reads, batched reads do not charge seeks to files.
+     */
+    public void get(List<BatchedLookup> lookups, ExecutorService executor)
+    {
+        // level 0 files overlap, so each file is searched in turn, newest first
+        List<FileMetaData> level0Files = new ArrayList<>(level0.getFiles());
+        Collections.sort(level0Files, Level0.NEWEST_FIRST);
+        for (FileMetaData file : level0Files) {
+            searchFile(file, pendingLookupsInFile(lookups, file));
+        }
+
+        for (final Level level : levels) {
+            // group the keys by the first file they must search
+            Map<FileMetaData, List<BatchedLookup>> groups = new LinkedHashMap<>();
+            for (BatchedLookup lookup : lookups) {
+                if (!lookup.isDone()) {
+                    List<FileMetaData> files = level.getFilesForKey(lookup.getKey());
+                    if (!files.isEmpty()) {
+                        groups.computeIfAbsent(files.get(0), file -> new ArrayList<>()).add(lookup);
+                    }
                 }
             }
+
+            List<Callable<Void>> tasks = new ArrayList<>(groups.size());
+            for (final Entry<FileMetaData, List<BatchedLookup>> group : groups.entrySet()) {
+                tasks.add(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                    {
+                        searchLevelFiles(level, group.getKey(), group.getValue());
+                        return null;
+                    }
+                });
+            }
+            runAll(tasks, executor);
+        }
+    }
+
+    private List<BatchedLookup> pendingLookupsInFile(List<BatchedLookup> lookups, FileMetaData file)
+    {
+        UserComparator userComparator = getInternalKeyComparator().getUserComparator();
+        List<BatchedLookup> pending = new ArrayList<>();
+        for (BatchedLookup lookup : lookups) {
+            Slice userKey = lookup.getKey().getUserKey();
+            if (!lookup.isDone() &&
+                    userComparator.compare(userKey, file.getSmallest().getUserKey()) >= 0 &&
+                    userComparator.compare(userKey, file.getLargest().getUserKey()) <= 0) {
+                pending.add(lookup);
+            }
+        }
+        return pending;
+    }
+
+    private void searchFile(FileMetaData file, List<BatchedLookup> lookups)
+    {
+        if (lookups.isEmpty()) {
+            return;
+        }
+        InternalTableIterator iterator = getTableCache().newIterator(file, lookups.get(0).getState().isFillCache());
+        try {
+            for (BatchedLookup lookup : lookups) {
+                lookup.setResult(searchFile(file, lookup, iterator));
+            }
+        }
+        finally {
+            iterator.close();
+        }
+    }
+
+    private void searchLevelFiles(Level level, FileMetaData first, List<BatchedLookup> lookups)
+    {
+        InternalTableIterator iterator = getTableCache().newIterator(first, lookups.get(0).getState().isFillCache());
+        try {
+            for (BatchedLookup lookup : lookups) {
+                // a run of merge operands may continue into the files after the first
+                for (FileMetaData file : level.getFilesForKey(lookup.getKey())) {
+                    lookup.setResult(searchFile(file, lookup, file == first ? iterator : null));
+                    if (lookup.isDone()) {
+                        break;
+                    }
+                }
+            }
+        }
+        finally {
+            iterator.close();
+        }
+    }
+
+    private LookupResult searchFile(FileMetaData file, BatchedLookup lookup, InternalTableIterator iterator)
+    {
+        // the file is older than any range tombstone found so far
+        if (lookup.getState().isCovered()) {
+            return LookupResult.deleted(lookup.getKey());
+        }
+        return getTableCache().get(file, lookup.getKey(), lookup.getState(), iterator);
+    }
+
+    private static void runAll(List<Callable<Void>> tasks, ExecutorService executor)
+    {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        List<Future<Void>> futures = new ArrayList<>(tasks.size() - 1);
+        try {
+            if (executor != null) {
+                for (Callable<Void> task : tasks.subList(0, tasks.size() - 1)) {
+                    futures.add(executor.submit(task));
+                }
+            }
+            else {
+                for (Callable<Void> task : tasks.subList(0, tasks.size() - 1)) {
+                    task.call();
+                }
+            }
+            tasks.get(tasks.size() - 1).call();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+        finally {
+            // do not leave groups running against the version once the caller returns
+            for (Future<Void> future : futures) {
+                future.cancel(false);
+            }
         }
-        updateStats(readStats.getSeekFileLevel(), readStats.getSeekFile());
-        return lookupResult;
     }
 
     int pickLevelForMemTableOutput(Slice smallestUserKey, Slice largestUserKey)
@@ -258,9 +540,38 @@ public class Version
         }
         else {
             levels.get(level - 1).addFile(fileMetaData);
+            fileIndexer = null;
         }
     }
 
+    /**
+     * Returns the blob files the tables of this version may point to, by
+     * file number.
+     */
+    public Map<Long, BlobFileMetaData> getBlobFiles()
+    {
+        return blobFiles;
+    }
+
+    public void setBlobFiles(Map<Long, BlobFileMetaData> blobFiles)
+    {
+        this.blobFiles = ImmutableMap.copyOf(blobFiles);
+    }
+
+    /**
+     * Returns the tables, by level, that point to a blob file whose garbage
+     * ratio has reached {@link org.iq80.leveldb.Options#blobGarbageRatio()}.
+     */
+    public Multimap<Integer, FileMetaData> getFilesWithBlobGarbage()
+    {
+        return filesWithBlobGarbage;
+    }
+
+    public void setFilesWithBlobGarbage(Multimap<Integer, FileMetaData> filesWithBlobGarbage)
+    {
+        this.filesWithBlobGarbage = ImmutableMultimap.copyOf(filesWithBlobGarbage);
+    }
+
     private boolean updateStats(int seekFileLevel, FileMetaData seekFile)
     {
         if (seekFile == null) {
@@ -269,9 +580,14 @@ public class Version
 
         seekFile.decrementAllowedSeeks();
         if (seekFile.getAllowedSeeks() <= 0 && fileToCompact == null) {
-            fileToCompact = seekFile;
-            fileToCompactLevel = seekFileLevel;
-            return true;
+            // only the first read to use up the seeks of a file records it
+            synchronized (this) {
+                if (fileToCompact == null) {
+                    fileToCompactLevel = seekFileLevel;
+                    fileToCompact = seekFile;
+                    return true;
+                }
+            }
         }
         return false;
     }
@@ -286,6 +602,62 @@ public class Version
         return fileToCompactLevel;
     }
 
+    /**
+     * Returns up to {@code partitions - 1} keys that split the range
+     * [start, limit) into partitions holding about the same number of bytes.
+     * Split keys are the smallest keys of table files, so each partition
+     * starts at a file boundary.
+     */
+    public List<Slice> getSplitKeys(Slice start, Slice limit, int partitions)
+    {
+        checkArgument(partitions > 0, "partitions must be positive");
+        UserComparator userComparator = getInternalKeyComparator().getUserComparator();
+
+        TreeSet<Slice> boundaries = new TreeSet<>(userComparator);
+        for (FileMetaData file : getFiles().values()) {
+            Slice boundary = file.getSmallest().getUserKey();
+            if (userComparator.compare(boundary, start) > 0 && userComparator.compare(boundary, limit) < 0) {
+                boundaries.add(boundary);
+            }
+        }
+        if (partitions == 1 || boundaries.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        // offsets grow with the key, so each split is found with a binary search over the boundaries
+        List<Slice> candidates = new ArrayList<>(boundaries);
+        long[] offsets = new long[candidates.size()];
+        Arrays.fill(offsets, -1);
+        long startOffset = getApproximateOffsetOf(new InternalKey(start, MAX_SEQUENCE_NUMBER, ValueType.VALUE));
+        long limitOffset = getApproximateOffsetOf(new InternalKey(limit, MAX_SEQUENCE_NUMBER, ValueType.VALUE));
+
+        ImmutableList.Builder<Slice> splitKeys = ImmutableList.builder();
+        int next = 0;
+        for (int partition = 1; partition < partitions && next < candidates.size(); partition++) {
+            long target = startOffset + (limitOffset - startOffset) * partition / partitions;
+            int low = next;
+            int high = candidates.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (offsets[middle] < 0) {
+                    offsets[middle] = getApproximateOffsetOf(new InternalKey(candidates.get(middle), MAX_SEQUENCE_NUMBER, ValueType.VALUE));
+                }
+                if (offsets[middle] < target) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            if (low == candidates.size()) {
+                break;
+            }
+            splitKeys.add(candidates.get(low));
+            next = low + 1;
+        }
+        return splitKeys.build();
+    }
+
     public long getApproximateOffsetOf(InternalKey key)
     {
         long result = 0;
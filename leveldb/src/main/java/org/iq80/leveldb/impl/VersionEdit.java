@@ -18,6 +18,7 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multimap;
@@ -26,6 +27,7 @@ import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.SliceInput;
 import org.iq80.leveldb.util.VariableLengthQuantity;
 
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -39,6 +41,8 @@ public class VersionEdit
     private final Map<Integer, InternalKey> compactPointers = new TreeMap<>();
     private final Multimap<Integer, FileMetaData> newFiles = ArrayListMultimap.create();
     private final Multimap<Integer, Long> deletedFiles = ArrayListMultimap.create();
+    private final Map<Long, BlobFileMetaData> newBlobFiles = new TreeMap<>();
+    private final Map<Long, Long> blobGarbage = new TreeMap<>();
 
     public VersionEdit()
     {
@@ -157,6 +161,35 @@ public class VersionEdit
         deletedFiles.put(level, fileNumber);
     }
 
+    public List<BlobFileMetaData> getNewBlobFiles()
+    {
+        return ImmutableList.copyOf(newBlobFiles.values());
+    }
+
+    public void addBlobFile(BlobFileMetaData blobFile)
+    {
+        newBlobFiles.put(blobFile.getNumber(), blobFile);
+    }
+
+    public Map<Long, Long> getBlobGarbage()
+    {
+        return ImmutableMap.copyOf(blobGarbage);
+    }
+
+    // Record that values of the specified blob file no table points to anymore
+    public void addBlobGarbage(long fileNumber, long bytes)
+    {
+        Long garbage = blobGarbage.get(fileNumber);
+        blobGarbage.put(fileNumber, garbage == null ? bytes : garbage + bytes);
+    }
+
+    public void addBlobGarbage(Map<Long, Long> garbage)
+    {
+        for (Map.Entry<Long, Long> entry : garbage.entrySet()) {
+            addBlobGarbage(entry.getKey(), entry.getValue());
+        }
+    }
+
     public Slice encode()
     {
         DynamicSliceOutput dynamicSliceOutput = new DynamicSliceOutput(4096);
@@ -178,6 +211,8 @@ public class VersionEdit
         sb.append(", compactPointers=").append(compactPointers);
         sb.append(", newFiles=").append(newFiles);
         sb.append(", deletedFiles=").append(deletedFiles);
+        sb.append(", newBlobFiles=").append(newBlobFiles.values());
+        sb.append(", blobGarbage=").append(blobGarbage);
         sb.append('}');
         return sb.toString();
     }
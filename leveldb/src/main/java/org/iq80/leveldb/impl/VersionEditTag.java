@@ -17,11 +17,14 @@
  */
 package org.iq80.leveldb.impl;
 
+import com.google.common.collect.ImmutableSet;
 import org.iq80.leveldb.util.SliceInput;
 import org.iq80.leveldb.util.SliceOutput;
 import org.iq80.leveldb.util.VariableLengthQuantity;
 
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.iq80.leveldb.util.Slices.readLengthPrefixedBytes;
@@ -215,6 +218,10 @@ public enum VersionEditTag
                 public void writeValue(SliceOutput sliceOutput, VersionEdit versionEdit)
                 {
                     for (Entry<Integer, FileMetaData> entry : versionEdit.getNewFiles().entries()) {
+                        if (entry.getValue().hasRangeTombstones() || !entry.getValue().getBlobFiles().isEmpty()) {
+                            // written as NEW_FILE_WITH_RANGE_TOMBSTONES or NEW_FILE_WITH_BLOB_FILES
+                            continue;
+                        }
                         VariableLengthQuantity.writeVariableLengthInt(getPersistentId(), sliceOutput);
 
                         // level
@@ -234,6 +241,202 @@ public enum VersionEditTag
                         writeLengthPrefixedBytes(sliceOutput, fileMetaData.getLargest().encode());
                     }
                 }
+            },
+
+    // a NEW_FILE with the number of range tombstones in the table, so reads
+    // only load the tombstones of tables that have some
+    NEW_FILE_WITH_RANGE_TOMBSTONES(12)
+            {
+                @Override
+                public void readValue(SliceInput sliceInput, VersionEdit versionEdit)
+                {
+                    // level
+                    int level = VariableLengthQuantity.readVariableLengthInt(sliceInput);
+
+                    // file number
+                    long fileNumber = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+                    // file size
+                    long fileSize = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+                    // smallest key
+                    InternalKey smallestKey = new InternalKey(readLengthPrefixedBytes(sliceInput));
+
+                    // largest key
+                    InternalKey largestKey = new InternalKey(readLengthPrefixedBytes(sliceInput));
+
+                    // range tombstones
+                    int rangeTombstoneCount = VariableLengthQuantity.readVariableLengthInt(sliceInput);
+
+                    versionEdit.addFile(level, new FileMetaData(fileNumber, fileSize, smallestKey, largestKey, rangeTombstoneCount, ImmutableSet.<Long>of()));
+                }
+
+                @Override
+                public void writeValue(SliceOutput sliceOutput, VersionEdit versionEdit)
+                {
+                    for (Entry<Integer, FileMetaData> entry : versionEdit.getNewFiles().entries()) {
+                        FileMetaData fileMetaData = entry.getValue();
+                        if (!fileMetaData.hasRangeTombstones() || !fileMetaData.getBlobFiles().isEmpty()) {
+                            continue;
+                        }
+                        VariableLengthQuantity.writeVariableLengthInt(getPersistentId(), sliceOutput);
+
+                        // level
+                        VariableLengthQuantity.writeVariableLengthInt(entry.getKey(), sliceOutput);
+
+                        // file number
+                        VariableLengthQuantity.writeVariableLengthLong(fileMetaData.getNumber(), sliceOutput);
+
+                        // file size
+                        VariableLengthQuantity.writeVariableLengthLong(fileMetaData.getFileSize(), sliceOutput);
+
+                        // smallest key
+                        writeLengthPrefixedBytes(sliceOutput, fileMetaData.getSmallest().encode());
+
+                        // largest key
+                        writeLengthPrefixedBytes(sliceOutput, fileMetaData.getLargest().encode());
+
+                        // range tombstones
+                        VariableLengthQuantity.writeVariableLengthInt(fileMetaData.getRangeTombstoneCount(), sliceOutput);
+                    }
+                }
+            },
+
+    // a NEW_FILE_WITH_RANGE_TOMBSTONES with the blob files the table points
+    // to, so compactions can find the tables to rewrite when a blob file
+    // becomes mostly garbage
+    NEW_FILE_WITH_BLOB_FILES(13)
+            {
+                @Override
+                public void readValue(SliceInput sliceInput, VersionEdit versionEdit)
+                {
+                    // level
+                    int level = VariableLengthQuantity.readVariableLengthInt(sliceInput);
+
+                    // file number
+                    long fileNumber = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+                    // file size
+                    long fileSize = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+                    // smallest key
+                    InternalKey smallestKey = new InternalKey(readLengthPrefixedBytes(sliceInput));
+
+                    // largest key
+                    InternalKey largestKey = new InternalKey(readLengthPrefixedBytes(sliceInput));
+
+                    // range tombstones
+                    int rangeTombstoneCount = VariableLengthQuantity.readVariableLengthInt(sliceInput);
+
+                    // blob files
+                    int blobFileCount = VariableLengthQuantity.readVariableLengthInt(sliceInput);
+                    Set<Long> blobFiles = new TreeSet<>();
+                    for (int i = 0; i < blobFileCount; i++) {
+                        blobFiles.add(VariableLengthQuantity.readVariableLengthLong(sliceInput));
+                    }
+
+                    versionEdit.addFile(level, new FileMetaData(fileNumber, fileSize, smallestKey, largestKey, rangeTombstoneCount, blobFiles));
+                }
+
+                @Override
+                public void writeValue(SliceOutput sliceOutput, VersionEdit versionEdit)
+                {
+                    for (Entry<Integer, FileMetaData> entry : versionEdit.getNewFiles().entries()) {
+                        FileMetaData fileMetaData = entry.getValue();
+                        if (fileMetaData.getBlobFiles().isEmpty()) {
+                            continue;
+                        }
+                        VariableLengthQuantity.writeVariableLengthInt(getPersistentId(), sliceOutput);
+
+                        // level
+                        VariableLengthQuantity.writeVariableLengthInt(entry.getKey(), sliceOutput);
+
+                        // file number
+                        VariableLengthQuantity.writeVariableLengthLong(fileMetaData.getNumber(), sliceOutput);
+
+                        // file size
+                        VariableLengthQuantity.writeVariableLengthLong(fileMetaData.getFileSize(), sliceOutput);
+
+                        // smallest key
+                        writeLengthPrefixedBytes(sliceOutput, fileMetaData.getSmallest().encode());
+
+                        // largest key
+                        writeLengthPrefixedBytes(sliceOutput, fileMetaData.getLargest().encode());
+
+                        // range tombstones
+                        VariableLengthQuantity.writeVariableLengthInt(fileMetaData.getRangeTombstoneCount(), sliceOutput);
+
+                        // blob files
+                        VariableLengthQuantity.writeVariableLengthInt(fileMetaData.getBlobFiles().size(), sliceOutput);
+                        for (long blobFile : fileMetaData.getBlobFiles()) {
+                            VariableLengthQuantity.writeVariableLengthLong(blobFile, sliceOutput);
+                        }
+                    }
+                }
+            },
+
+    NEW_BLOB_FILE(10)
+            {
+                @Override
+                public void readValue(SliceInput sliceInput, VersionEdit versionEdit)
+                {
+                    // file number
+                    long fileNumber = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+                    // value bytes
+                    long totalBytes = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+                    // garbage value bytes
+                    long garbageBytes = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+                    versionEdit.addBlobFile(new BlobFileMetaData(fileNumber, totalBytes, garbageBytes));
+                }
+
+                @Override
+                public void writeValue(SliceOutput sliceOutput, VersionEdit versionEdit)
+                {
+                    for (BlobFileMetaData blobFile : versionEdit.getNewBlobFiles()) {
+                        VariableLengthQuantity.writeVariableLengthInt(getPersistentId(), sliceOutput);
+
+                        // file number
+                        VariableLengthQuantity.writeVariableLengthLong(blobFile.getNumber(), sliceOutput);
+
+                        // value bytes
+                        VariableLengthQuantity.writeVariableLengthLong(blobFile.getTotalBytes(), sliceOutput);
+
+                        // garbage value bytes
+                        VariableLengthQuantity.writeVariableLengthLong(blobFile.getGarbageBytes(), sliceOutput);
+                    }
+                }
+            },
+
+    BLOB_GARBAGE(11)
+            {
+                @Override
+                public void readValue(SliceInput sliceInput, VersionEdit versionEdit)
+                {
+                    // file number
+                    long fileNumber = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+                    // garbage value bytes
+                    long bytes = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+                    versionEdit.addBlobGarbage(fileNumber, bytes);
+                }
+
+                @Override
+                public void writeValue(SliceOutput sliceOutput, VersionEdit versionEdit)
+                {
+                    for (Entry<Long, Long> entry : versionEdit.getBlobGarbage().entrySet()) {
+                        VariableLengthQuantity.writeVariableLengthInt(getPersistentId(), sliceOutput);
+
+                        // file number
+                        VariableLengthQuantity.writeVariableLengthLong(entry.getKey(), sliceOutput);
+
+                        // garbage value bytes
+                        VariableLengthQuantity.writeVariableLengthLong(entry.getValue(), sliceOutput);
+                    }
+                }
             };
 
     public static VersionEditTag getValueTypeByPersistentId(int persistentId)
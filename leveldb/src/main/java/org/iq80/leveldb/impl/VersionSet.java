@@ -20,6 +20,8 @@ package org.iq80.leveldb.impl;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
@@ -69,7 +71,8 @@ public class VersionSet
     private final AtomicLong nextFileNumber = new AtomicLong(2);
     private long manifestFileNumber = 1;
     private Version current;
-    private long lastSequence;
+    // read without the database mutex; only advanced once the writes up to it are in the memtable
+    private volatile long lastSequence;
     private long logNumber;
     private long prevLogNumber;
 
@@ -77,16 +80,22 @@ public class VersionSet
     private final File databaseDir;
     private final TableCache tableCache;
     private final InternalKeyComparator internalKeyComparator;
+    private final double blobGarbageRatio;
 
     private LogWriter descriptorLog;
     private final Map<Integer, InternalKey> compactPointers = new TreeMap<>();
 
-    public VersionSet(File databaseDir, TableCache tableCache, InternalKeyComparator internalKeyComparator)
+    // compactions picked and not yet finished, and their input files
+    private final List<Compaction> runningCompactions = new ArrayList<>();
+    private final Set<Long> compactingFiles = new HashSet<>();
+
+    public VersionSet(File databaseDir, TableCache tableCache, InternalKeyComparator internalKeyComparator, double blobGarbageRatio)
             throws IOException
     {
         this.databaseDir = databaseDir;
         this.tableCache = tableCache;
         this.internalKeyComparator = internalKeyComparator;
+        this.blobGarbageRatio = blobGarbageRatio;
         appendVersion(new Version(this));
 
         initializeIfNeeded();
@@ -200,27 +209,28 @@ public class VersionSet
     public MergingIterator makeInputIterator(Compaction c)
     {
         // Level-0 files have to be merged together.  For other levels,
-        // we will make a concatenating iterator per level.
+        // we will make a concatenating iterator per level.  Compaction
+        // inputs are read once, so they are kept out of the block cache.
         // TODO(opt): use concatenating iterator for level-0 if there is no overlap
         List<InternalIterator> list = new ArrayList<>();
         for (int which = 0; which < 2; which++) {
-            if (!c.getInputs()[which].isEmpty()) {
+            List<FileMetaData> files = c.getInputsToRead(which);
+            if (!files.isEmpty()) {
                 if (c.getLevel() + which == 0) {
-                    List<FileMetaData> files = c.getInputs()[which];
-                    list.add(new Level0Iterator(tableCache, files, internalKeyComparator));
+                    list.add(new Level0Iterator(tableCache, files, internalKeyComparator, false));
                 }
                 else {
                     // Create concatenating iterator for the files from this level
-                    list.add(Level.createLevelConcatIterator(tableCache, c.getInputs()[which], internalKeyComparator));
+                    list.add(Level.createLevelConcatIterator(tableCache, files, internalKeyComparator, false));
                 }
             }
         }
         return new MergingIterator(list, internalKeyComparator);
     }
 
-    public LookupResult get(LookupKey key)
+    public LookupResult get(LookupKey key, LookupState state)
     {
-        return current.get(key);
+        return current.get(key, state);
     }
 
     public boolean overlapInLevel(int level, Slice smallestUserKey, Slice largestUserKey)
@@ -325,6 +335,11 @@ public class VersionSet
         // Save files
         edit.addFiles(current.getFiles());
 
+        // Save blob files
+        for (BlobFileMetaData blobFile : current.getBlobFiles().values()) {
+            edit.addBlobFile(blobFile);
+        }
+
         Slice record = edit.encode();
         log.addRecord(record, false);
     }
@@ -414,30 +429,7 @@ public class VersionSet
         double bestScore = -1;
 
         for (int level = 0; level < version.numberOfLevels() - 1; level++) {
-            double score;
-            if (level == 0) {
-                // We treat level-0 specially by bounding the number of files
-                // instead of number of bytes for two reasons:
-                //
-                // (1) With larger write-buffer sizes, it is nice not to do too
-                // many level-0 compactions.
-                //
-                // (2) The files in level-0 are merged on every read and
-                // therefore we wish to avoid too many files when the individual
-                // file size is small (perhaps because of a small write-buffer
-                // setting, or very high compression ratios, or lots of
-                // overwrites/deletions).
-                score = 1.0 * version.numberOfFilesInLevel(level) / L0_COMPACTION_TRIGGER;
-            }
-            else {
-                // Compute the ratio of current size to size limit.
-                long levelBytes = 0;
-                for (FileMetaData fileMetaData : version.getFiles(level)) {
-                    levelBytes += fileMetaData.getFileSize();
-                }
-                score = 1.0 * levelBytes / maxBytesForLevel(level);
-            }
-
+            double score = getCompactionScore(version, level);
             if (score > bestScore) {
                 bestLevel = level;
                 bestScore = score;
@@ -446,6 +438,52 @@ public class VersionSet
 
         version.setCompactionLevel(bestLevel);
         version.setCompactionScore(bestScore);
+
+        // Tables to rewrite so the blob files past the garbage ratio lose
+        // their last pointers.  Level-0 tables are skipped: garbage is only
+        // found by compactions, which move the pointers out of level 0.
+        Set<Long> garbageBlobFiles = new HashSet<>();
+        for (BlobFileMetaData blobFile : version.getBlobFiles().values()) {
+            if (blobFile.getGarbageRatio() >= blobGarbageRatio) {
+                garbageBlobFiles.add(blobFile.getNumber());
+            }
+        }
+        ImmutableListMultimap.Builder<Integer, FileMetaData> filesWithBlobGarbage = ImmutableListMultimap.builder();
+        if (!garbageBlobFiles.isEmpty()) {
+            for (int level = 1; level < version.numberOfLevels(); level++) {
+                for (FileMetaData file : version.getFiles(level)) {
+                    if (!Collections.disjoint(file.getBlobFiles(), garbageBlobFiles)) {
+                        filesWithBlobGarbage.put(level, file);
+                    }
+                }
+            }
+        }
+        version.setFilesWithBlobGarbage(filesWithBlobGarbage.build());
+    }
+
+    private double getCompactionScore(Version version, int level)
+    {
+        if (level == 0) {
+            // We treat level-0 specially by bounding the number of files
+            // instead of number of bytes for two reasons:
+            //
+            // (1) With larger write-buffer sizes, it is nice not to do too
+            // many level-0 compactions.
+            //
+            // (2) The files in level-0 are merged on every read and
+            // therefore we wish to avoid too many files when the individual
+            // file size is small (perhaps because of a small write-buffer
+            // setting, or very high compression ratios, or lots of
+            // overwrites/deletions).
+            return 1.0 * version.numberOfFilesInLevel(level) / L0_COMPACTION_TRIGGER;
+        }
+
+        // Compute the ratio of current size to size limit.
+        long levelBytes = 0;
+        for (FileMetaData fileMetaData : version.getFiles(level)) {
+            levelBytes += fileMetaData.getFileSize();
+        }
+        return 1.0 * levelBytes / maxBytesForLevel(level);
     }
 
     private static <V> V coalesce(V... values)
@@ -467,6 +505,18 @@ public class VersionSet
         return builder.build();
     }
 
+    /**
+     * Returns the numbers of the blob files of all active versions.
+     */
+    public Set<Long> getLiveBlobFiles()
+    {
+        ImmutableSet.Builder<Long> builder = ImmutableSet.builder();
+        for (Version activeVersion : activeVersions.keySet()) {
+            builder.addAll(activeVersion.getBlobFiles().keySet());
+        }
+        return builder.build();
+    }
+
     private static double maxBytesForLevel(int level)
     {
         // Note: the result for level zero is not really used since we set
@@ -486,9 +536,14 @@ public class VersionSet
 
     public boolean needsCompaction()
     {
-        return current.getCompactionScore() >= 1 || current.getFileToCompact() != null;
+        return current.getCompactionScore() >= 1 || current.getFileToCompact() != null || !current.getFilesWithBlobGarbage().isEmpty();
     }
 
+    /**
+     * Returns a compaction of the files of the level in the range, or null
+     * if there are none.  The compaction is registered as running, like
+     * the ones returned by {@link #pickCompaction()}.
+     */
     public Compaction compactRange(int level, InternalKey begin, InternalKey end)
     {
         List<FileMetaData> levelInputs = getOverlappingInputs(level, begin, end);
@@ -496,60 +551,237 @@ public class VersionSet
             return null;
         }
 
-        return setupOtherInputs(level, levelInputs);
+        Compaction compaction = setupOtherInputs(level, levelInputs);
+        registerCompaction(compaction);
+        return compaction;
     }
 
+    /**
+     * Picks the next compaction that does not conflict with a running one
+     * and registers it as running, or returns null if there is none.  The
+     * compaction must be passed to {@link #compactionFinished(Compaction)}
+     * once it is done.
+     */
     public Compaction pickCompaction()
     {
         // We prefer compactions triggered by too much data in a level over
-        // the compactions triggered by seeks.
-        boolean sizeCompaction = (current.getCompactionScore() >= 1);
-        boolean seekCompaction = (current.getFileToCompact() != null);
-
-        int level;
-        List<FileMetaData> levelInputs;
-        if (sizeCompaction) {
-            level = current.getCompactionLevel();
-            checkState(level >= 0);
-            checkState(level + 1 < NUM_LEVELS);
-
-            // Pick the first file that comes after compact_pointer_[level]
-            levelInputs = new ArrayList<>();
-            for (FileMetaData fileMetaData : current.getFiles(level)) {
-                if (!compactPointers.containsKey(level) ||
-                        internalKeyComparator.compare(fileMetaData.getLargest(), compactPointers.get(level)) > 0) {
-                    levelInputs.add(fileMetaData);
-                    break;
+        // the compactions triggered by seeks, and the levels furthest over
+        // their limit over the others.
+        for (int level : getLevelsToCompact()) {
+            Compaction compaction = pickSizeCompaction(level);
+            if (compaction != null) {
+                registerCompaction(compaction);
+                return compaction;
+            }
+        }
+
+        FileMetaData fileToCompact = current.getFileToCompact();
+        if (fileToCompact != null && !compactingFiles.contains(fileToCompact.getNumber())) {
+            Compaction compaction = setupInputs(current.getFileToCompactLevel(), fileToCompact);
+            if (compaction != null) {
+                registerCompaction(compaction);
+                return compaction;
+            }
+        }
+
+        // Last, rewrite the tables pointing to blob files that are mostly
+        // garbage, which no other compaction may reach, like the ones in
+        // the last level holding data.
+        for (Entry<Integer, FileMetaData> entry : current.getFilesWithBlobGarbage().entries()) {
+            if (!compactingFiles.contains(entry.getValue().getNumber())) {
+                Compaction compaction = setupRewriteInputs(entry.getKey(), entry.getValue());
+                if (compaction != null) {
+                    registerCompaction(compaction);
+                    return compaction;
                 }
             }
-            if (levelInputs.isEmpty()) {
-                // Wrap-around to the beginning of the key space
-                levelInputs.add(current.getFiles(level).get(0));
+        }
+        return null;
+    }
+
+    /**
+     * Returns the levels over their size limit, by descending score.
+     */
+    private List<Integer> getLevelsToCompact()
+    {
+        final double[] scores = new double[current.numberOfLevels() - 1];
+        List<Integer> levels = new ArrayList<>();
+        for (int level = 0; level < scores.length; level++) {
+            scores[level] = getCompactionScore(current, level);
+            if (scores[level] >= 1) {
+                levels.add(level);
             }
         }
-        else if (seekCompaction) {
-            level = current.getFileToCompactLevel();
-            levelInputs = ImmutableList.of(current.getFileToCompact());
+        Collections.sort(levels, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer first, Integer second)
+            {
+                return Double.compare(scores[second], scores[first]);
+            }
+        });
+        return levels;
+    }
+
+    private Compaction pickSizeCompaction(int level)
+    {
+        // Start at the first file that comes after compact_pointer_[level]
+        // and wrap around to the beginning of the key space, skipping files
+        // whose compaction would conflict with a running one
+        List<FileMetaData> files = current.getFiles(level);
+        int start = 0;
+        if (compactPointers.containsKey(level)) {
+            while (start < files.size() && internalKeyComparator.compare(files.get(start).getLargest(), compactPointers.get(level)) <= 0) {
+                start++;
+            }
         }
-        else {
-            return null;
+        for (int i = 0; i < files.size(); i++) {
+            FileMetaData file = files.get((start + i) % files.size());
+            if (!compactingFiles.contains(file.getNumber())) {
+                Compaction compaction = setupInputs(level, file);
+                if (compaction != null) {
+                    return compaction;
+                }
+            }
         }
+        return null;
+    }
+
+    /**
+     * Returns the compaction of the file, or null if it conflicts with a
+     * running compaction.
+     */
+    private Compaction setupInputs(int level, FileMetaData file)
+    {
+        List<FileMetaData> levelInputs = ImmutableList.of(file);
 
         // Files in level 0 may overlap each other, so pick up all overlapping ones
         if (level == 0) {
             Entry<InternalKey, InternalKey> range = getRange(levelInputs);
-            // Note that the next call will discard the file we placed in
-            // c->inputs_[0] earlier and replace it with an overlapping set
-            // which will include the picked file.
             levelInputs = getOverlappingInputs(0, range.getKey(), range.getValue());
 
             checkState(!levelInputs.isEmpty());
         }
 
         Compaction compaction = setupOtherInputs(level, levelInputs);
+        if (conflictsWithRunningCompaction(compaction)) {
+            return null;
+        }
         return compaction;
     }
 
+    /**
+     * Returns the compaction rewriting the file in its own level, or null if
+     * it conflicts with a running compaction.  It is a compaction of the
+     * level above without any file of that level, so it always reads and
+     * writes the file instead of moving it.
+     */
+    private Compaction setupRewriteInputs(int level, FileMetaData file)
+    {
+        checkArgument(level > 0, "level-0 files can not be rewritten in place");
+        List<FileMetaData> grandparents = ImmutableList.of();
+        if (level + 1 < NUM_LEVELS) {
+            grandparents = getOverlappingInputs(level + 1, file.getSmallest(), file.getLargest());
+        }
+        Compaction compaction = new Compaction(current, level - 1, ImmutableList.<FileMetaData>of(), ImmutableList.of(file), grandparents);
+        if (conflictsWithRunningCompaction(compaction)) {
+            return null;
+        }
+        return compaction;
+    }
+
+    /**
+     * Compactions conflict if they share an input file, if both read level
+     * 0, whose files overlap each other, or if they read or write a common
+     * level in overlapping key ranges, as their outputs would then overlap.
+     */
+    private boolean conflictsWithRunningCompaction(Compaction compaction)
+    {
+        for (List<FileMetaData> inputs : compaction.getInputs()) {
+            for (FileMetaData file : inputs) {
+                if (compactingFiles.contains(file.getNumber())) {
+                    return true;
+                }
+            }
+        }
+
+        Entry<InternalKey, InternalKey> range = getRange(compaction.getLevelInputs(), compaction.getLevelUpInputs());
+        for (Compaction running : runningCompactions) {
+            if (compaction.getLevel() == 0 && running.getLevel() == 0) {
+                return true;
+            }
+            if (Math.abs(compaction.getLevel() - running.getLevel()) <= 1) {
+                Entry<InternalKey, InternalKey> runningRange = getRange(running.getLevelInputs(), running.getLevelUpInputs());
+                if (overlaps(range, runningRange.getKey().getUserKey(), runningRange.getValue().getUserKey())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if a running compaction covers part of the user key
+     * range, so that files in the range must not be placed below level 0.
+     */
+    public boolean isCompactingRange(Slice smallestUserKey, Slice largestUserKey)
+    {
+        for (Compaction running : runningCompactions) {
+            if (overlaps(getRange(running.getLevelInputs(), running.getLevelUpInputs()), smallestUserKey, largestUserKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean overlaps(Entry<InternalKey, InternalKey> range, Slice smallestUserKey, Slice largestUserKey)
+    {
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        return userComparator.compare(range.getKey().getUserKey(), largestUserKey) <= 0 &&
+                userComparator.compare(smallestUserKey, range.getValue().getUserKey()) <= 0;
+    }
+
+    private void registerCompaction(Compaction compaction)
+    {
+        // Update the place where we will do the next compaction for this level.
+        // We update this immediately instead of waiting for the VersionEdit
+        // to be applied so that if the compaction fails, we will try a different
+        // key range next time.
+        // A rewrite of a file in its own level leaves the pointer alone.
+        if (!compaction.getLevelInputs().isEmpty()) {
+            InternalKey largest = getRange(compaction.getLevelInputs()).getValue();
+            compactPointers.put(compaction.getLevel(), largest);
+            compaction.getEdit().setCompactPointer(compaction.getLevel(), largest);
+        }
+
+        runningCompactions.add(compaction);
+        for (List<FileMetaData> inputs : compaction.getInputs()) {
+            for (FileMetaData file : inputs) {
+                compactingFiles.add(file.getNumber());
+            }
+        }
+    }
+
+    /**
+     * Unregisters a compaction returned by {@link #pickCompaction()} or
+     * {@link #compactRange(int, InternalKey, InternalKey)}, once its
+     * results are installed or it failed.
+     */
+    public void compactionFinished(Compaction compaction)
+    {
+        checkState(runningCompactions.remove(compaction), "Compaction is not running");
+        for (List<FileMetaData> inputs : compaction.getInputs()) {
+            for (FileMetaData file : inputs) {
+                compactingFiles.remove(file.getNumber());
+            }
+        }
+    }
+
+    public int getRunningCompactionCount()
+    {
+        return runningCompactions.size();
+    }
+
     private Compaction setupOtherInputs(int level, List<FileMetaData> levelInputs)
     {
         Entry<InternalKey, InternalKey> range = getRange(levelInputs);
@@ -582,8 +814,6 @@ public class VersionSet
 //                  int(c->inputs_[1].size()),
 //                  int(expanded0.size()),
 //                  int(expanded1.size()));
-                    smallest = newStart;
-                    largest = newLimit;
                     levelInputs = expanded0;
                     levelUpInputs = expanded1;
 
@@ -608,16 +838,7 @@ public class VersionSet
 //                    EscapeString(largest.Encode()).c_str());
 //        }
 
-        Compaction compaction = new Compaction(current, level, levelInputs, levelUpInputs, grandparents);
-
-        // Update the place where we will do the next compaction for this level.
-        // We update this immediately instead of waiting for the VersionEdit
-        // to be applied so that if the compaction fails, we will try a different
-        // key range next time.
-        compactPointers.put(level, largest);
-        compaction.getEdit().setCompactPointer(level, largest);
-
-        return compaction;
+        return new Compaction(current, level, levelInputs, levelUpInputs, grandparents);
     }
 
     List<FileMetaData> getOverlappingInputs(int level, InternalKey begin, InternalKey end)
@@ -638,7 +859,8 @@ public class VersionSet
         return files.build();
     }
 
-    private Entry<InternalKey, InternalKey> getRange(List<FileMetaData>... inputLists)
+    @SafeVarargs
+    private final Entry<InternalKey, InternalKey> getRange(List<FileMetaData>... inputLists)
     {
         InternalKey smallest = null;
         InternalKey largest = null;
@@ -687,11 +909,13 @@ public class VersionSet
         private final VersionSet versionSet;
         private final Version baseVersion;
         private final List<LevelState> levels;
+        private final Map<Long, BlobFileMetaData> blobFiles;
 
         private Builder(VersionSet versionSet, Version baseVersion)
         {
             this.versionSet = versionSet;
             this.baseVersion = baseVersion;
+            this.blobFiles = new TreeMap<>(baseVersion.getBlobFiles());
 
             levels = new ArrayList<>(baseVersion.numberOfLevels());
             for (int i = 0; i < baseVersion.numberOfLevels(); i++) {
@@ -746,6 +970,17 @@ public class VersionSet
                 levels.get(level).deletedFiles.remove(fileMetaData.getNumber());
                 levels.get(level).addedFiles.add(fileMetaData);
             }
+
+            // Add new blob files, then the garbage found in them
+            for (BlobFileMetaData blobFile : edit.getNewBlobFiles()) {
+                blobFiles.put(blobFile.getNumber(), blobFile);
+            }
+            for (Entry<Long, Long> entry : edit.getBlobGarbage().entrySet()) {
+                BlobFileMetaData blobFile = blobFiles.get(entry.getKey());
+                if (blobFile != null) {
+                    blobFiles.put(blobFile.getNumber(), blobFile.addGarbage(entry.getValue()));
+                }
+            }
         }
 
         /**
@@ -783,6 +1018,15 @@ public class VersionSet
                 version.assertNoOverlappingFiles();
                 //#endif
             }
+
+            // a blob file is dropped once all of its values are garbage
+            Map<Long, BlobFileMetaData> liveBlobFiles = new TreeMap<>();
+            for (BlobFileMetaData blobFile : blobFiles.values()) {
+                if (!blobFile.isObsolete()) {
+                    liveBlobFiles.put(blobFile.getNumber(), blobFile);
+                }
+            }
+            version.setBlobFiles(liveBlobFiles);
         }
 
         private void maybeAddFile(Version version, int level, FileMetaData fileMetaData)
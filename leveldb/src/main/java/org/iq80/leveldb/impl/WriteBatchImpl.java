@@ -17,31 +17,102 @@
  */
 package org.iq80.leveldb.impl;
 
-import com.google.common.collect.Maps;
 import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.util.DynamicSliceOutput;
 import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.SliceInput;
 import org.iq80.leveldb.util.Slices;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map.Entry;
-
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.impl.ValueType.DELETION;
+import static org.iq80.leveldb.impl.ValueType.MERGE;
+import static org.iq80.leveldb.impl.ValueType.RANGE_DELETION;
+import static org.iq80.leveldb.impl.ValueType.VALUE;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+import static org.iq80.leveldb.util.Slices.readLengthPrefixedBytes;
+import static org.iq80.leveldb.util.Slices.writeLengthPrefixedBytes;
 
+/**
+ * A write batch kept in the log record format from the start:
+ * <pre>
+ *    sequence: fixed64
+ *    count: fixed32
+ *    data: record[count]
+ * record :=
+ *    VALUE varstring varstring |
+ *    DELETION varstring |
+ *    MERGE varstring varstring |
+ *    RANGE_DELETION varstring varstring
+ * varstring :=
+ *    len: varint32
+ *    data: uint8[len]
+ * </pre>
+ * The encoded batch is appended to the log as is, and the same bytes are
+ * replayed into the memtable on write and on recovery.
+ */
 public class WriteBatchImpl
         implements WriteBatch
 {
-    private final List<Entry<Slice, Slice>> batch = new ArrayList<>();
-    private int approximateSize;
+    public static final int HEADER_SIZE = SIZE_OF_LONG + SIZE_OF_INT;
+
+    private final DynamicSliceOutput rep;
+    private int count;
+    private boolean hasMerge;
+
+    public WriteBatchImpl()
+    {
+        rep = new DynamicSliceOutput(64);
+        rep.writeZero(HEADER_SIZE);
+    }
+
+    /**
+     * Wraps an encoded batch (for example a log record) without copying it.
+     */
+    public WriteBatchImpl(Slice contents)
+    {
+        requireNonNull(contents, "contents is null");
+        checkArgument(contents.length() >= HEADER_SIZE, "write batch is smaller than header: %s bytes", contents.length());
+        rep = new DynamicSliceOutput(contents);
+        count = contents.getInt(SIZE_OF_LONG);
+    }
 
     public int getApproximateSize()
     {
-        return approximateSize;
+        return rep.size();
     }
 
     public int size()
     {
-        return batch.size();
+        return count;
+    }
+
+    /**
+     * Returns true if merge operands were added to this batch.
+     */
+    public boolean hasMerge()
+    {
+        return hasMerge;
+    }
+
+    public long getSequence()
+    {
+        return rep.slice().getLong(0);
+    }
+
+    public void setSequence(long sequence)
+    {
+        rep.slice().setLong(0, sequence);
+    }
+
+    /**
+     * Returns the encoded batch, header included. The returned slice shares
+     * the underlying buffer of this batch.
+     */
+    public Slice getRecord()
+    {
+        return rep.slice();
     }
 
     @Override
@@ -49,17 +120,17 @@ public class WriteBatchImpl
     {
         requireNonNull(key, "key is null");
         requireNonNull(value, "value is null");
-        batch.add(Maps.immutableEntry(Slices.wrappedBuffer(key), Slices.wrappedBuffer(value)));
-        approximateSize += 12 + key.length + value.length;
-        return this;
+        return put(Slices.wrappedBuffer(key), Slices.wrappedBuffer(value));
     }
 
     public WriteBatchImpl put(Slice key, Slice value)
     {
         requireNonNull(key, "key is null");
         requireNonNull(value, "value is null");
-        batch.add(Maps.immutableEntry(key, value));
-        approximateSize += 12 + key.length() + value.length();
+        rep.writeByte(VALUE.getPersistentId());
+        writeLengthPrefixedBytes(rep, key);
+        writeLengthPrefixedBytes(rep, value);
+        setCount(count + 1);
         return this;
     }
 
@@ -67,19 +138,77 @@ public class WriteBatchImpl
     public WriteBatchImpl delete(byte[] key)
     {
         requireNonNull(key, "key is null");
-        batch.add(Maps.immutableEntry(Slices.wrappedBuffer(key), (Slice) null));
-        approximateSize += 6 + key.length;
-        return this;
+        return delete(Slices.wrappedBuffer(key));
     }
 
     public WriteBatchImpl delete(Slice key)
     {
         requireNonNull(key, "key is null");
-        batch.add(Maps.immutableEntry(key, (Slice) null));
-        approximateSize += 6 + key.length();
+        rep.writeByte(DELETION.getPersistentId());
+        writeLengthPrefixedBytes(rep, key);
+        setCount(count + 1);
+        return this;
+    }
+
+    @Override
+    public WriteBatchImpl merge(byte[] key, byte[] value)
+    {
+        requireNonNull(key, "key is null");
+        requireNonNull(value, "value is null");
+        return merge(Slices.wrappedBuffer(key), Slices.wrappedBuffer(value));
+    }
+
+    public WriteBatchImpl merge(Slice key, Slice value)
+    {
+        requireNonNull(key, "key is null");
+        requireNonNull(value, "value is null");
+        rep.writeByte(MERGE.getPersistentId());
+        writeLengthPrefixedBytes(rep, key);
+        writeLengthPrefixedBytes(rep, value);
+        setCount(count + 1);
+        hasMerge = true;
+        return this;
+    }
+
+    @Override
+    public WriteBatchImpl deleteRange(byte[] begin, byte[] end)
+    {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+        return deleteRange(Slices.wrappedBuffer(begin), Slices.wrappedBuffer(end));
+    }
+
+    public WriteBatchImpl deleteRange(Slice begin, Slice end)
+    {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+        rep.writeByte(RANGE_DELETION.getPersistentId());
+        writeLengthPrefixedBytes(rep, begin);
+        writeLengthPrefixedBytes(rep, end);
+        setCount(count + 1);
+        return this;
+    }
+
+    /**
+     * Appends the records of another batch to this one.  Used to combine
+     * several batches into a single log record.
+     */
+    public WriteBatchImpl append(WriteBatchImpl batch)
+    {
+        requireNonNull(batch, "batch is null");
+        Slice record = batch.getRecord();
+        rep.writeBytes(record, HEADER_SIZE, record.length() - HEADER_SIZE);
+        setCount(count + batch.size());
+        hasMerge |= batch.hasMerge();
         return this;
     }
 
+    private void setCount(int count)
+    {
+        this.count = count;
+        rep.slice().setInt(SIZE_OF_LONG, count);
+    }
+
     @Override
     public void close()
     {
@@ -87,15 +216,39 @@ public class WriteBatchImpl
 
     public void forEach(Handler handler)
     {
-        for (Entry<Slice, Slice> entry : batch) {
-            Slice key = entry.getKey();
-            Slice value = entry.getValue();
-            if (value != null) {
+        SliceInput input = rep.slice().input();
+        input.skipBytes(HEADER_SIZE);
+
+        int entries = 0;
+        while (input.isReadable()) {
+            entries++;
+            ValueType valueType = ValueType.getValueTypeByPersistentId(input.readByte());
+            if (valueType == VALUE) {
+                Slice key = readLengthPrefixedBytes(input);
+                Slice value = readLengthPrefixedBytes(input);
                 handler.put(key, value);
             }
-            else {
+            else if (valueType == DELETION) {
+                Slice key = readLengthPrefixedBytes(input);
                 handler.delete(key);
             }
+            else if (valueType == MERGE) {
+                Slice key = readLengthPrefixedBytes(input);
+                Slice value = readLengthPrefixedBytes(input);
+                handler.merge(key, value);
+            }
+            else if (valueType == RANGE_DELETION) {
+                Slice begin = readLengthPrefixedBytes(input);
+                Slice end = readLengthPrefixedBytes(input);
+                handler.deleteRange(begin, end);
+            }
+            else {
+                throw new IllegalStateException("Unexpected value type " + valueType);
+            }
+        }
+
+        if (entries != count) {
+            throw new IllegalStateException(String.format("Expected %d entries in write batch but found %s entries", count, entries));
         }
     }
 
@@ -104,5 +257,9 @@ public class WriteBatchImpl
         void put(Slice key, Slice value);
 
         void delete(Slice key);
+
+        void merge(Slice key, Slice value);
+
+        void deleteRange(Slice begin, Slice end);
     }
 }
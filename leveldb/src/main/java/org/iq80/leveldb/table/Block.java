@@ -19,11 +19,12 @@ package org.iq80.leveldb.table;
 
 import org.iq80.leveldb.impl.SeekingIterable;
 import org.iq80.leveldb.util.Slice;
-import org.iq80.leveldb.util.Slices;
 
+import java.nio.ByteBuffer;
 import java.util.Comparator;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
 
@@ -64,19 +65,31 @@ import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
 public class Block
         implements SeekingIterable<Slice, Slice>
 {
-    private final Slice block;
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    private final ByteBuffer block;
     private final Comparator<Slice> comparator;
 
-    private final Slice data;
-    private final Slice restartPositions;
+    private final ByteBuffer data;
+    private final ByteBuffer restartPositions;
 
     public Block(Slice block, Comparator<Slice> comparator)
+    {
+        this(requireNonNull(block, "block is null").toByteBuffer(), comparator);
+    }
+
+    /**
+     * Creates a block over the remaining bytes of the buffer, without
+     * copying them.  A direct buffer, such as a region of a mapped table, is
+     * read in place and only the entries read from it are copied to the heap.
+     */
+    public Block(ByteBuffer block, Comparator<Slice> comparator)
     {
         requireNonNull(block, "block is null");
-        checkArgument(block.length() >= SIZE_OF_INT, "Block is corrupt: size must be at least %s block", SIZE_OF_INT);
+        checkArgument(block.remaining() >= SIZE_OF_INT, "Block is corrupt: size must be at least %s block", SIZE_OF_INT);
         requireNonNull(comparator, "comparator is null");
 
-        block = block.slice();
+        block = block.slice().order(LITTLE_ENDIAN);
         this.block = block;
         this.comparator = comparator;
 
@@ -85,26 +98,48 @@ public class Block
         // entire file sequentially.
 
         // key restart count is the last int of the block
-        int restartCount = block.getInt(block.length() - SIZE_OF_INT);
+        int restartCount = block.getInt(block.limit() - SIZE_OF_INT);
 
         if (restartCount > 0) {
             // restarts are written at the end of the block
-            int restartOffset = block.length() - (1 + restartCount) * SIZE_OF_INT;
-            checkArgument(restartOffset < block.length() - SIZE_OF_INT, "Block is corrupt: restart offset count is greater than block size");
-            restartPositions = block.slice(restartOffset, restartCount * SIZE_OF_INT);
+            int restartOffset = block.limit() - (1 + restartCount) * SIZE_OF_INT;
+            checkArgument(restartOffset >= 0 && restartOffset < block.limit() - SIZE_OF_INT, "Block is corrupt: restart offset count is greater than block size");
+            restartPositions = slice(block, restartOffset, restartCount * SIZE_OF_INT);
 
             // data starts at 0 and extends to the restart index
-            data = block.slice(0, restartOffset);
+            data = slice(block, 0, restartOffset);
         }
         else {
-            data = Slices.EMPTY_SLICE;
-            restartPositions = Slices.EMPTY_SLICE;
+            data = EMPTY_BUFFER;
+            restartPositions = EMPTY_BUFFER;
         }
     }
 
+    private static ByteBuffer slice(ByteBuffer buffer, int index, int length)
+    {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(index);
+        duplicate.limit(index + length);
+        return duplicate.slice().order(LITTLE_ENDIAN);
+    }
+
     public long size()
     {
-        return block.length();
+        return block.limit();
+    }
+
+    /**
+     * Returns true if the block is read in place from memory outside the
+     * heap.  Such a block is only valid while its table is open.
+     */
+    public boolean isDirect()
+    {
+        return block.isDirect();
+    }
+
+    public int getRestartCount()
+    {
+        return restartPositions.remaining() / SIZE_OF_INT;
     }
 
     @Override
@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Uncompressed blocks shared by all open tables, keyed by table file number
+ * and block offset.  File numbers are never reused, so the blocks of deleted
+ * tables simply age out.
+ * <p>
+ * The cache is split into hash shards so that concurrent readers rarely
+ * meet.  A hit is a lock-free hash lookup that sets the entry's reference
+ * bit; inserts take the shard lock and evict with the CLOCK algorithm.
+ * The capacity is strict: blocks that do not fit because the rest of the
+ * shard is pinned are returned to the caller without being cached.
+ * <p>
+ * Lookups and inserts return a {@link Handle} that pins the block until it
+ * is released, so an iterator can hold a cached block without copying it
+ * and without the block being evicted under it.  High priority blocks,
+ * such as filter blocks, are kept in a reserved share of each shard that
+ * low priority inserts cannot evict.
+ */
+public class BlockCache
+{
+    // shards are no smaller than this, so small caches are not fragmented
+    private static final long MIN_SHARD_SIZE = 512 * 1024;
+    private static final int MAX_SHARD_BITS = 6;
+    private static final double DEFAULT_HIGH_PRIORITY_POOL_RATIO = 0.5;
+
+    private final long capacity;
+    private final Shard[] shards;
+    private final int shardMask;
+
+    public BlockCache(long capacity)
+    {
+        this(capacity, defaultShardBits(capacity), DEFAULT_HIGH_PRIORITY_POOL_RATIO);
+    }
+
+    /**
+     * @param shardBits the cache is split into 2^shardBits shards
+     * @param highPriorityPoolRatio share of each shard reserved for high priority blocks
+     */
+    public BlockCache(long capacity, int shardBits, double highPriorityPoolRatio)
+    {
+        checkArgument(capacity > 0, "capacity must be positive");
+        checkArgument(shardBits >= 0 && shardBits <= 20, "shardBits must be between 0 and 20");
+        checkArgument(highPriorityPoolRatio >= 0 && highPriorityPoolRatio <= 1, "highPriorityPoolRatio must be between 0 and 1");
+
+        this.capacity = capacity;
+        int shardCount = 1 << shardBits;
+        this.shardMask = shardCount - 1;
+        this.shards = new Shard[shardCount];
+        long shardCapacity = (capacity + shardCount - 1) / shardCount;
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(shardCapacity, (long) (shardCapacity * highPriorityPoolRatio));
+        }
+    }
+
+    private static int defaultShardBits(long capacity)
+    {
+        int shardBits = 0;
+        while (shardBits < MAX_SHARD_BITS && capacity >> (shardBits + 1) >= MIN_SHARD_SIZE) {
+            shardBits++;
+        }
+        return shardBits;
+    }
+
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the total size of the cached blocks.
+     */
+    public long getUsage()
+    {
+        long usage = 0;
+        for (Shard shard : shards) {
+            usage += shard.getUsage();
+        }
+        return usage;
+    }
+
+    /**
+     * Returns a pinned handle to the cached block at the offset of the
+     * table, or null if the block is not cached.
+     */
+    public Handle lookup(long fileNumber, long offset)
+    {
+        CacheKey key = new CacheKey(fileNumber, offset);
+        return shardFor(key).lookup(key);
+    }
+
+    /**
+     * Caches the block and returns a pinned handle to it.  If another
+     * thread cached the same block first, the handle is for that block.
+     * If the block does not fit, it is not cached and the handle simply
+     * wraps it.
+     */
+    public Handle insert(long fileNumber, long offset, Block block, boolean highPriority)
+    {
+        requireNonNull(block, "block is null");
+        CacheKey key = new CacheKey(fileNumber, offset);
+        return shardFor(key).insert(key, block, highPriority);
+    }
+
+    /**
+     * Returns a snapshot of the counters of each shard.
+     */
+    public List<ShardStats> getShardStats()
+    {
+        ImmutableList.Builder<ShardStats> stats = ImmutableList.builder();
+        for (Shard shard : shards) {
+            stats.add(shard.getStats());
+        }
+        return stats.build();
+    }
+
+    private Shard shardFor(CacheKey key)
+    {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return shards[hash & shardMask];
+    }
+
+    /**
+     * A pinned block.  A handle is owned by a single reader and must be
+     * released once the block is no longer used.
+     */
+    public static final class Handle
+    {
+        private final Entry entry;
+        private final Block block;
+        private boolean released;
+
+        private Handle(Entry entry, Block block)
+        {
+            this.entry = entry;
+            this.block = block;
+        }
+
+        /**
+         * Wraps a block that is not in the cache.
+         */
+        public static Handle uncached(Block block)
+        {
+            return new Handle(null, requireNonNull(block, "block is null"));
+        }
+
+        public Block getBlock()
+        {
+            checkState(!released, "Handle has been released");
+            return block;
+        }
+
+        public boolean isCached()
+        {
+            return entry != null;
+        }
+
+        public void release()
+        {
+            if (!released) {
+                released = true;
+                if (entry != null) {
+                    entry.unpin();
+                }
+            }
+        }
+    }
+
+    public static final class ShardStats
+    {
+        private final long capacity;
+        private final long usage;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        private ShardStats(long capacity, long usage, long hits, long misses, long evictions)
+        {
+            this.capacity = capacity;
+            this.usage = usage;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public long getCapacity()
+        {
+            return capacity;
+        }
+
+        public long getUsage()
+        {
+            return usage;
+        }
+
+        public long getHits()
+        {
+            return hits;
+        }
+
+        public long getMisses()
+        {
+            return misses;
+        }
+
+        public long getEvictions()
+        {
+            return evictions;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append("ShardStats");
+            sb.append("{capacity=").append(capacity);
+            sb.append(", usage=").append(usage);
+            sb.append(", hits=").append(hits);
+            sb.append(", misses=").append(misses);
+            sb.append(", evictions=").append(evictions);
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    private static final class Shard
+    {
+        private final long capacity;
+        private final long highPriorityCapacity;
+
+        private final ConcurrentHashMap<CacheKey, Entry> entries = new ConcurrentHashMap<>();
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+
+        // the clock ring and usage are guarded by the lock; lookups do not take it
+        private final ReentrantLock lock = new ReentrantLock();
+        private final List<Entry> clock = new ArrayList<>();
+        private int hand;
+        private long usage;
+        private long highPriorityUsage;
+
+        private Shard(long capacity, long highPriorityCapacity)
+        {
+            this.capacity = capacity;
+            this.highPriorityCapacity = highPriorityCapacity;
+        }
+
+        public Handle lookup(CacheKey key)
+        {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.pin()) {
+                entry.referenced = true;
+                hits.incrementAndGet();
+                return new Handle(entry, entry.block);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+
+        public Handle insert(CacheKey key, Block block, boolean highPriority)
+        {
+            long charge = block.size();
+            lock.lock();
+            try {
+                Entry existing = entries.get(key);
+                if (existing != null && existing.pin()) {
+                    existing.referenced = true;
+                    return new Handle(existing, existing.block);
+                }
+
+                if (!evict(charge, highPriority)) {
+                    return Handle.uncached(block);
+                }
+
+                Entry entry = new Entry(key, block, charge, highPriority);
+                entries.put(key, entry);
+                clock.add(entry);
+                usage += charge;
+                if (highPriority) {
+                    highPriorityUsage += charge;
+                }
+                return new Handle(entry, block);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Sweeps the clock until the charge fits, returning false if it
+         * cannot be made to fit.  Every entry is visited at most twice
+         * between evictions: once to clear its reference bit and once more
+         * to evict it.
+         */
+        private boolean evict(long charge, boolean highPriority)
+        {
+            if (charge > capacity) {
+                return false;
+            }
+
+            int visitedSinceEviction = 0;
+            while (usage + charge > capacity) {
+                if (clock.isEmpty() || visitedSinceEviction >= 2 * clock.size()) {
+                    return false;
+                }
+                if (hand >= clock.size()) {
+                    hand = 0;
+                }
+
+                Entry entry = clock.get(hand);
+                if (entry.referenced) {
+                    entry.referenced = false;
+                }
+                else if (entry.highPriority && !highPriority && highPriorityUsage <= highPriorityCapacity) {
+                    // protected by the high priority pool
+                }
+                else if (entry.markEvicted()) {
+                    removeAtHand(entry);
+                    visitedSinceEviction = 0;
+                    continue;
+                }
+                hand++;
+                visitedSinceEviction++;
+            }
+            return true;
+        }
+
+        private void removeAtHand(Entry entry)
+        {
+            // move the last entry into the freed slot; the hand stays to visit it next
+            Entry last = clock.remove(clock.size() - 1);
+            if (last != entry) {
+                clock.set(hand, last);
+            }
+            entries.remove(entry.key);
+            usage -= entry.charge;
+            if (entry.highPriority) {
+                highPriorityUsage -= entry.charge;
+            }
+            evictions.incrementAndGet();
+        }
+
+        public long getUsage()
+        {
+            lock.lock();
+            try {
+                return usage;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        public ShardStats getStats()
+        {
+            return new ShardStats(capacity, getUsage(), hits.get(), misses.get(), evictions.get());
+        }
+    }
+
+    private static final class Entry
+    {
+        // pin count, or -1 once the entry has been evicted
+        private final AtomicInteger pins = new AtomicInteger();
+        private final CacheKey key;
+        private final Block block;
+        private final long charge;
+        private final boolean highPriority;
+        private volatile boolean referenced;
+
+        private Entry(CacheKey key, Block block, long charge, boolean highPriority)
+        {
+            this.key = key;
+            this.block = block;
+            this.charge = charge;
+            this.highPriority = highPriority;
+            // new entries are pinned by the inserting reader
+            pins.set(1);
+        }
+
+        public boolean pin()
+        {
+            while (true) {
+                int current = pins.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (pins.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        public void unpin()
+        {
+            pins.decrementAndGet();
+        }
+
+        public boolean markEvicted()
+        {
+            return pins.compareAndSet(0, -1);
+        }
+    }
+
+    private static final class CacheKey
+    {
+        private final long fileNumber;
+        private final long offset;
+
+        private CacheKey(long fileNumber, long offset)
+        {
+            this.fileNumber = fileNumber;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CacheKey cacheKey = (CacheKey) o;
+            return fileNumber == cacheKey.fileNumber && offset == cacheKey.offset;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = (int) (fileNumber ^ (fileNumber >>> 32));
+            result = 31 * result + (int) (offset ^ (offset >>> 32));
+            return result;
+        }
+    }
+}
@@ -19,41 +19,56 @@ package org.iq80.leveldb.table;
 
 import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.util.Slice;
-import org.iq80.leveldb.util.SliceInput;
-import org.iq80.leveldb.util.SliceOutput;
 import org.iq80.leveldb.util.Slices;
 import org.iq80.leveldb.util.VariableLengthQuantity;
 
+import java.nio.ByteBuffer;
 import java.util.Comparator;
 import java.util.NoSuchElementException;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkPositionIndex;
 import static com.google.common.base.Preconditions.checkState;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
 
 public class BlockIterator
         implements SeekingIterator<Slice, Slice>
 {
-    private final SliceInput data;
-    private final Slice restartPositions;
+    private final ByteBuffer data;
+    private final ByteBuffer restartPositions;
     private final int restartCount;
     private final Comparator<Slice> comparator;
 
     private BlockEntry nextEntry;
+    // offset of the next entry, or the end of the data if there is none
+    private int nextOffset;
+    // entry before the position, read on demand
+    private BlockEntry prevEntry;
+    private int prevOffset;
 
     public BlockIterator(Slice data, Slice restartPositions, Comparator<Slice> comparator)
+    {
+        this(requireNonNull(data, "data is null").toByteBuffer(), requireNonNull(restartPositions, "restartPositions is null").toByteBuffer(), comparator);
+    }
+
+    /**
+     * Iterates the entries in the remaining bytes of the data buffer.  Keys
+     * and values share the array of a heap buffer and are copied out of a
+     * direct buffer.
+     */
+    public BlockIterator(ByteBuffer data, ByteBuffer restartPositions, Comparator<Slice> comparator)
     {
         requireNonNull(data, "data is null");
         requireNonNull(restartPositions, "restartPositions is null");
-        checkArgument(restartPositions.length() % SIZE_OF_INT == 0, "restartPositions.readableBytes() must be a multiple of %s", SIZE_OF_INT);
+        checkArgument(restartPositions.remaining() % SIZE_OF_INT == 0, "restartPositions.readableBytes() must be a multiple of %s", SIZE_OF_INT);
         requireNonNull(comparator, "comparator is null");
 
-        this.data = data.input();
+        this.data = data.slice().order(LITTLE_ENDIAN);
 
-        this.restartPositions = restartPositions.slice();
-        restartCount = this.restartPositions.length() / SIZE_OF_INT;
+        this.restartPositions = restartPositions.slice().order(LITTLE_ENDIAN);
+        restartCount = this.restartPositions.remaining() / SIZE_OF_INT;
 
         this.comparator = comparator;
 
@@ -83,8 +98,11 @@ public class BlockIterator
         }
 
         BlockEntry entry = nextEntry;
+        prevEntry = entry;
+        prevOffset = nextOffset;
+        nextOffset = data.position();
 
-        if (!data.isReadable()) {
+        if (!data.hasRemaining()) {
             nextEntry = null;
         }
         else {
@@ -95,6 +113,38 @@ public class BlockIterator
         return entry;
     }
 
+    @Override
+    public boolean hasPrev()
+    {
+        return nextOffset > 0;
+    }
+
+    @Override
+    public BlockEntry peekPrev()
+    {
+        if (!hasPrev()) {
+            throw new NoSuchElementException();
+        }
+        if (prevEntry == null) {
+            readPrevEntry();
+        }
+        return prevEntry;
+    }
+
+    @Override
+    public BlockEntry prev()
+    {
+        BlockEntry entry = peekPrev();
+
+        // the previous entry becomes the next one, and data is positioned at its end
+        data.position(nextOffset);
+        nextEntry = entry;
+        nextOffset = prevOffset;
+        prevEntry = null;
+
+        return entry;
+    }
+
     @Override
     public void remove()
     {
@@ -112,6 +162,18 @@ public class BlockIterator
         }
     }
 
+    /**
+     * Repositions the iterator after the last entry of this block.
+     */
+    @Override
+    public void seekToLast()
+    {
+        data.position(data.limit());
+        nextEntry = null;
+        nextOffset = data.limit();
+        prevEntry = null;
+    }
+
     /**
      * Repositions the iterator so the key of the next BlockElement returned greater than or equal to the specified targetKey.
      */
@@ -152,6 +214,50 @@ public class BlockIterator
 
     }
 
+    /**
+     * Seeks like {@link #seek(Slice)}, but only searches the restart blocks
+     * from firstRestart to lastRestart, which are expected to hold the first
+     * key greater than or equal to the targetKey.  Returns false, leaving
+     * the position undefined, if that key turns out to be outside of them.
+     */
+    public boolean seek(Slice targetKey, int firstRestart, int lastRestart)
+    {
+        checkArgument(0 <= firstRestart && firstRestart <= lastRestart && lastRestart < restartCount, "invalid restart window [%s, %s]", firstRestart, lastRestart);
+
+        // the window must start before the target
+        if (firstRestart > 0) {
+            seekToRestartPosition(firstRestart);
+            if (comparator.compare(nextEntry.getKey(), targetKey) >= 0) {
+                return false;
+            }
+        }
+
+        int left = firstRestart;
+        int right = lastRestart;
+        while (left < right) {
+            int mid = (left + right + 1) / 2;
+            seekToRestartPosition(mid);
+            if (comparator.compare(nextEntry.getKey(), targetKey) < 0) {
+                left = mid;
+            }
+            else {
+                right = mid - 1;
+            }
+        }
+
+        // the first entry after the window may still be the one, if it is not before the target
+        int limitOffset = lastRestart + 1 < restartCount ? restartPositions.getInt((lastRestart + 1) * SIZE_OF_INT) : data.limit();
+        for (seekToRestartPosition(left); nextEntry != null; next()) {
+            if (comparator.compare(peek().getKey(), targetKey) >= 0) {
+                return true;
+            }
+            if (nextOffset >= limitOffset) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Seeks to and reads the entry at the specified restart position.
      * <p/>
@@ -163,15 +269,49 @@ public class BlockIterator
 
         // seek data readIndex to the beginning of the restart block
         int offset = restartPositions.getInt(restartPosition * SIZE_OF_INT);
-        data.setPosition(offset);
+        data.position(offset);
 
         // clear the entries to assure key is not prefixed
         nextEntry = null;
+        prevEntry = null;
 
         // read the entry
+        nextOffset = offset;
         nextEntry = readEntry(data, null);
     }
 
+    /**
+     * Reads the entry before the position.  Keys are only complete at
+     * restart positions, so the entries are read forward from the last
+     * restart position before the position.
+     */
+    private void readPrevEntry()
+    {
+        int left = 0;
+        int right = restartCount - 1;
+        while (left < right) {
+            int mid = (left + right + 1) / 2;
+            if (restartPositions.getInt(mid * SIZE_OF_INT) < nextOffset) {
+                left = mid;
+            }
+            else {
+                right = mid - 1;
+            }
+        }
+
+        ByteBuffer buffer = data.duplicate().order(LITTLE_ENDIAN);
+        buffer.position(restartPositions.getInt(left * SIZE_OF_INT));
+        BlockEntry entry = null;
+        int offset;
+        do {
+            offset = buffer.position();
+            entry = readEntry(buffer, entry);
+        } while (buffer.position() < nextOffset);
+
+        prevEntry = entry;
+        prevOffset = offset;
+    }
+
     /**
      * Reads the entry at the current data readIndex.
      * After this method, data readIndex is positioned at the beginning of the next entry
@@ -179,7 +319,7 @@ public class BlockIterator
      *
      * @return true if an entry was read
      */
-    private static BlockEntry readEntry(SliceInput data, BlockEntry previousEntry)
+    private static BlockEntry readEntry(ByteBuffer data, BlockEntry previousEntry)
     {
         requireNonNull(data, "data is null");
 
@@ -191,18 +331,35 @@ public class BlockIterator
         // read key
         final Slice key;
         if (sharedKeyLength > 0) {
-            key = Slices.allocate(sharedKeyLength + nonSharedKeyLength);
-            SliceOutput sliceOutput = key.output();
             checkState(previousEntry != null, "Entry has a shared key but no previous entry was provided");
-            sliceOutput.writeBytes(previousEntry.getKey(), 0, sharedKeyLength);
-            sliceOutput.writeBytes(data, nonSharedKeyLength);
+            byte[] keyBytes = new byte[sharedKeyLength + nonSharedKeyLength];
+            previousEntry.getKey().getBytes(0, keyBytes, 0, sharedKeyLength);
+            data.get(keyBytes, sharedKeyLength, nonSharedKeyLength);
+            key = Slices.wrappedBuffer(keyBytes);
         }
         else {
-            key = data.readSlice(nonSharedKeyLength);
+            key = readSlice(data, nonSharedKeyLength);
         }
         // read value
-        Slice value = data.readSlice(valueLength);
+        Slice value = readSlice(data, valueLength);
 
         return new BlockEntry(key, value);
     }
+
+    /**
+     * Reads a slice sharing the array of a heap buffer, or a copy of the
+     * bytes of a direct buffer.
+     */
+    private static Slice readSlice(ByteBuffer data, int length)
+    {
+        if (!data.hasArray()) {
+            byte[] bytes = new byte[length];
+            data.get(bytes);
+            return Slices.wrappedBuffer(bytes);
+        }
+        checkPositionIndex(length, data.remaining(), "length");
+        Slice slice = new Slice(data.array(), data.arrayOffset() + data.position(), length);
+        data.position(data.position() + length);
+        return slice;
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.FilterPolicy;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bloom filter compatible with the LevelDB builtin bloom filter.  About ten
+ * bits per key give a false positive rate of roughly one percent.
+ */
+public class BloomFilterPolicy
+        implements FilterPolicy
+{
+    private final int bitsPerKey;
+    private final int probes;
+
+    public BloomFilterPolicy(int bitsPerKey)
+    {
+        checkArgument(bitsPerKey > 0, "bitsPerKey must be positive");
+        this.bitsPerKey = bitsPerKey;
+
+        // We intentionally round down to reduce probing cost a little bit
+        // 0.69 =~ ln(2)
+        this.probes = Math.max(1, Math.min(30, (int) (bitsPerKey * 0.69)));
+    }
+
+    @Override
+    public String name()
+    {
+        return "leveldb.BuiltinBloomFilter2";
+    }
+
+    @Override
+    public byte[] createFilter(List<byte[]> keys)
+    {
+        // For small n, we can see a very high false positive rate.  Fix it
+        // by enforcing a minimum bloom filter length.
+        int bits = Math.max(64, keys.size() * bitsPerKey);
+        int bytes = (bits + 7) / 8;
+        bits = bytes * 8;
+
+        // the number of probes is remembered in the last byte of the filter
+        byte[] filter = new byte[bytes + 1];
+        filter[bytes] = (byte) probes;
+        for (byte[] key : keys) {
+            // Use double-hashing to generate a sequence of hash values.
+            int h = hash(key);
+            int delta = (h >>> 17) | (h << 15);
+            for (int j = 0; j < probes; j++) {
+                int bitPosition = Integer.remainderUnsigned(h, bits);
+                filter[bitPosition / 8] |= (1 << (bitPosition % 8));
+                h += delta;
+            }
+        }
+        return filter;
+    }
+
+    @Override
+    public boolean keyMayMatch(byte[] key, byte[] filter)
+    {
+        if (filter.length < 2) {
+            return false;
+        }
+
+        int bits = (filter.length - 1) * 8;
+        int probes = filter[filter.length - 1];
+        if (probes > 30) {
+            // Reserved for potentially new encodings for short bloom filters.
+            // Consider it a match.
+            return true;
+        }
+
+        int h = hash(key);
+        int delta = (h >>> 17) | (h << 15);
+        for (int j = 0; j < probes; j++) {
+            int bitPosition = Integer.remainderUnsigned(h, bits);
+            if ((filter[bitPosition / 8] & (1 << (bitPosition % 8))) == 0) {
+                return false;
+            }
+            h += delta;
+        }
+        return true;
+    }
+
+    /**
+     * The LevelDB hash function with the seed used by bloom filters.
+     */
+    @SuppressWarnings("fallthrough")
+    static int hash(byte[] data)
+    {
+        int m = 0xc6a4a793;
+        int r = 24;
+        int n = data.length;
+        int h = 0xbc9f1d34 ^ (n * m);
+
+        int i = 0;
+        for (; i + 4 <= n; i += 4) {
+            int w = (data[i] & 0xff) | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff) << 16 | (data[i + 3] & 0xff) << 24;
+            h += w;
+            h *= m;
+            h ^= (h >>> 16);
+        }
+
+        switch (n - i) {
+            case 3:
+                h += (data[i + 2] & 0xff) << 16;
+                // fall through
+            case 2:
+                h += (data[i + 1] & 0xff) << 8;
+                // fall through
+            case 1:
+                h += data[i] & 0xff;
+                h *= m;
+                h ^= (h >>> r);
+                break;
+            default:
+                break;
+        }
+        return h;
+    }
+}
@@ -17,9 +17,10 @@
  */
 package org.iq80.leveldb.table;
 
+import com.google.common.base.Throwables;
+import org.iq80.leveldb.FilterPolicy;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
-import org.iq80.leveldb.util.Snappy;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -34,7 +35,13 @@ public class FileChannelTable
     public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException
     {
-        super(name, fileChannel, comparator, verifyChecksums);
+        this(name, fileChannel, comparator, verifyChecksums, null, 0, null);
+    }
+
+    public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, long cacheId, FilterPolicy filterPolicy)
+            throws IOException
+    {
+        super(name, fileChannel, comparator, verifyChecksums, blockCache, cacheId, filterPolicy);
     }
 
     @Override
@@ -46,47 +53,58 @@ public class FileChannelTable
         return Footer.readFooter(Slices.copiedBuffer(footerData));
     }
 
-    @SuppressWarnings({"AssignmentToStaticFieldFromInstanceMethod", "NonPrivateFieldAccessedInSynchronizedContext"})
     @Override
-    protected Block readBlock(BlockHandle blockHandle)
+    protected Slice readBlockContents(BlockHandle blockHandle)
+            throws IOException
+    {
+        // read the block and its trailer
+        return readBlockContents(read(blockHandle.getOffset(), blockHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH));
+    }
+
+    @Override
+    protected Block readBlock(BlockHandle blockHandle, Readahead readahead)
+            throws IOException
+    {
+        ByteBuffer blockData = readahead.read(blockHandle.getOffset(), blockHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH);
+        return new Block(readBlockContents(blockData), comparator);
+    }
+
+    @Override
+    public Readahead newReadahead()
+    {
+        try {
+            return new Readahead(fileChannel);
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Decodes the block data followed by its trailer.
+     */
+    private Slice readBlockContents(ByteBuffer blockData)
             throws IOException
     {
         // read block trailer
-        ByteBuffer trailerData = read(blockHandle.getOffset() + blockHandle.getDataSize(), BlockTrailer.ENCODED_LENGTH);
+        ByteBuffer trailerData = blockData.duplicate();
+        trailerData.position(trailerData.limit() - BlockTrailer.ENCODED_LENGTH);
         BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(trailerData));
 
-// todo re-enable crc check when ported to support direct buffers
-//        // only verify check sums if explicitly asked by the user
-//        if (verifyChecksums) {
-//            // checksum data and the compression type in the trailer
-//            PureJavaCrc32C checksum = new PureJavaCrc32C();
-//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
-//            int actualCrc32c = checksum.getMaskedValue();
-//
-//            checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
-//        }
+        ByteBuffer uncompressedBuffer = blockData.duplicate();
+        uncompressedBuffer.limit(uncompressedBuffer.limit() - BlockTrailer.ENCODED_LENGTH);
+        verifyChecksum(uncompressedBuffer, blockTrailer);
 
         // decompress data
-
-        ByteBuffer uncompressedBuffer = read(blockHandle.getOffset(), blockHandle.getDataSize());
         Slice uncompressedData;
         if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (FileChannelTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
+            uncompressedData = uncompress(uncompressedBuffer);
         }
         else {
             uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
         }
 
-        return new Block(uncompressedData, comparator);
+        return uncompressedData;
     }
 
     private ByteBuffer read(long offset, int length)
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.FilterPolicy;
+import org.iq80.leveldb.util.DynamicSliceOutput;
+import org.iq80.leveldb.util.IntVector;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Builds the filter block of a table, in the LevelDB layout:
+ * <pre>
+ *    filter[i]: uint8[]   (filter for the data blocks starting in [i * base, (i + 1) * base))
+ *    ...
+ *    offset of filter[i]: fixed32
+ *    ...
+ *    offset of the offset array: fixed32
+ *    base lg: uint8
+ * </pre>
+ * A filter is generated for every 2KB of data, so a lookup can find the
+ * filter of a data block from the block offset alone.
+ */
+public class FilterBlockBuilder
+{
+    public static final int FILTER_BASE_LG = 11;
+    public static final int FILTER_BASE = 1 << FILTER_BASE_LG;
+
+    private final FilterPolicy policy;
+    private final List<byte[]> keys = new ArrayList<>();
+    private final DynamicSliceOutput result = new DynamicSliceOutput(1024);
+    private final IntVector filterOffsets = new IntVector(32);
+
+    public FilterBlockBuilder(FilterPolicy policy)
+    {
+        this.policy = requireNonNull(policy, "policy is null");
+    }
+
+    /**
+     * Starts the data block at the offset; keys added after this call are
+     * summarized in the filter covering the offset.
+     */
+    public void startBlock(long blockOffset)
+    {
+        long filterIndex = blockOffset / FILTER_BASE;
+        checkArgument(filterIndex >= filterOffsets.size(), "block offset %s is before the current filter", blockOffset);
+        while (filterIndex > filterOffsets.size()) {
+            generateFilter();
+        }
+    }
+
+    public void addKey(Slice key)
+    {
+        keys.add(key.copyBytes());
+    }
+
+    public Slice finish()
+    {
+        if (!keys.isEmpty()) {
+            generateFilter();
+        }
+
+        // append the array of per-filter offsets
+        int arrayOffset = result.size();
+        filterOffsets.write(result);
+        result.writeInt(arrayOffset);
+        result.writeByte(FILTER_BASE_LG);
+        return result.slice();
+    }
+
+    private void generateFilter()
+    {
+        filterOffsets.add(result.size());
+        if (keys.isEmpty()) {
+            // fast path if there are no keys for this filter
+            return;
+        }
+        result.writeBytes(policy.createFilter(keys));
+        keys.clear();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.FilterPolicy;
+import org.iq80.leveldb.util.Slice;
+
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+
+/**
+ * Reads a filter block written by {@link FilterBlockBuilder}.  The filters
+ * are copied out of the block once, so lookups only copy the key.
+ */
+public class FilterBlockReader
+{
+    private final FilterPolicy policy;
+    private final int baseLg;
+    // null if the filter block is corrupt, so every key may match
+    private final byte[][] filters;
+
+    public FilterBlockReader(FilterPolicy policy, Slice contents)
+    {
+        this.policy = requireNonNull(policy, "policy is null");
+        requireNonNull(contents, "contents is null");
+
+        int length = contents.length();
+        if (length < SIZE_OF_INT + 1) {
+            // 1 byte for base lg and 4 for the start of the offset array
+            baseLg = 0;
+            filters = null;
+            return;
+        }
+        baseLg = contents.getUnsignedByte(length - 1);
+        int arrayOffset = contents.getInt(length - SIZE_OF_INT - 1);
+        if (arrayOffset < 0 || arrayOffset > length - SIZE_OF_INT - 1) {
+            filters = null;
+            return;
+        }
+
+        int count = (length - SIZE_OF_INT - 1 - arrayOffset) / SIZE_OF_INT;
+        byte[][] filters = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int start = contents.getInt(arrayOffset + i * SIZE_OF_INT);
+            int limit = (i + 1 < count) ? contents.getInt(arrayOffset + (i + 1) * SIZE_OF_INT) : arrayOffset;
+            if (start >= 0 && start <= limit && limit <= arrayOffset) {
+                filters[i] = contents.copyBytes(start, limit - start);
+            }
+        }
+        this.filters = filters;
+    }
+
+    /**
+     * Returns false if the key is certainly not in the data block starting
+     * at the offset.
+     */
+    public boolean keyMayMatch(long blockOffset, Slice key)
+    {
+        if (filters == null) {
+            return true;
+        }
+        long index = blockOffset >> baseLg;
+        if (index >= filters.length) {
+            // errors are treated as potential matches
+            return true;
+        }
+        byte[] filter = filters[(int) index];
+        if (filter == null) {
+            return true;
+        }
+        if (filter.length == 0) {
+            // empty filters do not match any keys
+            return false;
+        }
+        return policy.keyMayMatch(key.copyBytes(), filter);
+    }
+}
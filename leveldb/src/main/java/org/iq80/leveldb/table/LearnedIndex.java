@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.DynamicSliceOutput;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.SliceInput;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * A learned index over the data blocks of a table: a piecewise linear
+ * model from a key to the position of its entry in the index block, off by
+ * at most {@link #getMaxError()} entries for the keys the model was trained
+ * on.  A lookup then searches a few index entries around the predicted one
+ * instead of the whole index block.
+ * <p>
+ * Keys are modeled by their leading eight bytes, read as an unsigned big
+ * endian number after dropping a fixed length suffix such as the tag of an
+ * internal key.  That number never decreases in bytewise key order, so the
+ * model is exact enough for fixed width numeric keys, and merely less
+ * useful for keys sharing long prefixes; a prediction is always checked
+ * against the index block.
+ */
+public final class LearnedIndex
+{
+    private static final int DEFAULT_MAX_ERROR = 4;
+    private static final int SEGMENT_SIZE = SIZE_OF_LONG + SIZE_OF_INT + SIZE_OF_LONG;
+
+    private final int keySuffixLength;
+    private final int maxError;
+    private final int blockCount;
+    // the first key position, first block and slope of each segment
+    private final long[] segmentKeys;
+    private final int[] segmentBlocks;
+    private final double[] segmentSlopes;
+
+    private LearnedIndex(int keySuffixLength, int maxError, int blockCount, long[] segmentKeys, int[] segmentBlocks, double[] segmentSlopes)
+    {
+        this.keySuffixLength = keySuffixLength;
+        this.maxError = maxError;
+        this.blockCount = blockCount;
+        this.segmentKeys = segmentKeys;
+        this.segmentBlocks = segmentBlocks;
+        this.segmentSlopes = segmentSlopes;
+    }
+
+    public static LearnedIndex read(Slice contents)
+    {
+        SliceInput input = contents.input();
+        int keySuffixLength = input.readInt();
+        int maxError = input.readInt();
+        int blockCount = input.readInt();
+        int segmentCount = input.readInt();
+        checkArgument(segmentCount > 0 && input.available() == segmentCount * SEGMENT_SIZE, "Learned index is corrupt");
+
+        long[] segmentKeys = new long[segmentCount];
+        int[] segmentBlocks = new int[segmentCount];
+        double[] segmentSlopes = new double[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segmentKeys[i] = input.readLong();
+            segmentBlocks[i] = input.readInt();
+            segmentSlopes[i] = Double.longBitsToDouble(input.readLong());
+        }
+        return new LearnedIndex(keySuffixLength, maxError, blockCount, segmentKeys, segmentBlocks, segmentSlopes);
+    }
+
+    public int getMaxError()
+    {
+        return maxError;
+    }
+
+    public int getBlockCount()
+    {
+        return blockCount;
+    }
+
+    /**
+     * Returns the predicted index entry of the first block that may hold
+     * the key.
+     */
+    public int predictBlock(Slice key)
+    {
+        long position = keyPosition(key, keySuffixLength);
+
+        // the last segment starting at or before the key
+        int low = 0;
+        int high = segmentKeys.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (Long.compareUnsigned(segmentKeys[middle], position) <= 0) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+
+        if (Long.compareUnsigned(position, segmentKeys[low]) <= 0) {
+            return segmentBlocks[low];
+        }
+        // a key between two segments belongs to the first block of the next one at most
+        int maxBlock = low + 1 < segmentBlocks.length ? segmentBlocks[low + 1] : blockCount - 1;
+        double predicted = segmentBlocks[low] + segmentSlopes[low] * unsignedToDouble(position - segmentKeys[low]);
+        return (int) Math.min(Math.round(predicted), maxBlock);
+    }
+
+    /**
+     * Returns the leading eight bytes of the key without its suffix as an
+     * unsigned big endian number, padded with zeros.
+     */
+    static long keyPosition(Slice key, int suffixLength)
+    {
+        int length = Math.min(Math.max(key.length() - suffixLength, 0), SIZE_OF_LONG);
+        long position = 0;
+        for (int i = 0; i < SIZE_OF_LONG; i++) {
+            position <<= 8;
+            if (i < length) {
+                position |= key.getUnsignedByte(i);
+            }
+        }
+        return position;
+    }
+
+    private static double unsignedToDouble(long value)
+    {
+        double result = (double) (value >>> 1) * 2;
+        return result + (value & 1);
+    }
+
+    /**
+     * Trains a learned index on the index keys of a table as its blocks are
+     * written.
+     */
+    public static final class Builder
+    {
+        private final int keySuffixLength;
+        private final int maxError;
+        private long[] positions = new long[64];
+        private int blockCount;
+
+        /**
+         * @param keySuffixLength bytes at the end of every key left out of
+         * the model, for example the tag of internal keys
+         */
+        public Builder(int keySuffixLength)
+        {
+            this(keySuffixLength, DEFAULT_MAX_ERROR);
+        }
+
+        public Builder(int keySuffixLength, int maxError)
+        {
+            checkArgument(keySuffixLength >= 0, "keySuffixLength is negative");
+            checkArgument(maxError >= 0, "maxError is negative");
+            this.keySuffixLength = keySuffixLength;
+            this.maxError = maxError;
+        }
+
+        /**
+         * Adds the index key of the next block.
+         */
+        public void addBlock(Slice indexKey)
+        {
+            if (blockCount == positions.length) {
+                positions = Arrays.copyOf(positions, blockCount * 2);
+            }
+            positions[blockCount++] = keyPosition(indexKey, keySuffixLength);
+        }
+
+        /**
+         * Returns the encoded model, or null if it would not narrow lookups
+         * down much compared to searching the index block.
+         */
+        public Slice finish()
+        {
+            if (blockCount == 0) {
+                return null;
+            }
+
+            // greedily extend each segment while a line from its first point stays
+            // within the error of every point; blocks with the same position map to the first
+            DynamicSliceOutput segments = new DynamicSliceOutput(SEGMENT_SIZE * 16);
+            int segmentCount = 0;
+            int start = 0;
+            while (start < blockCount) {
+                double lowSlope = 0;
+                double highSlope = Double.POSITIVE_INFINITY;
+                int next = start + 1;
+                while (next < blockCount) {
+                    if (positions[next] == positions[next - 1]) {
+                        next++;
+                        continue;
+                    }
+                    double distance = unsignedToDouble(positions[next] - positions[start]);
+                    double newLowSlope = Math.max(lowSlope, (next - start - maxError) / distance);
+                    double newHighSlope = Math.min(highSlope, (next - start + maxError) / distance);
+                    if (newLowSlope > newHighSlope) {
+                        break;
+                    }
+                    lowSlope = newLowSlope;
+                    highSlope = newHighSlope;
+                    next++;
+                }
+
+                double slope = Double.isInfinite(highSlope) ? lowSlope : (lowSlope + highSlope) / 2;
+                segments.writeLong(positions[start]);
+                segments.writeInt(start);
+                segments.writeLong(Double.doubleToLongBits(slope));
+                segmentCount++;
+                start = next;
+            }
+
+            if (segmentCount > blockCount / 2) {
+                return null;
+            }
+
+            DynamicSliceOutput output = new DynamicSliceOutput(4 * SIZE_OF_INT + segments.size());
+            output.writeInt(keySuffixLength);
+            output.writeInt(maxError);
+            output.writeInt(blockCount);
+            output.writeInt(segmentCount);
+            output.writeBytes(segments.slice());
+            return output.slice();
+        }
+    }
+}
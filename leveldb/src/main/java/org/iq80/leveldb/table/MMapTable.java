@@ -17,13 +17,11 @@
  */
 package org.iq80.leveldb.table;
 
+import org.iq80.leveldb.FilterPolicy;
 import org.iq80.leveldb.util.ByteBufferSupport;
-import org.iq80.leveldb.util.Closeables;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
-import org.iq80.leveldb.util.Snappy;
 
-import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -31,9 +29,9 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.util.Comparator;
-import java.util.concurrent.Callable;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static org.iq80.leveldb.CompressionType.NONE;
 import static org.iq80.leveldb.CompressionType.SNAPPY;
 
 public class MMapTable
@@ -44,7 +42,13 @@ public class MMapTable
     public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException
     {
-        super(name, fileChannel, comparator, verifyChecksums);
+        this(name, fileChannel, comparator, verifyChecksums, null, 0, null);
+    }
+
+    public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, long cacheId, FilterPolicy filterPolicy)
+            throws IOException
+    {
+        super(name, fileChannel, comparator, verifyChecksums, blockCache, cacheId, filterPolicy);
         checkArgument(fileChannel.size() <= Integer.MAX_VALUE, "File must be smaller than %s bytes", Integer.MAX_VALUE);
     }
 
@@ -59,74 +63,53 @@ public class MMapTable
     }
 
     @Override
-    public Callable<?> closer()
+    protected void closeResources()
     {
-        return new Closer(name, fileChannel, data);
+        ByteBufferSupport.unmap(data);
+        super.closeResources();
     }
 
-    private static class Closer
-            implements Callable<Void>
+    @Override
+    protected Block readBlock(BlockHandle blockHandle)
+            throws IOException
     {
-        private final String name;
-        private final Closeable closeable;
-        private final MappedByteBuffer data;
-
-        public Closer(String name, Closeable closeable, MappedByteBuffer data)
-        {
-            this.name = name;
-            this.closeable = closeable;
-            this.data = data;
+        BlockTrailer blockTrailer = readBlockTrailer(blockHandle);
+        if (blockTrailer.getCompressionType() == NONE) {
+            // read the block in place from the mapping, without copying it to the heap
+            ByteBuffer blockData = read(this.data, (int) blockHandle.getOffset(), blockHandle.getDataSize());
+            verifyChecksum(blockData, blockTrailer);
+            return new Block(blockData, comparator);
         }
+        return super.readBlock(blockHandle);
+    }
 
-        public Void call()
-        {
-            ByteBufferSupport.unmap(data);
-            Closeables.closeQuietly(closeable);
-            return null;
-        }
+    private BlockTrailer readBlockTrailer(BlockHandle blockHandle)
+    {
+        return BlockTrailer.readBlockTrailer(Slices.copiedBuffer(this.data,
+                (int) blockHandle.getOffset() + blockHandle.getDataSize(),
+                BlockTrailer.ENCODED_LENGTH));
     }
 
-    @SuppressWarnings({"NonPrivateFieldAccessedInSynchronizedContext", "AssignmentToStaticFieldFromInstanceMethod"})
     @Override
-    protected Block readBlock(BlockHandle blockHandle)
+    protected Slice readBlockContents(BlockHandle blockHandle)
             throws IOException
     {
         // read block trailer
-        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(this.data,
-                (int) blockHandle.getOffset() + blockHandle.getDataSize(),
-                BlockTrailer.ENCODED_LENGTH));
+        BlockTrailer blockTrailer = readBlockTrailer(blockHandle);
 
-// todo re-enable crc check when ported to support direct buffers
-//        // only verify check sums if explicitly asked by the user
-//        if (verifyChecksums) {
-//            // checksum data and the compression type in the trailer
-//            PureJavaCrc32C checksum = new PureJavaCrc32C();
-//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
-//            int actualCrc32c = checksum.getMaskedValue();
-//
-//            checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
-//        }
+        ByteBuffer uncompressedBuffer = read(this.data, (int) blockHandle.getOffset(), blockHandle.getDataSize());
+        verifyChecksum(uncompressedBuffer, blockTrailer);
 
         // decompress data
         Slice uncompressedData;
-        ByteBuffer uncompressedBuffer = read(this.data, (int) blockHandle.getOffset(), blockHandle.getDataSize());
         if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (MMapTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
+            uncompressedData = uncompress(uncompressedBuffer);
         }
         else {
             uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
         }
 
-        return new Block(uncompressedData, comparator);
+        return uncompressedData;
     }
 
     public static ByteBuffer read(MappedByteBuffer data, int offset, int length)
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads ahead of a sequential scan of a table file.  Blocks are served from
+ * a window spanning many blocks, and the window after it is read on a
+ * background thread while the current one is scanned.  Windows start small
+ * and double, up to a limit, each time the scan moves into the next one.
+ * <p>
+ * A readahead belongs to a single iterator and is not thread safe.
+ */
+public final class Readahead
+{
+    private static final int INITIAL_WINDOW_SIZE = 64 * 1024;
+    private static final int MAX_WINDOW_SIZE = 1024 * 1024;
+
+    // shared by all scans; reads are short so a few threads keep up with many scans
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newFixedThreadPool(
+            4,
+            new ThreadFactoryBuilder().setNameFormat("leveldb-readahead-%s").setDaemon(true).build());
+
+    private final FileChannel fileChannel;
+    private final long fileSize;
+    private int windowSize = INITIAL_WINDOW_SIZE;
+
+    private Window current;
+    private Future<Window> next;
+
+    public Readahead(FileChannel fileChannel)
+            throws IOException
+    {
+        this.fileChannel = requireNonNull(fileChannel, "fileChannel is null");
+        this.fileSize = fileChannel.size();
+    }
+
+    /**
+     * Returns the bytes in the range, reading a new window if the range is
+     * not buffered.  The returned buffer must not be modified.
+     */
+    public ByteBuffer read(long offset, int length)
+            throws IOException
+    {
+        checkArgument(offset >= 0 && length >= 0 && offset + length <= fileSize, "range is outside of the file");
+        if (current != null && current.contains(offset, length)) {
+            return current.slice(offset, length);
+        }
+
+        Window prefetched = awaitNext();
+        ByteBuffer result;
+        if (prefetched != null && prefetched.contains(offset, length)) {
+            current = prefetched;
+            result = current.slice(offset, length);
+        }
+        else if (prefetched != null && current != null && current.contains(offset, 0) && prefetched.getOffset() == current.getEnd() && prefetched.contains(current.getEnd(), (int) (offset + length - current.getEnd()))) {
+            // the range spans the end of the current window and the start of the next
+            int head = (int) (current.getEnd() - offset);
+            result = ByteBuffer.allocate(length);
+            result.put(current.slice(offset, head));
+            result.put(prefetched.slice(current.getEnd(), length - head));
+            result.flip();
+            current = prefetched;
+        }
+        else {
+            current = readWindow(offset, Math.max(length, windowSize));
+            result = current.slice(offset, length);
+        }
+
+        windowSize = Math.min(windowSize * 2, MAX_WINDOW_SIZE);
+        prefetch(current.getEnd());
+        return result;
+    }
+
+    /**
+     * Abandons the window being read ahead.
+     */
+    public void close()
+    {
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+        current = null;
+    }
+
+    private void prefetch(final long offset)
+    {
+        if (offset >= fileSize) {
+            return;
+        }
+        final int length = windowSize;
+        next = PREFETCH_EXECUTOR.submit(new Callable<Window>()
+        {
+            @Override
+            public Window call()
+                    throws IOException
+            {
+                return readWindow(offset, length);
+            }
+        });
+    }
+
+    private Window awaitNext()
+            throws IOException
+    {
+        if (next == null) {
+            return null;
+        }
+        Future<Window> future = next;
+        next = null;
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading ahead", e);
+        }
+        catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private Window readWindow(long offset, int length)
+            throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, fileSize - offset));
+        while (buffer.hasRemaining()) {
+            if (fileChannel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Could not read all the data");
+            }
+        }
+        buffer.flip();
+        return new Window(offset, buffer);
+    }
+
+    private static final class Window
+    {
+        private final long offset;
+        private final ByteBuffer data;
+
+        private Window(long offset, ByteBuffer data)
+        {
+            this.offset = offset;
+            this.data = data;
+        }
+
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public long getEnd()
+        {
+            return offset + data.limit();
+        }
+
+        public boolean contains(long offset, int length)
+        {
+            return offset >= this.offset && offset + length <= getEnd();
+        }
+
+        public ByteBuffer slice(long offset, int length)
+        {
+            ByteBuffer slice = data.duplicate();
+            slice.position((int) (offset - this.offset));
+            slice.limit(slice.position() + length);
+            return slice.slice();
+        }
+    }
+}
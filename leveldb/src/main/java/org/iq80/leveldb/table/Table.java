@@ -18,20 +18,26 @@
 package org.iq80.leveldb.table;
 
 import com.google.common.base.Throwables;
+import org.iq80.leveldb.FilterPolicy;
 import org.iq80.leveldb.impl.SeekingIterable;
 import org.iq80.leveldb.util.Closeables;
+import org.iq80.leveldb.util.Crc32C;
 import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.iq80.leveldb.util.Snappy;
 import org.iq80.leveldb.util.TableIterator;
 import org.iq80.leveldb.util.VariableLengthQuantity;
 
-import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Comparator;
-import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Checksum;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 
 public abstract class Table
@@ -43,9 +49,28 @@ public abstract class Table
     protected final boolean verifyChecksums;
     protected final Block indexBlock;
     protected final BlockHandle metaindexBlockHandle;
+    private final BlockCache blockCache;
+    private final long cacheId;
+    // null if the table has no filter for the policy
+    private final FilterBlockReader filter;
+    // null if the table has no learned index
+    private final LearnedIndex learnedIndex;
+    // the table starts with the reference of its opener and is closed when the count drops to zero
+    private final AtomicInteger references = new AtomicInteger(1);
 
     public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException
+    {
+        this(name, fileChannel, comparator, verifyChecksums, null, 0, null);
+    }
+
+    /**
+     * @param blockCache cache for the data blocks of the table, or null
+     * @param cacheId identifies the table in the block cache, usually the file number
+     * @param filterPolicy policy the table filters were written with, or null to not use filters
+     */
+    public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, long cacheId, FilterPolicy filterPolicy)
+            throws IOException
     {
         requireNonNull(name, "name is null");
         requireNonNull(fileChannel, "fileChannel is null");
@@ -57,10 +82,27 @@ public abstract class Table
         this.fileChannel = fileChannel;
         this.verifyChecksums = verifyChecksums;
         this.comparator = comparator;
+        this.blockCache = blockCache;
+        this.cacheId = cacheId;
 
         Footer footer = init();
         indexBlock = readBlock(footer.getIndexBlockHandle());
         metaindexBlockHandle = footer.getMetaindexBlockHandle();
+
+        // the filter is small and consulted on every lookup, so it stays loaded like the index
+        Slice filterContents = null;
+        if (filterPolicy != null) {
+            filterContents = getMetaBlockContents(TableBuilder.FILTER_BLOCK_PREFIX + filterPolicy.name());
+        }
+        filter = filterContents != null ? new FilterBlockReader(filterPolicy, filterContents) : null;
+
+        // so does the learned index, which predicts entries of an index with a restart per entry
+        Slice learnedIndexContents = getMetaBlockContents(TableBuilder.LEARNED_INDEX_BLOCK);
+        LearnedIndex learnedIndex = learnedIndexContents != null ? LearnedIndex.read(learnedIndexContents) : null;
+        if (learnedIndex != null && learnedIndex.getBlockCount() != indexBlock.getRestartCount()) {
+            learnedIndex = null;
+        }
+        this.learnedIndex = learnedIndex;
     }
 
     protected abstract Footer init()
@@ -69,27 +111,218 @@ public abstract class Table
     @Override
     public TableIterator iterator()
     {
-        return new TableIterator(this, indexBlock.iterator());
+        return iterator(true);
+    }
+
+    /**
+     * @param fillCache false if blocks read by the iterator should not be
+     * added to the block cache, for example for bulk scans
+     */
+    public TableIterator iterator(boolean fillCache)
+    {
+        return iterator(fillCache, null);
+    }
+
+    /**
+     * @param upperBound if not null, the iterator does not read blocks whose
+     * keys are all greater than or equal to this key
+     */
+    public TableIterator iterator(boolean fillCache, Slice upperBound)
+    {
+        return new TableIterator(this, indexBlock.iterator(), fillCache, comparator, upperBound);
+    }
+
+    /**
+     * Positions the index iterator at the entry of the first block that may
+     * hold the key.  With a learned index only the entries around the
+     * predicted one are searched, unless the prediction is off.
+     */
+    public void seekIndex(BlockIterator indexIterator, Slice key)
+    {
+        if (learnedIndex != null) {
+            int block = learnedIndex.predictBlock(key);
+            // one more entry either side for the rounding of the prediction
+            int window = learnedIndex.getMaxError() + 1;
+            if (indexIterator.seek(key, Math.max(block - window, 0), Math.min(block + window, learnedIndex.getBlockCount() - 1))) {
+                return;
+            }
+        }
+        indexIterator.seek(key);
     }
 
     public Block openBlock(Slice blockEntry)
+    {
+        BlockCache.Handle handle = openBlock(blockEntry, true);
+        Block block = handle.getBlock();
+        handle.release();
+        return block;
+    }
+
+    /**
+     * Returns a handle to the data block, which pins the block in the block
+     * cache until the handle is released.
+     */
+    public BlockCache.Handle openBlock(Slice blockEntry, boolean fillCache)
+    {
+        return openBlock(blockEntry, fillCache, null);
+    }
+
+    /**
+     * Returns a handle to the data block, reading it through the readahead
+     * of a sequential scan if the block is not cached.
+     *
+     * @param readahead readahead over the file of this table, or null
+     */
+    public BlockCache.Handle openBlock(Slice blockEntry, boolean fillCache, Readahead readahead)
     {
         BlockHandle blockHandle = BlockHandle.readBlockHandle(blockEntry.input());
+        if (blockCache != null) {
+            BlockCache.Handle cached = blockCache.lookup(cacheId, blockHandle.getOffset());
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         Block dataBlock;
         try {
-            dataBlock = readBlock(blockHandle);
+            dataBlock = readahead != null ? readBlock(blockHandle, readahead) : readBlock(blockHandle);
         }
         catch (IOException e) {
             throw Throwables.propagate(e);
         }
-        return dataBlock;
+
+        // a block read in place from a mapped table is already cached by the
+        // operating system, and must not outlive the table
+        if (blockCache != null && fillCache && !dataBlock.isDirect()) {
+            return blockCache.insert(cacheId, blockHandle.getOffset(), dataBlock, false);
+        }
+        return BlockCache.Handle.uncached(dataBlock);
     }
 
-    protected static ByteBuffer uncompressedScratch = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+    /**
+     * Returns false if the table certainly does not contain the key, based
+     * on the filter of the data block the key would be in.
+     */
+    public boolean keyMayMatch(Slice key)
+    {
+        if (filter == null) {
+            return true;
+        }
+        BlockIterator iterator = indexBlock.iterator();
+        seekIndex(iterator, key);
+        if (!iterator.hasNext()) {
+            // the key is past the last key in the table
+            return false;
+        }
+        BlockHandle blockHandle = BlockHandle.readBlockHandle(iterator.next().getValue().input());
+        return filter.keyMayMatch(blockHandle.getOffset(), key);
+    }
+
+    /**
+     * Returns false if the table certainly has no key starting with the
+     * prefix.  The filter must have been written with the prefixes of the
+     * keys added.
+     *
+     * @param prefixKey the first possible key with the prefix
+     * @param prefix the leading bytes shared by the keys with the prefix
+     */
+    public boolean prefixMayMatch(Slice prefixKey, Slice prefix)
+    {
+        if (filter == null) {
+            return true;
+        }
+        BlockIterator iterator = indexBlock.iterator();
+        seekIndex(iterator, prefixKey);
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        BlockEntry entry = iterator.next();
+        // an index key is only known to be at or after the last key of its block,
+        // so if it still has the prefix, keys with the prefix may continue in the next block
+        Slice indexKey = entry.getKey();
+        if (indexKey.length() >= prefix.length() && indexKey.slice(0, prefix.length()).equals(prefix)) {
+            return true;
+        }
+        BlockHandle blockHandle = BlockHandle.readBlockHandle(entry.getValue().input());
+        return filter.keyMayMatch(blockHandle.getOffset(), prefixKey);
+    }
 
-    protected abstract Block readBlock(BlockHandle blockHandle)
+    /**
+     * Returns the meta block registered under the name in the metaindex
+     * block, or null if the table has no such block.
+     */
+    public Block getMetaBlock(String name)
+            throws IOException
+    {
+        Slice contents = getMetaBlockContents(name);
+        if (contents == null) {
+            return null;
+        }
+        return new Block(contents, comparator);
+    }
+
+    private Slice getMetaBlockContents(String name)
+            throws IOException
+    {
+        Slice key = Slices.copiedBuffer(name, UTF_8);
+
+        // the metaindex is ordered bytewise rather than by the table comparator, so scan it
+        BlockIterator iterator = readBlock(metaindexBlockHandle).iterator();
+        while (iterator.hasNext()) {
+            BlockEntry entry = iterator.next();
+            if (entry.getKey().equals(key)) {
+                return readBlockContents(BlockHandle.readBlockHandle(entry.getValue().input()));
+            }
+        }
+        return null;
+    }
+
+    protected Block readBlock(BlockHandle blockHandle)
+            throws IOException
+    {
+        return new Block(readBlockContents(blockHandle), comparator);
+    }
+
+    /**
+     * Reads the block through the readahead of a sequential scan.  Tables
+     * that do not read their file with positional reads, such as mapped
+     * tables, ignore the readahead.
+     */
+    protected Block readBlock(BlockHandle blockHandle, Readahead readahead)
+            throws IOException
+    {
+        return readBlock(blockHandle);
+    }
+
+    /**
+     * Returns a readahead for sequential scans of this table, or null if the
+     * table does not benefit from one.
+     */
+    public Readahead newReadahead()
+    {
+        return null;
+    }
+
+    /**
+     * Reads and decompresses the contents of the block.
+     */
+    protected abstract Slice readBlockContents(BlockHandle blockHandle)
             throws IOException;
 
+    /**
+     * Checks the block data against the checksum in its trailer, which
+     * covers the data and the compression type, if checksums are verified.
+     */
+    protected void verifyChecksum(ByteBuffer data, BlockTrailer blockTrailer)
+    {
+        if (verifyChecksums) {
+            Checksum checksum = Crc32C.newChecksum();
+            Crc32C.update(checksum, data);
+            checksum.update(blockTrailer.getCompressionType().persistentId() & 0xFF);
+            checkState(Crc32C.getMaskedValue(checksum) == blockTrailer.getCrc32c(), "Block corrupted: checksum mismatch in %s", name);
+        }
+    }
+
     protected int uncompressedLength(ByteBuffer data)
             throws IOException
     {
@@ -97,6 +330,32 @@ public abstract class Table
         return length;
     }
 
+    /**
+     * Decompresses Snappy compressed block data straight into an array of
+     * the uncompressed size, so concurrent block reads share no buffer and
+     * take no lock.
+     */
+    protected Slice uncompress(ByteBuffer compressed)
+            throws IOException
+    {
+        byte[] input;
+        int inputOffset;
+        int length = compressed.remaining();
+        if (compressed.hasArray()) {
+            input = compressed.array();
+            inputOffset = compressed.arrayOffset() + compressed.position();
+        }
+        else {
+            input = new byte[length];
+            inputOffset = 0;
+            compressed.duplicate().get(input);
+        }
+
+        byte[] output = new byte[uncompressedLength(compressed)];
+        Snappy.uncompress(input, inputOffset, length, output, 0);
+        return Slices.wrappedBuffer(output);
+    }
+
     /**
      * Given a key, return an approximate byte offset in the file where
      * the data for that key begins (or would begin if the key were
@@ -108,7 +367,7 @@ public abstract class Table
     public long getApproximateOffsetOf(Slice key)
     {
         BlockIterator iterator = indexBlock.iterator();
-        iterator.seek(key);
+        seekIndex(iterator, key);
         if (iterator.hasNext()) {
             BlockHandle blockHandle = BlockHandle.readBlockHandle(iterator.next().getValue().input());
             return blockHandle.getOffset();
@@ -132,26 +391,50 @@ public abstract class Table
         return sb.toString();
     }
 
-    public Callable<?> closer()
+    /**
+     * Adds a reference to the table, returning false if the table has
+     * already been closed.  Every successful call must be paired with a
+     * {@link #release()}.
+     */
+    public boolean retain()
     {
-        return new Closer(fileChannel);
+        while (true) {
+            int current = references.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
     }
 
-    private static class Closer
-            implements Callable<Void>
+    /**
+     * Drops a reference to the table, closing the table once the last
+     * reference is gone.  Returns true if the table was closed.
+     */
+    public boolean release()
     {
-        private final Closeable closeable;
-
-        public Closer(Closeable closeable)
-        {
-            this.closeable = closeable;
+        int now = references.decrementAndGet();
+        checkState(now >= 0, "Table %s was released after it was closed", name);
+        if (now == 0) {
+            closeResources();
+            return true;
         }
+        return false;
+    }
 
-        @Override
-        public Void call()
-        {
-            Closeables.closeQuietly(closeable);
-            return null;
-        }
+    public boolean isClosed()
+    {
+        return references.get() <= 0;
+    }
+
+    /**
+     * Releases the file resources of the table.  Called once, after the
+     * last reference has been released.
+     */
+    protected void closeResources()
+    {
+        Closeables.closeQuietly(fileChannel);
     }
 }
@@ -19,8 +19,9 @@ package org.iq80.leveldb.table;
 
 import com.google.common.base.Throwables;
 import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.FilterPolicy;
 import org.iq80.leveldb.Options;
-import org.iq80.leveldb.util.PureJavaCrc32C;
+import org.iq80.leveldb.util.Crc32C;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
 import org.iq80.leveldb.util.Snappy;
@@ -28,8 +29,14 @@ import org.iq80.leveldb.util.Snappy;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.Checksum;
 
 import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.impl.VersionSet.TARGET_FILE_SIZE;
 
@@ -42,6 +49,22 @@ public class TableBuilder
      */
     public static final long TABLE_MAGIC_NUMBER = 0xdb4775248b80fb57L;
 
+    /**
+     * Name of the meta block holding the range tombstones of the table.
+     */
+    public static final String RANGE_DELETION_BLOCK = "leveldb.RangeDeletion";
+
+    /**
+     * Prefix of the name of the meta block holding the filters of the table;
+     * the name of the filter policy follows it.
+     */
+    public static final String FILTER_BLOCK_PREFIX = "filter.";
+
+    /**
+     * Name of the meta block holding the learned index of the table.
+     */
+    public static final String LEARNED_INDEX_BLOCK = "leveldb.LearnedIndex";
+
     private final int blockRestartInterval;
     private final int blockSize;
     private final CompressionType compressionType;
@@ -49,10 +72,14 @@ public class TableBuilder
     private final FileChannel fileChannel;
     private final BlockBuilder dataBlockBuilder;
     private final BlockBuilder indexBlockBuilder;
+    private final FilterPolicy filterPolicy;
+    private final FilterBlockBuilder filterBlockBuilder;
+    private final LearnedIndex.Builder learnedIndexBuilder;
     private Slice lastKey;
     private final UserComparator userComparator;
 
     private long entryCount;
+    private final List<BlockEntry> rangeTombstones = new ArrayList<>();
 
     // Either Finish() or Abandon() has been called.
     private boolean closed;
@@ -72,6 +99,27 @@ public class TableBuilder
     private long position;
 
     public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator)
+    {
+        this(options, fileChannel, userComparator, options.filterPolicy());
+    }
+
+    /**
+     * @param filterPolicy policy for the filter block of the table, or null
+     * for no filter block; it is given the keys exactly as they are added
+     */
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, FilterPolicy filterPolicy)
+    {
+        this(options, fileChannel, userComparator, filterPolicy, null);
+    }
+
+    /**
+     * @param filterPolicy policy for the filter block of the table, or null
+     * for no filter block; it is given the keys exactly as they are added
+     * @param learnedIndexBuilder trains the learned index of the table on
+     * its index keys, or null for no learned index; the keys must be ordered
+     * bytewise
+     */
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, FilterPolicy filterPolicy, LearnedIndex.Builder learnedIndexBuilder)
     {
         requireNonNull(options, "options is null");
         requireNonNull(fileChannel, "fileChannel is null");
@@ -95,6 +143,16 @@ public class TableBuilder
         int expectedNumberOfBlocks = 1024;
         indexBlockBuilder = new BlockBuilder(BlockHandle.MAX_ENCODED_LENGTH * expectedNumberOfBlocks, 1, userComparator);
 
+        this.filterPolicy = filterPolicy;
+        if (filterPolicy != null) {
+            filterBlockBuilder = new FilterBlockBuilder(filterPolicy);
+            filterBlockBuilder.startBlock(0);
+        }
+        else {
+            filterBlockBuilder = null;
+        }
+        this.learnedIndexBuilder = learnedIndexBuilder;
+
         lastKey = Slices.EMPTY_SLICE;
     }
 
@@ -103,12 +161,29 @@ public class TableBuilder
         return entryCount;
     }
 
+    public int getRangeTombstoneCount()
+    {
+        return rangeTombstones.size();
+    }
+
     public long getFileSize()
             throws IOException
     {
         return position + dataBlockBuilder.currentSizeEstimate();
     }
 
+    /**
+     * Adds a range tombstone stored under the key with the exclusive end of
+     * the range as value.  Tombstones may be added in any order.
+     */
+    public void addRangeTombstone(Slice key, Slice end)
+    {
+        requireNonNull(key, "key is null");
+        requireNonNull(end, "end is null");
+        checkState(!closed, "table is finished");
+        rangeTombstones.add(new BlockEntry(key, end));
+    }
+
     public void add(BlockEntry blockEntry)
             throws IOException
     {
@@ -134,9 +209,11 @@ public class TableBuilder
 
             Slice shortestSeparator = userComparator.findShortestSeparator(lastKey, key);
 
-            Slice handleEncoding = BlockHandle.writeBlockHandle(pendingHandle);
-            indexBlockBuilder.add(shortestSeparator, handleEncoding);
-            pendingIndexEntry = false;
+            addIndexEntry(shortestSeparator);
+        }
+
+        if (filterBlockBuilder != null) {
+            filterBlockBuilder.addKey(key);
         }
 
         lastKey = key;
@@ -161,6 +238,9 @@ public class TableBuilder
 
         pendingHandle = writeBlock(dataBlockBuilder);
         pendingIndexEntry = true;
+        if (filterBlockBuilder != null) {
+            filterBlockBuilder.startBlock(position);
+        }
     }
 
     private BlockHandle writeBlock(BlockBuilder blockBuilder)
@@ -168,7 +248,17 @@ public class TableBuilder
     {
         // close the block
         Slice raw = blockBuilder.finish();
+        BlockHandle blockHandle = writeRawBlock(raw, compressionType);
+
+        // clean up state
+        blockBuilder.reset();
+
+        return blockHandle;
+    }
 
+    private BlockHandle writeRawBlock(Slice raw, CompressionType compressionType)
+            throws IOException
+    {
         // attempt to compress the block
         Slice blockContents = raw;
         CompressionType blockCompressionType = CompressionType.NONE;
@@ -198,9 +288,6 @@ public class TableBuilder
         // write data and trailer
         position += fileChannel.write(new ByteBuffer[] {blockContents.toByteBuffer(), trailer.toByteBuffer()});
 
-        // clean up state
-        blockBuilder.reset();
-
         return blockHandle;
     }
 
@@ -240,19 +327,40 @@ public class TableBuilder
         // mark table as closed
         closed = true;
 
-        // write (empty) meta index block
-        BlockBuilder metaIndexBlockBuilder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
-        // TODO(postrelease): Add stats and other meta blocks
-        BlockHandle metaindexBlockHandle = writeBlock(metaIndexBlockBuilder);
-
-        // add last handle to index block
+        // add last handle to index block, so the learned index sees every block
         if (pendingIndexEntry) {
-            Slice shortSuccessor = userComparator.findShortSuccessor(lastKey);
+            addIndexEntry(userComparator.findShortSuccessor(lastKey));
+        }
+
+        // write filter block, which is never compressed
+        BlockHandle filterBlockHandle = null;
+        if (filterBlockBuilder != null) {
+            filterBlockHandle = writeRawBlock(filterBlockBuilder.finish(), CompressionType.NONE);
+        }
+
+        // write learned index block, which is never compressed either
+        BlockHandle learnedIndexBlockHandle = null;
+        if (learnedIndexBuilder != null) {
+            Slice learnedIndex = learnedIndexBuilder.finish();
+            if (learnedIndex != null) {
+                learnedIndexBlockHandle = writeRawBlock(learnedIndex, CompressionType.NONE);
+            }
+        }
 
-            Slice handleEncoding = BlockHandle.writeBlockHandle(pendingHandle);
-            indexBlockBuilder.add(shortSuccessor, handleEncoding);
-            pendingIndexEntry = false;
+        // write meta index block; its keys must be added in bytewise order
+        BlockBuilder metaIndexBlockBuilder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
+        if (filterBlockHandle != null) {
+            metaIndexBlockBuilder.add(Slices.copiedBuffer(FILTER_BLOCK_PREFIX + filterPolicy.name(), UTF_8), BlockHandle.writeBlockHandle(filterBlockHandle));
+        }
+        if (learnedIndexBlockHandle != null) {
+            metaIndexBlockBuilder.add(Slices.copiedBuffer(LEARNED_INDEX_BLOCK, UTF_8), BlockHandle.writeBlockHandle(learnedIndexBlockHandle));
+        }
+        if (!rangeTombstones.isEmpty()) {
+            BlockHandle rangeDeletionBlockHandle = writeRangeDeletionBlock();
+            metaIndexBlockBuilder.add(Slices.copiedBuffer(RANGE_DELETION_BLOCK, UTF_8), BlockHandle.writeBlockHandle(rangeDeletionBlockHandle));
         }
+        // TODO(postrelease): Add stats and other meta blocks
+        BlockHandle metaindexBlockHandle = writeBlock(metaIndexBlockBuilder);
 
         // write index block
         BlockHandle indexBlockHandle = writeBlock(indexBlockBuilder);
@@ -263,6 +371,35 @@ public class TableBuilder
         position += fileChannel.write(footerEncoding.toByteBuffer());
     }
 
+    private void addIndexEntry(Slice indexKey)
+    {
+        Slice handleEncoding = BlockHandle.writeBlockHandle(pendingHandle);
+        indexBlockBuilder.add(indexKey, handleEncoding);
+        if (learnedIndexBuilder != null) {
+            learnedIndexBuilder.addBlock(indexKey);
+        }
+        pendingIndexEntry = false;
+    }
+
+    private BlockHandle writeRangeDeletionBlock()
+            throws IOException
+    {
+        Collections.sort(rangeTombstones, new Comparator<BlockEntry>()
+        {
+            @Override
+            public int compare(BlockEntry left, BlockEntry right)
+            {
+                return userComparator.compare(left.getKey(), right.getKey());
+            }
+        });
+
+        BlockBuilder rangeDeletionBlockBuilder = new BlockBuilder(1024, blockRestartInterval, userComparator);
+        for (BlockEntry tombstone : rangeTombstones) {
+            rangeDeletionBlockBuilder.add(tombstone);
+        }
+        return writeBlock(rangeDeletionBlockBuilder);
+    }
+
     public void abandon()
     {
         checkState(!closed, "table is finished");
@@ -271,10 +408,10 @@ public class TableBuilder
 
     public static int crc32c(Slice data, CompressionType type)
     {
-        PureJavaCrc32C crc32c = new PureJavaCrc32C();
+        Checksum crc32c = Crc32C.newChecksum();
         crc32c.update(data.getRawArray(), data.getRawOffset(), data.length());
         crc32c.update(type.persistentId() & 0xFF);
-        return crc32c.getMaskedValue();
+        return Crc32C.getMaskedValue(crc32c);
     }
 
     public void ensureCompressedOutputCapacity(int capacity)
@@ -22,22 +22,40 @@ import org.iq80.leveldb.impl.SeekingIterator;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 
+/**
+ * Base for iterators whose position lies between two elements.  Subclasses
+ * step over the element after or before the position; this class keeps the
+ * element peeked in either direction.  A peeked element has already been
+ * stepped over by the subclass, so when the iteration turns around the
+ * subclass first steps back over it.
+ */
 public abstract class AbstractSeekingIterator<K, V>
         implements SeekingIterator<K, V>
 {
     private Entry<K, V> nextElement;
+    private Entry<K, V> prevElement;
 
     @Override
     public final void seekToFirst()
     {
         nextElement = null;
+        prevElement = null;
         seekToFirstInternal();
     }
 
+    @Override
+    public final void seekToLast()
+    {
+        nextElement = null;
+        prevElement = null;
+        seekToLastInternal();
+    }
+
     @Override
     public final void seek(K targetKey)
     {
         nextElement = null;
+        prevElement = null;
         seekInternal(targetKey);
     }
 
@@ -45,37 +63,80 @@ public abstract class AbstractSeekingIterator<K, V>
     public final boolean hasNext()
     {
         if (nextElement == null) {
-            nextElement = getNextElement();
+            nextElement = fetchNextElement();
         }
         return nextElement != null;
     }
 
     @Override
     public final Entry<K, V> next()
+    {
+        Entry<K, V> result = peek();
+        nextElement = null;
+        return result;
+    }
+
+    @Override
+    public final Entry<K, V> peek()
     {
         if (nextElement == null) {
-            nextElement = getNextElement();
+            nextElement = fetchNextElement();
             if (nextElement == null) {
                 throw new NoSuchElementException();
             }
         }
 
-        Entry<K, V> result = nextElement;
-        nextElement = null;
+        return nextElement;
+    }
+
+    @Override
+    public final boolean hasPrev()
+    {
+        if (prevElement == null) {
+            prevElement = fetchPrevElement();
+        }
+        return prevElement != null;
+    }
+
+    @Override
+    public final Entry<K, V> prev()
+    {
+        Entry<K, V> result = peekPrev();
+        prevElement = null;
         return result;
     }
 
     @Override
-    public final Entry<K, V> peek()
+    public final Entry<K, V> peekPrev()
     {
-        if (nextElement == null) {
-            nextElement = getNextElement();
-            if (nextElement == null) {
+        if (prevElement == null) {
+            prevElement = fetchPrevElement();
+            if (prevElement == null) {
                 throw new NoSuchElementException();
             }
         }
 
-        return nextElement;
+        return prevElement;
+    }
+
+    private Entry<K, V> fetchNextElement()
+    {
+        if (prevElement != null) {
+            // step forward over the element peeked backward
+            prevElement = null;
+            getNextElement();
+        }
+        return getNextElement();
+    }
+
+    private Entry<K, V> fetchPrevElement()
+    {
+        if (nextElement != null) {
+            // step back over the element peeked forward
+            nextElement = null;
+            getPrevElement();
+        }
+        return getPrevElement();
     }
 
     @Override
@@ -86,7 +147,18 @@ public abstract class AbstractSeekingIterator<K, V>
 
     protected abstract void seekToFirstInternal();
 
+    protected abstract void seekToLastInternal();
+
     protected abstract void seekInternal(K targetKey);
 
+    /**
+     * Steps over the element after the position, returning null at the end.
+     */
     protected abstract Entry<K, V> getNextElement();
+
+    /**
+     * Steps back over the element before the position, returning null at
+     * the beginning.
+     */
+    protected abstract Entry<K, V> getPrevElement();
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.util;
+
+import com.google.common.base.Throwables;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C checksums computed with {@code java.util.zip.CRC32C} where the
+ * JVM provides it (Java 9 and later), which the JIT compiles to the CRC32
+ * instructions of the CPU, and with {@link PureJavaCrc32C} otherwise.
+ * Both compute the same checksum; stored checksums are masked with
+ * {@link PureJavaCrc32C#mask(int)}.
+ */
+public final class Crc32C
+{
+    private static final int COPY_BUFFER_SIZE = 4096;
+
+    // null if the JDK has no CRC32C
+    private static final MethodHandle NEW_JDK_CRC32C;
+    private static final MethodHandle UPDATE_BYTE_BUFFER;
+
+    static {
+        MethodHandle newJdkCrc32C = null;
+        MethodHandle updateByteBuffer = null;
+        try {
+            Class<?> type = Class.forName("java.util.zip.CRC32C");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            newJdkCrc32C = lookup.findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Checksum.class));
+            updateByteBuffer = lookup.findVirtual(Checksum.class, "update", MethodType.methodType(void.class, ByteBuffer.class));
+        }
+        catch (ReflectiveOperationException e) {
+            newJdkCrc32C = null;
+            updateByteBuffer = null;
+        }
+        NEW_JDK_CRC32C = newJdkCrc32C;
+        UPDATE_BYTE_BUFFER = updateByteBuffer;
+    }
+
+    private Crc32C()
+    {
+    }
+
+    /**
+     * Returns true if checksums are computed by the JDK.
+     */
+    public static boolean isJdkCrc32C()
+    {
+        return NEW_JDK_CRC32C != null;
+    }
+
+    public static Checksum newChecksum()
+    {
+        if (NEW_JDK_CRC32C == null) {
+            return new PureJavaCrc32C();
+        }
+        try {
+            return (Checksum) NEW_JDK_CRC32C.invokeExact();
+        }
+        catch (Throwable e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Adds the remaining bytes of the buffer to the checksum, without
+     * changing the position of the buffer.
+     */
+    public static void update(Checksum checksum, ByteBuffer buffer)
+    {
+        if (buffer.hasArray()) {
+            checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        else if (UPDATE_BYTE_BUFFER != null && !(checksum instanceof PureJavaCrc32C)) {
+            // the JDK checksums direct buffers in place
+            try {
+                UPDATE_BYTE_BUFFER.invokeExact(checksum, buffer.duplicate());
+            }
+            catch (Throwable e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        else {
+            ByteBuffer source = buffer.duplicate();
+            byte[] copy = new byte[Math.min(COPY_BUFFER_SIZE, source.remaining())];
+            while (source.hasRemaining()) {
+                int length = Math.min(copy.length, source.remaining());
+                source.get(copy, 0, length);
+                checksum.update(copy, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Returns the masked checksum, as stored in logs and tables.
+     */
+    public static int getMaskedValue(Checksum checksum)
+    {
+        return PureJavaCrc32C.mask((int) checksum.getValue());
+    }
+}
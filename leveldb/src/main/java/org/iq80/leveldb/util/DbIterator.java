@@ -58,6 +58,7 @@ public final class DbIterator
 
     private final ComparableIterator[] heap;
     private int heapSize;
+    private boolean reverse;
 
     public DbIterator(MemTableIterator memTableIterator,
             MemTableIterator immutableMemTableIterator,
@@ -90,6 +91,26 @@ public final class DbIterator
         for (LevelIterator level : levels) {
             level.seekToFirst();
         }
+        reverse = false;
+        resetPriorityQueue();
+    }
+
+    @Override
+    protected void seekToLastInternal()
+    {
+        if (memTableIterator != null) {
+            memTableIterator.seekToLast();
+        }
+        if (immutableMemTableIterator != null) {
+            immutableMemTableIterator.seekToLast();
+        }
+        for (InternalTableIterator level0File : level0Files) {
+            level0File.seekToLast();
+        }
+        for (LevelIterator level : levels) {
+            level.seekToLast();
+        }
+        reverse = true;
         resetPriorityQueue();
     }
 
@@ -108,11 +129,44 @@ public final class DbIterator
         for (LevelIterator level : levels) {
             level.seek(targetKey);
         }
+        reverse = false;
         resetPriorityQueue();
     }
 
     @Override
     protected Entry<InternalKey, Slice> getNextElement()
+    {
+        if (reverse) {
+            setReverse(false);
+        }
+        return pollHeap();
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> getPrevElement()
+    {
+        if (!reverse) {
+            setReverse(true);
+        }
+        return pollHeap();
+    }
+
+    /**
+     * Turns the iteration around.  Every input is moved back over the
+     * element it read ahead, so all of them are positioned between the
+     * same two merged elements, and then reads ahead in the new direction.
+     */
+    private void setReverse(boolean reverse)
+    {
+        for (int i = 0; i < heapSize; i++) {
+            heap[i].unread();
+            heap[i] = null;
+        }
+        this.reverse = reverse;
+        resetPriorityQueue();
+    }
+
+    private Entry<InternalKey, Slice> pollHeap()
     {
         if (heapSize == 0) {
             return null;
@@ -145,20 +199,40 @@ public final class DbIterator
     {
         int i = 0;
         heapSize = 0;
+        if (reverse) {
+            if (memTableIterator != null && memTableIterator.hasPrev()) {
+                heapAdd(new ComparableIterator(memTableIterator, comparator, i++, true, memTableIterator.prev()));
+            }
+            if (immutableMemTableIterator != null && immutableMemTableIterator.hasPrev()) {
+                heapAdd(new ComparableIterator(immutableMemTableIterator, comparator, i++, true, immutableMemTableIterator.prev()));
+            }
+            for (InternalTableIterator level0File : level0Files) {
+                if (level0File.hasPrev()) {
+                    heapAdd(new ComparableIterator(level0File, comparator, i++, true, level0File.prev()));
+                }
+            }
+            for (LevelIterator level : levels) {
+                if (level.hasPrev()) {
+                    heapAdd(new ComparableIterator(level, comparator, i++, true, level.prev()));
+                }
+            }
+            return;
+        }
+
         if (memTableIterator != null && memTableIterator.hasNext()) {
-            heapAdd(new ComparableIterator(memTableIterator, comparator, i++, memTableIterator.next()));
+            heapAdd(new ComparableIterator(memTableIterator, comparator, i++, false, memTableIterator.next()));
         }
         if (immutableMemTableIterator != null && immutableMemTableIterator.hasNext()) {
-            heapAdd(new ComparableIterator(immutableMemTableIterator, comparator, i++, immutableMemTableIterator.next()));
+            heapAdd(new ComparableIterator(immutableMemTableIterator, comparator, i++, false, immutableMemTableIterator.next()));
         }
         for (InternalTableIterator level0File : level0Files) {
             if (level0File.hasNext()) {
-                heapAdd(new ComparableIterator(level0File, comparator, i++, level0File.next()));
+                heapAdd(new ComparableIterator(level0File, comparator, i++, false, level0File.next()));
             }
         }
         for (LevelIterator level : levels) {
             if (level.hasNext()) {
-                heapAdd(new ComparableIterator(level, comparator, i++, level.next()));
+                heapAdd(new ComparableIterator(level, comparator, i++, false, level.next()));
             }
         }
     }
@@ -206,6 +280,20 @@ public final class DbIterator
         heap[rootIndex] = target;
     }
 
+    /**
+     * Releases the blocks and tables held by the table iterators.
+     */
+    @Override
+    public void close()
+    {
+        for (InternalTableIterator level0File : level0Files) {
+            level0File.close();
+        }
+        for (LevelIterator level : levels) {
+            level.close();
+        }
+    }
+
     @Override
     public String toString()
     {
@@ -226,13 +314,16 @@ public final class DbIterator
         private final SeekingIterator<InternalKey, Slice> iterator;
         private final Comparator<InternalKey> comparator;
         private final int ordinal;
+        // iterates backward, with the largest element first
+        private final boolean reverse;
         private Entry<InternalKey, Slice> nextElement;
 
-        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal, Entry<InternalKey, Slice> nextElement)
+        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal, boolean reverse, Entry<InternalKey, Slice> nextElement)
         {
             this.iterator = iterator;
             this.comparator = comparator;
             this.ordinal = ordinal;
+            this.reverse = reverse;
             this.nextElement = nextElement;
         }
 
@@ -250,8 +341,8 @@ public final class DbIterator
             }
 
             Entry<InternalKey, Slice> result = nextElement;
-            if (iterator.hasNext()) {
-                nextElement = iterator.next();
+            if (reverse ? iterator.hasPrev() : iterator.hasNext()) {
+                nextElement = reverse ? iterator.prev() : iterator.next();
             }
             else {
                 nextElement = null;
@@ -259,6 +350,20 @@ public final class DbIterator
             return result;
         }
 
+        /**
+         * Moves the iterator back over the element read ahead, so that it is
+         * positioned where the merged iteration is.
+         */
+        public void unread()
+        {
+            if (reverse) {
+                iterator.next();
+            }
+            else {
+                iterator.prev();
+            }
+        }
+
         @Override
         public void remove()
         {
@@ -302,7 +407,7 @@ public final class DbIterator
             if (result == 0) {
                 result = Integer.compare(this.ordinal, that.ordinal);
             }
-            return result;
+            return reverse ? -result : result;
         }
     }
 }
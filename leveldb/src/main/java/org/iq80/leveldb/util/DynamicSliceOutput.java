@@ -35,6 +35,16 @@ public class DynamicSliceOutput
         this.slice = new Slice(estimatedSize);
     }
 
+    /**
+     * Creates an output positioned at the end of the existing slice; further
+     * writes append to it, growing into a new buffer when needed.
+     */
+    public DynamicSliceOutput(Slice slice)
+    {
+        this.slice = slice;
+        this.size = slice.length();
+    }
+
     @Override
     public void reset()
     {
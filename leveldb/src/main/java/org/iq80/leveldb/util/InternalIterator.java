@@ -28,4 +28,9 @@ import org.iq80.leveldb.impl.SeekingIterator;
 public interface InternalIterator
         extends SeekingIterator<InternalKey, Slice>
 {
+    /**
+     * Releases the blocks and tables held by the iterator.  The iterator
+     * cannot be used once it is closed.
+     */
+    void close();
 }
@@ -19,42 +19,129 @@ package org.iq80.leveldb.util;
 
 import com.google.common.collect.Maps;
 import org.iq80.leveldb.impl.InternalKey;
+import org.iq80.leveldb.impl.InternalPrefixExtractor;
 
+import java.io.Closeable;
 import java.util.Map.Entry;
 
+import static com.google.common.base.Preconditions.checkState;
+
 public class InternalTableIterator
         extends AbstractSeekingIterator<InternalKey, Slice>
         implements InternalIterator
 {
     private final TableIterator tableIterator;
+    private final InternalPrefixExtractor prefixExtractor;
+    // releases the reference to the table held by the iterator, or null
+    private final Closeable tableReference;
+    // prefix of the last seek in prefix mode, or null
+    private Slice prefix;
+    private boolean exhausted;
+    private boolean closed;
 
     public InternalTableIterator(TableIterator tableIterator)
+    {
+        this(tableIterator, null);
+    }
+
+    /**
+     * @param prefixExtractor if not null, iteration ends at the first key
+     * without the prefix of the key seeked to
+     */
+    public InternalTableIterator(TableIterator tableIterator, InternalPrefixExtractor prefixExtractor)
+    {
+        this(tableIterator, prefixExtractor, null);
+    }
+
+    /**
+     * @param tableReference if not null, closed with the iterator to release
+     * the reference to the table the iterator holds
+     */
+    public InternalTableIterator(TableIterator tableIterator, InternalPrefixExtractor prefixExtractor, Closeable tableReference)
     {
         this.tableIterator = tableIterator;
+        this.prefixExtractor = prefixExtractor;
+        this.tableReference = tableReference;
     }
 
     @Override
     protected void seekToFirstInternal()
     {
+        checkState(!closed, "Iterator has been closed");
+        prefix = null;
+        exhausted = false;
         tableIterator.seekToFirst();
     }
 
+    @Override
+    protected void seekToLastInternal()
+    {
+        checkState(!closed, "Iterator has been closed");
+        prefix = null;
+        exhausted = false;
+        tableIterator.seekToLast();
+    }
+
     @Override
     public void seekInternal(InternalKey targetKey)
     {
+        checkState(!closed, "Iterator has been closed");
+        prefix = null;
+        exhausted = false;
+        if (prefixExtractor != null) {
+            prefix = prefixExtractor.prefix(targetKey.getUserKey());
+            // skip the table without reading a data block if its filter rules the prefix out
+            if (prefix != null && !tableIterator.prefixMayMatch(InternalPrefixExtractor.firstKeyWithPrefix(prefix), prefix)) {
+                exhausted = true;
+                tableIterator.close();
+                return;
+            }
+        }
         tableIterator.seek(targetKey.encode());
     }
 
     @Override
     protected Entry<InternalKey, Slice> getNextElement()
     {
-        if (tableIterator.hasNext()) {
+        if (!closed && !exhausted && tableIterator.hasNext()) {
             Entry<Slice, Slice> next = tableIterator.next();
-            return Maps.immutableEntry(new InternalKey(next.getKey()), next.getValue());
+            InternalKey key = new InternalKey(next.getKey());
+            if (prefix == null || InternalPrefixExtractor.hasPrefix(key.getUserKey(), prefix)) {
+                return Maps.immutableEntry(key, next.getValue());
+            }
+            // past the prefix, release the block rather than reading on
+            exhausted = true;
+            tableIterator.close();
         }
         return null;
     }
 
+    @Override
+    protected Entry<InternalKey, Slice> getPrevElement()
+    {
+        // prefix iteration only runs forward
+        if (!closed && prefix == null && tableIterator.hasPrev()) {
+            Entry<Slice, Slice> prev = tableIterator.prev();
+            return Maps.immutableEntry(new InternalKey(prev.getKey()), prev.getValue());
+        }
+        return null;
+    }
+
+    /**
+     * Releases the block held by the iterator and its reference to the
+     * table.  The table may be unmapped once it is closed, so the iterator
+     * cannot be used again.
+     */
+    public void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        tableIterator.close();
+        Closeables.closeQuietly(tableReference);
+    }
+
     @Override
     public String toString()
     {
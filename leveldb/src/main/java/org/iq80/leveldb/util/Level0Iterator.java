@@ -39,12 +39,18 @@ public final class Level0Iterator
     private final List<InternalTableIterator> inputs;
     private final PriorityQueue<ComparableIterator> priorityQueue;
     private final Comparator<InternalKey> comparator;
+    private boolean reverse;
 
     public Level0Iterator(TableCache tableCache, List<FileMetaData> files, Comparator<InternalKey> comparator)
+    {
+        this(tableCache, files, comparator, true);
+    }
+
+    public Level0Iterator(TableCache tableCache, List<FileMetaData> files, Comparator<InternalKey> comparator, boolean fillCache)
     {
         Builder<InternalTableIterator> builder = ImmutableList.builder();
         for (FileMetaData file : files) {
-            builder.add(tableCache.newIterator(file));
+            builder.add(tableCache.newIterator(file, fillCache));
         }
         this.inputs = builder.build();
         this.comparator = comparator;
@@ -68,6 +74,17 @@ public final class Level0Iterator
         for (InternalTableIterator input : inputs) {
             input.seekToFirst();
         }
+        reverse = false;
+        resetPriorityQueue(comparator);
+    }
+
+    @Override
+    protected void seekToLastInternal()
+    {
+        for (InternalTableIterator input : inputs) {
+            input.seekToLast();
+        }
+        reverse = true;
         resetPriorityQueue(comparator);
     }
 
@@ -77,21 +94,54 @@ public final class Level0Iterator
         for (InternalTableIterator input : inputs) {
             input.seek(targetKey);
         }
+        reverse = false;
         resetPriorityQueue(comparator);
     }
 
     private void resetPriorityQueue(Comparator<InternalKey> comparator)
     {
+        priorityQueue.clear();
         int i = 0;
         for (InternalTableIterator input : inputs) {
-            if (input.hasNext()) {
-                priorityQueue.add(new ComparableIterator(input, comparator, i++, input.next()));
+            if (reverse ? input.hasPrev() : input.hasNext()) {
+                priorityQueue.add(new ComparableIterator(input, comparator, i++, reverse, reverse ? input.prev() : input.next()));
             }
         }
     }
 
+    /**
+     * Turns the iteration around.  Every input is moved back over the
+     * element it read ahead, so all of them are positioned between the
+     * same two merged elements, and then reads ahead in the new direction.
+     */
+    private void setReverse(boolean reverse)
+    {
+        for (ComparableIterator iterator : priorityQueue) {
+            iterator.unread();
+        }
+        this.reverse = reverse;
+        resetPriorityQueue(comparator);
+    }
+
     @Override
     protected Entry<InternalKey, Slice> getNextElement()
+    {
+        if (reverse) {
+            setReverse(false);
+        }
+        return pollPriorityQueue();
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> getPrevElement()
+    {
+        if (!reverse) {
+            setReverse(true);
+        }
+        return pollPriorityQueue();
+    }
+
+    private Entry<InternalKey, Slice> pollPriorityQueue()
     {
         Entry<InternalKey, Slice> result = null;
         ComparableIterator nextIterator = priorityQueue.poll();
@@ -104,6 +154,14 @@ public final class Level0Iterator
         return result;
     }
 
+    @Override
+    public void close()
+    {
+        for (InternalTableIterator input : inputs) {
+            input.close();
+        }
+    }
+
     @Override
     public String toString()
     {
@@ -121,13 +179,16 @@ public final class Level0Iterator
         private final SeekingIterator<InternalKey, Slice> iterator;
         private final Comparator<InternalKey> comparator;
         private final int ordinal;
+        // iterates backward, with the largest element first
+        private final boolean reverse;
         private Entry<InternalKey, Slice> nextElement;
 
-        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal, Entry<InternalKey, Slice> nextElement)
+        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal, boolean reverse, Entry<InternalKey, Slice> nextElement)
         {
             this.iterator = iterator;
             this.comparator = comparator;
             this.ordinal = ordinal;
+            this.reverse = reverse;
             this.nextElement = nextElement;
         }
 
@@ -145,8 +206,8 @@ public final class Level0Iterator
             }
 
             Entry<InternalKey, Slice> result = nextElement;
-            if (iterator.hasNext()) {
-                nextElement = iterator.next();
+            if (reverse ? iterator.hasPrev() : iterator.hasNext()) {
+                nextElement = reverse ? iterator.prev() : iterator.next();
             }
             else {
                 nextElement = null;
@@ -154,6 +215,20 @@ public final class Level0Iterator
             return result;
         }
 
+        /**
+         * Moves the iterator back over the element read ahead, so that it is
+         * positioned where the merged iteration is.
+         */
+        public void unread()
+        {
+            if (reverse) {
+                iterator.next();
+            }
+            else {
+                iterator.prev();
+            }
+        }
+
         @Override
         public void remove()
         {
@@ -197,7 +272,7 @@ public final class Level0Iterator
             if (result == 0) {
                 result = Integer.compare(this.ordinal, that.ordinal);
             }
-            return result;
+            return reverse ? -result : result;
         }
     }
 }
@@ -20,6 +20,8 @@ package org.iq80.leveldb.util;
 import org.iq80.leveldb.impl.FileMetaData;
 import org.iq80.leveldb.impl.InternalKey;
 import org.iq80.leveldb.impl.InternalKeyComparator;
+import org.iq80.leveldb.impl.InternalPrefixExtractor;
+import org.iq80.leveldb.impl.IteratorBounds;
 import org.iq80.leveldb.impl.TableCache;
 
 import java.util.List;
@@ -32,14 +34,46 @@ public final class LevelIterator
     private final TableCache tableCache;
     private final List<FileMetaData> files;
     private final InternalKeyComparator comparator;
+    private final boolean fillCache;
+    private final InternalPrefixExtractor prefixExtractor;
+    private final IteratorBounds bounds;
     private InternalTableIterator current;
     private int index;
+    // prefix of the last seek in prefix mode, or null
+    private Slice prefix;
 
     public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator)
+    {
+        this(tableCache, files, comparator, true);
+    }
+
+    public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator, boolean fillCache)
+    {
+        this(tableCache, files, comparator, fillCache, null);
+    }
+
+    /**
+     * @param prefixExtractor if not null, iteration ends at the first key
+     * without the prefix of the key seeked to
+     */
+    public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator, boolean fillCache, InternalPrefixExtractor prefixExtractor)
+    {
+        this(tableCache, files, comparator, fillCache, prefixExtractor, null);
+    }
+
+    /**
+     * @param prefixExtractor if not null, iteration ends at the first key
+     * without the prefix of the key seeked to
+     * @param bounds if not null, files outside the bounds are skipped
+     */
+    public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator, boolean fillCache, InternalPrefixExtractor prefixExtractor, IteratorBounds bounds)
     {
         this.tableCache = tableCache;
-        this.files = files;
+        this.files = bounds != null ? bounds.filter(files) : files;
         this.comparator = comparator;
+        this.fillCache = fillCache;
+        this.prefixExtractor = prefixExtractor;
+        this.bounds = bounds;
     }
 
     @Override
@@ -47,12 +81,26 @@ public final class LevelIterator
     {
         // reset index to before first and clear the data iterator
         index = 0;
-        current = null;
+        prefix = null;
+        closeCurrent();
+    }
+
+    @Override
+    protected void seekToLastInternal()
+    {
+        index = files.size();
+        prefix = null;
+        closeCurrent();
     }
 
     @Override
     protected void seekInternal(InternalKey targetKey)
     {
+        prefix = null;
+        if (prefixExtractor != null) {
+            prefix = prefixExtractor.prefix(targetKey.getUserKey());
+        }
+
         // seek the index to the block containing the key
         if (files.isEmpty()) {
             return;
@@ -92,7 +140,7 @@ public final class LevelIterator
             current.seek(targetKey);
         }
         else {
-            current = null;
+            closeCurrent();
         }
     }
 
@@ -109,7 +157,7 @@ public final class LevelIterator
                 currentHasNext = current.hasNext();
             }
             if (!(currentHasNext)) {
-                if (index < files.size()) {
+                if (index < files.size() && startsInPrefix(files.get(index))) {
                     current = openNextFile();
                 }
                 else {
@@ -125,16 +173,66 @@ public final class LevelIterator
         }
         else {
             // set current to empty iterator to avoid extra calls to user iterators
-            current = null;
+            closeCurrent();
             return null;
         }
     }
 
+    @Override
+    protected Entry<InternalKey, Slice> getPrevElement()
+    {
+        // prefix iteration only runs forward
+        if (prefix != null) {
+            return null;
+        }
+        while (true) {
+            if (current != null && current.hasPrev()) {
+                return current.prev();
+            }
+
+            // the current file is the one before index
+            int previous = current != null ? index - 2 : index - 1;
+            if (previous < 0) {
+                return null;
+            }
+            index = previous;
+            current = openNextFile();
+            current.seekToLast();
+        }
+    }
+
+    /**
+     * Returns false if the file starts past the prefix being iterated, so
+     * it does not have to be opened.
+     */
+    private boolean startsInPrefix(FileMetaData fileMetaData)
+    {
+        return prefix == null || InternalPrefixExtractor.hasPrefix(fileMetaData.getSmallest().getUserKey(), prefix);
+    }
+
     private InternalTableIterator openNextFile()
     {
+        closeCurrent();
         FileMetaData fileMetaData = files.get(index);
         index++;
-        return tableCache.newIterator(fileMetaData);
+        return tableCache.newIterator(fileMetaData, fillCache, prefixExtractor, bounds);
+    }
+
+    private void closeCurrent()
+    {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+    /**
+     * Releases the blocks and the table held by this iterator.
+     */
+    @Override
+    public void close()
+    {
+        closeCurrent();
     }
 
     @Override
@@ -32,6 +32,7 @@ public final class MergingIterator
     private final List<? extends InternalIterator> levels;
     private final PriorityQueue<ComparableIterator> priorityQueue;
     private final Comparator<InternalKey> comparator;
+    private boolean reverse;
 
     public MergingIterator(List<? extends InternalIterator> levels, Comparator<InternalKey> comparator)
     {
@@ -48,6 +49,17 @@ public final class MergingIterator
         for (InternalIterator level : levels) {
             level.seekToFirst();
         }
+        reverse = false;
+        resetPriorityQueue(comparator);
+    }
+
+    @Override
+    protected void seekToLastInternal()
+    {
+        for (InternalIterator level : levels) {
+            level.seekToLast();
+        }
+        reverse = true;
         resetPriorityQueue(comparator);
     }
 
@@ -57,21 +69,54 @@ public final class MergingIterator
         for (InternalIterator level : levels) {
             level.seek(targetKey);
         }
+        reverse = false;
         resetPriorityQueue(comparator);
     }
 
     private void resetPriorityQueue(Comparator<InternalKey> comparator)
     {
+        priorityQueue.clear();
         int i = 1;
         for (InternalIterator level : levels) {
-            if (level.hasNext()) {
-                priorityQueue.add(new ComparableIterator(level, comparator, i++, level.next()));
+            if (reverse ? level.hasPrev() : level.hasNext()) {
+                priorityQueue.add(new ComparableIterator(level, comparator, i++, reverse, reverse ? level.prev() : level.next()));
             }
         }
     }
 
+    /**
+     * Turns the iteration around.  Every level is moved back over the
+     * element it read ahead, so all of them are positioned between the
+     * same two merged elements, and then reads ahead in the new direction.
+     */
+    private void setReverse(boolean reverse)
+    {
+        for (ComparableIterator iterator : priorityQueue) {
+            iterator.unread();
+        }
+        this.reverse = reverse;
+        resetPriorityQueue(comparator);
+    }
+
     @Override
     protected Entry<InternalKey, Slice> getNextElement()
+    {
+        if (reverse) {
+            setReverse(false);
+        }
+        return pollPriorityQueue();
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> getPrevElement()
+    {
+        if (!reverse) {
+            setReverse(true);
+        }
+        return pollPriorityQueue();
+    }
+
+    private Entry<InternalKey, Slice> pollPriorityQueue()
     {
         Entry<InternalKey, Slice> result = null;
         ComparableIterator nextIterator = priorityQueue.poll();
@@ -84,6 +129,16 @@ public final class MergingIterator
         return result;
     }
 
+    /**
+     * Releases the blocks and tables held by the merged iterators.
+     */
+    public void close()
+    {
+        for (InternalIterator level : levels) {
+            level.close();
+        }
+    }
+
     @Override
     public String toString()
     {
@@ -101,13 +156,16 @@ public final class MergingIterator
         private final InternalIterator iterator;
         private final Comparator<InternalKey> comparator;
         private final int ordinal;
+        // iterates backward, with the largest element first
+        private final boolean reverse;
         private Entry<InternalKey, Slice> nextElement;
 
-        private ComparableIterator(InternalIterator iterator, Comparator<InternalKey> comparator, int ordinal, Entry<InternalKey, Slice> nextElement)
+        private ComparableIterator(InternalIterator iterator, Comparator<InternalKey> comparator, int ordinal, boolean reverse, Entry<InternalKey, Slice> nextElement)
         {
             this.iterator = iterator;
             this.comparator = comparator;
             this.ordinal = ordinal;
+            this.reverse = reverse;
             this.nextElement = nextElement;
         }
 
@@ -125,8 +183,8 @@ public final class MergingIterator
             }
 
             Entry<InternalKey, Slice> result = nextElement;
-            if (iterator.hasNext()) {
-                nextElement = iterator.next();
+            if (reverse ? iterator.hasPrev() : iterator.hasNext()) {
+                nextElement = reverse ? iterator.prev() : iterator.next();
             }
             else {
                 nextElement = null;
@@ -134,6 +192,20 @@ public final class MergingIterator
             return result;
         }
 
+        /**
+         * Moves the iterator back over the element read ahead, so that it is
+         * positioned where the merged iteration is.
+         */
+        public void unread()
+        {
+            if (reverse) {
+                iterator.next();
+            }
+            else {
+                iterator.prev();
+            }
+        }
+
         @Override
         public void remove()
         {
@@ -177,7 +249,7 @@ public final class MergingIterator
             if (result == 0) {
                 result = Integer.compare(this.ordinal, that.ordinal);
             }
-            return result;
+            return reverse ? -result : result;
         }
     }
 }
@@ -17,23 +17,58 @@
  */
 package org.iq80.leveldb.util;
 
-import org.iq80.leveldb.table.Block;
+import org.iq80.leveldb.table.BlockCache;
 import org.iq80.leveldb.table.BlockIterator;
+import org.iq80.leveldb.table.Readahead;
 import org.iq80.leveldb.table.Table;
 
+import java.util.Comparator;
 import java.util.Map.Entry;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 public final class TableIterator
         extends AbstractSeekingIterator<Slice, Slice>
 {
+    // blocks read one after the other before the scan is treated as sequential
+    private static final int SEQUENTIAL_BLOCKS_BEFORE_READAHEAD = 2;
+
     private final Table table;
     private final BlockIterator blockIterator;
+    private final boolean fillCache;
+    // blocks after the block whose index key reaches the upper bound are not read
+    private final Comparator<Slice> comparator;
+    private final Slice upperBound;
     private BlockIterator current;
+    // pins the block of the current iterator in the block cache
+    private BlockCache.Handle currentHandle;
+    private Slice currentBlockHandle;
+    private int sequentialBlocks;
+    private Readahead readahead;
 
     public TableIterator(Table table, BlockIterator blockIterator)
     {
+        this(table, blockIterator, true);
+    }
+
+    public TableIterator(Table table, BlockIterator blockIterator, boolean fillCache)
+    {
+        this(table, blockIterator, fillCache, null, null);
+    }
+
+    /**
+     * @param upperBound if not null, the iteration ends without reading the
+     * next block once the index key of the current block, which is at least
+     * the last key of the block, is greater than or equal to this key
+     */
+    public TableIterator(Table table, BlockIterator blockIterator, boolean fillCache, Comparator<Slice> comparator, Slice upperBound)
+    {
+        checkArgument(upperBound == null || comparator != null, "comparator is null");
         this.table = table;
         this.blockIterator = blockIterator;
+        this.fillCache = fillCache;
+        this.comparator = comparator;
+        this.upperBound = upperBound;
         current = null;
     }
 
@@ -42,23 +77,41 @@ public final class TableIterator
     {
         // reset index to before first and clear the data iterator
         blockIterator.seekToFirst();
-        current = null;
+        releaseCurrent();
+        sequentialBlocks = 0;
+    }
+
+    @Override
+    protected void seekToLastInternal()
+    {
+        blockIterator.seekToLast();
+        releaseCurrent();
+        sequentialBlocks = 0;
     }
 
     @Override
     protected void seekInternal(Slice targetKey)
     {
         // seek the index to the block containing the key
-        blockIterator.seek(targetKey);
+        table.seekIndex(blockIterator, targetKey);
+        sequentialBlocks = 0;
 
         // if indexIterator does not have a next, it mean the key does not exist in this iterator
         if (blockIterator.hasNext()) {
+            // a seek that lands in the block already open, as the sorted
+            // lookups of a multi get do, reuses it instead of reading it again
+            if (current != null && blockIterator.peek().getValue().equals(currentBlockHandle)) {
+                blockIterator.next();
+            }
+            else {
+                current = getNextBlock();
+            }
+
             // seek the current iterator to the key
-            current = getNextBlock();
             current.seek(targetKey);
         }
         else {
-            current = null;
+            releaseCurrent();
         }
     }
 
@@ -75,7 +128,8 @@ public final class TableIterator
                 currentHasNext = current.hasNext();
             }
             if (!(currentHasNext)) {
-                if (blockIterator.hasNext()) {
+                if (blockIterator.hasNext() && !isPastUpperBound()) {
+                    sequentialBlocks++;
                     current = getNextBlock();
                 }
                 else {
@@ -91,16 +145,101 @@ public final class TableIterator
         }
         else {
             // set current to empty iterator to avoid extra calls to user iterators
-            current = null;
+            releaseCurrent();
             return null;
         }
     }
 
+    @Override
+    protected Entry<Slice, Slice> getPrevElement()
+    {
+        while (true) {
+            if (current != null && current.hasPrev()) {
+                return current.prev();
+            }
+
+            // the index is positioned after the current block, so step back over it first
+            if (current != null) {
+                blockIterator.prev();
+            }
+            if (!blockIterator.hasPrev()) {
+                if (current != null) {
+                    blockIterator.next();
+                }
+                return null;
+            }
+            current = getPrevBlock();
+        }
+    }
+
+    /**
+     * Returns true if the block before the index position, the one read
+     * last, already reaches the upper bound.
+     */
+    private boolean isPastUpperBound()
+    {
+        return upperBound != null && blockIterator.hasPrev() && comparator.compare(blockIterator.peekPrev().getKey(), upperBound) >= 0;
+    }
+
+    private BlockIterator getPrevBlock()
+    {
+        // backward scans are not read ahead
+        sequentialBlocks = 0;
+        Slice blockHandle = blockIterator.prev().getValue();
+        blockIterator.next();
+        BlockCache.Handle handle = table.openBlock(blockHandle, fillCache);
+        releaseCurrent();
+        currentHandle = handle;
+        currentBlockHandle = blockHandle;
+        BlockIterator iterator = handle.getBlock().iterator();
+        iterator.seekToLast();
+        return iterator;
+    }
+
     private BlockIterator getNextBlock()
     {
         Slice blockHandle = blockIterator.next().getValue();
-        Block dataBlock = table.openBlock(blockHandle);
-        return dataBlock.iterator();
+        if (readahead == null && sequentialBlocks >= SEQUENTIAL_BLOCKS_BEFORE_READAHEAD) {
+            readahead = table.newReadahead();
+        }
+        BlockCache.Handle handle = table.openBlock(blockHandle, fillCache, sequentialBlocks >= SEQUENTIAL_BLOCKS_BEFORE_READAHEAD ? readahead : null);
+        releaseCurrent();
+        currentHandle = handle;
+        currentBlockHandle = blockHandle;
+        return handle.getBlock().iterator();
+    }
+
+    private void releaseCurrent()
+    {
+        current = null;
+        if (currentHandle != null) {
+            currentHandle.release();
+            currentHandle = null;
+        }
+        currentBlockHandle = null;
+    }
+
+    /**
+     * Returns false if the table certainly has no key starting with the prefix.
+     *
+     * @see Table#prefixMayMatch(Slice, Slice)
+     */
+    public boolean prefixMayMatch(Slice prefixKey, Slice prefix)
+    {
+        return table.prefixMayMatch(prefixKey, prefix);
+    }
+
+    /**
+     * Releases the block and readahead held by this iterator.  The iterator
+     * can still be repositioned with a seek afterwards.
+     */
+    public void close()
+    {
+        releaseCurrent();
+        if (readahead != null) {
+            readahead.close();
+            readahead = null;
+        }
     }
 
     @Override
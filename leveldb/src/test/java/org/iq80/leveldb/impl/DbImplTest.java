@@ -18,17 +18,26 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.UnsignedBytes;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBComparator;
 import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.FilterPolicy;
+import org.iq80.leveldb.MergeOperator;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.PrefixExtractor;
 import org.iq80.leveldb.Range;
 import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.ScanConsumer;
 import org.iq80.leveldb.Snapshot;
 import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.WriteOptions;
+import org.iq80.leveldb.table.BloomFilterPolicy;
 import org.iq80.leveldb.util.FileUtils;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
@@ -42,9 +51,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.google.common.collect.Maps.immutableEntry;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -52,6 +70,7 @@ import static java.util.Arrays.asList;
 import static org.iq80.leveldb.CompressionType.NONE;
 import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 import static org.iq80.leveldb.table.BlockHelper.afterString;
+import static org.iq80.leveldb.table.BlockHelper.assertReverseSequence;
 import static org.iq80.leveldb.table.BlockHelper.assertSequence;
 import static org.iq80.leveldb.table.BlockHelper.beforeString;
 import static org.testng.Assert.assertEquals;
@@ -312,6 +331,103 @@ public class DbImplTest
                 immutableEntry("c", "vc"));
     }
 
+    @Test
+    public void testReverseIteration()
+            throws Exception
+    {
+        // entries spread over a level 1 table and a newer level 0 table that overwrites and deletes some of them
+        DbStringWrapper db = new DbStringWrapper(new Options().blockSize(256), databaseDir);
+        for (int i = 0; i < 300; i++) {
+            db.put(String.format("k%03d", i), "v" + i);
+        }
+        db.reopen();
+        db.compactRange(0, "k", "l");
+        for (int i = 0; i < 300; i += 3) {
+            db.put(String.format("k%03d", i), "new" + i);
+        }
+        for (int i = 0; i < 300; i += 7) {
+            db.delete(String.format("k%03d", i));
+        }
+        db.deleteRange("k100", "k110");
+        db.reopen();
+
+        List<Entry<String, String>> expected = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            if (i % 7 != 0 && (i < 100 || i >= 110)) {
+                expected.add(immutableEntry(String.format("k%03d", i), (i % 3 == 0 ? "new" : "v") + i));
+            }
+        }
+
+        SeekingIterator<String, String> iterator = db.iterator();
+        iterator.seekToLast();
+        assertReverseSequence(iterator, expected);
+        assertSequence(iterator, expected);
+
+        // the entries before a seek are the ones before the key
+        iterator.seek("k150");
+        int index = expected.indexOf(immutableEntry("k150", "new150"));
+        assertReverseSequence(iterator, expected.subList(0, index));
+
+        // turning around returns the same entry again
+        iterator.seek("k105");
+        assertEquals(iterator.next(), immutableEntry("k110", "v110"));
+        assertEquals(iterator.prev(), immutableEntry("k110", "v110"));
+        assertEquals(iterator.prev(), immutableEntry("k099", "new99"));
+        assertEquals(iterator.peek(), immutableEntry("k099", "new99"));
+        assertEquals(iterator.peekPrev(), immutableEntry("k097", "v97"));
+        assertEquals(iterator.next(), immutableEntry("k099", "new99"));
+        assertEquals(iterator.next(), immutableEntry("k110", "v110"));
+    }
+
+    @Test
+    public void testIteratorBounds()
+            throws Exception
+    {
+        // one level 0 table per batch, so the bounds exclude whole tables
+        DbStringWrapper db = new DbStringWrapper(new Options().blockSize(256), databaseDir);
+        for (int batch = 0; batch < 3; batch++) {
+            for (int i = batch * 100; i < (batch + 1) * 100; i++) {
+                db.put(String.format("k%03d", i), "v" + i);
+            }
+            db.reopen();
+        }
+        db.delete("k120");
+        db.reopen();
+
+        List<Entry<String, String>> expected = new ArrayList<>();
+        for (int i = 50; i < 150; i++) {
+            if (i != 120) {
+                expected.add(immutableEntry(String.format("k%03d", i), "v" + i));
+            }
+        }
+
+        SeekingIterator<String, String> iterator = db.iterator(new ReadOptions()
+                .iterateLowerBound(toByteArray("k050"))
+                .iterateUpperBound(toByteArray("k150")));
+        iterator.seekToFirst();
+        assertSequence(iterator, expected);
+        iterator.seekToLast();
+        assertReverseSequence(iterator, expected);
+
+        // seeks are clamped into the bounds
+        iterator.seek("a");
+        assertEquals(iterator.peek(), immutableEntry("k050", "v50"));
+        assertFalse(iterator.hasPrev());
+        iterator.seek("k120");
+        assertEquals(iterator.peek(), immutableEntry("k121", "v121"));
+        iterator.seek("k200");
+        assertFalse(iterator.hasNext());
+        assertEquals(iterator.peekPrev(), immutableEntry("k149", "v149"));
+
+        // either bound alone
+        iterator = db.iterator(new ReadOptions().iterateUpperBound(toByteArray("k003")));
+        iterator.seekToFirst();
+        assertSequence(iterator, ImmutableList.of(immutableEntry("k000", "v0"), immutableEntry("k001", "v1"), immutableEntry("k002", "v2")));
+        iterator = db.iterator(new ReadOptions().iterateLowerBound(toByteArray("k297")));
+        iterator.seekToLast();
+        assertReverseSequence(iterator, ImmutableList.of(immutableEntry("k297", "v297"), immutableEntry("k298", "v298"), immutableEntry("k299", "v299")));
+    }
+
     @Test
     public void testRecover()
             throws Exception
@@ -371,6 +487,60 @@ public class DbImplTest
 
     }
 
+    @Test
+    public void testRecoverAcrossManyMemTables()
+            throws Exception
+    {
+        // a tiny write buffer makes recovery flush many memtables while it still replays the log
+        Options options = new Options().writeBufferSize(10000);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+
+        Random random = new Random(301);
+        Map<String, String> expected = new TreeMap<>();
+        long sequence = 0;
+        for (int i = 0; i < 3000; i++) {
+            String key = key(random.nextInt(500));
+            if (random.nextInt(4) == 0) {
+                db.delete(key);
+                expected.remove(key);
+            }
+            else {
+                String value = randomString(random, 100);
+                db.put(key, value);
+                expected.put(key, value);
+            }
+            sequence++;
+
+            // batches of overwrites and deletes of the same keys
+            if (i % 500 == 0) {
+                WriteBatch batch = db.db.createWriteBatch();
+                batch.put(toByteArray(key), toByteArray("batched"));
+                batch.delete(toByteArray(key));
+                batch.put(toByteArray(key), toByteArray("batched" + i));
+                db.db.write(batch);
+                batch.close();
+                expected.put(key, "batched" + i);
+                sequence += 3;
+            }
+        }
+
+        for (int round = 0; round < 2; round++) {
+            db.reopen(options);
+            Snapshot snapshot = db.getSnapshot();
+            assertEquals(((SnapshotImpl) snapshot).getLastSequence(), sequence);
+            snapshot.close();
+            for (int i = 0; i < 500; i++) {
+                assertEquals(db.get(key(i)), expected.get(key(i)));
+            }
+            SeekingIterator<String, String> iterator = db.iterator();
+            iterator.seekToFirst();
+            for (Entry<String, String> entry : expected.entrySet()) {
+                assertEquals(iterator.next(), entry);
+            }
+            assertFalse(iterator.hasNext());
+        }
+    }
+
     @Test
     public void testMinorCompactionsHappen()
             throws Exception
@@ -451,6 +621,130 @@ public class DbImplTest
         }
     }
 
+    @Test
+    public void testConcurrentCompactions()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().maxBackgroundCompactions(4), databaseDir);
+        Random random = new Random(301);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            values.add(null);
+        }
+        // overwrite the keys in a random order, so the tables overlap and have to be merged
+        for (int i = 0; i < 400; i++) {
+            int index = random.nextInt(200);
+            String value = randomString(random, 100 * 1024);
+            db.put(key(index), value);
+            values.set(index, value);
+        }
+
+        // recovery writes many level-0 files, which the compactions push down in parallel
+        db.reopen(new Options().writeBufferSize(100000).maxBackgroundCompactions(4));
+        for (int i = 0; i < 200; i++) {
+            assertEquals(db.get(key(i)), values.get(i));
+        }
+
+        // suspending waits for the running compactions
+        db.db.suspendCompactions();
+        for (int i = 0; i < 200; i++) {
+            assertEquals(db.get(key(i)), values.get(i));
+        }
+        db.db.resumeCompactions();
+
+        db.reopen(new Options().maxBackgroundCompactions(4));
+        for (int i = 0; i < 200; i++) {
+            assertEquals(db.get(key(i)), values.get(i));
+        }
+    }
+
+    @Test
+    public void testFlushDuringCompactionOfSameRange()
+            throws Exception
+    {
+        final CountDownLatch flushStarted = new CountDownLatch(1);
+        final CountDownLatch compactionFinished = new CountDownLatch(1);
+        final BloomFilterPolicy bloomFilter = new BloomFilterPolicy(10);
+        FilterPolicy filterPolicy = new FilterPolicy()
+        {
+            @Override
+            public String name()
+            {
+                return bloomFilter.name();
+            }
+
+            @Override
+            public byte[] createFilter(List<byte[]> keys)
+            {
+                // hold the flush of "m" while it builds its table without the mutex
+                for (byte[] key : keys) {
+                    if (new String(key, UTF_8).equals("m")) {
+                        flushStarted.countDown();
+                        Uninterruptibles.awaitUninterruptibly(compactionFinished);
+                    }
+                }
+                return bloomFilter.createFilter(keys);
+            }
+
+            @Override
+            public boolean keyMayMatch(byte[] key, byte[] filter)
+            {
+                return bloomFilter.keyMayMatch(key, filter);
+            }
+        };
+        Options options = new Options().filterPolicy(filterPolicy).mergeOperator(new AppendOperator()).maxBackgroundCompactions(2);
+        final DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+
+        // merge operands skip the hot/cold tables, so they reach the flushed memtables;
+        // level 2 gets [a, b] and [y, z], level 1 gets [a, c] and [w, z]
+        for (String keys : asList("yz", "ab", "wz", "ac")) {
+            for (char key : keys.toCharArray()) {
+                db.merge(String.valueOf(key), keys);
+            }
+            db.compactMemTable();
+        }
+        assertEquals(db.numberOfFilesInLevel(1), 2);
+        assertEquals(db.numberOfFilesInLevel(2), 2);
+
+        // [m, n] overlaps no file yet, but the compaction of level 1 writes [a, z] to level 2
+        db.merge("m", "mn");
+        db.merge("n", "mn");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> flush = executor.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                {
+                    db.compactMemTable();
+                    return null;
+                }
+            });
+            Uninterruptibles.awaitUninterruptibly(flushStarted);
+            db.compactRange(1, "a", "z");
+            compactionFinished.countDown();
+            flush.get();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        // the flushed table must stay above the overlapping compaction output
+        assertEquals(db.numberOfFilesInLevel(1), 1);
+        assertEquals(db.numberOfFilesInLevel(2), 1);
+        Map<String, String> expected = ImmutableMap.<String, String>builder()
+                .put("a", "ab,ac").put("b", "ab").put("c", "ac").put("m", "mn").put("n", "mn")
+                .put("w", "wz").put("y", "yz").put("z", "yz,wz")
+                .build();
+        for (Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(db.get(entry.getKey()), entry.getValue());
+        }
+        db.reopen();
+        for (Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(db.get(entry.getKey()), entry.getValue());
+        }
+    }
+
     @Test
     public void testRepeatedWritesToSameKey()
             throws Exception
@@ -472,6 +766,612 @@ public class DbImplTest
         db.close();
     }
 
+    @Test
+    public void testBlockCache()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().cacheSize(100 * 1024).blockSize(256), databaseDir);
+        for (int i = 0; i < 1000; i++) {
+            db.put(String.format("key%04d", i), "value" + i);
+        }
+        db.reopen();
+        db.compactRange(0, "key", "kez");
+
+        // the second pass is served from the cache
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(db.get(String.format("key%04d", i)), "value" + i);
+            }
+        }
+        assertTrue(db.db.getProperty("leveldb.block-cache-stats").startsWith("shard"));
+
+        // scans that bypass the cache see the same data
+        SeekingIteratorAdapter iterator = db.db.iterator(new ReadOptions().fillCache(false));
+        iterator.seekToFirst();
+        int count = 0;
+        while (iterator.hasNext()) {
+            Entry<byte[], byte[]> entry = iterator.next();
+            assertEquals(new String(entry.getValue(), UTF_8), "value" + count);
+            count++;
+        }
+        assertEquals(count, 1000);
+    }
+
+    @Test
+    public void testTableHandlesReleasedWithIterators()
+            throws Exception
+    {
+        // a table cache with room for a single table
+        DbStringWrapper db = new DbStringWrapper(new Options().maxOpenFiles(11), databaseDir);
+        for (int i = 0; i < 100; i++) {
+            db.put(String.format("key%04d", i), "value" + i);
+        }
+        db.reopen();
+        for (int i = 0; i < 100; i += 2) {
+            db.put(String.format("key%04d", i), "new" + i);
+        }
+        db.reopen();
+        assertEquals(db.numberOfFilesInLevel(0), 2);
+
+        // the iterator keeps the tables evicted from the cache open until it is closed
+        SeekingIteratorAdapter iterator = db.db.iterator();
+        iterator.seekToFirst();
+        assertEquals(new String(iterator.next().getValue(), UTF_8), "new0");
+        assertEquals(new String(iterator.next().getValue(), UTF_8), "value1");
+        assertTrue(openTableHandles(db) >= 2);
+
+        iterator.close();
+        assertEquals(openTableHandles(db), 1);
+        assertEquals(db.get("key0099"), "value99");
+        assertEquals(db.get("key0098"), "new98");
+        assertEquals(openTableHandles(db), 1);
+
+        db.close();
+        assertEquals(openTableHandles(db), 0);
+    }
+
+    @Test
+    public void testPreloadTables()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        for (int i = 0; i < 100; i++) {
+            db.put(String.format("key%04d", i), "value" + i);
+        }
+        db.reopen();
+        for (int i = 0; i < 100; i += 2) {
+            db.put(String.format("key%04d", i), "new" + i);
+        }
+        db.reopen();
+        db.reopen(new Options().preloadTables(false));
+        assertEquals(openTableHandles(db), 0);
+
+        // every table is open before the first read
+        db.reopen(new Options().preloadTables(true));
+        assertEquals(db.totalTableFiles(), 2);
+        assertEquals(openTableHandles(db), 2);
+        assertEquals(db.get("key0000"), "new0");
+        assertEquals(db.get("key0001"), "value1");
+
+        // but no more than the table cache holds
+        db.reopen(new Options().preloadTables(true).maxOpenFiles(11));
+        assertEquals(openTableHandles(db), 1);
+    }
+
+    private static int openTableHandles(DbStringWrapper db)
+    {
+        return Integer.parseInt(db.db.getProperty("leveldb.open-table-handles"));
+    }
+
+    @Test
+    public void testBloomFilter()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().filterPolicy(new BloomFilterPolicy(10)).blockSize(256), databaseDir);
+        for (int i = 0; i < 1000; i += 2) {
+            db.put(String.format("key%04d", i), "value" + i);
+        }
+        db.reopen();
+        db.compactRange(0, "key", "kez");
+        db.delete("key0010");
+        db.put("key0011", "new");
+        db.reopen();
+
+        for (int i = 0; i < 1000; i++) {
+            String expected = i % 2 == 0 && i != 10 ? "value" + i : null;
+            if (i == 11) {
+                expected = "new";
+            }
+            assertEquals(db.get(String.format("key%04d", i)), expected);
+        }
+        assertNull(db.get("missing"));
+
+        // tables written with a filter can be read without one
+        db.reopen(new Options());
+        assertEquals(db.get("key0000"), "value0");
+        assertNull(db.get("key0001"));
+    }
+
+    @Test
+    public void testMultiGet()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().filterPolicy(new BloomFilterPolicy(10)).blockSize(256), databaseDir);
+        for (int i = 0; i < 1000; i += 2) {
+            db.put(String.format("key%04d", i), "value" + i);
+        }
+        db.reopen();
+        db.compactRange(0, "key", "kez");
+        for (int i = 0; i < 1000; i += 10) {
+            db.put(String.format("key%04d", i), "new" + i);
+        }
+        db.delete("key0004");
+        db.reopen();
+
+        // keys in random order, with duplicates and keys that are not found
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i += 3) {
+            keys.add(String.format("key%04d", i));
+        }
+        keys.add("key0000");
+        keys.add("missing");
+        Collections.shuffle(keys, new Random(301));
+
+        List<String> values = db.multiGet(keys);
+        assertEquals(values.size(), keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(values.get(i), db.get(keys.get(i)), keys.get(i));
+        }
+        assertEquals(values.get(keys.indexOf("key0000")), "new0");
+        assertEquals(values.get(keys.indexOf("key0006")), "value6");
+        assertNull(values.get(keys.indexOf("key0003")));
+        assertNull(values.get(keys.indexOf("missing")));
+        assertEquals(db.multiGet(ImmutableList.of("key0004", "key0002")), asList(null, "value2"));
+        assertEquals(db.multiGet(ImmutableList.<String>of()), ImmutableList.of());
+    }
+
+    @Test
+    public void testParallelScan()
+            throws Exception
+    {
+        // each reopen flushes a batch of keys into its own file, so there are file boundaries to split at
+        DbStringWrapper db = new DbStringWrapper(new Options().blockSize(256), databaseDir);
+        for (int batch = 0; batch < 3; batch++) {
+            for (int i = batch * 700; i < Math.min(batch * 700 + 700, 2000); i++) {
+                db.put(String.format("key%04d", i), "value" + i);
+            }
+            db.reopen();
+        }
+        db.delete("key0500");
+        db.put("key0501", "new");
+        db.reopen();
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 100; i < 1900; i++) {
+            if (i != 500) {
+                expected.add(String.format("key%04d", i) + "=" + (i == 501 ? "new" : "value" + i));
+            }
+        }
+        assertEquals(db.parallelScan("key0100", "key1900", 1), ImmutableList.of(expected));
+
+        // the partitions split the range at file boundaries and together hold every entry in order
+        List<List<String>> partitions = db.parallelScan("key0100", "key1900", 4);
+        assertTrue(partitions.size() > 1 && partitions.size() <= 4, "partitions " + partitions.size());
+        assertEquals(Lists.newArrayList(Iterables.concat(partitions)), expected);
+    }
+
+    @Test
+    public void testRowCache()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().rowCacheSize(1024 * 1024).blockSize(256), databaseDir);
+        for (int i = 0; i < 500; i++) {
+            db.put(String.format("key%04d", i), "value" + i);
+        }
+        db.reopen();
+        db.compactRange(0, "key", "kez");
+        db.put("key0001", "new");
+        db.delete("key0002");
+        db.deleteRange("key0100", "key0200");
+        db.reopen();
+
+        // the second round is served from the row cache
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 500; i++) {
+                String expected = "value" + i;
+                if (i == 1) {
+                    expected = "new";
+                }
+                else if (i == 2 || (i >= 100 && i < 200)) {
+                    expected = null;
+                }
+                assertEquals(db.get(String.format("key%04d", i)), expected);
+            }
+        }
+        assertEquals(db.multiGet(ImmutableList.of("key0001", "key0002", "key0003")), asList("new", null, "value3"));
+
+        // compaction replaces the tables and with them the cached rows
+        db.compactRange(0, "key", "kez");
+        db.compactRange(1, "key", "kez");
+        assertEquals(db.get("key0001"), "new");
+        assertNull(db.get("key0002"));
+        assertNull(db.get("key0150"));
+        assertEquals(db.get("key0300"), "value300");
+    }
+
+    @Test
+    public void testBlobFiles()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().blobValueThreshold(1000).mergeOperator(new AppendOperator()), databaseDir);
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 20; i++) {
+            // even keys get values large enough for the blob files
+            String value = i % 2 == 0 ? longString(2000, (char) ('a' + i)) : "v" + i;
+            db.put(String.format("k%02d", i), value);
+            expected.put(String.format("k%02d", i), value);
+        }
+        db.reopen();
+        List<String> flushed = blobFileNames();
+        assertEquals(flushed.size(), 1);
+        assertDbContents(db, expected);
+
+        // values are resolved under merge operands as well
+        db.merge("k00", "x");
+        expected.put("k00", expected.get("k00") + ",x");
+        assertDbContents(db, expected);
+
+        // once every value of a blob file is overwritten, compaction deletes the file
+        for (int i = 0; i < 20; i += 2) {
+            String value = longString(3000, (char) ('A' + i));
+            db.put(String.format("k%02d", i), value);
+            expected.put(String.format("k%02d", i), value);
+        }
+        db.reopen();
+        db.compact("a", "z");
+        assertDbContents(db, expected);
+        List<String> overwritten = blobFileNames();
+        assertEquals(overwritten.size(), 1);
+        assertFalse(overwritten.contains(flushed.get(0)));
+
+        // a blob file that is mostly garbage has its live values moved by a compaction of its own
+        for (int i = 0; i < 12; i += 2) {
+            db.delete(String.format("k%02d", i));
+            expected.remove(String.format("k%02d", i));
+        }
+        db.reopen();
+        db.compact("a", "z");
+        db.db.suspendCompactions();
+        db.db.resumeCompactions();
+        assertDbContents(db, expected);
+        List<String> moved = blobFileNames();
+        assertEquals(moved.size(), 1);
+        assertFalse(moved.contains(overwritten.get(0)));
+
+        // the blob files are part of the recovered state
+        db.reopen();
+        assertDbContents(db, expected);
+    }
+
+    @Test
+    public void testBlobGarbageCollectionInLastLevel()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().blobValueThreshold(1000), databaseDir);
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 20; i++) {
+            String value = longString(2000, (char) ('a' + i));
+            db.put(String.format("k%02d", i), value);
+            expected.put(String.format("k%02d", i), value);
+        }
+        db.reopen();
+        List<String> flushed = blobFileNames();
+        assertEquals(flushed.size(), 1);
+
+        // the compaction finding most of the blob file to be garbage leaves
+        // the remaining pointers in the only table of the last level
+        for (int i = 0; i < 12; i++) {
+            db.delete(String.format("k%02d", i));
+            expected.remove(String.format("k%02d", i));
+        }
+        db.reopen();
+        assertEquals(db.numberOfFilesInLevel(0), 2);
+        db.compactRange(0, "a", "z");
+
+        // no more writes arrive, yet the table is rewritten in place to free the blob file
+        db.db.suspendCompactions();
+        db.db.resumeCompactions();
+        assertEquals(db.numberOfFilesInLevel(0), 0);
+        assertEquals(db.totalTableFiles(), 1);
+        assertEquals(db.numberOfFilesInLevel(1), 1);
+        List<String> moved = blobFileNames();
+        assertEquals(moved.size(), 1);
+        assertFalse(moved.contains(flushed.get(0)));
+        assertDbContents(db, expected);
+
+        db.reopen();
+        assertDbContents(db, expected);
+    }
+
+        private static void assertDbContents(DbStringWrapper db, TreeMap<String, String> expected)
+    {
+        for (Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(db.get(entry.getKey()), entry.getValue(), "Key: " + entry.getKey());
+        }
+        SeekingIterator<String, String> iterator = db.iterator();
+        assertSequence(iterator, expected.entrySet());
+        iterator.seekToLast();
+        assertReverseSequence(iterator, new ArrayList<>(expected.entrySet()));
+    }
+
+    private List<String> blobFileNames()
+    {
+        List<String> names = new ArrayList<>();
+        for (File file : FileUtils.listFiles(databaseDir)) {
+            if (file.getName().endsWith(".blob")) {
+                names.add(file.getName());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    @Test
+    public void testPrefixSameAsStart()
+            throws Exception
+    {
+        Options options = new Options()
+                .prefixExtractor(new TenantPrefixExtractor())
+                .filterPolicy(new BloomFilterPolicy(10))
+                .blockSize(256);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        for (int tenant = 0; tenant < 10; tenant += 2) {
+            for (int i = 0; i < 100; i++) {
+                db.put(String.format("t%02d:entity%03d", tenant, i), "value" + i);
+            }
+            db.reopen();
+        }
+        db.compactRange(0, "t", "u");
+        db.put("t04:entity100", "value100");
+        db.reopen();
+
+        ReadOptions prefixSameAsStart = new ReadOptions().prefixSameAsStart(true);
+        SeekingIteratorAdapter iterator = db.db.iterator(prefixSameAsStart);
+        iterator.seek(toByteArray("t04:entity050"));
+        for (int i = 50; i <= 100; i++) {
+            assertTrue(iterator.hasNext());
+            Entry<byte[], byte[]> entry = iterator.next();
+            assertEquals(new String(entry.getKey(), UTF_8), String.format("t04:entity%03d", i));
+        }
+        assertFalse(iterator.hasNext());
+
+        // no table has the prefix
+        iterator.seek(toByteArray("t05:"));
+        assertFalse(iterator.hasNext());
+        iterator.close();
+
+        // without the option, iteration continues into the next prefix
+        iterator = db.db.iterator();
+        iterator.seek(toByteArray("t05:"));
+        assertEquals(new String(iterator.next().getKey(), UTF_8), "t06:entity000");
+        iterator.close();
+    }
+
+    @Test
+    public void testReadsDuringCompaction()
+            throws Exception
+    {
+        final DbStringWrapper db = new DbStringWrapper(new Options().blockSize(256), databaseDir);
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < 500; i++) {
+                db.put(String.format("key%04d", i), "value" + i);
+            }
+            db.reopen();
+        }
+
+        // readers never take the mutex, so they must stay correct while compactions replace the version
+        final AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                final int seed = thread;
+                readers.add(executor.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call()
+                    {
+                        Random random = new Random(seed);
+                        int reads = 0;
+                        while (!done.get() || reads == 0) {
+                            int i = random.nextInt(500);
+                            assertEquals(db.get(String.format("key%04d", i)), "value" + i);
+                            reads++;
+                        }
+                        return reads;
+                    }
+                }));
+            }
+            db.compactRange(0, "key", "kez");
+            db.compactRange(1, "key", "kez");
+            done.set(true);
+            for (Future<Integer> reader : readers) {
+                assertTrue(reader.get() > 0);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        SeekingIterator<String, String> iterator = db.iterator();
+        iterator.seekToFirst();
+        for (int i = 0; i < 500; i++) {
+            assertEquals(iterator.next().getValue(), "value" + i);
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testWaitForLogSync()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().logSyncInterval(1000), databaseDir);
+        WriteOptions waitForLogSync = new WriteOptions().waitForLogSync(true);
+        for (int i = 0; i < 10; i++) {
+            db.db.put(toByteArray("key" + i), toByteArray("value" + i), waitForLogSync);
+        }
+        db.db.put(toByteArray("unsynced"), toByteArray("value"));
+
+        db.reopen();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(db.get("key" + i), "value" + i);
+        }
+        assertEquals(db.get("unsynced"), "value");
+    }
+
+    @Test
+    public void testMergeOperator()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().mergeOperator(new AppendOperator()), databaseDir);
+
+        db.merge("foo", "a");
+        db.merge("foo", "b");
+        assertEquals(db.get("foo"), "a,b");
+
+        // operands spread over the memtable and several tables
+        db.compactMemTable();
+        db.merge("foo", "c");
+        assertEquals(db.get("foo"), "a,b,c");
+        db.compactMemTable();
+        db.merge("foo", "d");
+        assertEquals(db.get("foo"), "a,b,c,d");
+        assertEquals(db.iterator().next(), immutableEntry("foo", "a,b,c,d"));
+
+        db.compactMemTable();
+        db.compactRange(0, "a", "z");
+        assertEquals(db.get("foo"), "a,b,c,d");
+
+        db.reopen();
+        db.merge("foo", "e");
+        assertEquals(db.get("foo"), "a,b,c,d,e");
+        assertNull(db.get("bar"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeWithoutOperator()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.merge("foo", "a");
+    }
+
+    @Test
+    public void testDeleteRange()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        for (int i = 0; i < 100; i++) {
+            db.put(String.format("k%03d", i), "v" + i);
+        }
+        db.reopen();
+        Snapshot snapshot = db.getSnapshot();
+
+        db.deleteRange("k020", "k050");
+        assertRangeDeleted(db, 20, 50);
+        assertEquals(db.get("k030", snapshot), "v30");
+
+        // tombstones in a table, and after a compaction through the covered data
+        db.compactMemTable();
+        assertRangeDeleted(db, 20, 50);
+        assertEquals(db.get("k030", snapshot), "v30");
+        snapshot.close();
+
+        db.compact("a", "z");
+        assertRangeDeleted(db, 20, 50);
+
+        db.reopen();
+        assertRangeDeleted(db, 20, 50);
+
+        // keys written after the tombstone are visible
+        db.put("k025", "new");
+        db.reopen();
+        assertEquals(db.get("k025"), "new");
+    }
+
+    @Test
+    public void testOverlappingDeleteRangesInMemTable()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        for (int i = 0; i < 100; i++) {
+            db.put(String.format("k%03d", i), "v" + i);
+        }
+        db.reopen();
+
+        // every lookup in the memtable picks the newest tombstone visible to its snapshot
+        Snapshot beforeDeletes = db.getSnapshot();
+        db.deleteRange("k020", "k050");
+        Snapshot afterFirstDelete = db.getSnapshot();
+        db.deleteRange("k040", "k070");
+        db.deleteRange("k010", "k030");
+        for (int i = 0; i < 100; i++) {
+            String key = String.format("k%03d", i);
+            assertEquals(db.get(key, beforeDeletes), "v" + i);
+            assertEquals(db.get(key, afterFirstDelete), i >= 20 && i < 50 ? null : "v" + i);
+            assertEquals(db.get(key), i >= 10 && i < 70 ? null : "v" + i);
+        }
+        beforeDeletes.close();
+        afterFirstDelete.close();
+    }
+
+    @Test
+    public void testIteratorOnlyLoadsTablesWithRangeTombstones()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        for (int i = 0; i < 100; i++) {
+            db.put(String.format("a%03d", i), "v" + i);
+        }
+        db.reopen();
+        for (int i = 0; i < 100; i++) {
+            db.put(String.format("b%03d", i), "v" + i);
+        }
+        db.reopen();
+        db.reopen();
+        assertEquals(db.totalTableFiles(), 2);
+        assertEquals(openTableHandles(db), 0);
+
+        // neither table has range tombstones, so a bounded iterator opens only the table it reads
+        SeekingIterator<String, String> iterator = db.iterator(new ReadOptions().iterateUpperBound(toByteArray("b")));
+        iterator.seekToFirst();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(iterator.next().getValue(), "v" + i);
+        }
+        assertFalse(iterator.hasNext());
+        assertEquals(openTableHandles(db), 1);
+
+        // the count of tombstones in a table survives reopening
+        db.deleteRange("b010", "b020");
+        db.compactMemTable();
+        db.reopen();
+        assertNull(db.get("b015"));
+        assertEquals(db.get("b020"), "v20");
+    }
+
+    private static void assertRangeDeleted(DbStringWrapper db, int begin, int end)
+    {
+        int count = 0;
+        for (SeekingIterator<String, String> iterator = db.iterator(); iterator.hasNext(); iterator.next()) {
+            count++;
+        }
+        assertEquals(count, 100 - (end - begin));
+        assertEquals(db.get(String.format("k%03d", begin - 1)), "v" + (begin - 1));
+        assertNull(db.get(String.format("k%03d", begin)));
+        assertNull(db.get(String.format("k%03d", end - 1)));
+        assertEquals(db.get(String.format("k%03d", end)), "v" + end);
+    }
+
     @Test
     public void testSparseMerge()
             throws Exception
@@ -1058,6 +1958,60 @@ public class DbImplTest
         }
     }
 
+    private static class TenantPrefixExtractor
+            implements PrefixExtractor
+    {
+        @Override
+        public String name()
+        {
+            return "test.tenant";
+        }
+
+        @Override
+        public byte[] transform(byte[] key)
+        {
+            return Arrays.copyOf(key, 4);
+        }
+
+        @Override
+        public boolean inDomain(byte[] key)
+        {
+            return key.length >= 4;
+        }
+    }
+
+    private static class AppendOperator
+            implements MergeOperator
+    {
+        @Override
+        public String name()
+        {
+            return "test.append";
+        }
+
+        @Override
+        public byte[] fullMerge(byte[] key, byte[] existingValue, List<byte[]> operands)
+        {
+            StringBuilder result = new StringBuilder();
+            if (existingValue != null) {
+                result.append(new String(existingValue, UTF_8));
+            }
+            for (byte[] operand : operands) {
+                if (result.length() > 0) {
+                    result.append(',');
+                }
+                result.append(new String(operand, UTF_8));
+            }
+            return result.toString().getBytes(UTF_8);
+        }
+
+        @Override
+        public byte[] partialMerge(byte[] key, byte[] olderOperand, byte[] newerOperand)
+        {
+            return fullMerge(key, olderOperand, ImmutableList.of(newerOperand));
+        }
+    }
+
     private class DbStringWrapper
     {
         private final Options options;
@@ -1082,6 +2036,38 @@ public class DbImplTest
             return new String(slice, UTF_8);
         }
 
+        public List<String> multiGet(List<String> keys)
+        {
+            List<byte[]> keyBytes = new ArrayList<>();
+            for (String key : keys) {
+                keyBytes.add(toByteArray(key));
+            }
+            List<String> values = new ArrayList<>();
+            for (byte[] value : db.multiGet(keyBytes, new ReadOptions())) {
+                values.add(value == null ? null : new String(value, UTF_8));
+            }
+            return values;
+        }
+
+        public List<List<String>> parallelScan(String start, String limit, int parallelism)
+        {
+            final Map<Integer, List<String>> partitions = new ConcurrentHashMap<>();
+            db.parallelScan(new Range(toByteArray(start), toByteArray(limit)), new ReadOptions(), parallelism, new ScanConsumer()
+            {
+                @Override
+                public void accept(int partition, byte[] key, byte[] value)
+                {
+                    List<String> entries = partitions.get(partition);
+                    if (entries == null) {
+                        entries = new ArrayList<>();
+                        partitions.put(partition, entries);
+                    }
+                    entries.add(new String(key, UTF_8) + "=" + new String(value, UTF_8));
+                }
+            });
+            return Lists.newArrayList(new TreeMap<>(partitions).values());
+        }
+
         public String get(String key, Snapshot snapshot)
         {
             byte[] slice = db.get(toByteArray(key), new ReadOptions().snapshot(snapshot));
@@ -1101,11 +2087,26 @@ public class DbImplTest
             db.delete(toByteArray(key));
         }
 
+        public void merge(String key, String value)
+        {
+            db.merge(toByteArray(key), toByteArray(value));
+        }
+
+        public void deleteRange(String begin, String end)
+        {
+            db.deleteRange(toByteArray(begin), toByteArray(end));
+        }
+
         public SeekingIterator<String, String> iterator()
         {
             return new StringDbIterator(db.iterator());
         }
 
+        public SeekingIterator<String, String> iterator(ReadOptions options)
+        {
+            return new StringDbIterator(db.iterator(options));
+        }
+
         public Snapshot getSnapshot()
         {
             return db.getSnapshot();
@@ -1237,6 +2238,30 @@ public class DbImplTest
             return adapt(iterator.next());
         }
 
+        @Override
+        public void seekToLast()
+        {
+            iterator.seekToLast();
+        }
+
+        @Override
+        public boolean hasPrev()
+        {
+            return iterator.hasPrev();
+        }
+
+        @Override
+        public Entry<String, String> peekPrev()
+        {
+            return adapt(iterator.peekPrev());
+        }
+
+        @Override
+        public Entry<String, String> prev()
+        {
+            return adapt(iterator.prev());
+        }
+
         @Override
         public void remove()
         {
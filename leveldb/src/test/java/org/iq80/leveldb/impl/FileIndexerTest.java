@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.util.Slice;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class FileIndexerTest
+{
+    private final BytewiseComparator userComparator = new BytewiseComparator();
+    private final InternalKeyComparator internalKeyComparator = new InternalKeyComparator(userComparator);
+
+    @Test
+    public void testNextLevelRangeHoldsKey()
+    {
+        Random random = new Random(42);
+        List<List<FileMetaData>> levels = new ArrayList<>();
+        levels.add(randomLevel(random, 3));
+        levels.add(ImmutableList.<FileMetaData>of());
+        levels.add(randomLevel(random, 10));
+        levels.add(randomLevel(random, 40));
+        levels.add(randomLevel(random, 1));
+        FileIndexer indexer = new FileIndexer(userComparator, levels);
+
+        for (int i = 0; i < 2200; i++) {
+            // keys at a boundary shared by two files fall on either file depending on the sequence
+            Slice userKey = key(i / 2);
+            InternalKey internalKey = new InternalKey(userKey, i % 2 == 0 ? MAX_SEQUENCE_NUMBER : 0, ValueType.VALUE);
+            for (int level = 0; level + 1 < levels.size(); level++) {
+                List<FileMetaData> files = levels.get(level);
+                int index = ceilingFile(files, internalKey);
+                int compareToSmallest = 0;
+                int compareToLargest = 0;
+                if (index < files.size()) {
+                    compareToSmallest = userComparator.compare(userKey, files.get(index).getSmallest().getUserKey());
+                    compareToLargest = userComparator.compare(userKey, files.get(index).getLargest().getUserKey());
+                }
+                int start = indexer.getNextLevelStart(level + 1, index, compareToSmallest, compareToLargest);
+                int end = indexer.getNextLevelEnd(level + 1, index, compareToSmallest, compareToLargest);
+
+                // the next level search must find the same file as a search of the whole level
+                List<FileMetaData> nextFiles = levels.get(level + 1);
+                int expected = ceilingFile(nextFiles, internalKey);
+                assertTrue(start <= expected && expected <= end, String.format("key %s level %s: %s not in [%s, %s]", internalKey, level + 1, expected, start, end));
+                assertEquals(start + ceilingFile(nextFiles.subList(start, end), internalKey), expected);
+            }
+        }
+    }
+
+    private List<FileMetaData> randomLevel(Random random, int fileCount)
+    {
+        // disjoint files, some of them sharing a boundary key with the next file
+        List<FileMetaData> files = new ArrayList<>();
+        int keysPerFile = 1000 / fileCount;
+        int previousLargest = -1;
+        for (int i = 0; i < fileCount; i++) {
+            int smallest = i * keysPerFile + random.nextInt(keysPerFile / 2);
+            if (previousLargest >= 0 && random.nextInt(3) == 0) {
+                smallest = previousLargest;
+            }
+            int largest = (i + 1) * keysPerFile - (random.nextBoolean() ? 0 : random.nextInt(keysPerFile / 2));
+            files.add(new FileMetaData(i, 1000,
+                    new InternalKey(key(smallest), 1, ValueType.VALUE),
+                    new InternalKey(key(largest), 2, ValueType.VALUE)));
+            previousLargest = largest;
+        }
+        return files;
+    }
+
+    private int ceilingFile(List<FileMetaData> files, InternalKey key)
+    {
+        int index = 0;
+        while (index < files.size() && internalKeyComparator.compare(files.get(index).getLargest(), key) < 0) {
+            index++;
+        }
+        return index;
+    }
+
+    private static Slice key(int i)
+    {
+        return new Slice(String.format("k%04d", i).getBytes(UTF_8));
+    }
+}
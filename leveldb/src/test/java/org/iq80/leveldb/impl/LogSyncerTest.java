@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.util.Slice;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class LogSyncerTest
+{
+    private CountingLogWriter first;
+    private CountingLogWriter second;
+    private LogSyncer syncer;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception
+    {
+        first = new CountingLogWriter(File.createTempFile("first", ".log"), 1);
+        second = new CountingLogWriter(File.createTempFile("second", ".log"), 2);
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws Exception
+    {
+        if (syncer != null) {
+            syncer.close();
+        }
+        first.delete();
+        second.delete();
+    }
+
+    @Test
+    public void testSyncOnDemand()
+            throws Exception
+    {
+        syncer = new LogSyncer(first, 10, 0, 0);
+        first.addRecord(new Slice(100), false);
+        syncer.written(12, 100);
+        assertEquals(syncer.getSyncedSequence(), 10);
+
+        syncer.awaitSynced(12);
+        assertEquals(syncer.getSyncedSequence(), 12);
+        assertEquals(first.syncs.get(), 1);
+
+        // already synced writes do not sync again
+        syncer.awaitSynced(11);
+        assertEquals(first.syncs.get(), 1);
+    }
+
+    @Test
+    public void testSyncAfterBytes()
+            throws Exception
+    {
+        syncer = new LogSyncer(first, 0, 0, 1000);
+        syncer.written(1, 600);
+        assertEquals(first.syncs.get(), 0);
+        syncer.written(2, 600);
+        waitForSyncedSequence(2);
+        assertEquals(first.syncs.get(), 1);
+    }
+
+    @Test
+    public void testSyncAfterInterval()
+            throws Exception
+    {
+        syncer = new LogSyncer(first, 0, 10, 0);
+        syncer.written(1, 10);
+        waitForSyncedSequence(1);
+        assertTrue(first.syncs.get() >= 1);
+    }
+
+    @Test
+    public void testSetLogSyncsPreviousLog()
+            throws Exception
+    {
+        syncer = new LogSyncer(first, 0, 0, 0);
+        syncer.written(5, 10);
+        syncer.setLog(second);
+        assertEquals(first.syncs.get(), 1);
+        assertEquals(syncer.getSyncedSequence(), 5);
+
+        syncer.written(6, 10);
+        syncer.awaitSynced(6);
+        assertEquals(first.syncs.get(), 1);
+        assertEquals(second.syncs.get(), 1);
+    }
+
+    @Test
+    public void testSyncMappedLogAcrossWindows()
+            throws Exception
+    {
+        MMapLogWriter log = new MMapLogWriter(File.createTempFile("mapped", ".log"), 3);
+        try {
+            // the records fill several 1MB mapping windows, which are unmapped as the log grows
+            List<Slice> records = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                byte[] bytes = new byte[700 * 1024];
+                Arrays.fill(bytes, (byte) i);
+                Slice record = new Slice(bytes);
+                records.add(record);
+                log.addRecord(record, false);
+            }
+            syncer = new LogSyncer(log, 0, 0, 1);
+
+            // the sync forces the whole file without waiting for appends to the log
+            synchronized (log) {
+                syncer.written(3, 3 * 700 * 1024);
+                waitForSyncedSequence(3);
+            }
+            syncer.close();
+            syncer = null;
+            log.close();
+
+            try (FileInputStream fis = new FileInputStream(log.getFile());
+                    FileChannel channel = fis.getChannel()) {
+                LogReader reader = new LogReader(channel, LogMonitors.throwExceptionMonitor(), true, 0);
+                for (Slice record : records) {
+                    assertEquals(reader.readRecord(), record);
+                }
+                assertNull(reader.readRecord());
+            }
+        }
+        finally {
+            log.delete();
+        }
+    }
+
+    private void waitForSyncedSequence(long sequence)
+            throws InterruptedException
+    {
+        long deadline = System.nanoTime() + SECONDS.toNanos(10);
+        while (syncer.getSyncedSequence() < sequence && System.nanoTime() < deadline) {
+            MILLISECONDS.sleep(1);
+        }
+        assertEquals(syncer.getSyncedSequence(), sequence);
+    }
+
+    private static class CountingLogWriter
+            extends FileChannelLogWriter
+    {
+        private final AtomicInteger syncs = new AtomicInteger();
+
+        public CountingLogWriter(File file, long fileNumber)
+                throws IOException
+        {
+            super(file, fileNumber);
+        }
+
+        @Override
+        public void sync()
+                throws IOException
+        {
+            syncs.incrementAndGet();
+            super.sync();
+        }
+    }
+}
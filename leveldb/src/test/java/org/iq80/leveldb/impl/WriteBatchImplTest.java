@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class WriteBatchImplTest
+{
+    @Test
+    public void testEmptyBatch()
+    {
+        WriteBatchImpl batch = new WriteBatchImpl();
+        assertEquals(batch.size(), 0);
+        assertEquals(batch.getRecord().length(), WriteBatchImpl.HEADER_SIZE);
+        assertEquals(contents(batch), asList());
+    }
+
+    @Test
+    public void testRecordRoundTrip()
+    {
+        WriteBatchImpl batch = new WriteBatchImpl()
+                .put(slice("foo"), slice("bar"))
+                .delete(slice("box"))
+                .put(slice("baz"), slice("boo"))
+                .deleteRange(slice("c"), slice("d"));
+        batch.setSequence(100);
+
+        // the encoded record must decode to the same batch without re-encoding
+        WriteBatchImpl decoded = new WriteBatchImpl(Slices.copiedBuffer(batch.getRecord().toByteBuffer()));
+        assertEquals(decoded.getSequence(), 100);
+        assertEquals(decoded.size(), 4);
+        assertEquals(contents(decoded), asList("Put(foo, bar)", "Delete(box)", "Put(baz, boo)", "DeleteRange(c, d)"));
+    }
+
+    @Test
+    public void testAppend()
+    {
+        WriteBatchImpl first = new WriteBatchImpl();
+        first.setSequence(200);
+        WriteBatchImpl second = new WriteBatchImpl();
+
+        first.append(second);
+        assertEquals(contents(first), asList());
+
+        second.put(slice("a"), slice("va"));
+        first.append(second);
+        assertEquals(contents(first), asList("Put(a, va)"));
+
+        second.delete(slice("foo"));
+        first.append(second);
+        assertEquals(first.size(), 3);
+        assertEquals(first.getSequence(), 200);
+        assertEquals(contents(first), asList("Put(a, va)", "Put(a, va)", "Delete(foo)"));
+    }
+
+    @Test
+    public void testMerge()
+    {
+        WriteBatchImpl batch = new WriteBatchImpl().put(slice("a"), slice("1"));
+        assertFalse(batch.hasMerge());
+
+        batch.merge(slice("a"), slice("2"));
+        assertTrue(batch.hasMerge());
+        assertTrue(new WriteBatchImpl().append(batch).hasMerge());
+
+        WriteBatchImpl decoded = new WriteBatchImpl(Slices.copiedBuffer(batch.getRecord().toByteBuffer()));
+        assertEquals(contents(decoded), asList("Put(a, 1)", "Merge(a, 2)"));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testCorruptCount()
+    {
+        Slice record = new WriteBatchImpl().put(slice("foo"), slice("bar")).getRecord();
+        record.setInt(8, 2);
+        new WriteBatchImpl(record).forEach(new RecordingHandler());
+    }
+
+    private static List<String> contents(WriteBatchImpl batch)
+    {
+        RecordingHandler handler = new RecordingHandler();
+        batch.forEach(handler);
+        return handler.entries;
+    }
+
+    private static Slice slice(String value)
+    {
+        return Slices.copiedBuffer(value, UTF_8);
+    }
+
+    private static class RecordingHandler
+            implements WriteBatchImpl.Handler
+    {
+        private final List<String> entries = new ArrayList<>();
+
+        @Override
+        public void put(Slice key, Slice value)
+        {
+            entries.add("Put(" + key.toString(UTF_8) + ", " + value.toString(UTF_8) + ")");
+        }
+
+        @Override
+        public void delete(Slice key)
+        {
+            entries.add("Delete(" + key.toString(UTF_8) + ")");
+        }
+
+        @Override
+        public void merge(Slice key, Slice value)
+        {
+            entries.add("Merge(" + key.toString(UTF_8) + ", " + value.toString(UTF_8) + ")");
+        }
+
+        @Override
+        public void deleteRange(Slice begin, Slice end)
+        {
+            entries.add("DeleteRange(" + begin.toString(UTF_8) + ", " + end.toString(UTF_8) + ")");
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.Slice;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class BlockCacheTest
+{
+    private static final int BLOCK_SIZE = 1000;
+
+    @Test
+    public void testLookupAndInsert()
+    {
+        BlockCache cache = new BlockCache(1024 * 1024, 0, 0.5);
+        Block block = createBlock(BLOCK_SIZE);
+
+        assertNull(cache.lookup(1, 0));
+        BlockCache.Handle handle = cache.insert(1, 0, block, false);
+        assertTrue(handle.isCached());
+        handle.release();
+        assertSame(lookupBlock(cache, 1, 0), block);
+
+        // blocks are keyed by both file number and offset
+        assertNull(cache.lookup(2, 0));
+        assertNull(cache.lookup(1, 100));
+
+        // a second insert of the same block returns the cached one
+        handle = cache.insert(1, 0, createBlock(BLOCK_SIZE), false);
+        assertSame(handle.getBlock(), block);
+        handle.release();
+
+        BlockCache.ShardStats stats = cache.getShardStats().get(0);
+        assertEquals(stats.getHits(), 1);
+        assertEquals(stats.getMisses(), 3);
+        assertEquals(stats.getUsage(), block.size());
+    }
+
+    @Test
+    public void testStrictCapacity()
+    {
+        long capacity = 10 * BLOCK_SIZE;
+        BlockCache cache = new BlockCache(capacity, 0, 0);
+
+        for (int i = 0; i < 100; i++) {
+            cache.insert(1, i * BLOCK_SIZE, createBlock(BLOCK_SIZE), false).release();
+            assertTrue(cache.getUsage() <= capacity, "usage " + cache.getUsage());
+        }
+        assertNull(cache.lookup(1, 0));
+        assertNotNull(lookupBlock(cache, 1, 99 * BLOCK_SIZE));
+        assertEquals(cache.getShardStats().get(0).getEvictions(), 90);
+
+        // a block larger than the whole cache is returned uncached
+        BlockCache.Handle handle = cache.insert(2, 0, createBlock((int) capacity * 2), false);
+        assertFalse(handle.isCached());
+        handle.release();
+    }
+
+    @Test
+    public void testPinnedBlocksAreNotEvicted()
+    {
+        BlockCache cache = new BlockCache(10 * BLOCK_SIZE, 0, 0);
+
+        List<BlockCache.Handle> pinned = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            pinned.add(cache.insert(1, i * BLOCK_SIZE, createBlock(BLOCK_SIZE), false));
+        }
+
+        // every cached block is pinned, so nothing can be evicted to make room
+        BlockCache.Handle handle = cache.insert(1, 10 * BLOCK_SIZE, createBlock(BLOCK_SIZE), false);
+        assertFalse(handle.isCached());
+        handle.release();
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(lookupBlock(cache, 1, i * BLOCK_SIZE));
+        }
+
+        // once released the blocks can be evicted again
+        for (BlockCache.Handle pin : pinned) {
+            pin.release();
+        }
+        handle = cache.insert(1, 10 * BLOCK_SIZE, createBlock(BLOCK_SIZE), false);
+        assertTrue(handle.isCached());
+        handle.release();
+    }
+
+    @Test
+    public void testHighPriorityPool()
+    {
+        BlockCache cache = new BlockCache(10 * BLOCK_SIZE, 0, 0.5);
+        for (int i = 0; i < 5; i++) {
+            cache.insert(1, i * BLOCK_SIZE, createBlock(BLOCK_SIZE), true).release();
+        }
+
+        // low priority blocks only evict each other while the high priority pool is within its share
+        for (int i = 0; i < 100; i++) {
+            cache.insert(2, i * BLOCK_SIZE, createBlock(BLOCK_SIZE), false).release();
+        }
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(lookupBlock(cache, 1, i * BLOCK_SIZE));
+        }
+    }
+
+    @Test
+    public void testConcurrentAccess()
+            throws Exception
+    {
+        final BlockCache cache = new BlockCache(64 * BLOCK_SIZE, 2, 0.5);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                futures.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                    {
+                        for (int i = 0; i < 10000; i++) {
+                            long offset = (i * 31 % 200) * BLOCK_SIZE;
+                            BlockCache.Handle handle = cache.lookup(1, offset);
+                            if (handle == null) {
+                                handle = cache.insert(1, offset, createBlock(BLOCK_SIZE), i % 10 == 0);
+                            }
+                            assertEquals(handle.getBlock().size(), BLOCK_SIZE);
+                            handle.release();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        assertTrue(cache.getUsage() <= 64 * BLOCK_SIZE);
+    }
+
+    private static Block lookupBlock(BlockCache cache, long fileNumber, long offset)
+    {
+        BlockCache.Handle handle = cache.lookup(fileNumber, offset);
+        if (handle == null) {
+            return null;
+        }
+        Block block = handle.getBlock();
+        handle.release();
+        return block;
+    }
+
+    private static Block createBlock(int size)
+    {
+        // one entry with a one byte key and a value of at least 128 bytes: four header bytes,
+        // the key, one restart position and the restart count
+        BlockBuilder builder = new BlockBuilder(size, 16, new BytewiseComparator());
+        builder.add(new Slice(new byte[] {'k'}), new Slice(size - 4 - 1 - 8));
+        return new Block(builder.finish(), new BytewiseComparator());
+    }
+}
@@ -21,11 +21,13 @@ import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
 import org.testng.annotations.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 
 import static java.util.Arrays.asList;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 public class BlockTest
 {
@@ -121,16 +123,37 @@ public class BlockTest
 
         Block block = new Block(blockSlice, new BytewiseComparator());
         assertEquals(block.size(), BlockHelper.estimateBlockSize(blockRestartInterval, entries));
+        assertBlock(block, entries);
+
+        // the same block read in place from memory outside the heap
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(blockSlice.length());
+        directBuffer.put(blockSlice.toByteBuffer());
+        directBuffer.flip();
+        Block directBlock = new Block(directBuffer, new BytewiseComparator());
+        assertTrue(directBlock.isDirect());
+        assertEquals(directBlock.size(), block.size());
+        assertBlock(directBlock, entries);
+    }
 
+    private static void assertBlock(Block block, List<BlockEntry> entries)
+    {
         BlockIterator blockIterator = block.iterator();
         BlockHelper.assertSequence(blockIterator, entries);
 
         blockIterator.seekToFirst();
         BlockHelper.assertSequence(blockIterator, entries);
 
+        // backward from the end, and forward again from the beginning
+        BlockHelper.assertReverseSequence(blockIterator, entries);
+        blockIterator.seekToLast();
+        BlockHelper.assertReverseSequence(blockIterator, entries);
+        BlockHelper.assertSequence(blockIterator, entries);
+
         for (BlockEntry entry : entries) {
             List<BlockEntry> nextEntries = entries.subList(entries.indexOf(entry), entries.size());
             blockIterator.seek(entry.getKey());
+            BlockHelper.assertReverseSequence(blockIterator, entries.subList(0, entries.indexOf(entry)));
+            blockIterator.seek(entry.getKey());
             BlockHelper.assertSequence(blockIterator, nextEntries);
 
             blockIterator.seek(BlockHelper.before(entry));
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import com.google.common.collect.ImmutableList;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class FilterBlockTest
+{
+    private final BloomFilterPolicy policy = new BloomFilterPolicy(10);
+
+    @Test
+    public void testEmptyBuilder()
+    {
+        Slice block = new FilterBlockBuilder(policy).finish();
+        // just the offset array start and the base lg
+        assertEquals(block.length(), 5);
+
+        FilterBlockReader reader = new FilterBlockReader(policy, block);
+        assertTrue(reader.keyMayMatch(0, key("foo")));
+        assertTrue(reader.keyMayMatch(100000, key("foo")));
+    }
+
+    @Test
+    public void testSingleChunk()
+    {
+        FilterBlockBuilder builder = new FilterBlockBuilder(policy);
+        builder.startBlock(100);
+        builder.addKey(key("foo"));
+        builder.addKey(key("bar"));
+        builder.addKey(key("box"));
+        builder.startBlock(200);
+        builder.addKey(key("box"));
+        builder.startBlock(300);
+        builder.addKey(key("hello"));
+
+        FilterBlockReader reader = new FilterBlockReader(policy, builder.finish());
+        assertTrue(reader.keyMayMatch(100, key("foo")));
+        assertTrue(reader.keyMayMatch(100, key("bar")));
+        assertTrue(reader.keyMayMatch(100, key("box")));
+        assertTrue(reader.keyMayMatch(100, key("hello")));
+        assertFalse(reader.keyMayMatch(100, key("missing")));
+        assertFalse(reader.keyMayMatch(100, key("other")));
+    }
+
+    @Test
+    public void testMultiChunk()
+    {
+        FilterBlockBuilder builder = new FilterBlockBuilder(policy);
+
+        // first filter
+        builder.startBlock(0);
+        builder.addKey(key("foo"));
+        builder.startBlock(2000);
+        builder.addKey(key("bar"));
+
+        // second filter
+        builder.startBlock(3100);
+        builder.addKey(key("box"));
+
+        // third filter is empty
+
+        // last filter
+        builder.startBlock(9000);
+        builder.addKey(key("box"));
+        builder.addKey(key("hello"));
+
+        FilterBlockReader reader = new FilterBlockReader(policy, builder.finish());
+
+        assertTrue(reader.keyMayMatch(0, key("foo")));
+        assertTrue(reader.keyMayMatch(2000, key("bar")));
+        assertFalse(reader.keyMayMatch(0, key("box")));
+        assertFalse(reader.keyMayMatch(0, key("hello")));
+
+        assertTrue(reader.keyMayMatch(3100, key("box")));
+        assertFalse(reader.keyMayMatch(3100, key("foo")));
+        assertFalse(reader.keyMayMatch(3100, key("bar")));
+        assertFalse(reader.keyMayMatch(3100, key("hello")));
+
+        assertFalse(reader.keyMayMatch(4100, key("foo")));
+        assertFalse(reader.keyMayMatch(4100, key("box")));
+
+        assertTrue(reader.keyMayMatch(9000, key("box")));
+        assertTrue(reader.keyMayMatch(9000, key("hello")));
+        assertFalse(reader.keyMayMatch(9000, key("foo")));
+        assertFalse(reader.keyMayMatch(9000, key("bar")));
+    }
+
+    @Test
+    public void testBloomFalsePositiveRate()
+    {
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            keys.add(("key" + i).getBytes(UTF_8));
+        }
+        byte[] filter = policy.createFilter(keys);
+        for (byte[] key : keys) {
+            assertTrue(policy.keyMayMatch(key, filter));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (policy.keyMayMatch(("missing" + i).getBytes(UTF_8), filter)) {
+                falsePositives++;
+            }
+        }
+        // about 1% with 10 bits per key
+        assertTrue(falsePositives < 200, "false positives " + falsePositives);
+    }
+
+    @Test
+    public void testSmallFilter()
+    {
+        byte[] filter = policy.createFilter(ImmutableList.of("hello".getBytes(UTF_8), "world".getBytes(UTF_8)));
+        assertTrue(policy.keyMayMatch("hello".getBytes(UTF_8), filter));
+        assertTrue(policy.keyMayMatch("world".getBytes(UTF_8), filter));
+        assertFalse(policy.keyMayMatch("x".getBytes(UTF_8), filter));
+        assertFalse(policy.keyMayMatch("foo".getBytes(UTF_8), filter));
+    }
+
+    private static Slice key(String value)
+    {
+        return Slices.copiedBuffer(value, UTF_8);
+    }
+}
@@ -17,11 +17,16 @@
  */
 package org.iq80.leveldb.table;
 
+import com.google.common.base.Strings;
+import com.google.common.primitives.Bytes;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
 import org.iq80.leveldb.Options;
 import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.util.Closeables;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
+import org.iq80.leveldb.util.TableIterator;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -29,14 +34,22 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
+import static org.iq80.leveldb.CompressionType.NONE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 public abstract class TableTest
 {
@@ -105,6 +118,105 @@ public abstract class TableTest
         tableTest(BlockHelper.estimateBlockSize(Integer.MAX_VALUE, entries) / 3, Integer.MAX_VALUE, entries);
     }
 
+    @Test
+    public void testCorruptBlock()
+            throws Exception
+    {
+        reopenFile();
+        TableBuilder builder = new TableBuilder(new Options().compressionType(NONE), fileChannel, new BytewiseComparator());
+        builder.add(BlockHelper.createBlockEntry("beer", "Lagunitas IPA"));
+        builder.finish();
+
+        // change the first byte of the value in the only data block
+        fileChannel.write(ByteBuffer.wrap("l".getBytes(UTF_8)), 7);
+
+        // the damage goes unnoticed without checksums
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), false);
+        assertEquals(table.iterator().next().getValue().toString(UTF_8), "lagunitas IPA");
+
+        table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true);
+        try {
+            table.iterator().next();
+            fail("expected checksum mismatch");
+        }
+        catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Block corrupted"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testLongSequentialScan()
+            throws Exception
+    {
+        // enough small blocks for the scan to move through several readahead windows
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%08d", i), Strings.repeat("v", i % 200)));
+        }
+
+        reopenFile();
+        TableBuilder builder = new TableBuilder(new Options().blockSize(512).compressionType(NONE), fileChannel, new BytewiseComparator());
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true);
+        TableIterator iterator = table.iterator();
+        BlockHelper.assertSequence(iterator, entries);
+
+        // a seek restarts sequential detection
+        iterator.seek(entries.get(12345).getKey());
+        BlockHelper.assertSequence(iterator, entries.subList(12345, entries.size()));
+        iterator.close();
+    }
+
+    @Test
+    public void testLearnedIndex()
+            throws Exception
+    {
+        // numeric keys with uneven gaps, followed by keys sharing their leading eight bytes
+        // that the model cannot tell apart, so lookups there fall back to the index block
+        List<BlockEntry> entries = new ArrayList<>();
+        long number = 0;
+        for (int i = 0; i < 3000; i++) {
+            number += i % 100 == 0 ? 1000000 : 1 + i % 7;
+            entries.add(new BlockEntry(Slices.wrappedBuffer(Longs.toByteArray(number)), Slices.copiedBuffer("v" + i, UTF_8)));
+        }
+        for (int i = 0; i < 1000; i++) {
+            byte[] key = Bytes.concat(Longs.toByteArray(number + 1), Ints.toByteArray(i));
+            entries.add(new BlockEntry(Slices.wrappedBuffer(key), Slices.copiedBuffer("w" + i, UTF_8)));
+        }
+
+        reopenFile();
+        TableBuilder builder = new TableBuilder(new Options().blockSize(256).compressionType(NONE), fileChannel, new BytewiseComparator(), null, new LearnedIndex.Builder(0, 2));
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true);
+        assertNotNull(table.getMetaBlock(TableBuilder.LEARNED_INDEX_BLOCK));
+
+        TableIterator iterator = table.iterator();
+        for (int i = 0; i < entries.size(); i++) {
+            BlockEntry entry = entries.get(i);
+            iterator.seek(entry.getKey());
+            assertEquals(iterator.peek(), entry);
+            // the smallest key after the entry
+            iterator.seek(Slices.wrappedBuffer(Bytes.concat(entry.getKey().getBytes(), new byte[1])));
+            if (i + 1 < entries.size()) {
+                assertEquals(iterator.peek(), entries.get(i + 1));
+            }
+            else {
+                assertFalse(iterator.hasNext());
+            }
+        }
+        iterator.seek(Slices.wrappedBuffer(new byte[] {0}));
+        assertEquals(iterator.peek(), entries.get(0));
+        iterator.close();
+    }
+
     private void tableTest(int blockSize, int blockRestartInterval, BlockEntry... entries)
             throws IOException
     {
@@ -131,10 +243,18 @@ public abstract class TableTest
         seekingIterator.seekToFirst();
         BlockHelper.assertSequence(seekingIterator, entries);
 
+        // backward from the end, and forward again from the beginning
+        BlockHelper.assertReverseSequence(seekingIterator, entries);
+        seekingIterator.seekToLast();
+        BlockHelper.assertReverseSequence(seekingIterator, entries);
+        BlockHelper.assertSequence(seekingIterator, entries);
+
         long lastApproximateOffset = 0;
         for (BlockEntry entry : entries) {
             List<BlockEntry> nextEntries = entries.subList(entries.indexOf(entry), entries.size());
             seekingIterator.seek(entry.getKey());
+            BlockHelper.assertReverseSequence(seekingIterator, entries.subList(0, entries.indexOf(entry)));
+            seekingIterator.seek(entry.getKey());
             BlockHelper.assertSequence(seekingIterator, nextEntries);
 
             seekingIterator.seek(BlockHelper.before(entry));
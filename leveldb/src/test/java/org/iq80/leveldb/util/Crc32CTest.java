@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.util;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.testng.Assert.assertEquals;
+
+public class Crc32CTest
+{
+    @Test
+    public void testMatchesPureJavaCrc32C()
+    {
+        byte[] data = new byte[10000];
+        new Random(42).nextBytes(data);
+        for (int length : new int[] {0, 1, 7, 32, 4096, 10000}) {
+            PureJavaCrc32C expected = new PureJavaCrc32C();
+            expected.update(data, 0, length);
+
+            Checksum checksum = Crc32C.newChecksum();
+            checksum.update(data, 0, length);
+            assertEquals(Crc32C.getMaskedValue(checksum), expected.getMaskedValue());
+
+            // heap and direct buffers give the same checksum, and their positions are not changed
+            ByteBuffer heap = ByteBuffer.wrap(data, 0, length);
+            ByteBuffer direct = ByteBuffer.allocateDirect(length);
+            direct.put(heap.duplicate());
+            direct.flip();
+            for (ByteBuffer buffer : new ByteBuffer[] {heap, direct}) {
+                checksum = Crc32C.newChecksum();
+                Crc32C.update(checksum, buffer);
+                assertEquals(Crc32C.getMaskedValue(checksum), expected.getMaskedValue());
+                assertEquals(buffer.remaining(), length);
+
+                PureJavaCrc32C pure = new PureJavaCrc32C();
+                Crc32C.update(pure, buffer);
+                assertEquals(pure.getMaskedValue(), expected.getMaskedValue());
+            }
+        }
+    }
+
+    @Test
+    public void testComposes()
+    {
+        Checksum checksum = Crc32C.newChecksum();
+        checksum.update("hello ".getBytes(US_ASCII), 0, 6);
+        checksum.update("world".getBytes(US_ASCII), 0, 5);
+
+        PureJavaCrc32C expected = new PureJavaCrc32C();
+        expected.update("hello world".getBytes(US_ASCII), 0, 11);
+        assertEquals(Crc32C.getMaskedValue(checksum), expected.getMaskedValue());
+    }
+}